@@ -0,0 +1,140 @@
+package com.example.android.quakereport;
+
+import android.app.LoaderManager.LoaderCallbacks;
+import android.content.Context;
+import android.content.Intent;
+import android.content.Loader;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/*
+* Shows one earthquake: what the list already knew about it straight away, then the details
+* only its "detail" GeoJSON has (depth, felt reports, intensity, PAGER alert and tsunami flag)
+* once they have been loaded, which is instantly if they were prefetched. The page of the
+* earthquake on the USGS website is one click away
+*/
+public class DetailActivity extends AppCompatActivity implements LoaderCallbacks<EarthquakeDetail> {
+
+    /* Intent extras with the earthquake to show */
+    public static final String EXTRA_EVENT_ID = "com.example.android.quakereport.EVENT_ID";
+    public static final String EXTRA_DETAIL_URL = "com.example.android.quakereport.DETAIL_URL";
+    public static final String EXTRA_URL = "com.example.android.quakereport.URL";
+    public static final String EXTRA_MAGNITUDE = "com.example.android.quakereport.MAGNITUDE";
+    public static final String EXTRA_LOCATION = "com.example.android.quakereport.LOCATION";
+    public static final String EXTRA_TIME = "com.example.android.quakereport.TIME";
+
+    /* Constant value for the detail loader ID */
+    private static final int DETAIL_LOADER_ID = 1;
+
+    /*
+    * Return an intent that shows the earthquake at the given index of a store
+    *
+    * @param requestUrl the query the earthquake was loaded with, its details are fetched from
+    *                   the same server
+    */
+    public static Intent newIntent(Context context, EarthquakeStore store,
+                                   int index, String requestUrl) {
+        Intent intent = new Intent(context, DetailActivity.class);
+        intent.putExtra(EXTRA_EVENT_ID, store.getId(index));
+        intent.putExtra(EXTRA_DETAIL_URL,
+                QueryUtils.buildDetailUrl(requestUrl, store.getId(index)));
+        intent.putExtra(EXTRA_URL, store.getUrl(index));
+        intent.putExtra(EXTRA_MAGNITUDE, store.getMagnitude(index));
+        intent.putExtra(EXTRA_LOCATION, store.getLocation(index));
+        intent.putExtra(EXTRA_TIME, store.getTimeInMilliSeconds(index));
+        return intent;
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.detail_activity);
+
+        // Show what the list knew about the earthquake, it does not need to be loaded
+        Intent intent = getIntent();
+        TextView magnitudeTextView = (TextView) findViewById(R.id.detail_magnitude_text_view);
+        magnitudeTextView.setText(getString(R.string.detail_magnitude,
+                intent.getDoubleExtra(EXTRA_MAGNITUDE, 0)));
+        TextView locationTextView = (TextView) findViewById(R.id.detail_location_text_view);
+        locationTextView.setText(intent.getStringExtra(EXTRA_LOCATION));
+        TextView timeTextView = (TextView) findViewById(R.id.detail_time_text_view);
+        SimpleDateFormat timeFormat = new SimpleDateFormat("MMM d, yyyy h:mm a");
+        timeTextView.setText(timeFormat.format(new Date(intent.getLongExtra(EXTRA_TIME, 0))));
+
+        // Open the page of the earthquake on the USGS website, as the list used to
+        final String url = intent.getStringExtra(EXTRA_URL);
+        Button websiteButton = (Button) findViewById(R.id.detail_website_button);
+        websiteButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(url)));
+            }
+        });
+
+        getLoaderManager().initLoader(DETAIL_LOADER_ID, null, this);
+    }
+
+    @Override
+    public Loader<EarthquakeDetail> onCreateLoader(int i, Bundle bundle) {
+        return new DetailLoader(this, getIntent().getStringExtra(EXTRA_EVENT_ID),
+                getIntent().getStringExtra(EXTRA_DETAIL_URL));
+    }
+
+    @Override
+    public void onLoadFinished(Loader<EarthquakeDetail> loader, EarthquakeDetail detail) {
+        // Set the ProgressBar to invisible when the details have been loaded
+        findViewById(R.id.progress_bar).setVisibility(View.GONE);
+        if (detail == null) {
+            TextView emptyTextView = (TextView) findViewById(R.id.empty_view);
+            emptyTextView.setText(R.string.detail_unavailable);
+            emptyTextView.setVisibility(View.VISIBLE);
+            return;
+        }
+
+        showDetail(R.id.detail_depth_text_view, Double.isNaN(detail.getDepthKm()) ? null
+                : getString(R.string.detail_depth, detail.getDepthKm()));
+        showDetail(R.id.detail_felt_text_view, detail.getFeltReports() < 0 ? null
+                : getString(R.string.detail_felt, detail.getFeltReports()));
+        showDetail(R.id.detail_intensity_text_view, formatIntensity(detail));
+        showDetail(R.id.detail_alert_text_view, detail.getAlertLevel() == null ? null
+                : getString(R.string.detail_alert, detail.getAlertLevel()));
+        showDetail(R.id.detail_tsunami_text_view, detail.isTsunami()
+                ? getString(R.string.detail_tsunami) : null);
+        showDetail(R.id.detail_status_text_view,
+                detail.getMagnitudeType() == null || detail.getReviewStatus() == null ? null
+                        : getString(R.string.detail_status, detail.getMagnitudeType(),
+                        detail.getReviewStatus()));
+    }
+
+    @Override
+    public void onLoaderReset(Loader<EarthquakeDetail> loader) {
+    }
+
+    // Show a line of the details, or hide it if the detail is not known
+    private void showDetail(int textViewId, String text) {
+        TextView textView = (TextView) findViewById(textViewId);
+        textView.setVisibility(text == null ? View.GONE : View.VISIBLE);
+        textView.setText(text);
+    }
+
+    // Return the reported and measured intensity, whichever are known, or null
+    private String formatIntensity(EarthquakeDetail detail) {
+        double reported = detail.getCommunityIntensity();
+        double measured = detail.getInstrumentalIntensity();
+        if (!Double.isNaN(reported) && !Double.isNaN(measured)) {
+            return getString(R.string.detail_intensity, reported, measured);
+        } else if (!Double.isNaN(reported)) {
+            return getString(R.string.detail_intensity_reported, reported);
+        } else if (!Double.isNaN(measured)) {
+            return getString(R.string.detail_intensity_measured, measured);
+        }
+        return null;
+    }
+}
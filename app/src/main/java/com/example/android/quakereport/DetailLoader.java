@@ -0,0 +1,62 @@
+package com.example.android.quakereport;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+/*
+* Loads the details of one earthquake through {@link EarthquakeDetails}, so details that were
+* prefetched while the list was scrolled are shown without waiting
+*/
+public class DetailLoader extends AsyncTaskLoader<EarthquakeDetail> {
+    // USGS event id
+    private String mEventId;
+
+    // Detail GeoJSON URL of the event
+    private String mDetailUrl;
+
+    // The details loaded, kept so they survive configuration changes of the activity
+    private EarthquakeDetail mDetail;
+
+    /*
+    Constructs a new DetailLoader
+    *
+    * @param context of the activity
+    * @param eventId of the earthquake
+    * @param detailUrl of the earthquake, see {@link QueryUtils#buildDetailUrl(String, String)}
+    */
+    public DetailLoader(Context context, String eventId, String detailUrl) {
+        super(context);
+        mEventId = eventId;
+        mDetailUrl = detailUrl;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        // Details already in memory are delivered straight away, without a background thread
+        if (mDetail == null && mEventId != null) {
+            mDetail = EarthquakeDetails.getInstance().peek(mEventId);
+        }
+        if (mDetail != null) {
+            deliverResult(mDetail);
+        } else {
+            forceLoad();
+        }
+    }
+
+    /*
+    * This is on a background thread
+    */
+    @Override
+    public EarthquakeDetail loadInBackground() {
+        if (mEventId == null || mDetailUrl == null) {
+            return null;
+        }
+        return EarthquakeDetails.getInstance().get(mEventId, mDetailUrl);
+    }
+
+    @Override
+    public void deliverResult(EarthquakeDetail detail) {
+        mDetail = detail;
+        super.deliverResult(detail);
+    }
+}
@@ -1,16 +1,70 @@
 package com.example.android.quakereport;
 
 public class Earthquake {
+    private String mId;
     private double mMagnitude;
-    private String mLocation;
+    // The location split into its offset (i.e. "75 km NE of ", empty if there is none) and its
+    // primary location (i.e. "Montreal, Canada"), both shared through the LocationPool
+    private String mOffsetLocation;
+    private String mPrimaryLocation;
     private long mDate;
+    private long mUpdated;
     private String mUrl;
+    private double mLatitude;
+    private double mLongitude;
 
     public Earthquake (double magnitude, String location, long timeInMilliSeconds, String url) {
+        this(null, magnitude, location, timeInMilliSeconds, url);
+    }
+
+    public Earthquake (String id, double magnitude, String location, long timeInMilliSeconds,
+                       String url) {
+        this(id, magnitude, location, timeInMilliSeconds, 0, url);
+    }
+
+    public Earthquake (String id, double magnitude, String location, long timeInMilliSeconds,
+                       long updatedInMilliSeconds, String url) {
+        this(id, magnitude, location, timeInMilliSeconds, updatedInMilliSeconds, url, Double.NaN,
+                Double.NaN);
+    }
+
+    public Earthquake (String id, double magnitude, String location, long timeInMilliSeconds,
+                       long updatedInMilliSeconds, String url, double latitude, double longitude) {
+        this(id, magnitude, LocationPool.split(location), timeInMilliSeconds,
+                updatedInMilliSeconds, url, latitude, longitude);
+    }
+
+    private Earthquake (String id, double magnitude, LocationPool.Entry location,
+                        long timeInMilliSeconds, long updatedInMilliSeconds, String url,
+                        double latitude, double longitude) {
+        this(id, magnitude, location.offsetLocation, location.primaryLocation,
+                timeInMilliSeconds, updatedInMilliSeconds, url, latitude, longitude);
+    }
+
+    /*
+    * Constructs an Earthquake whose location has already been split, i.e. by
+    * {@link LocationPool#split(String)}
+    *
+    * @param offsetLocation i.e. "75 km NE of ", or empty if the location has no offset
+    * @param primaryLocation i.e. "Montreal, Canada"
+    */
+    public Earthquake (String id, double magnitude, String offsetLocation, String primaryLocation,
+                       long timeInMilliSeconds, long updatedInMilliSeconds, String url,
+                       double latitude, double longitude) {
+        mId = id;
         mMagnitude = magnitude;
-        mLocation = location;
+        mOffsetLocation = offsetLocation;
+        mPrimaryLocation = primaryLocation;
         mDate = timeInMilliSeconds;
+        mUpdated = updatedInMilliSeconds;
         mUrl = url;
+        mLatitude = latitude;
+        mLongitude = longitude;
+    }
+
+    /* USGS event id (i.e. "us10004u1y"), or null if it is not known */
+    public String getId() {
+        return mId;
     }
 
     public double getMagnitude() {
@@ -21,12 +75,38 @@ public class Earthquake {
         return mDate;
     }
 
+    /* Time USGS last updated the event, or 0 if it is not known */
+    public long getUpdatedInMilliSeconds() {
+        return mUpdated;
+    }
+
+    /* The whole location, i.e. "75 km NE of Montreal, Canada". Joined from its two parts on
+     * every call */
     public String getLocation() {
-        return mLocation;
+        return mOffsetLocation.isEmpty() ? mPrimaryLocation : mOffsetLocation + mPrimaryLocation;
+    }
+
+    /* Offset part of the location, i.e. "75 km NE of ", or empty if the location has none */
+    public String getOffsetLocation() {
+        return mOffsetLocation;
+    }
+
+    /* Primary part of the location, i.e. "Montreal, Canada" */
+    public String getPrimaryLocation() {
+        return mPrimaryLocation;
     }
 
     public String getUrl() {
         return mUrl;
     }
-}
 
+    /* Latitude of the epicentre in degrees, or NaN if it is not known */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /* Longitude of the epicentre in degrees, or NaN if it is not known */
+    public double getLongitude() {
+        return mLongitude;
+    }
+}
@@ -17,8 +17,10 @@ package com.example.android.quakereport;
 
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.Loader;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
@@ -27,7 +29,11 @@ import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.ProgressBar;
@@ -35,119 +41,485 @@ import android.widget.TextView;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Future;
 
-public class EarthquakeActivity extends AppCompatActivity implements LoaderCallbacks<List<Earthquake>> {
+public class EarthquakeActivity extends AppCompatActivity
+        implements LoaderCallbacks<EarthquakeRows> {
 
     public static final String LOG_TAG = EarthquakeActivity.class.getName();
 
-    private static final String URL = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&starttime=2014-01-01&endtime=2014-12-01&minmagnitude=7";
+    /* The query shown when the app is launched. The USGS one unless the app was built with
+     * another (see QUERY_URL in app/build.gradle), or another was set with
+     * {@link #setDefaultQueryUrl(String)} */
+    private static volatile String sDefaultQueryUrl = BuildConfig.QUERY_URL;
+
+    /* Intent extra with the query to show instead of the default one (i.e. a day of a
+     * summary). It is loaded whole instead of one page at a time */
+    public static final String EXTRA_QUERY_URL = "com.example.android.quakereport.QUERY_URL";
+
+    /* Intent extra with the only primary location to show, i.e. "Fiji region" */
+    public static final String EXTRA_PRIMARY_LOCATION =
+            "com.example.android.quakereport.PRIMARY_LOCATION";
+
+    /* Intent extra with the title of the screen */
+    public static final String EXTRA_TITLE = "com.example.android.quakereport.TITLE";
+
+    /* The query shown */
+    private String mQueryUrl;
 
     private EarthquakeAdapter mAdapter;
 
+    /* The list of earthquakes */
+    private ListView mListView;
+
     /* TextView that is displayed when the list is empty */
     private TextView mEmptyTextView;
 
+    /* Refreshes the earthquakes every so often while the activity is visible */
+    private RefreshScheduler mRefreshScheduler;
+
+    /* Whether there was a network connection, checked the first time it is needed, after
+     * the first rows are shown, and again after every change. Null until then */
+    private Boolean mConnected;
+
+    /* Forgets the connection checked before whenever it changes, and catches up on what was
+     * missed once it comes back. Registered while the activity is visible */
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mConnected = null;
+            // The broadcast handed over on registering is only the state as it was. The loader
+            // catches up by itself when the activity starts, see EarthquakeLoader.onStartLoading()
+            if (isInitialStickyBroadcast() || !isConnected()) {
+                return;
+            }
+            // Prefetch the details that could not be fetched while offline, and sync in what
+            // was missed, or load the earthquakes if none could be loaded
+            mPrefetchedStore = null;
+            int first = mListView.getFirstVisiblePosition();
+            prefetchDetails(first, mListView.getLastVisiblePosition() - first + 1);
+            mRefreshScheduler.refreshNow();
+        }
+    };
+
+    /* The rows the last session ended on, being read. Only the query of the launcher is
+     * snapshotted, and only when the loader is new */
+    private Future<StartupSnapshot> mStartupSnapshot;
+
+    /* When onCreate() started, for the startup trace, or 0 once the first row has been drawn
+     * or if the trace is off */
+    private long mCreateStart;
+
+    /* Whether this is the first time the activity starts in this process */
+    private boolean mColdStart;
+
+    /* Set once an activity has started in this process */
+    private static boolean sStartedBefore;
+
     /* Constant value for the earthquake loader ID.
      * We can use any integer.
      * Only comes into play when using multiple loaders */
     private static final int EARTHQUAKE_LOADER_ID = 1;
 
+    /* Number of earthquakes fetched per page. Small so the first rows show up quickly */
+    private static final int PAGE_SIZE = 20;
+
+    /* Start fetching the next page when the user scrolls this close to the end of the list */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /* Prefetch the details of this many rows above and below the ones on screen */
+    private static final int DETAIL_PREFETCH_ROWS = 5;
+
+    /* Scroll state of the list, details are not prefetched while it is flung */
+    private int mScrollState = AbsListView.OnScrollListener.SCROLL_STATE_IDLE;
+
+    /* The rows the details were last prefetched around, so they are only asked for again
+     * when those change */
+    private EarthquakeStore mPrefetchedStore;
+    private int mPrefetchedFirst;
+    private int mPrefetchedCount;
+
+    /* Log tag of the metrics. Turn them on with
+     * "adb shell setprop log.tag.EarthquakeMetrics DEBUG", they are then logged every time
+     * the activity stops */
+    private static final String METRICS_LOG_TAG = "EarthquakeMetrics";
+
+    /*
+    * Load the list from another server than the one the app was built with, i.e. a local
+    * stand-in of USGS. Takes effect for activities created after the call
+    */
+    public static void setDefaultQueryUrl(String queryUrl) {
+        sDefaultQueryUrl = queryUrl;
+    }
+
+    public static String getDefaultQueryUrl() {
+        return sDefaultQueryUrl;
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        // Trace the time to the first row of a start, not of a configuration change
+        EarthquakeMetrics.setEnabled(Log.isLoggable(METRICS_LOG_TAG, Log.DEBUG));
+        mColdStart = !sStartedBefore;
+        sStartedBefore = true;
+        mCreateStart = savedInstanceState == null ? EarthquakeMetrics.start() : 0;
+
         super.onCreate(savedInstanceState);
+
+        // Show the query we were started with, if any
+        Intent intent = getIntent();
+        mQueryUrl = intent.getStringExtra(EXTRA_QUERY_URL);
+        if (mQueryUrl == null) {
+            mQueryUrl = sDefaultQueryUrl;
+        }
+
+        // Start reading the rows the last session ended on before anything else, so they are
+        // read while the layout is inflated. A loader that survived a configuration change
+        // still has its rows
+        if (intent.getStringExtra(EXTRA_QUERY_URL) == null
+                && getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID) == null) {
+            mStartupSnapshot = StartupSnapshot.readAsync(StartupSnapshot.getFile(this), mQueryUrl);
+        }
+
         setContentView(R.layout.earthquake_activity);
+        if (intent.getStringExtra(EXTRA_TITLE) != null) {
+            setTitle(intent.getStringExtra(EXTRA_TITLE));
+        }
 
         // Find a reference to the {@link ListView} in the layout
         ListView earthquakeListView = (ListView) findViewById(R.id.list);
+        mListView = earthquakeListView;
 
         // Set the empty state TextView onto the ListView
         mEmptyTextView = (TextView) findViewById(R.id.empty_view);
         earthquakeListView.setEmptyView(mEmptyTextView);
 
-        // Create a new adapter for Earthquake objects that takes an empty list as input
-        mAdapter = new EarthquakeAdapter(this, new ArrayList<Earthquake>());
+        // Create a new adapter for Earthquake objects that takes empty rows as input
+        mAdapter = new EarthquakeAdapter(this, EarthquakeRows.EMPTY);
 
         // Set the adapter to the ListView so the list can be populated
         earthquakeListView.setAdapter(mAdapter);
 
         /*// Start the AsyncTask to fetch the earthquake data
         EarthquakeAsyncTask task = new EarthquakeAsyncTask();
-        task.execute(URL);*/
-
-        // Get a reference to the ConnectivityManager to check state of network connectivity
-        // i.e. check if connected to the internet
-        ConnectivityManager cm =
-                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-
-        // Get details on the currently active default data netwok
-        NetworkInfo networkInfo = cm.getActiveNetworkInfo();
-
-        // If there is a network connection, fetch data
-        if (networkInfo != null && networkInfo.isConnected()) {
-
-            // Get a reference to the LoaderManager, in order to interact with loaders.
-            LoaderManager loaderManager = getLoaderManager();
-
-            // Initialise the loader. Pass in the ID constant defined above and pass in null for
-            // the bundle. Pass in the activity for the LoaderCallbacks parameter (which is valid
-            // because this activity implements the LoaderCallbacks interface
-            loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
-        } else {
-            // Otherwise, display error.
-            // First, hide loading indicator so error message will be visible as they both
-            // overlap in the centre of the screen
-            View loadingIndicator = findViewById(R.id.progress_bar);
-            loadingIndicator.setVisibility(View.GONE);
+        task.execute(sDefaultQueryUrl);*/
+
+        // Get a reference to the LoaderManager, in order to interact with loaders.
+        LoaderManager loaderManager = getLoaderManager();
+
+        // Initialise the loader even without a network connection, as it shows the
+        // earthquakes cached by the last session first. Pass in the ID constant defined above
+        // and pass in null for the bundle. Pass in the activity for the LoaderCallbacks
+        // parameter (which is valid because this activity implements the LoaderCallbacks
+        // interface
+        EarthquakeLoader earthquakeLoader = (EarthquakeLoader)
+                loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
+
+        // Sync the loader whenever the scheduler says a refresh is due. A sync asked for while
+        // a load is in flight is skipped, or folded into that load if it is a sync too
+        mRefreshScheduler = new RefreshScheduler(new RefreshScheduler.MainThreadClock(),
+                new Random(), new RefreshScheduler.Callback() {
+                    @Override
+                    public void onRefresh() {
+                        Loader<EarthquakeRows> loader =
+                                getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+                        if (loader != null) {
+                            ((EarthquakeLoader) loader).sync();
+                        } else {
+                            mRefreshScheduler.onRefreshSkipped();
+                        }
+                    }
+                });
+
+        // Tell the scheduler what every sync brought, so it can poll less often when nothing
+        // changes and more often after a strong earthquake. Only syncs count, pages loaded in
+        // the meantime do not. The loader outlives the activity, so the listener is replaced
+        // every time
+        earthquakeLoader.setOnSyncListener(new EarthquakeLoader.OnSyncListener() {
+            @Override
+            public void onSyncFinished(int changes, double largestMagnitude) {
+                mRefreshScheduler.onRefreshed(changes, largestMagnitude);
+            }
 
-            // Update empty state with no connection rror message
-            mEmptyTextView.setText(R.string.no_internet_connection);
-        }
+            @Override
+            public void onSyncSkipped() {
+                mRefreshScheduler.onRefreshSkipped();
+            }
+        });
 
         // Create new clickListener
         earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long l) {
-                // Find the current earthquake that was clicked on
-                Earthquake currentEarthquake = mAdapter.getItem(position);
+                // Show the details of the earthquake that was clicked on. Without an event id
+                // there are none to fetch, so open its page in the browser instead
+                EarthquakeStore store = mAdapter.getRows().getStore();
+                if (store.getId(position) != null) {
+                    startActivity(DetailActivity.newIntent(EarthquakeActivity.this, store,
+                            position, mQueryUrl));
+                    return;
+                }
 
                 // Create a new intent to view the earthquake URL
-                Intent browserIntent = new Intent(Intent.ACTION_VIEW, Uri.parse(currentEarthquake.getUrl()));
+                Intent browserIntent = new Intent(Intent.ACTION_VIEW,
+                        Uri.parse(store.getUrl(position)));
 
                 // Send the intent to launch a new activity
                 startActivity(browserIntent);
             }
         });
+
+        // Prefetch the details of the rows around the ones on screen, and the next page as
+        // the user scrolls near the end of the list
+        earthquakeListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                mScrollState = scrollState;
+                if (scrollState == SCROLL_STATE_IDLE) {
+                    int first = view.getFirstVisiblePosition();
+                    prefetchDetails(first, view.getLastVisiblePosition() - first + 1);
+                }
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                if (mScrollState != SCROLL_STATE_FLING) {
+                    prefetchDetails(firstVisibleItem, visibleItemCount);
+                }
+                if (totalItemCount == 0 || firstVisibleItem + visibleItemCount
+                        < totalItemCount - PREFETCH_DISTANCE) {
+                    return;
+                }
+                Loader<EarthquakeRows> loader = getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+                if (loader != null) {
+                    ((EarthquakeLoader) loader).loadNextPage();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Changes of the connection while stopped were missed, so check it again
+        mConnected = null;
+        registerReceiver(mConnectivityReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        mRefreshScheduler.start();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // No refreshes or prefetches while nothing is shown. The details already fetched
+        // are kept
+        unregisterReceiver(mConnectivityReceiver);
+        mRefreshScheduler.stop();
+        EarthquakeDetails.getInstance().cancelPrefetches();
+        mPrefetchedStore = null;
+        writeStartupSnapshot();
+        if (EarthquakeMetrics.isEnabled()) {
+            Log.d(METRICS_LOG_TAG, EarthquakeMetrics.dump());
+        }
+    }
+
+    /*
+    * Return whether there is a network connection. Checked the first time it is needed, so
+    * the check never holds up the first rows, and again after the connection changed
+    */
+    private boolean isConnected() {
+        if (mConnected == null) {
+            // Get a reference to the ConnectivityManager to check state of network connectivity
+            // i.e. check if connected to the internet
+            ConnectivityManager cm =
+                    (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+
+            // Get details on the currently active default data netwok
+            NetworkInfo networkInfo = cm.getActiveNetworkInfo();
+            mConnected = networkInfo != null && networkInfo.isConnected();
+        }
+        return mConnected;
+    }
+
+    /*
+    * Keep the rows on screen for the next session to start from, see {@link StartupSnapshot}.
+    * Only the query of the launcher is snapshotted
+    */
+    private void writeStartupSnapshot() {
+        EarthquakeStore store = mAdapter.getRows().getStore();
+        if (getIntent().getStringExtra(EXTRA_QUERY_URL) != null || store.isEmpty()) {
+            return;
+        }
+        Loader<EarthquakeRows> loader = getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+        boolean hasMorePages = loader == null || ((EarthquakeLoader) loader).hasMorePages();
+        View firstView = mListView.getChildAt(0);
+        StartupSnapshot.writeAsync(StartupSnapshot.getFile(this), StartupSnapshot.of(mQueryUrl,
+                store, PAGE_SIZE, mListView.getFirstVisiblePosition(),
+                mListView.getLastVisiblePosition(), firstView == null ? 0 : firstView.getTop(),
+                hasMorePages));
+    }
+
+    /*
+    * Record the time from onCreate() to the first row drawn once the list has rows, as
+    * "first row cold" or "first row warm" in {@link EarthquakeMetrics}
+    */
+    private void traceFirstRow(final String source) {
+        if (mCreateStart == 0) {
+            return;
+        }
+        final long createStart = mCreateStart;
+        mCreateStart = 0;
+        ViewTreeObserver observer = mListView.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (mListView.getChildCount() == 0) {
+                    return true;
+                }
+                mListView.getViewTreeObserver().removeOnPreDrawListener(this);
+                long nanos = System.nanoTime() - createStart;
+                EarthquakeMetrics.recordNanos(mColdStart ? EarthquakeMetrics.STAGE_FIRST_ROW_COLD
+                        : EarthquakeMetrics.STAGE_FIRST_ROW_WARM, nanos);
+                Log.d(METRICS_LOG_TAG, String.format(Locale.US, "First row %s in %.1fms, from %s",
+                        mColdStart ? "cold" : "warm", nanos / 1e6, source));
+                return true;
+            }
+        });
+    }
+
+    /*
+    * Prefetch the details of the rows on screen and the DETAIL_PREFETCH_ROWS above and below
+    * them, the ones on screen first and then the ones below, as the list is most often
+    * scrolled down. Prefetches of rows that are no longer around the screen are cancelled
+    */
+    private void prefetchDetails(int firstVisible, int visibleCount) {
+        EarthquakeStore store = mAdapter.getRows().getStore();
+        if (store.isEmpty() || !isConnected() || (store == mPrefetchedStore
+                && firstVisible == mPrefetchedFirst && visibleCount == mPrefetchedCount)) {
+            return;
+        }
+        mPrefetchedStore = store;
+        mPrefetchedFirst = firstVisible;
+        mPrefetchedCount = visibleCount;
+
+        int end = Math.min(store.size(), firstVisible + visibleCount + DETAIL_PREFETCH_ROWS);
+        int start = Math.max(0, firstVisible - DETAIL_PREFETCH_ROWS);
+        List<String> eventIds = new ArrayList<>();
+        List<String> detailUrls = new ArrayList<>();
+        for (int i = Math.max(0, firstVisible); i < end; i++) {
+            addPrefetch(store, i, eventIds, detailUrls);
+        }
+        for (int i = Math.min(firstVisible, end) - 1; i >= start; i--) {
+            addPrefetch(store, i, eventIds, detailUrls);
+        }
+        EarthquakeDetails.getInstance().prefetch(eventIds, detailUrls);
+    }
+
+    private void addPrefetch(EarthquakeStore store, int index, List<String> eventIds,
+                             List<String> detailUrls) {
+        String eventId = store.getId(index);
+        if (eventId != null) {
+            eventIds.add(eventId);
+            detailUrls.add(QueryUtils.buildDetailUrl(mQueryUrl, eventId));
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main, menu);
+        return true;
     }
 
     @Override
-    public Loader<List<Earthquake>> onCreateLoader(int i, Bundle bundle) {
-        // Create a new loader for a given URL
-        return new EarthquakeLoader(this, URL);
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_summary) {
+            // Summarize the query shown, the summary fetches it again without listing it
+            Intent summaryIntent = new Intent(this, SummaryActivity.class);
+            summaryIntent.putExtra(EXTRA_QUERY_URL, mQueryUrl);
+            startActivity(summaryIntent);
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
     }
 
     @Override
-    public void onLoadFinished(Loader<List<Earthquake>> loader, List<Earthquake> earthquakes) {
+    public Loader<EarthquakeRows> onCreateLoader(int i, Bundle bundle) {
+        // Create a new loader for a given URL that loads it one page at a time. A query we
+        // were started with is narrow enough to be loaded whole
+        boolean drillDown = getIntent().getStringExtra(EXTRA_QUERY_URL) != null;
+        EarthquakeLoader loader = new EarthquakeLoader(this, mQueryUrl, drillDown ? 0 : PAGE_SIZE);
+
+        // Start from the rows the last session ended on, if they are being read
+        if (mStartupSnapshot != null) {
+            loader.setStartupSnapshot(mStartupSnapshot);
+            mStartupSnapshot = null;
+        }
+
+        // Only show the earthquakes of one place
+        String primaryLocation = getIntent().getStringExtra(EXTRA_PRIMARY_LOCATION);
+        if (primaryLocation != null) {
+            loader.setFilter(new EarthquakeQuery.Builder()
+                    .primaryLocation(primaryLocation)
+                    .build());
+        }
+        return loader;
+    }
+
+    @Override
+    public void onLoadFinished(Loader<EarthquakeRows> loader, EarthquakeRows earthquakes) {
         // Set the ProgressBar to invisible when the data has been loaded
         View loadingIndicator = findViewById(R.id.progress_bar);
         loadingIndicator.setVisibility(View.GONE);
 
-        // Set the empty state text to display "No earthquakes found"
-        mEmptyTextView.setText(R.string.no_earthquakes);
+        // Set the empty state text to display "No earthquakes found", or the connection
+        // error if nothing was cached and there was no network to fetch from. The connection
+        // is only checked when the list is empty
+        if (earthquakes == null || earthquakes.size() == 0) {
+            mEmptyTextView.setText(isConnected()
+                    ? R.string.no_earthquakes : R.string.no_internet_connection);
+        }
 
-        // Clear the adapter of previous earthquake data
-        mAdapter.clear();
+        // Remember which earthquake is at the top of the list and how far it is scrolled
+        int firstPosition = mListView.getFirstVisiblePosition();
+        View firstView = mListView.getChildAt(0);
+        int firstTop = firstView == null ? 0 : firstView.getTop();
+        EarthquakeStore shown = mAdapter.getRows().getStore();
+
+        // Hand the earthquakes to the adapter. This will trigger the ListView to update, and
+        // as the rows are swapped in one go the list keeps its scroll position when a page
+        // has been appended
+        mAdapter.setRows(earthquakes);
+
+        // The first rows came from the startup snapshot, scroll to where the last session
+        // ended
+        StartupSnapshot restored = ((EarthquakeLoader) loader).takeRestoredSnapshot();
+        if (restored != null && shown.isEmpty()) {
+            mListView.setSelectionFromTop(restored.getFirstPosition(), restored.getFirstTop());
+        }
+        if (earthquakes != null && earthquakes.size() > 0) {
+            traceFirstRow(restored != null ? "snapshot" : "cache or network");
+        }
 
-        // If there is a valid list of Earthquakes then add them to the adapter's
-        // data set. This will trigger the ListView to update
-        if (earthquakes != null && !earthquakes.isEmpty()) {
-            mAdapter.addAll(earthquakes);
-            Log.e("Earthquake Activity", "Eathquakes added");
+        // If earthquakes were inserted or removed above it, scroll so the same earthquake
+        // stays where it was instead of the rows jumping under the user's finger
+        EarthquakeDiff changes = earthquakes == null ? null : earthquakes.getChanges();
+        if (firstView != null && changes != null && changes.getOldStore() == shown
+                && firstPosition < shown.size()) {
+            int newPosition = changes.getNewPosition(firstPosition);
+            if (newPosition >= 0 && newPosition != firstPosition) {
+                mListView.setSelectionFromTop(newPosition, firstTop);
+            }
         }
+
     }
 
     @Override
-    public void onLoaderReset(Loader<List<Earthquake>> loader) {
+    public void onLoaderReset(Loader<EarthquakeRows> loader) {
         // Loader reset, so we can clear out the existing data
+        ((EarthquakeLoader) loader).setOnSyncListener(null);
         mAdapter.clear();
     }
 
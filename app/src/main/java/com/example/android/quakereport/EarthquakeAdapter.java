@@ -5,130 +5,139 @@ import android.support.v4.content.ContextCompat;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.TextView;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.text.DecimalFormat;
 import android.graphics.drawable.GradientDrawable;
 
-import org.w3c.dom.Text;
+public class EarthquakeAdapter extends BaseAdapter {
+    private Context mContext;
 
-import java.util.ArrayList;
-import java.util.List;
+    // The formatted rows to display. Every value a row shows has been prepared off the main
+    // thread, so binding a row only copies them into its views
+    private EarthquakeRows mRows;
 
-public class EarthquakeAdapter extends ArrayAdapter<Earthquake> {
-    private List<Earthquake> earthquakes = new ArrayList<Earthquake>();
+    public EarthquakeAdapter (Context context, EarthquakeRows rows) {
+        mContext = context;
+        mRows = rows;
+    }
+
+    /*
+    * Replace the earthquakes shown by the list. The ListView keeps its scroll position.
+    * If the new rows were built from the ones shown and nothing changed, the list is not told
+    * at all, so no row is bound again
+    */
+    public void setRows(EarthquakeRows rows) {
+        if (rows == null) {
+            rows = EarthquakeRows.EMPTY;
+        }
+        EarthquakeDiff changes = rows.getChanges();
+        boolean unchanged = rows == mRows || (changes != null
+                && changes.getOldStore() == mRows.getStore() && changes.isEmpty());
+        mRows = rows;
+        if (!unchanged) {
+            notifyDataSetChanged();
+        }
+    }
+
+    public EarthquakeRows getRows() {
+        return mRows;
+    }
+
+    public void clear() {
+        setRows(EarthquakeRows.EMPTY);
+    }
+
+    public Context getContext() {
+        return mContext;
+    }
+
+    @Override
+    public int getCount() {
+        return mRows.size();
+    }
+
+    /*
+    * Return the earthquake at the given position. This makes a new Earthquake object,
+    * so it is not used when binding rows
+    */
+    @Override
+    public Earthquake getItem(int position) {
+        return mRows.getStore().getEarthquake(position);
+    }
 
-    public EarthquakeAdapter (Context context, List<Earthquake> earthquakeList) {
-        // Initialise the ArrayAdapter's internal storage for the context and the list.
-        // The second argument is only used when dealing with one TextView, but in this custom
-        // adaptor we are dealing with 3 TextViews so the argument is not required and is set at 0
-        super(context, 0, earthquakeList);
+    /*
+    * Ids follow the earthquake, not the position, so the list can tell rows apart across
+    * loads that insert or move earthquakes
+    */
+    @Override
+    public long getItemId(int position) {
+        return mRows.getStore().getStableId(position);
     }
 
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
     public View getView(int position, View convertView, ViewGroup parent) {
+        long bindStart = EarthquakeMetrics.start();
 
-        // Check if there is a spare view to reuse, and if not then inflate a new one
+        // Check if there is a spare view to reuse, and if not then inflate a new one and look
+        // up its views once. They are kept in a ViewHolder on the view for the next time
         View listItemView = convertView;
+        ViewHolder holder;
         if (listItemView == null) {
             listItemView = LayoutInflater.from(getContext()).inflate(
                     R.layout.list_item, parent, false);
+            holder = new ViewHolder(listItemView);
+            listItemView.setTag(holder);
+        } else {
+            holder = (ViewHolder) listItemView.getTag();
         }
 
-        // Get the earthquake object in the given list as defined in the method parameter
-        Earthquake currentEarthquake = getItem(position);
-
-        // Find the desired TextView from the xml file, and set the text in this view to the
-        // earthquake magnitude from the Earthquake class. The number of decimal places is
-        // defined in the helper method
-        TextView magnitudeTextView = (TextView) listItemView.findViewById(R.id.magnitude_text_view);
-        magnitudeTextView.setText(formatMagnitude(currentEarthquake.getMagnitude()));
-
-        // Set the proper background colour of the magnitude circle.
-        // Fetch the background from the TextView, which is a GradientDrawable;
-        GradientDrawable magnitudeCircle = (GradientDrawable) magnitudeTextView.getBackground();
-
-        // Get the appropriate background colour based on the current earthquake magnitude
-        int magnitudeColour = getMagnitudeColour(currentEarthquake.getMagnitude());
-
-        // Set the colour on the magnitude circle
-        magnitudeCircle.setColor(magnitudeColour);
-
-        // Find the desired TextView from the xml file, and set the text in this view to the
-        // earthquake primary location from the Earthquake class
-        TextView primaryLocationTextView = (TextView) listItemView.findViewById(R.id.primary_location_text_view);
-        // From the Earthquake object location, get the primary location (i.e. Montreal, Canada)
-        // and set it to the TextView
-        primaryLocationTextView.setText(primaryLocation(currentEarthquake));
-
-        // Find the desired TextView from the xml file, and set the text in this view to the
-        // earthquake offset location from the Earthquake class
-        TextView offsetLocationTextView = (TextView) listItemView.findViewById(R.id.offset_location_text_view);
-        // From the Earthquake object location, get the offset location (i.e. 75 km NE of)
-        // and set it to the TextView
-        offsetLocationTextView.setText(offsetLocation(currentEarthquake));
-
-        // Create a new Date object from the time in milliseconds of the earthquake
-        Date dateObject = new Date(currentEarthquake.getTimeInMilliSeconds());
-
-        // Find the desired TextView from the xml file, and set the text in this view to the
-        // earthquake date from the Earthquake class
-        TextView dateTextView = (TextView) listItemView.findViewById(R.id.date_text_view);
-        // Format the date string (i.e. "Mar 3, 1984") - use the helper method
-        String formattedDate = formatDate(dateObject);
-        // Display the date of the current earthquake in that TextView
-        dateTextView.setText(formattedDate);
-
-        // Find the desired TextView from the xml file, and set the text in this view to the
-        // earthquake time from the Earthquake class
-        TextView timeTextView = (TextView) listItemView.findViewById(R.id.time_text_view);
-        // Format the time string (i.e. "4:30 PM") - use the helper method
-        String formattedTime = formatTime(dateObject);
-        // Display the time of the current earthquake in that TextView
-        timeTextView.setText(formattedTime);
+        // The view already shows this earthquake and it has not changed since, so there is
+        // nothing to set
+        if (!holder.bind(mRows, position)) {
+            EarthquakeMetrics.record(EarthquakeMetrics.STAGE_BIND, bindStart);
+            return listItemView;
+        }
 
-        return listItemView;
-    }
+        // Set the earthquake magnitude and the colour of the magnitude circle
+        holder.magnitudeTextView.setText(holder.magnitudeText);
+        holder.magnitudeCircle.setColor(holder.magnitudeColour);
 
-    private String formatDate(Date dateObject) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MMM, DD, yyyy");
-        return dateFormat.format(dateObject);
-    }
+        // Set the primary location (i.e. Montreal, Canada) and the offset location
+        // (i.e. 75 km NE of). The location was split when it was parsed
+        holder.primaryLocationTextView.setText(holder.primaryLocation);
+        holder.offsetLocationTextView.setText(holder.offsetLocation);
 
-    private String formatTime(Date dateObject) {
-        SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
-        return timeFormat.format(dateObject);
-    }
+        // Set the date (i.e. "Mar 3, 1984") and the time (i.e. "4:30 PM") of the earthquake
+        holder.dateTextView.setText(holder.dateText);
+        holder.timeTextView.setText(holder.timeText);
 
-    // Helper method to return the objects location
-    private String primaryLocation(Earthquake currentEarthquake) {
-        String location = currentEarthquake.getLocation();
-        if (location.contains("of ")) {
-            int splitIndex = location.indexOf("of ");
-            return location.substring(splitIndex + 3, location.length());
-        }
-        return location;
+        EarthquakeMetrics.record(EarthquakeMetrics.STAGE_BIND, bindStart);
+        return listItemView;
     }
 
-    // Helper method to return the objects offset location
-    private String offsetLocation(Earthquake earthquake) {
-        String location = earthquake.getLocation();
-        if (location.contains("of ")) {
-            int splitIndex = location.indexOf("of ");
-            return location.substring(0, splitIndex + 3);
+    /*
+    * Return the colour of the magnitude circle for every band returned by
+    * EarthquakeRows.getMagnitudeBand(), so rows can be coloured off the main thread. Bands 0
+    * and 1 share a colour, and band 10 is the colour of everything from magnitude 10 up
+    */
+    public static int[] getMagnitudeColours(Context context) {
+        int[] magnitudeColours = new int[11];
+        for (int magnitude = 0; magnitude < magnitudeColours.length; magnitude++) {
+            // The R.colour.magnitude9 just points to the resource we want in the colors.xml file
+            // In order to get the actual integer colour value, use the call below
+            magnitudeColours[magnitude] = ContextCompat.getColor(context,
+                    getMagnitudeColourResourceId(magnitude));
         }
-        return "Near the ";
-    }
-
-    private String formatMagnitude(double magnitude) {
-        DecimalFormat magnitudeFormat = new DecimalFormat("0.0");
-        return magnitudeFormat.format(magnitude);
+        return magnitudeColours;
     }
 
-    private int getMagnitudeColour(double magnitude) {
+    private static int getMagnitudeColourResourceId(int magnitudeRoundedDown) {
         int magnitudeColourResourceId;
-        int magnitudeRoundedDown = (int)Math.floor(magnitude);
         switch (magnitudeRoundedDown) {
             case 0:
             case 1:
@@ -162,9 +171,28 @@ public class EarthquakeAdapter extends ArrayAdapter<Earthquake> {
                     magnitudeColourResourceId = R.color.magnitude10plus;
                     break;
         }
-        // The R.colour.magnitude9 just points to the resource we want in the colors.xml file
-        // In order to get the actual integer colour value, use the call below
-        return ContextCompat.getColor(getContext(), magnitudeColourResourceId);
+        return magnitudeColourResourceId;
     }
-}
 
+    // The views of a list item, looked up once when the item is inflated, and what they show
+    private static class ViewHolder extends EarthquakeRows.Binding {
+        final TextView magnitudeTextView;
+        final GradientDrawable magnitudeCircle;
+        final TextView primaryLocationTextView;
+        final TextView offsetLocationTextView;
+        final TextView dateTextView;
+        final TextView timeTextView;
+
+        ViewHolder(View listItemView) {
+            magnitudeTextView = (TextView) listItemView.findViewById(R.id.magnitude_text_view);
+            // The background of the magnitude TextView is a GradientDrawable
+            magnitudeCircle = (GradientDrawable) magnitudeTextView.getBackground();
+            primaryLocationTextView =
+                    (TextView) listItemView.findViewById(R.id.primary_location_text_view);
+            offsetLocationTextView =
+                    (TextView) listItemView.findViewById(R.id.offset_location_text_view);
+            dateTextView = (TextView) listItemView.findViewById(R.id.date_text_view);
+            timeTextView = (TextView) listItemView.findViewById(R.id.time_text_view);
+        }
+    }
+}
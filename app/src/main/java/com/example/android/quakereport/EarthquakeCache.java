@@ -0,0 +1,244 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Persistent cache of parsed earthquakes, stored on disk and keyed by query URL.
+ * Every entry keeps the ETag and Last-Modified headers of the response it came from so the
+ * query can be revalidated with a conditional request. The total size of the cache is
+ * bounded, and the least recently used entries are deleted first.
+ */
+public class EarthquakeCache {
+
+    private static final String LOG_TAG = EarthquakeCache.class.getSimpleName();
+
+    /* Name of the directory, inside the app cache directory, that holds the entries */
+    private static final String DIRECTORY_NAME = "earthquakes";
+
+    /* Maximum number of bytes all the entries together may use */
+    private static final long MAX_SIZE_BYTES = 2 * 1024 * 1024;
+
+    /* Written at the start of every entry file, bump it when the layout changes.
+     * The earthquakes themselves are stored as an {@link EarthquakeSnapshot} */
+    private static final int FORMAT_VERSION = 2;
+
+    private static final String FILE_SUFFIX = ".cache";
+
+    private static EarthquakeCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxSizeBytes;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Return the cache shared by the whole app, stored in the app cache directory.
+     */
+    public static synchronized EarthquakeCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory =
+                    new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME);
+            sInstance = new EarthquakeCache(directory, MAX_SIZE_BYTES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new EarthquakeCache
+     *
+     * @param directory to store the entries in, created if it does not exist
+     * @param maxSizeBytes that all the entries together may use
+     */
+    public EarthquakeCache(File directory, long maxSizeBytes) {
+        mDirectory = directory;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Return the cached entry for a query, or null if there is none (or it cannot be read).
+     */
+    public synchronized Entry get(String query) {
+        File file = fileFor(query);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FORMAT_VERSION || !in.readUTF().equals(query)) {
+                // Written by an older version of the app, or a different query with the same hash
+                return null;
+            }
+            String etag = emptyToNull(in.readUTF());
+            String lastModified = emptyToNull(in.readUTF());
+            // A corrupt snapshot throws, and the query is then fetched from the network again
+            List<Earthquake> earthquakes = EarthquakeSnapshot.read(in, file.length());
+
+            // Mark the entry as recently used so it is evicted last
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(earthquakes, etag, lastModified);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the cached earthquakes, discarding them", e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Store the earthquakes of a query, together with the validators of the response they
+     * were parsed from. Either validator may be null.
+     */
+    public synchronized void put(String query, String etag, String lastModified,
+                                 List<Earthquake> earthquakes) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Could not create the cache directory " + mDirectory);
+            return;
+        }
+
+        // Write to a temporary file first so a crash never leaves a half written entry behind
+        File file = fileFor(query);
+        File temporaryFile = new File(mDirectory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(query);
+            out.writeUTF(etag == null ? "" : etag);
+            out.writeUTF(lastModified == null ? "" : lastModified);
+            EarthquakeSnapshot.write(earthquakes, out);
+            out.close();
+            out = null;
+            if (!temporaryFile.renameTo(file)) {
+                throw new IOException("Could not rename " + temporaryFile + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the earthquakes to the cache", e);
+            temporaryFile.delete();
+            return;
+        } finally {
+            closeQuietly(out);
+        }
+
+        trimToSize();
+    }
+
+    /**
+     * Record that a conditional request was answered with 304 Not Modified.
+     */
+    public synchronized void recordHit() {
+        mHitCount++;
+        EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_CACHE_HITS, 1);
+    }
+
+    /**
+     * Record that a request had to download and parse the whole response.
+     */
+    public synchronized void recordMiss() {
+        mMissCount++;
+        EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_CACHE_MISSES, 1);
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    // Delete the least recently used entries until the cache fits in its maximum size
+    private void trimToSize() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= mMaxSizeBytes) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length && size > mMaxSizeBytes; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    // The file name is derived from the query, the query itself is stored in the file to
+    // tell apart two queries with the same hash
+    private File fileFor(String query) {
+        return new File(mDirectory, Integer.toHexString(query.hashCode()) + FILE_SUFFIX);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing useful can be done here
+            }
+        }
+    }
+
+    /**
+     * The earthquakes cached for a query, and the validators of the response they came from.
+     */
+    public static class Entry {
+        private final List<Earthquake> mEarthquakes;
+        private final String mEtag;
+        private final String mLastModified;
+
+        public Entry(List<Earthquake> earthquakes, String etag, String lastModified) {
+            mEarthquakes = earthquakes;
+            mEtag = etag;
+            mLastModified = lastModified;
+        }
+
+        public List<Earthquake> getEarthquakes() {
+            return mEarthquakes;
+        }
+
+        public String getEtag() {
+            return mEtag;
+        }
+
+        public String getLastModified() {
+            return mLastModified;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.quakereport;
+
+/**
+ * What USGS knows about one earthquake beyond the fields the list shows: its depth, how many
+ * people reported feeling it, how strongly, and whether it may have caused a tsunami. Read from
+ * the "detail" GeoJSON of the event, which is only fetched when the earthquake is opened (or is
+ * about to be, see {@link EarthquakeDetails}), so the list query stays lean.
+ *
+ * Use a {@link Builder} to make one.
+ */
+public final class EarthquakeDetail {
+
+    private final String mId;
+    private final double mDepthKm;
+    private final int mFeltReports;
+    private final double mCommunityIntensity;
+    private final double mInstrumentalIntensity;
+    private final String mAlertLevel;
+    private final boolean mTsunami;
+    private final int mSignificance;
+    private final String mMagnitudeType;
+    private final String mReviewStatus;
+
+    private EarthquakeDetail(Builder builder) {
+        mId = builder.mId;
+        mDepthKm = builder.mDepthKm;
+        mFeltReports = builder.mFeltReports;
+        mCommunityIntensity = builder.mCommunityIntensity;
+        mInstrumentalIntensity = builder.mInstrumentalIntensity;
+        mAlertLevel = builder.mAlertLevel;
+        mTsunami = builder.mTsunami;
+        mSignificance = builder.mSignificance;
+        mMagnitudeType = builder.mMagnitudeType;
+        mReviewStatus = builder.mReviewStatus;
+    }
+
+    /* USGS event id, i.e. "us10004u1y", or null if the response did not have one */
+    public String getId() {
+        return mId;
+    }
+
+    /* Depth of the hypocentre in km, or NaN if it is not known */
+    public double getDepthKm() {
+        return mDepthKm;
+    }
+
+    /* Number of "Did You Feel It?" reports, or -1 if there are none */
+    public int getFeltReports() {
+        return mFeltReports;
+    }
+
+    /* Largest intensity reported by people who felt it, or NaN if it is not known */
+    public double getCommunityIntensity() {
+        return mCommunityIntensity;
+    }
+
+    /* Largest intensity measured by instruments (ShakeMap), or NaN if it is not known */
+    public double getInstrumentalIntensity() {
+        return mInstrumentalIntensity;
+    }
+
+    /* PAGER alert level, i.e. "green" or "red", or null if there is none */
+    public String getAlertLevel() {
+        return mAlertLevel;
+    }
+
+    /* Whether the earthquake was large enough, in the ocean, for a tsunami warning centre to
+     * look at it. It does not mean there was a tsunami */
+    public boolean isTsunami() {
+        return mTsunami;
+    }
+
+    /* USGS significance from 0 to about 1000, or -1 if it is not known */
+    public int getSignificance() {
+        return mSignificance;
+    }
+
+    /* How the magnitude was measured, i.e. "mww", or null if it is not known */
+    public String getMagnitudeType() {
+        return mMagnitudeType;
+    }
+
+    /* "automatic" or "reviewed", or null if it is not known */
+    public String getReviewStatus() {
+        return mReviewStatus;
+    }
+
+    /**
+     * Collects the fields of an {@link EarthquakeDetail} as they are read. Every field is
+     * unknown until it is set.
+     */
+    public static final class Builder {
+        private String mId;
+        private double mDepthKm = Double.NaN;
+        private int mFeltReports = -1;
+        private double mCommunityIntensity = Double.NaN;
+        private double mInstrumentalIntensity = Double.NaN;
+        private String mAlertLevel;
+        private boolean mTsunami;
+        private int mSignificance = -1;
+        private String mMagnitudeType;
+        private String mReviewStatus;
+
+        public Builder id(String id) {
+            mId = id;
+            return this;
+        }
+
+        public Builder depthKm(double depthKm) {
+            mDepthKm = depthKm;
+            return this;
+        }
+
+        public Builder feltReports(int feltReports) {
+            mFeltReports = feltReports;
+            return this;
+        }
+
+        public Builder communityIntensity(double communityIntensity) {
+            mCommunityIntensity = communityIntensity;
+            return this;
+        }
+
+        public Builder instrumentalIntensity(double instrumentalIntensity) {
+            mInstrumentalIntensity = instrumentalIntensity;
+            return this;
+        }
+
+        public Builder alertLevel(String alertLevel) {
+            mAlertLevel = alertLevel;
+            return this;
+        }
+
+        public Builder tsunami(boolean tsunami) {
+            mTsunami = tsunami;
+            return this;
+        }
+
+        public Builder significance(int significance) {
+            mSignificance = significance;
+            return this;
+        }
+
+        public Builder magnitudeType(String magnitudeType) {
+            mMagnitudeType = magnitudeType;
+            return this;
+        }
+
+        public Builder reviewStatus(String reviewStatus) {
+            mReviewStatus = reviewStatus;
+            return this;
+        }
+
+        public EarthquakeDetail build() {
+            return new EarthquakeDetail(this);
+        }
+    }
+}
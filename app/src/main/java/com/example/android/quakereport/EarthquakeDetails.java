@@ -0,0 +1,315 @@
+package com.example.android.quakereport;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the {@link EarthquakeDetail} of an earthquake lazily, when it is opened, and keeps the
+ * details loaded last in memory so opening an earthquake again is instant. The details of the
+ * rows around the ones on screen can be prefetched, so most earthquakes are already loaded by
+ * the time they are opened.
+ *
+ * Details are keyed by event id and are fresh for {@link #TTL_MILLIS} (felt reports keep
+ * coming in for a while after an earthquake). At most {@link #MAX_DETAILS} are kept, the least
+ * recently used are evicted first.
+ *
+ * Requests run on {@link #THREAD_COUNT} threads. An earthquake that is opened goes ahead of
+ * every prefetch, and prefetches run at background thread priority so they do not hold up
+ * scrolling. Prefetches of rows that have been scrolled away are cancelled.
+ */
+public class EarthquakeDetails {
+
+    /* How long details are used without fetching them again */
+    public static final long TTL_MILLIS = 5 * 60 * 1000;
+
+    /* Maximum number of details kept */
+    public static final int MAX_DETAILS = 100;
+
+    /* Number of details fetched at the same time */
+    private static final int THREAD_COUNT = 2;
+
+    /* Priorities of the requests, the lower the sooner */
+    private static final int PRIORITY_OPEN = 0;
+    private static final int PRIORITY_PREFETCH = 1;
+
+    private static final EarthquakeDetails sInstance = new EarthquakeDetails(TTL_MILLIS,
+            MAX_DETAILS);
+
+    private final long mTtlMillis;
+    private final int mMaxDetails;
+
+    // Details in least recently used order
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Requests queued or running, so a second request for the same event joins the first one
+    private final Map<String, DetailTask> mInFlight = new HashMap<>();
+
+    // Runs the requests, the ones with the lowest priority first and in the order they came
+    // in among those
+    private final ThreadPoolExecutor mExecutor;
+
+    // Order the requests came in
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Return the details shared by the whole app.
+     */
+    public static EarthquakeDetails getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new EarthquakeDetails
+     *
+     * @param ttlMillis  how long details are fresh
+     * @param maxDetails number of details kept
+     */
+    public EarthquakeDetails(long ttlMillis, int maxDetails) {
+        mTtlMillis = ttlMillis;
+        mMaxDetails = maxDetails;
+        mExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EarthquakeDetails");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Return the details of an event if they are fresh, or null.
+     */
+    public synchronized EarthquakeDetail peek(String eventId) {
+        Entry entry = mEntries.get(eventId);
+        return entry != null && isFresh(entry) ? entry.detail : null;
+    }
+
+    /**
+     * Return the fresh details of an event, or fetch them ahead of every prefetch and keep
+     * them. If they are already being fetched (i.e. prefetched), wait for that request instead.
+     * Every other prefetch is cancelled, as the rows they were for are no longer being looked
+     * at. Returns null if the request failed.
+     *
+     * This blocks until the request is done, so it must not be called on the main thread.
+     *
+     * @param detailUrl see {@link QueryUtils#buildDetailUrl(String, String)}
+     */
+    public EarthquakeDetail get(String eventId, String detailUrl) {
+        DetailTask task;
+        synchronized (this) {
+            Entry entry = mEntries.get(eventId);
+            if (entry != null && isFresh(entry)) {
+                return entry.detail;
+            }
+            task = mInFlight.get(eventId);
+            if (task != null && task.mPriority != PRIORITY_OPEN && !task.mStarted) {
+                // A prefetch that has not started yet would wait behind the others
+                cancel(task);
+                task = null;
+            }
+            if (task == null) {
+                task = submit(eventId, detailUrl, PRIORITY_OPEN);
+            }
+            task.mWanted = true;
+            cancelPrefetches(eventId);
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | CancellationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Prefetch the details of the events around the ones on screen, at low priority. Events
+     * that are cached or already being fetched are skipped. Prefetches of events that are not
+     * in the list any more (i.e. that have been scrolled away) are cancelled.
+     *
+     * @param eventIds   the events, the one that should be fetched first first
+     * @param detailUrls the detail URL of every event
+     */
+    public synchronized void prefetch(List<String> eventIds, List<String> detailUrls) {
+        Set<String> keep = new HashSet<>(eventIds);
+        cancelPrefetches(keep);
+        for (int i = 0; i < eventIds.size(); i++) {
+            String eventId = eventIds.get(i);
+            Entry entry = mEntries.get(eventId);
+            if ((entry == null || !isFresh(entry)) && !mInFlight.containsKey(eventId)) {
+                submit(eventId, detailUrls.get(i), PRIORITY_PREFETCH);
+            }
+        }
+    }
+
+    /**
+     * Cancel every prefetch, i.e. because the list has gone away.
+     */
+    public synchronized void cancelPrefetches() {
+        cancelPrefetches(new HashSet<String>());
+    }
+
+    /**
+     * Forget every detail.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    // Cancel every prefetch nobody is waiting for, but the one of the given event
+    private void cancelPrefetches(String eventId) {
+        Set<String> keep = new HashSet<>();
+        keep.add(eventId);
+        cancelPrefetches(keep);
+    }
+
+    // Cancel every prefetch nobody is waiting for, but the ones of the given events
+    private void cancelPrefetches(Set<String> keep) {
+        List<DetailTask> cancelled = new ArrayList<>();
+        for (DetailTask task : mInFlight.values()) {
+            if (task.mPriority == PRIORITY_PREFETCH && !task.mWanted
+                    && !keep.contains(task.mEventId)) {
+                cancelled.add(task);
+            }
+        }
+        for (DetailTask task : cancelled) {
+            cancel(task);
+        }
+    }
+
+    // Cancel a request. One that is running is interrupted, so its connection is dropped
+    private void cancel(DetailTask task) {
+        task.cancel(true);
+        mExecutor.remove(task);
+        mInFlight.remove(task.mEventId);
+    }
+
+    private DetailTask submit(String eventId, String detailUrl, int priority) {
+        DetailTask task = new DetailTask(eventId, detailUrl, priority,
+                mSequence.getAndIncrement());
+        mInFlight.put(eventId, task);
+        mExecutor.execute(task);
+        return task;
+    }
+
+    // Keep the details a request fetched, evicting stale ones and then the least recently
+    // used ones until the cache fits
+    private synchronized void finish(DetailTask task, EarthquakeDetail detail) {
+        if (mInFlight.get(task.mEventId) == task) {
+            mInFlight.remove(task.mEventId);
+        }
+        if (detail == null || task.isCancelled()) {
+            return;
+        }
+        mEntries.put(task.mEventId, new Entry(detail, SystemClock.elapsedRealtime()));
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (mEntries.size() > mMaxDetails || !isFresh(entry)) {
+                entries.remove();
+            }
+        }
+    }
+
+    private boolean isFresh(Entry entry) {
+        return SystemClock.elapsedRealtime() - entry.fetchedAt < mTtlMillis;
+    }
+
+    // A request for the details of one event, ordered in the executor's queue by priority
+    // and then by the order it came in
+    private final class DetailTask extends FutureTask<EarthquakeDetail>
+            implements Comparable<DetailTask> {
+        final String mEventId;
+        final int mPriority;
+        final long mSequence;
+
+        // Set once a thread has picked the request up
+        volatile boolean mStarted;
+
+        // Set once an earthquake has been opened and waits for the request, so it is never
+        // cancelled as a prefetch
+        volatile boolean mWanted;
+
+        DetailTask(String eventId, String detailUrl, int priority, long sequence) {
+            super(new DetailRequest(detailUrl));
+            mEventId = eventId;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mStarted = true;
+            Process.setThreadPriority(mPriority == PRIORITY_OPEN
+                    ? Process.THREAD_PRIORITY_DEFAULT : Process.THREAD_PRIORITY_BACKGROUND);
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            EarthquakeDetail detail = null;
+            if (!isCancelled()) {
+                try {
+                    detail = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    // Nothing to keep
+                }
+            }
+            finish(this, detail);
+        }
+
+        @Override
+        public int compareTo(DetailTask other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    // Fetches the details of one event
+    private static final class DetailRequest implements Callable<EarthquakeDetail> {
+        private final String mDetailUrl;
+
+        DetailRequest(String detailUrl) {
+            mDetailUrl = detailUrl;
+        }
+
+        @Override
+        public EarthquakeDetail call() {
+            return QueryUtils.fetchEarthquakeDetail(mDetailUrl);
+        }
+    }
+
+    private static final class Entry {
+        final EarthquakeDetail detail;
+        final long fetchedAt;
+
+        Entry(EarthquakeDetail detail, long fetchedAt) {
+            this.detail = detail;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The changes between two versions of an {@link EarthquakeStore}, matched by event id: which
+ * earthquakes were inserted, which were removed, which moved and which were updated in place.
+ * For every earthquake it knows where it was before and where it is now, so the list can keep
+ * the row the user is looking at in place, and only the rows that changed have to be formatted
+ * and bound again.
+ *
+ * Diffs are computed on a background thread together with the {@link EarthquakeRows} they
+ * belong to. The cost is linear in the size of the two stores.
+ */
+public final class EarthquakeDiff {
+
+    private final EarthquakeStore mOldStore;
+    private final EarthquakeStore mNewStore;
+
+    // For every earthquake of the new store, its position in the old store or -1 if inserted
+    private final int[] mOldPositions;
+
+    // For every earthquake of the old store, its position in the new store or -1 if removed
+    private final int[] mNewPositions;
+
+    private final int mInsertedCount;
+    private final int mRemovedCount;
+    private final int mMovedCount;
+    private final int mChangedCount;
+
+    // Largest magnitude of the inserted and changed earthquakes, or NaN if there are none
+    private final double mLargestMagnitude;
+
+    private EarthquakeDiff(EarthquakeStore oldStore, EarthquakeStore newStore, int[] oldPositions,
+                           int[] newPositions) {
+        mOldStore = oldStore;
+        mNewStore = newStore;
+        mOldPositions = oldPositions;
+        mNewPositions = newPositions;
+
+        int inserted = 0;
+        int changed = 0;
+        double largestMagnitude = Double.NaN;
+        for (int i = 0; i < oldPositions.length; i++) {
+            int oldPosition = oldPositions[i];
+            if (oldPosition < 0) {
+                inserted++;
+            } else if (!sameContent(oldStore, oldPosition, newStore, i)) {
+                changed++;
+            } else {
+                continue;
+            }
+            double magnitude = newStore.getMagnitude(i);
+            if (Double.isNaN(largestMagnitude) || magnitude > largestMagnitude) {
+                largestMagnitude = magnitude;
+            }
+        }
+
+        // Walk the kept earthquakes in their old order. One that lands before an earthquake
+        // that used to be ahead of it has moved
+        int removed = 0;
+        int moved = 0;
+        int furthest = -1;
+        for (int newPosition : newPositions) {
+            if (newPosition < 0) {
+                removed++;
+            } else if (newPosition < furthest) {
+                moved++;
+            } else {
+                furthest = newPosition;
+            }
+        }
+
+        mInsertedCount = inserted;
+        mRemovedCount = removed;
+        mMovedCount = moved;
+        mChangedCount = changed;
+        mLargestMagnitude = largestMagnitude;
+    }
+
+    /**
+     * Work out the changes from the old store to the new one. Earthquakes are matched by
+     * event id, or by URL when they have no id.
+     */
+    public static EarthquakeDiff between(EarthquakeStore oldStore, EarthquakeStore newStore) {
+        int oldSize = oldStore.size();
+        int newSize = newStore.size();
+        int[] oldPositions = new int[newSize];
+        int[] newPositions = new int[oldSize];
+
+        // A page was appended, every old earthquake is where it was
+        if (newStore.startsWith(oldStore)) {
+            for (int i = 0; i < newSize; i++) {
+                oldPositions[i] = i < oldSize ? i : -1;
+            }
+            for (int i = 0; i < oldSize; i++) {
+                newPositions[i] = i;
+            }
+            return new EarthquakeDiff(oldStore, newStore, oldPositions, newPositions);
+        }
+
+        Map<String, Integer> oldIndexes = new HashMap<>(oldSize * 2);
+        for (int i = 0; i < oldSize; i++) {
+            oldIndexes.put(oldStore.getKey(i), i);
+            newPositions[i] = -1;
+        }
+        for (int i = 0; i < newSize; i++) {
+            Integer oldPosition = oldIndexes.get(newStore.getKey(i));
+            if (oldPosition != null && newPositions[oldPosition] < 0) {
+                oldPositions[i] = oldPosition;
+                newPositions[oldPosition] = i;
+            } else {
+                oldPositions[i] = -1;
+            }
+        }
+        return new EarthquakeDiff(oldStore, newStore, oldPositions, newPositions);
+    }
+
+    public EarthquakeStore getOldStore() {
+        return mOldStore;
+    }
+
+    public EarthquakeStore getNewStore() {
+        return mNewStore;
+    }
+
+    /**
+     * Return the position the earthquake at the given new position had in the old store,
+     * or -1 if it is new.
+     */
+    public int getOldPosition(int newPosition) {
+        return mOldPositions[newPosition];
+    }
+
+    /**
+     * Return the position the earthquake at the given old position has in the new store,
+     * or -1 if it was removed.
+     */
+    public int getNewPosition(int oldPosition) {
+        return mNewPositions[oldPosition];
+    }
+
+    public int getInsertedCount() {
+        return mInsertedCount;
+    }
+
+    public int getRemovedCount() {
+        return mRemovedCount;
+    }
+
+    /**
+     * Return the number of earthquakes that are out of their old order, i.e. because their
+     * time was corrected.
+     */
+    public int getMovedCount() {
+        return mMovedCount;
+    }
+
+    /**
+     * Return the number of earthquakes that are still there but were updated, i.e. with a
+     * revised magnitude.
+     */
+    public int getChangedCount() {
+        return mChangedCount;
+    }
+
+    /**
+     * Return the largest magnitude of the earthquakes that were inserted or updated, or NaN
+     * if there are none. Tells a routine refresh from one that brought a strong earthquake.
+     */
+    public double getLargestMagnitude() {
+        return mLargestMagnitude;
+    }
+
+    /**
+     * Return true if the new store shows exactly what the old one did.
+     */
+    public boolean isEmpty() {
+        return mInsertedCount == 0 && mRemovedCount == 0 && mMovedCount == 0
+                && mChangedCount == 0;
+    }
+
+    // True if the earthquake at the two positions would show the same row
+    private static boolean sameContent(EarthquakeStore oldStore, int oldPosition,
+                                       EarthquakeStore newStore, int newPosition) {
+        return oldStore.getMagnitude(oldPosition) == newStore.getMagnitude(newPosition)
+                && oldStore.getTimeInMilliSeconds(oldPosition)
+                == newStore.getTimeInMilliSeconds(newPosition)
+                && equal(oldStore.getPrimaryLocation(oldPosition),
+                newStore.getPrimaryLocation(newPosition))
+                && equal(oldStore.getOffsetLocation(oldPosition),
+                newStore.getOffsetLocation(newPosition))
+                && equal(oldStore.getUrl(oldPosition), newStore.getUrl(newPosition));
+    }
+
+    private static boolean equal(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * Indexes over an {@link EarthquakeStore} that answer an {@link EarthquakeQuery} without
+ * looking at every earthquake:
+ *
+ * - the earthquakes of every magnitude band (the bands of the magnitude circle colours, see
+ *   {@link EarthquakeRows#getMagnitudeBand(double)}) sorted by time, so a magnitude and time
+ *   range is a binary search per band
+ * - a grid of one degree cells over the map, so a region is a handful of cells
+ *
+ * A query uses whichever of the two has fewer candidates and checks only those. Building the
+ * index sorts the store once, so it is done on a background thread, and like the store it
+ * never changes once it has been built.
+ */
+public final class EarthquakeIndex {
+
+    private static final int BAND_COUNT = 11;
+
+    /* Kilometres per degree of latitude */
+    private static final double KM_PER_DEGREE = 111.195;
+
+    private static final int LATITUDE_CELLS = 180;
+    private static final int LONGITUDE_CELLS = 360;
+
+    private final EarthquakeStore mStore;
+
+    // The earthquakes of band b are at mBandPositions[mBandStarts[b]] up to (not including)
+    // mBandPositions[mBandStarts[b + 1]], oldest first. mBandTimes holds their times
+    private final int[] mBandStarts;
+    private final int[] mBandPositions;
+    private final long[] mBandTimes;
+
+    // The earthquakes in grid cell c are at mCellPositions[mCellStarts[c]] up to (not
+    // including) mCellPositions[mCellStarts[c + 1]]. Earthquakes without coordinates are not
+    // in the grid
+    private final int[] mCellStarts;
+    private final int[] mCellPositions;
+
+    private EarthquakeIndex(EarthquakeStore store, int[] bandStarts, int[] bandPositions,
+                            long[] bandTimes, int[] cellStarts, int[] cellPositions) {
+        mStore = store;
+        mBandStarts = bandStarts;
+        mBandPositions = bandPositions;
+        mBandTimes = bandTimes;
+        mCellStarts = cellStarts;
+        mCellPositions = cellPositions;
+    }
+
+    /**
+     * Index every earthquake of the store. This sorts the store and must not be called on
+     * the main thread.
+     */
+    public static EarthquakeIndex build(EarthquakeStore store) {
+        int size = store.size();
+
+        // Sort by time once, then split by band keeping that order (a counting sort is stable)
+        int[] byTime = new int[size];
+        for (int i = 0; i < size; i++) {
+            byTime[i] = i;
+        }
+        sortByTime(store, byTime, size, false);
+
+        int[] bandStarts = new int[BAND_COUNT + 1];
+        for (int i = 0; i < size; i++) {
+            bandStarts[EarthquakeRows.getMagnitudeBand(store.getMagnitude(i)) + 1]++;
+        }
+        for (int band = 0; band < BAND_COUNT; band++) {
+            bandStarts[band + 1] += bandStarts[band];
+        }
+        int[] bandPositions = new int[size];
+        long[] bandTimes = new long[size];
+        int[] bandNext = Arrays.copyOf(bandStarts, BAND_COUNT);
+        for (int position : byTime) {
+            int slot = bandNext[EarthquakeRows.getMagnitudeBand(store.getMagnitude(position))]++;
+            bandPositions[slot] = position;
+            bandTimes[slot] = store.getTimeInMilliSeconds(position);
+        }
+
+        // Same counting sort for the grid cells
+        int[] cellStarts = new int[LATITUDE_CELLS * LONGITUDE_CELLS + 1];
+        int located = 0;
+        for (int i = 0; i < size; i++) {
+            int cell = cellOf(store.getLatitude(i), store.getLongitude(i));
+            if (cell >= 0) {
+                cellStarts[cell + 1]++;
+                located++;
+            }
+        }
+        for (int cell = 0; cell < LATITUDE_CELLS * LONGITUDE_CELLS; cell++) {
+            cellStarts[cell + 1] += cellStarts[cell];
+        }
+        int[] cellPositions = new int[located];
+        int[] cellNext = Arrays.copyOf(cellStarts, cellStarts.length - 1);
+        for (int i = 0; i < size; i++) {
+            int cell = cellOf(store.getLatitude(i), store.getLongitude(i));
+            if (cell >= 0) {
+                cellPositions[cellNext[cell]++] = i;
+            }
+        }
+
+        return new EarthquakeIndex(store, bandStarts, bandPositions, bandTimes, cellStarts,
+                cellPositions);
+    }
+
+    public EarthquakeStore getStore() {
+        return mStore;
+    }
+
+    /**
+     * Return the indexes in the store of the earthquakes that pass the query, newest first.
+     */
+    public int[] query(EarthquakeQuery query) {
+        // Candidates from the bands the magnitude range touches, within the time range
+        int[] from = new int[BAND_COUNT];
+        int[] to = new int[BAND_COUNT];
+        long bandCandidates = 0;
+        for (int band = 0; band < BAND_COUNT; band++) {
+            if (!bandMayMatch(band, query)) {
+                continue;
+            }
+            from[band] = lowerBound(mBandTimes, mBandStarts[band], mBandStarts[band + 1],
+                    query.getStartTime());
+            to[band] = lowerBound(mBandTimes, from[band], mBandStarts[band + 1],
+                    query.getEndTime());
+            bandCandidates += to[band] - from[band];
+        }
+
+        // Candidates from the grid cells the region touches
+        int[] cellRange = query.hasRegion() ? cellRange(query) : null;
+        long cellCandidates = cellRange == null ? Long.MAX_VALUE : countCells(cellRange);
+
+        int[] results = new int[16];
+        int count = 0;
+        if (cellCandidates < bandCandidates) {
+            for (int latitude = cellRange[0]; latitude <= cellRange[1]; latitude++) {
+                for (int step = 0; step <= cellRange[3]; step++) {
+                    int cell = latitude * LONGITUDE_CELLS
+                            + (cellRange[2] + step) % LONGITUDE_CELLS;
+                    for (int i = mCellStarts[cell]; i < mCellStarts[cell + 1]; i++) {
+                        if (query.matches(mStore, mCellPositions[i])) {
+                            results = append(results, count++, mCellPositions[i]);
+                        }
+                    }
+                }
+            }
+        } else {
+            for (int band = 0; band < BAND_COUNT; band++) {
+                for (int i = from[band]; i < to[band]; i++) {
+                    if (query.matches(mStore, mBandPositions[i])) {
+                        results = append(results, count++, mBandPositions[i]);
+                    }
+                }
+            }
+        }
+
+        sortByTime(mStore, results, count, true);
+        return Arrays.copyOf(results, count);
+    }
+
+    /**
+     * Return the same as {@link #query(EarthquakeQuery)}, by checking every earthquake of
+     * the store. Only there to compare the index against.
+     */
+    public static int[] scan(EarthquakeStore store, EarthquakeQuery query) {
+        int[] results = new int[16];
+        int count = 0;
+        for (int i = 0; i < store.size(); i++) {
+            if (query.matches(store, i)) {
+                results = append(results, count++, i);
+            }
+        }
+        sortByTime(store, results, count, true);
+        return Arrays.copyOf(results, count);
+    }
+
+    // True if a band has magnitudes in the range of the query. Band 10 also holds negative
+    // and missing magnitudes, so it is always checked
+    private static boolean bandMayMatch(int band, EarthquakeQuery query) {
+        if (band == BAND_COUNT - 1) {
+            return true;
+        }
+        double lowest = band == 0 ? 0 : band;
+        double highest = band == 0 ? 2 : band + 1;
+        return highest > query.getMinMagnitude() && lowest <= query.getMaxMagnitude();
+    }
+
+    // Return {first latitude cell, last latitude cell, first longitude cell, longitude cells
+    // after the first} of the cells a circle overlaps. Longitudes wrap around at 180 degrees
+    private static int[] cellRange(EarthquakeQuery query) {
+        double latitudeSpan = query.getRadiusKm() / KM_PER_DEGREE;
+        double lowestLatitude = query.getLatitude() - latitudeSpan;
+        double highestLatitude = query.getLatitude() + latitudeSpan;
+        int firstLatitude = latitudeCell(Math.max(lowestLatitude, -90));
+        int lastLatitude = latitudeCell(Math.min(highestLatitude, 90));
+
+        // Away from the poles a degree of longitude is shorter, so the circle spans more of them
+        double widest = Math.max(Math.abs(lowestLatitude), Math.abs(highestLatitude));
+        double longitudeSpan = widest >= 90 ? 360 : latitudeSpan / Math.cos(Math.toRadians(widest));
+        if (longitudeSpan >= 180) {
+            return new int[] {firstLatitude, lastLatitude, 0, LONGITUDE_CELLS - 1};
+        }
+        int firstLongitude = longitudeCell(query.getLongitude() - longitudeSpan);
+        int lastLongitude = longitudeCell(query.getLongitude() + longitudeSpan);
+        int steps = (lastLongitude - firstLongitude + LONGITUDE_CELLS) % LONGITUDE_CELLS;
+        return new int[] {firstLatitude, lastLatitude, firstLongitude, steps};
+    }
+
+    private long countCells(int[] cellRange) {
+        long count = 0;
+        for (int latitude = cellRange[0]; latitude <= cellRange[1]; latitude++) {
+            for (int step = 0; step <= cellRange[3]; step++) {
+                int cell = latitude * LONGITUDE_CELLS + (cellRange[2] + step) % LONGITUDE_CELLS;
+                count += mCellStarts[cell + 1] - mCellStarts[cell];
+            }
+        }
+        return count;
+    }
+
+    // Return the grid cell of a point, or -1 if it has no coordinates
+    private static int cellOf(double latitude, double longitude) {
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return -1;
+        }
+        return latitudeCell(latitude) * LONGITUDE_CELLS + longitudeCell(longitude);
+    }
+
+    private static int latitudeCell(double latitude) {
+        int cell = (int) Math.floor(latitude + 90);
+        return Math.max(0, Math.min(LATITUDE_CELLS - 1, cell));
+    }
+
+    private static int longitudeCell(double longitude) {
+        int cell = (int) Math.floor(longitude + 180) % LONGITUDE_CELLS;
+        return cell < 0 ? cell + LONGITUDE_CELLS : cell;
+    }
+
+    // Return the first index from start (inclusive) to end (exclusive) whose time is at least
+    // the given time, or end if there is none
+    private static int lowerBound(long[] times, int start, int end, long time) {
+        int low = start;
+        int high = end;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int[] append(int[] array, int index, int value) {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[index] = value;
+        return array;
+    }
+
+    // Sort the first count positions by the time of their earthquake, oldest or newest first.
+    // A merge sort on the ints, so no position has to be boxed
+    private static void sortByTime(EarthquakeStore store, int[] positions, int count,
+                                   boolean newestFirst) {
+        int[] buffer = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int start = 0; start < count; start += 2 * width) {
+                int middle = Math.min(start + width, count);
+                int end = Math.min(start + 2 * width, count);
+                int left = start;
+                int right = middle;
+                for (int out = start; out < end; out++) {
+                    boolean takeLeft = right >= end || (left < middle && !comesAfter(store,
+                            positions[left], positions[right], newestFirst));
+                    buffer[out] = takeLeft ? positions[left++] : positions[right++];
+                }
+            }
+            System.arraycopy(buffer, 0, positions, 0, count);
+        }
+    }
+
+    // True if the first earthquake belongs after the second one
+    private static boolean comesAfter(EarthquakeStore store, int first, int second,
+                                      boolean newestFirst) {
+        long firstTime = store.getTimeInMilliSeconds(first);
+        long secondTime = store.getTimeInMilliSeconds(second);
+        return newestFirst ? firstTime < secondTime : firstTime > secondTime;
+    }
+}
@@ -1,14 +1,138 @@
 package com.example.android.quakereport;
 
-import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.content.Loader;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/*
+* Loads the earthquakes of a query on a background executor and hands them to the activity
+* as rows ready to be bound. A query that is not paged is split into time windows that go
+* through an {@link EarthquakePipeline}, so parsing one window overlaps downloading the next
+* and the first windows are shown while the others are still on their way
+*/
+public class EarthquakeLoader extends Loader<EarthquakeRows> {
+
+    private static final String LOG_TAG = EarthquakeLoader.class.getSimpleName();
 
-public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
     // Query URL
     private String mUrl;
 
+    // Number of earthquakes requested per page, or 0 to load the whole query in one request
+    private int mPageSize;
+
+    // True while a load (a page, a revalidation or a sync) is in flight
+    private boolean mLoading;
+
+    // What the loads done so far have loaded. Kept in the loader so it survives configuration
+    // changes of the activity. Only used on the main thread, a load works on a copy of it
+    private LoadState mState = new LoadState();
+
+    // The last rows handed to the activity, i.e. what the list shows. The next rows are built
+    // against them, so their changes describe what the user sees
+    private volatile EarthquakeRows mDeliveredRows;
+
+    // Rows of a sync held back to be delivered together with the next ones, see
+    // deliverResult(). Only used on the main thread
+    private EarthquakeRows mHeldRows;
+
+    // When rows were last handed to the activity, on the SystemClock.elapsedRealtime() clock
+    private long mLastDeliveryTime;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Runs the loads, and the stages of their pipelines
+    private final ExecutorService mExecutor;
+
+    // The load in flight, or null. Only set on the main thread
+    private volatile LoadTask mTask;
+
+    // Delivers the held rows once the batch window is over
+    private final Runnable mDeliverHeldRows = new Runnable() {
+        @Override
+        public void run() {
+            EarthquakeRows rows = mHeldRows;
+            if (rows != null && isStarted()) {
+                deliverNow(rows);
+            }
+        }
+    };
+
+    // Filter of the earthquakes shown, or null to show all the ones loaded
+    private EarthquakeQuery mFilter;
+
+    // Colour of the magnitude circle for every magnitude band, used to build the rows
+    private int[] mMagnitudeColours;
+
+    // Disk cache the query is read from on a cold start and revalidated against
+    private EarthquakeCache mCache;
+
+    // Splits a query that is not paged into the time windows the pipeline loads, and makes
+    // the requests of the pipeline, a few at a time
+    private QueryPlanner mPlanner;
+
+    // The rows the last session ended on, being read while the activity starts. Looked at
+    // before the disk cache, see setStartupSnapshot()
+    private volatile Future<StartupSnapshot> mStartupSnapshot;
+
+    // The snapshot the first rows came from, until the activity has restored its scroll
+    // position. Only used on the main thread
+    private StartupSnapshot mRestoredSnapshot;
+
+    // True while the sync after the startup snapshot is in flight. Its result is never held
+    // back
+    private boolean mCatchingUp;
+
+    // True when the next load should only fetch what changed since the last one. Handed to
+    // that load when it is started. Only used on the main thread
+    private boolean mSyncRequested;
+
+    // Told how every sync asked for ended, or null
+    private OnSyncListener mOnSyncListener;
+
+    // When the last load was started, on the SystemClock.elapsedRealtime() clock
+    private long mLastLoadTime;
+
+    // Coming back to the activity syncs the earthquakes if the last load is older than this,
+    // the same time results are kept fresh in memory
+    private static final long SYNC_INTERVAL_MILLIS = QueryResultCache.TTL_MILLIS;
+
+    // Sync results that come in less than this after the last delivery are delivered together
+    // at the end of it, so a burst of small updates redraws the list once
+    private static final long BATCH_WINDOW_MILLIS = 10 * 1000;
+
+    /*
+    * Told on the main thread how every sync asked for with {@link #sync()} ended. A sync that
+    * finds nothing new hands back the same rows, and the activity is not told about those
+    * again, so this is the only way to learn a sync is over
+    */
+    public interface OnSyncListener {
+        /*
+        * The sync fetched what changed and merged it in
+        *
+        * @param changes number of earthquakes inserted or updated, 0 if nothing changed or
+        *                the request failed
+        * @param largestMagnitude largest magnitude among them, or NaN
+        */
+        void onSyncFinished(int changes, double largestMagnitude);
+
+        /*
+        * The sync did not run, i.e. another load was in flight or nothing was loaded yet
+        */
+        void onSyncSkipped();
+    }
+
     /*
     Constructs a new EarthquakeLoader
     *
@@ -16,26 +140,624 @@ public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
     * @param url to load data from
     */
     public EarthquakeLoader (Context context, String url) {
+        this(context, url, 0);
+    }
+
+    /*
+    Constructs a new EarthquakeLoader that loads the query one page at a time.
+    * Every page is delivered as soon as it has been parsed, together with the pages before it
+    *
+    * @param context of the activity
+    * @param url to load data from
+    * @param pageSize number of earthquakes per page, or 0 to load everything at once
+    */
+    public EarthquakeLoader (Context context, String url, int pageSize) {
+        this(context, url, pageSize, EarthquakePipeline.getDefaultExecutor());
+    }
+
+    /*
+    Constructs a new EarthquakeLoader that runs on the given executor
+    *
+    * @param context of the activity
+    * @param url to load data from
+    * @param pageSize number of earthquakes per page, or 0 to load everything at once
+    * @param executor runs the loads and the stages of their pipelines. It must be able to
+    *                 run several tasks at once
+    */
+    public EarthquakeLoader (Context context, String url, int pageSize, ExecutorService executor) {
         super(context);
         mUrl = url;
+        mExecutor = executor;
+        mPageSize = pageSize;
+        mCache = EarthquakeCache.getInstance(context);
+        if (pageSize <= 0) {
+            mPlanner = new QueryPlanner(mCache);
+        }
+        mMagnitudeColours = EarthquakeAdapter.getMagnitudeColours(context);
     }
 
     @Override
     protected void onStartLoading() {
-        forceLoad();
+        // Hand back what is already loaded instead of starting over, and only fetch what
+        // changed since if it has gone stale. A new loader starts from the results in memory
+        // or on disk, see loadStore()
+        if (mState.mRows != null) {
+            deliverNow(mState.mRows);
+            if (mState.mSyncAfterRestore) {
+                catchUp();
+            } else if (SystemClock.elapsedRealtime() - mLastLoadTime >= SYNC_INTERVAL_MILLIS) {
+                sync();
+            }
+        } else if (!mLoading) {
+            startLoad();
+        }
+    }
+
+    /*
+    * Request the next page of the query. Does nothing if a load is already in flight
+    * or the last page has been reached
+    */
+    public void loadNextPage() {
+        if (mPageSize <= 0 || mLoading || !mState.mHasMorePages) {
+            return;
+        }
+        startLoad();
+    }
+
+    /*
+    * Fetch only the earthquakes added or updated since the last load and merge them into the
+    * ones already loaded. Skipped while a load is in flight, unless that load is a sync
+    * itself. If nothing was loaded, i.e. the first load failed without a connection, the first
+    * load is tried again instead. Either way the listener is told, see
+    * {@link #setOnSyncListener(OnSyncListener)}
+    */
+    public void sync() {
+        LoadTask task = mTask;
+        if (mLoading && task != null && task.mSync.mRequested) {
+            // Folded into the sync in flight, its outcome is reported
+            return;
+        }
+        if (mLoading) {
+            notifySyncSkipped();
+            return;
+        }
+        mSyncRequested = true;
+        startLoad();
+    }
+
+    /*
+    * Tell the given listener how every sync ends from now on
+    *
+    * @param listener to tell, or null to stop telling
+    */
+    public void setOnSyncListener(OnSyncListener listener) {
+        mOnSyncListener = listener;
+    }
+
+    /*
+    * Only show the earthquakes that pass the given filter, i.e. the ones of a single place.
+    * Must be set before the loader is started
+    *
+    * @param filter the earthquakes shown must pass, or null to show every one loaded
+    */
+    public void setFilter(EarthquakeQuery filter) {
+        mFilter = filter;
     }
 
     /*
-    * This is on a background thread
+    * Start from the rows the last session ended on, if they are of this query, before
+    * looking at the disk cache or the network. What changed since they were written is synced
+    * in once they have been delivered. Must be set before the loader is started
+    *
+    * @param snapshot being read, see {@link StartupSnapshot#readAsync(java.io.File, String)}
     */
+    public void setStartupSnapshot(Future<StartupSnapshot> snapshot) {
+        mStartupSnapshot = snapshot;
+    }
+
+    /*
+    * Return the startup snapshot the rows delivered last came from, once, so the activity can
+    * scroll to where the last session ended. Returns null if they did not come from one
+    */
+    public StartupSnapshot takeRestoredSnapshot() {
+        StartupSnapshot snapshot = mRestoredSnapshot;
+        mRestoredSnapshot = null;
+        return snapshot;
+    }
+
+    // Return the earthquakes of the store that are shown
+    private EarthquakeStore filter(EarthquakeStore store) {
+        return mFilter == null ? store : store.select(EarthquakeIndex.scan(store, mFilter));
+    }
+
+    public boolean hasMorePages() {
+        return mPageSize > 0 && mState.mHasMorePages;
+    }
+
+    public boolean isLoadingPage() {
+        return mLoading;
+    }
+
+    private void startLoad() {
+        mLoading = true;
+        mLastLoadTime = SystemClock.elapsedRealtime();
+        forceLoad();
+    }
+
     @Override
-    public List<Earthquake> loadInBackground() {
+    protected void onForceLoad() {
+        super.onForceLoad();
+        cancelTask();
+        LoadTask task = new LoadTask(new LoadState(mState), mSyncRequested);
+        mSyncRequested = false;
+        mTask = task;
+        mExecutor.execute(task);
+    }
+
+    // Stop the load in flight. Its result is never delivered, and what it loaded on its way
+    // is dropped with its copy of the state, even if it is still winding down
+    private void cancelTask() {
+        LoadTask task = mTask;
+        mTask = null;
+        if (task == null) {
+            return;
+        }
+        task.cancel(true);
+        EarthquakePipeline pipeline = task.mState.mPipeline;
+        if (pipeline != null) {
+            pipeline.cancel();
+        }
+        // A sync cancelled on its way never reports what it found
+        if (task.mSync.mRequested) {
+            notifySyncSkipped();
+        }
+    }
+
+    /*
+    * This is on the main thread, once a load is done
+    */
+    private void onLoadDone(LoadTask task) {
+        if (mTask != task) {
+            // Cancelled, or replaced by a newer load
+            return;
+        }
+        mTask = null;
+        EarthquakeRows rows = null;
+        try {
+            rows = task.get();
+            // Only a load that ran to the end and is still the latest one moves the state on
+            mState = task.mState;
+            if (mState.mRestoredSnapshot != null) {
+                mRestoredSnapshot = mState.mRestoredSnapshot;
+            }
+            if (mState.mCacheChecked) {
+                mStartupSnapshot = null;
+            }
+        } catch (ExecutionException | InterruptedException | CancellationException e) {
+            Log.e(LOG_TAG, "Problem loading the earthquakes", e);
+        }
+        if (isReset()) {
+            mLoading = false;
+            return;
+        }
+        deliverResult(rows);
+        notifySyncDone(task.mSync);
+    }
+
+    // Tell the listener how the sync of a load ended, if it was asked to sync
+    private void notifySyncDone(SyncResult sync) {
+        if (!sync.mRequested) {
+            return;
+        }
+        if (!sync.mDone) {
+            // The load went to the disk cache, revalidated or started over instead
+            notifySyncSkipped();
+        } else if (mOnSyncListener != null) {
+            mOnSyncListener.onSyncFinished(sync.mChanges, sync.mLargestMagnitude);
+        }
+    }
+
+    private void notifySyncSkipped() {
+        if (mOnSyncListener != null) {
+            mOnSyncListener.onSyncSkipped();
+        }
+    }
+
+    /*
+    * This is on a background thread. Everything the load finds is written to the given copy of
+    * the state, never to the loader
+    */
+    private EarthquakeRows loadInBackground(LoadState state, SyncResult sync) {
+        long loadStart = EarthquakeMetrics.start();
+        EarthquakeStore store = loadStore(state, sync);
+        if (store == null) {
+            return null;
+        }
+
+        // Nothing new was loaded (i.e. a page failed), hand back the same rows
+        EarthquakeRows latest = state.mRows;
+        boolean unchanged = store == state.mStore;
+        state.mStore = store;
+        if (latest != null && unchanged) {
+            return latest;
+        }
+
+        // Format everything the list shows here, so binding a row on the main thread is only
+        // a matter of copying values into its views
+        EarthquakeRows previous = mDeliveredRows;
+        long formatStart = EarthquakeMetrics.start();
+        EarthquakeRows rows = EarthquakeRows.build(filter(store), mMagnitudeColours, previous);
+        EarthquakeMetrics.record(EarthquakeMetrics.STAGE_FORMAT, formatStart);
+        state.mRows = rows;
+        EarthquakeMetrics.record(EarthquakeMetrics.STAGE_LOAD, loadStart);
+        return rows;
+    }
+
+    // Load the earthquakes, from the disk cache or from the network
+    private EarthquakeStore loadStore(LoadState state, SyncResult sync) {
         if (mUrl == null) {
             return null;
         }
 
-        // Perform the network request, parse the response, and extract the list of earthquakes
-        List<Earthquake> result = QueryUtils.fetchEarthquakeData(mUrl);
-        return result;
+        // In paged mode only the first page is cached and revalidated
+        String firstUrl = mPageSize > 0 ? QueryUtils.buildPageUrl(mUrl, 1, mPageSize) : mUrl;
+
+        // On a cold start show the rows the last session ended on straight away, or else the
+        // earthquakes cached last time. They are synced or revalidated against the network as
+        // soon as they have been delivered
+        if (!state.mCacheChecked) {
+            state.mCacheChecked = true;
+            StartupSnapshot snapshot = readStartupSnapshot();
+            if (snapshot != null) {
+                // No need to sync them if another loader fetched the query moments ago
+                state.mSyncAfterRestore = mPageSize > 0
+                        ? !QueryResultCache.getInstance().isFresh(firstUrl)
+                        : !mPlanner.isFresh(mUrl);
+                state.mRestoredSnapshot = snapshot;
+                EarthquakeStore store = startOver(state, snapshot.getEarthquakes());
+                if (mPageSize > 0) {
+                    // The snapshot may hold several pages, and end on a short one
+                    state.mHasMorePages = snapshot.hasMorePages();
+                }
+                return store;
+            }
+            List<Earthquake> cached = mPageSize > 0
+                    ? QueryUtils.readCachedEarthquakeData(firstUrl, mCache)
+                    : mPlanner.readCached(mUrl);
+            if (cached != null) {
+                // No need to check them again if another loader fetched them moments ago
+                state.mRevalidatePending = mPageSize > 0
+                        ? !QueryResultCache.getInstance().isFresh(firstUrl)
+                        : !mPlanner.isFresh(mUrl);
+                return startOver(state, cached);
+            }
+        }
+        boolean revalidate = state.mRevalidatePending;
+        state.mRevalidatePending = false;
+        state.mSyncing = sync.mRequested && !revalidate && state.mStore != null;
+        if (state.mSyncing) {
+            return syncStore(state, sync);
+        }
+
+        if (mPageSize <= 0) {
+            // Perform the network requests, one per time window of the query, parse the
+            // responses, and merge them into one list of earthquakes
+            return loadWindows(state);
+        }
+
+        if (state.mStore == null || revalidate) {
+            // Nothing loaded yet, or the cached first page has to be checked. Start with the
+            // first page, a 304 response hands back the cached copy
+            List<Earthquake> page = QueryUtils.fetchEarthquakeData(firstUrl, mCache);
+            return page == null ? failPage(state) : startOver(state, page);
+        }
+
+        // Fetch only the next page and append it to what has been loaded before
+        String pageUrl = QueryUtils.buildPageUrl(mUrl, state.mNextOffset, mPageSize);
+        List<Earthquake> page = QueryUtils.fetchEarthquakeData(pageUrl);
+        if (page == null) {
+            return failPage(state);
+        }
+
+        advanceWatermark(state, page);
+        state.mNextOffset += page.size();
+        state.mHasMorePages = page.size() == mPageSize;
+        // An earthquake that arrived since the last page pushes the last earthquake of that
+        // page down into this one, so it is only kept once
+        return state.mStore.append(page);
+    }
+
+    // Wait for the startup snapshot to be read. Returns null if there is none. It is only
+    // let go once a load that looked at it is done, see onLoadDone()
+    private StartupSnapshot readStartupSnapshot() {
+        Future<StartupSnapshot> snapshot = mStartupSnapshot;
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            return snapshot.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | CancellationException e) {
+            Log.e(LOG_TAG, "Problem reading the startup snapshot", e);
+            return null;
+        }
+    }
+
+    // Load every time window of the query through a pipeline, newest window first. If nothing
+    // is shown yet, the windows loaded so far are shown while the others are on their way
+    private EarthquakeStore loadWindows(final LoadState state) {
+        List<String> windows = mPlanner.planWindows(mUrl);
+        Collections.reverse(windows);
+
+        EarthquakePipeline.Listener listener = state.mStore != null ? null
+                : new EarthquakePipeline.Listener() {
+                    // Rows of the windows so far, every one built against the one before
+                    private EarthquakeRows mProgressRows;
+
+                    @Override
+                    public void onChunk(List<Earthquake> earthquakes, int chunksDone,
+                                        int chunkCount) {
+                        if (chunksDone == chunkCount) {
+                            // The last one is delivered as the result of the load
+                            return;
+                        }
+                        final EarthquakeRows rows = EarthquakeRows.build(
+                                filter(EarthquakeStore.of(earthquakes)), mMagnitudeColours,
+                                mProgressRows);
+                        mProgressRows = rows;
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                LoadTask task = mTask;
+                                if (task != null && task.mState == state && isStarted()) {
+                                    deliverNow(rows);
+                                }
+                            }
+                        });
+                    }
+                };
+
+        EarthquakePipeline pipeline = new EarthquakePipeline(mExecutor, mPlanner);
+        state.mPipeline = pipeline;
+        if (Thread.currentThread().isInterrupted()) {
+            // Cancelled before the pipeline could be, see cancelTask()
+            return null;
+        }
+        List<Earthquake> result = pipeline.run(windows, listener);
+        return result == null ? null : startOver(state, result);
+    }
+
+    // Fetch the earthquakes updated after the watermark and merge them into the store by id
+    // and record what changed in the given result
+    private EarthquakeStore syncStore(LoadState state, SyncResult sync) {
+        EarthquakeStore store = state.mStore;
+        String deltaUrl = QueryUtils.buildDeltaUrl(mUrl, state.mSyncWatermark);
+        List<Earthquake> changes = QueryUtils.fetchEarthquakeDataFromNetwork(deltaUrl);
+        sync.mDone = true;
+        if (changes == null || changes.isEmpty()) {
+            // Nothing changed (or the request failed), keep the same store so the same rows
+            // are handed back
+            return store;
+        }
+
+        advanceWatermark(state, changes);
+        EarthquakeStore merged;
+        if (mPageSize <= 0) {
+            merged = store.merge(changes);
+        } else {
+            // The changes cover the whole query, not only the pages loaded so far. Only the
+            // ones that fall among the loaded pages are merged, the others come with their own
+            // pages. New earthquakes merged in push the rest of the query down, so the next
+            // page starts that much further into it
+            merged = store.mergeLoadedPages(changes);
+            state.mNextOffset += merged.size() - store.size();
+        }
+
+        // Earthquakes sent again as they were do not count
+        EarthquakeDiff diff = EarthquakeDiff.between(store, merged);
+        sync.mChanges = diff.getInsertedCount() + diff.getChangedCount();
+        sync.mLargestMagnitude = diff.getLargestMagnitude();
+        return merged;
+    }
+
+    // Make the given earthquakes the only ones loaded
+    private EarthquakeStore startOver(LoadState state, List<Earthquake> earthquakes) {
+        state.mSyncWatermark = 0;
+        advanceWatermark(state, earthquakes);
+        if (mPageSize > 0) {
+            state.mNextOffset = 1 + earthquakes.size();
+            state.mHasMorePages = earthquakes.size() == mPageSize;
+        }
+        return EarthquakeStore.of(earthquakes);
+    }
+
+    // The page request failed. Keep the earthquakes we already have. There are still more
+    // pages, the next scroll near the end of the list asks for this one again
+    private EarthquakeStore failPage(LoadState state) {
+        return state.mStore;
+    }
+
+    // Move the sync watermark up to the newest time or update time of the earthquakes
+    private static void advanceWatermark(LoadState state, List<Earthquake> earthquakes) {
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            long changed = Math.max(earthquake.getTimeInMilliSeconds(),
+                    earthquake.getUpdatedInMilliSeconds());
+            state.mSyncWatermark = Math.max(state.mSyncWatermark, changed);
+        }
+    }
+
+    /*
+    * This is on the main thread
+    */
+    @Override
+    public void deliverResult(EarthquakeRows earthquakes) {
+        mLoading = false;
+        boolean catchingUp = mCatchingUp;
+        mCatchingUp = false;
+
+        // Hold back a routine sync that comes in right after the last delivery. Pages, first
+        // loads, the sync after the startup snapshot and syncs that brought a significant
+        // earthquake are delivered straight away
+        long sinceDelivery = SystemClock.elapsedRealtime() - mLastDeliveryTime;
+        EarthquakeDiff changes = earthquakes == null ? null : earthquakes.getChanges();
+        if (mState.mSyncing && !catchingUp && mDeliveredRows != null
+                && sinceDelivery < BATCH_WINDOW_MILLIS
+                && changes != null && changes.getOldStore() == mDeliveredRows.getStore()
+                && !(changes.getLargestMagnitude() >= RefreshScheduler.SIGNIFICANT_MAGNITUDE)) {
+            mHeldRows = earthquakes;
+            mHandler.removeCallbacks(mDeliverHeldRows);
+            mHandler.postDelayed(mDeliverHeldRows, BATCH_WINDOW_MILLIS - sinceDelivery);
+        } else {
+            deliverNow(earthquakes);
+        }
+
+        // The result came from the disk cache, check it is still current
+        if (mState.mRevalidatePending && isStarted()) {
+            startLoad();
+        }
+
+        // The result came from the startup snapshot, fetch what changed since
+        if (mState.mSyncAfterRestore && isStarted()) {
+            catchUp();
+        }
+    }
+
+    // Sync in what changed since the startup snapshot was written, delivered as soon as it
+    // comes in
+    private void catchUp() {
+        mState.mSyncAfterRestore = false;
+        mCatchingUp = true;
+        sync();
+    }
+
+    // Hand rows to the activity, together with any that were held back
+    private void deliverNow(EarthquakeRows earthquakes) {
+        mHeldRows = null;
+        mHandler.removeCallbacks(mDeliverHeldRows);
+        if (earthquakes != null) {
+            mDeliveredRows = earthquakes;
+        }
+        mLastDeliveryTime = SystemClock.elapsedRealtime();
+        super.deliverResult(earthquakes);
+    }
+
+    @Override
+    protected void onReset() {
+        // The loader will not be used again, i.e. the activity has gone away. Stop the load
+        // in flight and let the planner threads go
+        cancelTask();
+        mLoading = false;
+        mHandler.removeCallbacks(mDeliverHeldRows);
+        mHeldRows = null;
+        if (mPlanner != null) {
+            mPlanner.shutdown();
+        }
+    }
+
+    // What the loads have loaded. A load works on its own copy, which only replaces the one of
+    // the loader once the load is done, on the main thread
+    private static final class LoadState {
+        // Every earthquake loaded so far
+        EarthquakeStore mStore;
+
+        // The last rows built. Reused as they are when nothing new was loaded
+        EarthquakeRows mRows;
+
+        // FDSN offset of the next page to load. The first earthquake of a query is at offset 1
+        int mNextOffset = 1;
+
+        // False once a page came back short, so there is nothing more to fetch
+        boolean mHasMorePages = true;
+
+        // Newest event time or update time seen so far. A sync only asks USGS for the events
+        // updated after it
+        long mSyncWatermark;
+
+        // True once the disk cache has been looked at for this loader
+        boolean mCacheChecked;
+
+        // True when the last result came from the disk cache and still has to be revalidated
+        boolean mRevalidatePending;
+
+        // True when the last result came from the startup snapshot and what changed since
+        // still has to be synced in
+        boolean mSyncAfterRestore;
+
+        // The rest is about a single load, and is not handed on to the next one
+
+        // True if the load was a sync
+        boolean mSyncing;
+
+        // The startup snapshot the rows of the load came from, or null
+        StartupSnapshot mRestoredSnapshot;
+
+        // The pipeline of the load, if it has one
+        volatile EarthquakePipeline mPipeline;
+
+        LoadState() {
+        }
+
+        LoadState(LoadState state) {
+            mStore = state.mStore;
+            mRows = state.mRows;
+            mNextOffset = state.mNextOffset;
+            mHasMorePages = state.mHasMorePages;
+            mSyncWatermark = state.mSyncWatermark;
+            mCacheChecked = state.mCacheChecked;
+            mRevalidatePending = state.mRevalidatePending;
+            mSyncAfterRestore = state.mSyncAfterRestore;
+        }
+    }
+
+    // What the sync of a load found
+    private static final class SyncResult {
+        // True if the load was asked to sync
+        final boolean mRequested;
+
+        // True once the sync has run, even if its request failed
+        volatile boolean mDone;
+
+        volatile int mChanges;
+        volatile double mLargestMagnitude = Double.NaN;
+
+        SyncResult(boolean requested) {
+            mRequested = requested;
+        }
+    }
+
+    // A load on the executor. Hands its result to the main thread when it is done
+    private class LoadTask extends FutureTask<EarthquakeRows> {
+        // The copy of the state the load works on
+        final LoadState mState;
+
+        final SyncResult mSync;
+
+        LoadTask(LoadState state, boolean sync) {
+            this(state, new SyncResult(sync));
+        }
+
+        private LoadTask(final LoadState state, final SyncResult sync) {
+            super(new Callable<EarthquakeRows>() {
+                @Override
+                public EarthquakeRows call() {
+                    return loadInBackground(state, sync);
+                }
+            });
+            mState = state;
+            mSync = sync;
+        }
+
+        @Override
+        protected void done() {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onLoadDone(LoadTask.this);
+                }
+            });
+        }
     }
 }
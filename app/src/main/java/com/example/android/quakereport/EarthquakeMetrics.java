@@ -0,0 +1,264 @@
+package com.example.android.quakereport;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lightweight counters and latency histograms for every stage of loading and showing
+ * earthquakes: connecting, downloading, parsing, building the list rows and binding them.
+ *
+ * Metrics are off by default. While they are off {@link #start()} returns 0 and every other
+ * call returns straight away, so the instrumented code pays one field read. Turn them on with
+ * {@link #setEnabled(boolean)}, read them back with the getters, or get all of them at once
+ * as text with {@link #dump()}.
+ *
+ * Latencies are kept in histograms with one bucket per power of two, from under a
+ * microsecond to over half an hour, so recording is a few atomic adds and never allocates.
+ */
+public final class EarthquakeMetrics {
+
+    /* From opening the connection to the response code, i.e. DNS, connect, TLS and the wait
+     * for the first byte */
+    public static final int STAGE_CONNECT = 0;
+
+    /* Time spent waiting for response bytes while the body was read */
+    public static final int STAGE_DOWNLOAD = 1;
+
+    /* Reading a response into earthquakes. The body is parsed as it arrives, so this
+     * includes the download time */
+    public static final int STAGE_PARSE = 2;
+
+    /* EarthquakeLoader.loadInBackground(), from the start of the load to the rows */
+    public static final int STAGE_LOAD = 3;
+
+    /* Building the formatted rows, including the diff against the previous rows */
+    public static final int STAGE_FORMAT = 4;
+
+    /* EarthquakeAdapter.getView(), binding one row on the main thread */
+    public static final int STAGE_BIND = 5;
+
+    /* From EarthquakeActivity.onCreate() to the first row drawn, the first time the
+     * activity starts in a process */
+    public static final int STAGE_FIRST_ROW_COLD = 6;
+
+    /* The same when the process was already running, i.e. the app was opened again after
+     * going back out of it */
+    public static final int STAGE_FIRST_ROW_WARM = 7;
+
+    /* Reading the StartupSnapshot */
+    public static final int STAGE_SNAPSHOT_READ = 8;
+
+    private static final String[] STAGE_NAMES = {"connect", "download", "parse", "load",
+            "format", "bind", "first row cold", "first row warm", "snapshot read"};
+
+    /* Bytes of response bodies received over the wire, before they were decompressed */
+    public static final int COUNTER_BYTES_READ = 0;
+
+    /* Earthquakes read from responses */
+    public static final int COUNTER_EVENTS_PARSED = 1;
+
+    /* Requests answered from the cache (i.e. with a 304 Not Modified) */
+    public static final int COUNTER_CACHE_HITS = 2;
+
+    /* Requests the cache could not answer */
+    public static final int COUNTER_CACHE_MISSES = 3;
+
+    /* Requests answered by a fresh result in memory, without going to the network */
+    public static final int COUNTER_MEMORY_HITS = 4;
+
+    /* Requests that waited for the same query already being fetched */
+    public static final int COUNTER_COALESCED_FETCHES = 5;
+
+    /* Features skipped because they were not shaped the way USGS documents them */
+    public static final int COUNTER_MALFORMED_FEATURES = 6;
+
+    /* Requests tried again after a failure */
+    public static final int COUNTER_RETRIES = 7;
+
+    /* Second requests sent because the first one was slow to answer */
+    public static final int COUNTER_HEDGED_REQUESTS = 8;
+
+    /* Bodies continued with a Range request after the connection broke */
+    public static final int COUNTER_RESUMED_READS = 9;
+
+    private static final String[] COUNTER_NAMES = {"bytes read", "events parsed", "cache hits",
+            "cache misses", "memory hits", "coalesced fetches", "malformed features", "retries",
+            "hedged requests", "resumed reads"};
+
+    /* Bucket i counts the durations below 2^i microseconds */
+    private static final int BUCKET_COUNT = 32;
+
+    // Every stage is one array: the buckets, then the count, the total and the maximum
+    private static final int COUNT = BUCKET_COUNT;
+    private static final int TOTAL = BUCKET_COUNT + 1;
+    private static final int MAX = BUCKET_COUNT + 2;
+    private static final int STAGE_SLOTS = BUCKET_COUNT + 3;
+
+    private static volatile boolean sEnabled;
+
+    private static final AtomicLongArray sStages =
+            new AtomicLongArray(STAGE_NAMES.length * STAGE_SLOTS);
+
+    private static final AtomicLongArray sCounters = new AtomicLongArray(COUNTER_NAMES.length);
+
+    /**
+     * Create a private constructor because no one should ever create an
+     * {@link EarthquakeMetrics} object. It only holds static methods.
+     */
+    private EarthquakeMetrics() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Return the time a stage starts, to be handed to {@link #record(int, long)} once it is
+     * done, or 0 if metrics are off.
+     */
+    public static long start() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record that a stage took from the given start, as returned by {@link #start()}, until
+     * now. Does nothing if the start is 0 (metrics were off when the stage started).
+     */
+    public static void record(int stage, long startNanos) {
+        if (startNanos != 0) {
+            recordNanos(stage, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Record that a stage took the given number of nanoseconds.
+     */
+    public static void recordNanos(int stage, long nanos) {
+        if (!sEnabled) {
+            return;
+        }
+        int base = stage * STAGE_SLOTS;
+        sStages.incrementAndGet(base + bucketOf(nanos));
+        sStages.incrementAndGet(base + COUNT);
+        sStages.addAndGet(base + TOTAL, nanos);
+        long max;
+        do {
+            max = sStages.get(base + MAX);
+        } while (nanos > max && !sStages.compareAndSet(base + MAX, max, nanos));
+    }
+
+    /**
+     * Add to a counter.
+     */
+    public static void count(int counter, long delta) {
+        if (sEnabled) {
+            sCounters.addAndGet(counter, delta);
+        }
+    }
+
+    public static long getCount(int stage) {
+        return sStages.get(stage * STAGE_SLOTS + COUNT);
+    }
+
+    public static long getTotalNanos(int stage) {
+        return sStages.get(stage * STAGE_SLOTS + TOTAL);
+    }
+
+    public static long getMaxNanos(int stage) {
+        return sStages.get(stage * STAGE_SLOTS + MAX);
+    }
+
+    /**
+     * Return a duration that the given fraction (i.e. 0.99) of the recorded durations of a
+     * stage are below. It is the upper bound of a histogram bucket, so it can be up to twice
+     * the actual value, but never more than the longest duration recorded.
+     */
+    public static long getPercentileNanos(int stage, double fraction) {
+        int base = stage * STAGE_SLOTS;
+        long count = sStages.get(base + COUNT);
+        if (count == 0) {
+            return 0;
+        }
+        long max = sStages.get(base + MAX);
+        long wanted = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT - 1; bucket++) {
+            seen += sStages.get(base + bucket);
+            if (seen >= wanted) {
+                return Math.min(bucketLimitNanos(bucket), max);
+            }
+        }
+        // The last bucket holds everything from half an hour up, it has no limit of its own
+        return max;
+    }
+
+    public static long getCounter(int counter) {
+        return sCounters.get(counter);
+    }
+
+    /**
+     * Return the number of earthquakes parsed per second of parse time.
+     */
+    public static double getEventsPerSecond() {
+        long parseNanos = getTotalNanos(STAGE_PARSE);
+        return parseNanos == 0 ? 0 : getCounter(COUNTER_EVENTS_PARSED) * 1e9 / parseNanos;
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public static void reset() {
+        for (int i = 0; i < sStages.length(); i++) {
+            sStages.set(i, 0);
+        }
+        for (int i = 0; i < sCounters.length(); i++) {
+            sCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * Return every metric as text, one line per stage and per counter, i.e.
+     * "parse count=12 mean=41.20ms p50=32.77ms p99=65.54ms max=60.12ms".
+     */
+    public static String dump() {
+        StringBuilder dump = new StringBuilder();
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            long count = getCount(stage);
+            dump.append(STAGE_NAMES[stage]).append(" count=").append(count);
+            if (count > 0) {
+                dump.append(" mean=").append(millis(getTotalNanos(stage) / count))
+                        .append(" p50=").append(millis(getPercentileNanos(stage, 0.5)))
+                        .append(" p99=").append(millis(getPercentileNanos(stage, 0.99)))
+                        .append(" max=").append(millis(getMaxNanos(stage)));
+            }
+            dump.append('\n');
+        }
+        for (int counter = 0; counter < COUNTER_NAMES.length; counter++) {
+            dump.append(COUNTER_NAMES[counter]).append('=').append(getCounter(counter))
+                    .append('\n');
+        }
+        dump.append("events per second=")
+                .append(String.format(Locale.US, "%.0f", getEventsPerSecond())).append('\n');
+        return dump.toString();
+    }
+
+    // Return the histogram bucket of a duration
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    // Return the duration all of the values in a bucket are below
+    private static long bucketLimitNanos(int bucket) {
+        return (1L << bucket) * 1000;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.2fms", nanos / 1e6);
+    }
+}
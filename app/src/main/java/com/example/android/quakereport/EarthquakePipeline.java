@@ -0,0 +1,338 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads a query that is split into several chunks (i.e. the time windows of a
+ * {@link QueryPlanner}) in three stages that run at the same time:
+ *
+ * fetch     - requests the chunks, at most {@link #getFetchAhead()} ahead of the parser
+ * parse     - parses the body of every chunk, in order, as it comes over the wire
+ * transform - merges every parsed chunk into the ones before, newest earthquake first
+ *
+ * The stages hand chunks to each other through bounded queues, so chunk N is parsed while
+ * the requests of the next chunks are on their way, and a slow parser holds the requests back.
+ * Bodies are never read into memory: the parser reads each one from its connection, and the
+ * chunks requested ahead wait with their bodies unread. The listener is handed the earthquakes
+ * merged so far after every chunk, so the first ones can be shown before the last chunk has
+ * arrived.
+ *
+ * The fetch and parse stages run on the given executor, which must be able to run all of them
+ * at once (it must not be serial). The requests run there too, or on the threads of the
+ * {@link QueryPlanner} the pipeline is made for, with its concurrency and retries. The
+ * transform stage runs on the thread that calls {@link #run(List, Listener)}. A pipeline runs
+ * once.
+ */
+public class EarthquakePipeline {
+
+    private static final String LOG_TAG = EarthquakePipeline.class.getSimpleName();
+
+    /* Default number of chunks downloaded ahead of the parser */
+    public static final int DEFAULT_FETCH_AHEAD = 2;
+
+    private static final ExecutorService sDefaultExecutor =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "EarthquakePipeline");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Told about the earthquakes loaded so far every time a chunk has been merged in.
+     * Called on the thread that runs the pipeline.
+     */
+    public interface Listener {
+        /**
+         * @param earthquakes every earthquake of the chunks done so far, newest first
+         * @param chunksDone  number of chunks done, including the ones that failed
+         * @param chunkCount  number of chunks of the query
+         */
+        void onChunk(List<Earthquake> earthquakes, int chunksDone, int chunkCount);
+    }
+
+    private final ExecutorService mExecutor;
+    private final EarthquakeCache mCache;
+    private final int mFetchAhead;
+
+    // Makes the requests, or null to make them on mExecutor without retrying a chunk
+    private final QueryPlanner mPlanner;
+
+    private volatile boolean mCancelled;
+
+    // The fetch and parse stages, and every download they started. Also guards mRunner and
+    // mDownloads
+    private final List<Future<?>> mTasks = new ArrayList<>();
+
+    // Every download, so the ones a cancelled pipeline never parsed can be closed
+    private final List<Future<QueryUtils.Download>> mDownloads = new ArrayList<>();
+
+    // The thread running the transform stage, while it does
+    private Thread mRunner;
+
+    /**
+     * Constructs a new EarthquakePipeline on the default executor, which is shared by every
+     * pipeline
+     *
+     * @param cache every chunk is revalidated against and stored in, or null
+     */
+    public EarthquakePipeline(EarthquakeCache cache) {
+        this(sDefaultExecutor, cache, DEFAULT_FETCH_AHEAD);
+    }
+
+    /**
+     * Constructs a new EarthquakePipeline
+     *
+     * @param executor   runs the fetch and parse stages and the downloads
+     * @param cache      every chunk is revalidated against and stored in, or null
+     * @param fetchAhead number of chunks downloaded ahead of the parser
+     */
+    public EarthquakePipeline(ExecutorService executor, EarthquakeCache cache, int fetchAhead) {
+        this(executor, cache, fetchAhead, null);
+    }
+
+    /**
+     * Constructs a new EarthquakePipeline that makes its requests on the threads of a planner,
+     * as many at once as the planner allows, trying a chunk that fails again as many times as
+     * the planner does
+     *
+     * @param executor runs the fetch and parse stages
+     * @param planner  makes the requests, and its cache is the one every chunk is
+     *                 revalidated against and stored in
+     */
+    public EarthquakePipeline(ExecutorService executor, QueryPlanner planner) {
+        this(executor, planner.getCache(), planner.getMaxConcurrency(), planner);
+    }
+
+    private EarthquakePipeline(ExecutorService executor, EarthquakeCache cache, int fetchAhead,
+                               QueryPlanner planner) {
+        mExecutor = executor;
+        mCache = cache;
+        mFetchAhead = Math.max(1, fetchAhead);
+        mPlanner = planner;
+    }
+
+    /**
+     * Return the executor pipelines run on unless they are given one.
+     */
+    public static ExecutorService getDefaultExecutor() {
+        return sDefaultExecutor;
+    }
+
+    public int getFetchAhead() {
+        return mFetchAhead;
+    }
+
+    /**
+     * Load every chunk of a query and merge them, newest earthquake first, keeping only one
+     * copy of an earthquake that two chunks both return. Returns null if every chunk failed,
+     * or if the pipeline was cancelled or the calling thread interrupted.
+     *
+     * This blocks until all the chunks are done, so it must not be called on the main thread.
+     *
+     * @param chunkUrls the query URL of every chunk, in the order they should be loaded
+     * @param listener  told about the earthquakes after every chunk, or null
+     */
+    public List<Earthquake> run(final List<String> chunkUrls, Listener listener) {
+        synchronized (mTasks) {
+            mRunner = Thread.currentThread();
+        }
+        try {
+            return runStages(chunkUrls, listener);
+        } finally {
+            synchronized (mTasks) {
+                mRunner = null;
+            }
+        }
+    }
+
+    private List<Earthquake> runStages(final List<String> chunkUrls, Listener listener) {
+        final int chunkCount = chunkUrls.size();
+        final BlockingQueue<Future<QueryUtils.Download>> downloads =
+                new ArrayBlockingQueue<>(mFetchAhead);
+        final BlockingQueue<Chunk> parsed = new ArrayBlockingQueue<>(mFetchAhead);
+
+        // Fetch: start requesting the chunks in order. Blocks while the parser is
+        // mFetchAhead chunks behind
+        submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                for (String chunkUrl : chunkUrls) {
+                    downloads.put(download(chunkUrl));
+                }
+                return null;
+            }
+        });
+
+        // Parse: parse every chunk once it has been downloaded, in order
+        submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                for (int i = 0; i < chunkCount; i++) {
+                    parsed.put(new Chunk(chunkUrls.get(i), parse(downloads.take())));
+                }
+                return null;
+            }
+        });
+
+        // Transform: merge every parsed chunk into the earthquakes loaded so far. Every merge
+        // only costs a walk of the earthquakes so far, they are already in order
+        List<Earthquake> merged = null;
+        try {
+            for (int i = 0; i < chunkCount; i++) {
+                Chunk chunk = parsed.take();
+                if (chunk.earthquakes == null) {
+                    Log.e(LOG_TAG, "Giving up on chunk " + chunk.url);
+                } else {
+                    merged = QueryPlanner.merge(merged != null
+                            ? merged : Collections.<Earthquake>emptyList(), chunk.earthquakes);
+                }
+                if (listener != null && merged != null && !mCancelled) {
+                    listener.onChunk(merged, i + 1, chunkCount);
+                }
+            }
+        } catch (InterruptedException e) {
+            // The load was cancelled, stop the other stages
+            Thread.currentThread().interrupt();
+            cancel();
+        }
+        if (mCancelled) {
+            closeDownloads();
+            return null;
+        }
+        return merged;
+    }
+
+    // Request a chunk without reading its body, on the threads of the planner if there is one
+    private Future<QueryUtils.Download> download(final String chunkUrl) {
+        Callable<QueryUtils.Download> request = new Callable<QueryUtils.Download>() {
+            @Override
+            public QueryUtils.Download call() throws IOException {
+                QueryUtils.Download download = mPlanner != null
+                        ? mPlanner.download(chunkUrl)
+                        : QueryUtils.downloadEarthquakeData(chunkUrl, mCache);
+                // Nobody will parse it
+                if (download != null && mCancelled) {
+                    download.close();
+                    return null;
+                }
+                return download;
+            }
+        };
+        Future<QueryUtils.Download> download =
+                track(mPlanner != null ? mPlanner.submit(request) : mExecutor.submit(request));
+        synchronized (mTasks) {
+            mDownloads.add(download);
+        }
+        return download;
+    }
+
+    // Close the connections of the downloads that came in but were never parsed
+    private void closeDownloads() {
+        List<Future<QueryUtils.Download>> downloads;
+        synchronized (mTasks) {
+            downloads = new ArrayList<>(mDownloads);
+        }
+        for (Future<QueryUtils.Download> download : downloads) {
+            if (!download.isDone() || download.isCancelled()) {
+                // Closes itself once it comes in, see download()
+                continue;
+            }
+            try {
+                QueryUtils.Download result = download.get();
+                if (result != null) {
+                    result.close();
+                }
+            } catch (ExecutionException | InterruptedException | IOException e) {
+                // Nothing to close
+            }
+        }
+    }
+
+    /**
+     * Stop the pipeline, i.e. because the screen it loads for has gone away. Downloads and
+     * the stages are interrupted, and {@link #run(List, Listener)} returns null.
+     */
+    public void cancel() {
+        mCancelled = true;
+        synchronized (mTasks) {
+            for (Future<?> task : mTasks) {
+                task.cancel(true);
+            }
+            // The transform stage may be waiting for a chunk that will never come
+            if (mRunner != null && mRunner != Thread.currentThread()) {
+                mRunner.interrupt();
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    // Run a stage on the executor, cancelled together with the pipeline
+    private <T> Future<T> submit(Callable<T> task) {
+        return track(mExecutor.submit(task));
+    }
+
+    // Cancel the given stage or download together with the pipeline
+    private <T> Future<T> track(Future<T> future) {
+        synchronized (mTasks) {
+            mTasks.add(future);
+        }
+        if (mCancelled) {
+            future.cancel(true);
+        }
+        return future;
+    }
+
+    // Wait for a download and parse its body as it arrives, returning null if either failed.
+    // Whatever goes wrong, every chunk is handed on, or the transform stage would wait for it
+    // for good
+    private List<Earthquake> parse(Future<QueryUtils.Download> download)
+            throws InterruptedException {
+        try {
+            QueryUtils.Download result = download.get();
+            if (result == null) {
+                return null;
+            }
+            List<Earthquake> earthquakes = QueryUtils.parseEarthquakeData(result, mCache);
+            return earthquakes == null ? null : Collections.unmodifiableList(earthquakes);
+        } catch (CancellationException e) {
+            // The pipeline was cancelled
+            return null;
+        } catch (ExecutionException | IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Problem loading a chunk", e);
+            return null;
+        }
+    }
+
+    // A chunk on its way from the parser to the transform stage
+    private static final class Chunk {
+        final String url;
+
+        /* The earthquakes of the chunk, or null if it failed */
+        final List<Earthquake> earthquakes;
+
+        Chunk(String url, List<Earthquake> earthquakes) {
+            this.url = url;
+            this.earthquakes = earthquakes;
+        }
+    }
+}
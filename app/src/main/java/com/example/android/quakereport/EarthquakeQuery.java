@@ -0,0 +1,167 @@
+package com.example.android.quakereport;
+
+/**
+ * A filter over loaded earthquakes: a magnitude range, a time range, a circle on the map and a
+ * primary location, any of which can be left open. Answered without any I/O by an
+ * {@link EarthquakeIndex}. Use a {@link Builder} to make one, i.e. "M6+ in the last 30 days
+ * within 500 km of Tokyo":
+ *
+ * <pre>
+ * new EarthquakeQuery.Builder()
+ *         .minMagnitude(6)
+ *         .after(now - 30 * DAY_MILLIS)
+ *         .within(500, 35.68, 139.69)
+ *         .build();
+ * </pre>
+ */
+public final class EarthquakeQuery {
+
+    /* Mean radius of the Earth */
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private final double mMinMagnitude;
+    private final double mMaxMagnitude;
+    private final long mStartTime;
+    private final long mEndTime;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final double mRadiusKm;
+    private final String mPrimaryLocation;
+
+    private EarthquakeQuery(Builder builder) {
+        mMinMagnitude = builder.mMinMagnitude;
+        mMaxMagnitude = builder.mMaxMagnitude;
+        mStartTime = builder.mStartTime;
+        mEndTime = builder.mEndTime;
+        mLatitude = builder.mLatitude;
+        mLongitude = builder.mLongitude;
+        mRadiusKm = builder.mRadiusKm;
+        mPrimaryLocation = builder.mPrimaryLocation;
+    }
+
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    public double getMaxMagnitude() {
+        return mMaxMagnitude;
+    }
+
+    /* Earliest time, inclusive */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /* Latest time, exclusive */
+    public long getEndTime() {
+        return mEndTime;
+    }
+
+    public boolean hasRegion() {
+        return !Double.isNaN(mRadiusKm);
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public double getRadiusKm() {
+        return mRadiusKm;
+    }
+
+    /* The primary location earthquakes must be in (i.e. "Fiji region"), or null for any */
+    public String getPrimaryLocation() {
+        return mPrimaryLocation;
+    }
+
+    /**
+     * Return true if the earthquake at the given index of the store passes the filter. An
+     * earthquake without coordinates never passes a filter with a region.
+     */
+    public boolean matches(EarthquakeStore store, int index) {
+        double magnitude = store.getMagnitude(index);
+        long time = store.getTimeInMilliSeconds(index);
+        if (magnitude < mMinMagnitude || magnitude > mMaxMagnitude
+                || time < mStartTime || time >= mEndTime) {
+            return false;
+        }
+        if (mPrimaryLocation != null
+                && !mPrimaryLocation.equals(store.getPrimaryLocation(index))) {
+            return false;
+        }
+        return !hasRegion() || distanceKm(mLatitude, mLongitude, store.getLatitude(index),
+                store.getLongitude(index)) <= mRadiusKm;
+    }
+
+    /**
+     * Return the great circle distance between two points, or NaN if either is not known.
+     */
+    public static double distanceKm(double latitude1, double longitude1, double latitude2,
+                                    double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double sinHalfLatitude = Math.sin((phi2 - phi1) / 2);
+        double sinHalfLongitude = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = sinHalfLatitude * sinHalfLatitude
+                + Math.cos(phi1) * Math.cos(phi2) * sinHalfLongitude * sinHalfLongitude;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Builds up an {@link EarthquakeQuery}. Every part that is not set is left open.
+     */
+    public static final class Builder {
+        private double mMinMagnitude = Double.NEGATIVE_INFINITY;
+        private double mMaxMagnitude = Double.POSITIVE_INFINITY;
+        private long mStartTime = Long.MIN_VALUE;
+        private long mEndTime = Long.MAX_VALUE;
+        private double mLatitude = Double.NaN;
+        private double mLongitude = Double.NaN;
+        private double mRadiusKm = Double.NaN;
+        private String mPrimaryLocation;
+
+        public Builder minMagnitude(double magnitude) {
+            mMinMagnitude = magnitude;
+            return this;
+        }
+
+        public Builder maxMagnitude(double magnitude) {
+            mMaxMagnitude = magnitude;
+            return this;
+        }
+
+        /* Only earthquakes at or after the given time */
+        public Builder after(long timeInMilliSeconds) {
+            mStartTime = timeInMilliSeconds;
+            return this;
+        }
+
+        /* Only earthquakes before the given time */
+        public Builder before(long timeInMilliSeconds) {
+            mEndTime = timeInMilliSeconds;
+            return this;
+        }
+
+        /* Only earthquakes within the given distance of a point */
+        public Builder within(double radiusKm, double latitude, double longitude) {
+            mRadiusKm = radiusKm;
+            mLatitude = latitude;
+            mLongitude = longitude;
+            return this;
+        }
+
+        /* Only earthquakes in the given primary location, i.e. "Fiji region" */
+        public Builder primaryLocation(String primaryLocation) {
+            mPrimaryLocation = primaryLocation;
+            return this;
+        }
+
+        public EarthquakeQuery build() {
+            return new EarthquakeQuery(this);
+        }
+    }
+}
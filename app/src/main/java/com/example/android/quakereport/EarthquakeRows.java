@@ -0,0 +1,268 @@
+package com.example.android.quakereport;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Everything the list shows for an {@link EarthquakeStore}, formatted ahead of time: the
+ * magnitude text, the colour of the magnitude circle, the date and the time of every
+ * earthquake. The value at an index of each column is the display record of that row, so
+ * binding a row is only a matter of copying these values into its views.
+ *
+ * Rows are built on a background thread once the earthquakes have been parsed. Large stores
+ * are split in chunks that are formatted in parallel on all cores.
+ */
+public final class EarthquakeRows {
+
+    /* Rows without earthquakes */
+    public static final EarthquakeRows EMPTY =
+            new EarthquakeRows(EarthquakeStore.EMPTY, new String[0], new int[0], new String[0],
+                    new String[0], null);
+
+    /* Below this many new rows, formatting on the calling thread is quicker than
+     * handing the work to other threads */
+    private static final int PARALLEL_THRESHOLD = 2000;
+
+    private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    /* Threads the rows of large stores are formatted on, shared by every load */
+    private static final ExecutorService FORMAT_EXECUTOR =
+            Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "EarthquakeRows");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final EarthquakeStore mStore;
+    private final String[] mMagnitudeTexts;
+    private final int[] mMagnitudeColours;
+    private final String[] mDateTexts;
+    private final String[] mTimeTexts;
+
+    // Changes from the rows these were built from, or null if they were built from scratch
+    private final EarthquakeDiff mChanges;
+
+    private EarthquakeRows(EarthquakeStore store, String[] magnitudeTexts, int[] magnitudeColours,
+                           String[] dateTexts, String[] timeTexts, EarthquakeDiff changes) {
+        mStore = store;
+        mMagnitudeTexts = magnitudeTexts;
+        mMagnitudeColours = magnitudeColours;
+        mDateTexts = dateTexts;
+        mTimeTexts = timeTexts;
+        mChanges = changes;
+    }
+
+    /**
+     * Format the rows of every earthquake in the store. This is slow for large stores and must
+     * not be called on the main thread.
+     *
+     * @param magnitudeColours colour of the magnitude circle for each whole magnitude from 0 to
+     *                         10, as returned by {@link #getMagnitudeBand(double)}
+     * @param previous         rows built for an earlier version of the store, or null. If the
+     *                         store starts with the same earthquakes (i.e. a page was appended),
+     *                         their rows are reused and only the new ones are formatted.
+     *                         Otherwise the rows of unchanged earthquakes are found by event id
+     *                         (i.e. after new earthquakes were merged in) and reused. The
+     *                         changes from these rows are kept, see {@link #getChanges()}
+     */
+    public static EarthquakeRows build(EarthquakeStore store, int[] magnitudeColours,
+                                       EarthquakeRows previous) {
+        int size = store.size();
+        String[] magnitudeTexts = new String[size];
+        int[] colours = new int[size];
+        String[] dateTexts = new String[size];
+        String[] timeTexts = new String[size];
+
+        EarthquakeDiff changes =
+                previous == null ? null : EarthquakeDiff.between(previous.mStore, store);
+        EarthquakeRows rows =
+                new EarthquakeRows(store, magnitudeTexts, colours, dateTexts, timeTexts, changes);
+        int start = 0;
+        int reused = 0;
+        if (previous != null && store.startsWith(previous.mStore)) {
+            start = previous.size();
+            System.arraycopy(previous.mMagnitudeTexts, 0, magnitudeTexts, 0, start);
+            System.arraycopy(previous.mMagnitudeColours, 0, colours, 0, start);
+            System.arraycopy(previous.mDateTexts, 0, dateTexts, 0, start);
+            System.arraycopy(previous.mTimeTexts, 0, timeTexts, 0, start);
+        } else if (previous != null) {
+            reused = rows.reuseById(previous, changes);
+        }
+
+        if (size - start - reused < PARALLEL_THRESHOLD || THREAD_COUNT == 1) {
+            rows.format(start, size, magnitudeColours);
+        } else {
+            rows.formatInParallel(start, size, magnitudeColours);
+        }
+        return rows;
+    }
+
+    /**
+     * Return which of the magnitude circle colours an earthquake uses: the magnitude rounded
+     * down for magnitudes from 0 to below 10, and 10 for 10 and above and for negative
+     * magnitudes. See EarthquakeAdapter.getMagnitudeColours() for the colour of every band.
+     */
+    public static int getMagnitudeBand(double magnitude) {
+        int magnitudeRoundedDown = (int) Math.floor(magnitude);
+        if (magnitudeRoundedDown < 0 || magnitudeRoundedDown > 9) {
+            return 10;
+        }
+        return magnitudeRoundedDown;
+    }
+
+    public int size() {
+        return mStore.size();
+    }
+
+    public EarthquakeStore getStore() {
+        return mStore;
+    }
+
+    public String getMagnitudeText(int index) {
+        return mMagnitudeTexts[index];
+    }
+
+    public int getMagnitudeColour(int index) {
+        return mMagnitudeColours[index];
+    }
+
+    public String getDateText(int index) {
+        return mDateTexts[index];
+    }
+
+    public String getTimeText(int index) {
+        return mTimeTexts[index];
+    }
+
+    /**
+     * Return the changes from the rows these were built from, matched by event id, or null if
+     * they were built from scratch. Used to apply only what changed to the list.
+     */
+    public EarthquakeDiff getChanges() {
+        return mChanges;
+    }
+
+    /**
+     * What a row of the list shows, taken from the rows with {@link #bind(EarthquakeRows, int)}.
+     * EarthquakeAdapter keeps one with the views of every list item, and only sets the views
+     * when it changed. Binding never allocates, every value was made when the rows were built.
+     */
+    public static class Binding {
+        public long id;
+        public String magnitudeText;
+        public int magnitudeColour;
+        public String dateText;
+        public String timeText;
+        public String primaryLocation;
+        public String offsetLocation;
+
+        /**
+         * Take the values of the row at the given position. Returns false if they are the ones
+         * already taken, i.e. the item shows that earthquake and it has not changed since (rows
+         * of unchanged earthquakes share their Strings across loads), so there is nothing to set.
+         */
+        public boolean bind(EarthquakeRows rows, int position) {
+            EarthquakeStore store = rows.mStore;
+            long rowId = store.getStableId(position);
+            String rowMagnitudeText = rows.mMagnitudeTexts[position];
+            String rowDateText = rows.mDateTexts[position];
+            String rowPrimaryLocation = store.getPrimaryLocation(position);
+            String rowOffsetLocation = store.getOffsetLocation(position);
+            if (id == rowId && magnitudeText == rowMagnitudeText && dateText == rowDateText
+                    && primaryLocation == rowPrimaryLocation
+                    && offsetLocation == rowOffsetLocation) {
+                return false;
+            }
+            id = rowId;
+            magnitudeText = rowMagnitudeText;
+            magnitudeColour = rows.mMagnitudeColours[position];
+            dateText = rowDateText;
+            timeText = rows.mTimeTexts[position];
+            primaryLocation = rowPrimaryLocation;
+            offsetLocation = rowOffsetLocation;
+            return true;
+        }
+    }
+
+    // Copy the rows of the earthquakes that are unchanged since the previous rows, matched by
+    // event id. Returns the number of rows copied
+    private int reuseById(EarthquakeRows previous, EarthquakeDiff changes) {
+        EarthquakeStore previousStore = previous.mStore;
+        int reused = 0;
+        for (int i = 0; i < mStore.size(); i++) {
+            int previousIndex = changes.getOldPosition(i);
+            if (previousIndex >= 0
+                    && previousStore.getMagnitude(previousIndex) == mStore.getMagnitude(i)
+                    && previousStore.getTimeInMilliSeconds(previousIndex)
+                    == mStore.getTimeInMilliSeconds(i)) {
+                mMagnitudeTexts[i] = previous.mMagnitudeTexts[previousIndex];
+                mMagnitudeColours[i] = previous.mMagnitudeColours[previousIndex];
+                mDateTexts[i] = previous.mDateTexts[previousIndex];
+                mTimeTexts[i] = previous.mTimeTexts[previousIndex];
+                reused++;
+            }
+        }
+        return reused;
+    }
+
+    // Split the rows in one chunk per thread and wait for all of them to be formatted
+    private void formatInParallel(int start, int end, final int[] magnitudeColours) {
+        int chunkSize = (end - start + THREAD_COUNT - 1) / THREAD_COUNT;
+        List<Future<Void>> chunks = new ArrayList<>(THREAD_COUNT);
+        for (int chunkStart = start; chunkStart < end; chunkStart += chunkSize) {
+            final int from = chunkStart;
+            final int to = Math.min(chunkStart + chunkSize, end);
+            chunks.add(FORMAT_EXECUTOR.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    format(from, to, magnitudeColours);
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<Void> chunk : chunks) {
+                chunk.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while formatting earthquake rows", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Problem formatting earthquake rows", e.getCause());
+        }
+    }
+
+    // Format the rows from start (inclusive) to end (exclusive) that have not been reused.
+    // Formatters are not thread safe, so every call makes its own
+    private void format(int start, int end, int[] magnitudeColours) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MMM, DD, yyyy");
+        SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
+        DecimalFormat magnitudeFormat = new DecimalFormat("0.0");
+        Date date = new Date();
+
+        for (int i = start; i < end; i++) {
+            if (mMagnitudeTexts[i] != null) {
+                continue;
+            }
+            double magnitude = mStore.getMagnitude(i);
+            mMagnitudeTexts[i] = magnitudeFormat.format(magnitude);
+            mMagnitudeColours[i] = magnitudeColours[getMagnitudeBand(magnitude)];
+            date.setTime(mStore.getTimeInMilliSeconds(i));
+            mDateTexts[i] = dateFormat.format(date);
+            mTimeTexts[i] = timeFormat.format(date);
+        }
+    }
+}
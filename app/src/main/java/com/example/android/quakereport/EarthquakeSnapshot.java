@@ -0,0 +1,211 @@
+package com.example.android.quakereport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary format for a list of {@link Earthquake} objects, so a list that has already
+ * been parsed once can be loaded again without going through JSON.
+ *
+ * The layout is a header (magic number, format version and number of earthquakes) followed by
+ * one column per field: all the magnitudes, then all the times, then all the latitudes and
+ * longitudes (NaN when not known), then a table of the distinct id, location and URL strings,
+ * then for every earthquake the index of its id, location and URL in that table. A missing id
+ * is stored as an empty string. A CRC32 of everything before it, header included, is written
+ * at the end.
+ */
+public final class EarthquakeSnapshot {
+
+    /* "QKSN" */
+    private static final int MAGIC = 0x514B534E;
+
+    /* Bump this when the layout changes, older snapshots are then rejected */
+    private static final int VERSION = 4;
+
+    /* Bytes of the magic number, version, count, string count and checksum */
+    private static final int FIXED_BYTES = 4 + 4 + 4 + 4 + 8;
+
+    /* Bytes every earthquake takes besides its strings: 4 numbers and 3 string indexes */
+    private static final int BYTES_PER_EARTHQUAKE = 4 * 8 + 3 * 4;
+
+    /* Bytes every string of the table takes at least: its length */
+    private static final int MIN_BYTES_PER_STRING = 2;
+
+    /**
+     * Create a private constructor because no one should ever create an
+     * {@link EarthquakeSnapshot} object. It only holds static methods.
+     */
+    private EarthquakeSnapshot() {
+    }
+
+    /**
+     * Write the earthquakes to the stream. The stream is not closed.
+     */
+    public static void write(List<Earthquake> earthquakes, OutputStream outputStream)
+            throws IOException {
+        int count = earthquakes.size();
+
+        CRC32 checksum = new CRC32();
+        DataOutputStream out =
+                new DataOutputStream(new CheckedOutputStream(outputStream, checksum));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(count);
+
+        for (int i = 0; i < count; i++) {
+            out.writeDouble(earthquakes.get(i).getMagnitude());
+        }
+        for (int i = 0; i < count; i++) {
+            out.writeLong(earthquakes.get(i).getTimeInMilliSeconds());
+        }
+        for (int i = 0; i < count; i++) {
+            out.writeDouble(earthquakes.get(i).getLatitude());
+        }
+        for (int i = 0; i < count; i++) {
+            out.writeDouble(earthquakes.get(i).getLongitude());
+        }
+
+        // Build the string table, the same location (i.e. "Fiji region") is stored only once
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] idIndexes = new int[count];
+        int[] locationIndexes = new int[count];
+        int[] urlIndexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            String id = earthquake.getId();
+            idIndexes[i] = indexOf(id == null ? "" : id, stringIndexes, strings);
+            locationIndexes[i] = indexOf(earthquake.getLocation(), stringIndexes, strings);
+            urlIndexes[i] = indexOf(earthquake.getUrl(), stringIndexes, strings);
+        }
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+        for (int i = 0; i < count; i++) {
+            out.writeInt(idIndexes[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            out.writeInt(locationIndexes[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            out.writeInt(urlIndexes[i]);
+        }
+        out.flush();
+
+        // The checksum itself is written past the checked stream
+        DataOutputStream trailer = new DataOutputStream(outputStream);
+        trailer.writeLong(checksum.getValue());
+        trailer.flush();
+    }
+
+    /**
+     * Read earthquakes written by {@link #write(List, OutputStream)}.
+     *
+     * @param maxLength the stream can have left at most, i.e. the length of the file it is
+     *                  read from. The counts in the snapshot are checked against it before
+     *                  anything is allocated for them, so a corrupt count cannot run the app out
+     *                  of memory
+     * @throws IOException if the stream is not a snapshot, was written by another version of
+     *                     the format, is truncated or fails its checksum
+     */
+    public static List<Earthquake> read(InputStream inputStream, long maxLength)
+            throws IOException {
+        CRC32 checksum = new CRC32();
+        DataInputStream in = new DataInputStream(new CheckedInputStream(inputStream, checksum));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an earthquake snapshot");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported earthquake snapshot version " + version);
+        }
+        int count = in.readInt();
+        long remaining = maxLength - FIXED_BYTES;
+        if (count < 0 || count > remaining / BYTES_PER_EARTHQUAKE) {
+            throw new IOException("Corrupt earthquake snapshot, count " + count);
+        }
+        remaining -= (long) count * BYTES_PER_EARTHQUAKE;
+
+        double[] magnitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            magnitudes[i] = in.readDouble();
+        }
+        long[] times = new long[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = in.readLong();
+        }
+        double[] latitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            latitudes[i] = in.readDouble();
+        }
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            longitudes[i] = in.readDouble();
+        }
+        int stringCount = in.readInt();
+        if (stringCount < 0 || stringCount > remaining / MIN_BYTES_PER_STRING) {
+            throw new IOException("Corrupt earthquake snapshot, string count " + stringCount);
+        }
+        String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; i++) {
+            strings[i] = in.readUTF();
+        }
+        int[] idIndexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            idIndexes[i] = in.readInt();
+        }
+        int[] locationIndexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            locationIndexes[i] = in.readInt();
+        }
+        int[] urlIndexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            urlIndexes[i] = in.readInt();
+        }
+
+        // The checksum itself is read past the checked stream
+        long expected = checksum.getValue();
+        if (new DataInputStream(inputStream).readLong() != expected) {
+            throw new IOException("Corrupt earthquake snapshot, checksum mismatch");
+        }
+
+        List<Earthquake> earthquakes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String id = stringAt(strings, idIndexes[i]);
+            earthquakes.add(new Earthquake(id.isEmpty() ? null : id, magnitudes[i],
+                    stringAt(strings, locationIndexes[i]), times[i], 0,
+                    stringAt(strings, urlIndexes[i]), latitudes[i], longitudes[i]));
+        }
+        return earthquakes;
+    }
+
+    // Return the index of the string in the table, adding it if it is not there yet
+    private static int indexOf(String string, Map<String, Integer> stringIndexes,
+                               List<String> strings) {
+        Integer index = stringIndexes.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndexes.put(string, index);
+        }
+        return index;
+    }
+
+    private static String stringAt(String[] strings, int index) throws IOException {
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("Corrupt earthquake snapshot, string index " + index);
+        }
+        return strings[index];
+    }
+}
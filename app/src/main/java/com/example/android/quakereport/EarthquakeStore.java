@@ -0,0 +1,397 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A list of earthquakes kept as parallel primitive arrays instead of one {@link Earthquake}
+ * object per event. Locations come from the {@link LocationPool}, so the thousands of events
+ * in the same region share a single String, and every location is already split into its
+ * offset (i.e. "75 km NE of ") and primary location (i.e. "Montreal, Canada"), so the list
+ * does not have to split it again on every bind.
+ *
+ * A store never changes once it has been built, so it can be handed from the loader to the
+ * adapter and kept across configuration changes without copying. Use a {@link Builder} to
+ * make a new one.
+ */
+public final class EarthquakeStore {
+
+    /* Offset location shown when the location does not say how far from the place it was */
+    private static final String NEAR_THE = "Near the ";
+
+    /* A store without earthquakes */
+    public static final EarthquakeStore EMPTY = new Builder().build();
+
+    private final int mSize;
+    private final String[] mIds;
+    private final double[] mMagnitudes;
+    private final long[] mTimes;
+    // Offset locations are empty when the location has none
+    private final String[] mOffsetLocations;
+    private final String[] mPrimaryLocations;
+    private final String[] mUrls;
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+
+    private EarthquakeStore(Builder builder) {
+        mSize = builder.mSize;
+        mIds = Arrays.copyOf(builder.mIds, mSize);
+        mMagnitudes = Arrays.copyOf(builder.mMagnitudes, mSize);
+        mTimes = Arrays.copyOf(builder.mTimes, mSize);
+        mOffsetLocations = Arrays.copyOf(builder.mOffsetLocations, mSize);
+        mPrimaryLocations = Arrays.copyOf(builder.mPrimaryLocations, mSize);
+        mUrls = Arrays.copyOf(builder.mUrls, mSize);
+        mLatitudes = Arrays.copyOf(builder.mLatitudes, mSize);
+        mLongitudes = Arrays.copyOf(builder.mLongitudes, mSize);
+    }
+
+    /**
+     * Return a store holding the given earthquakes, in the same order.
+     */
+    public static EarthquakeStore of(List<Earthquake> earthquakes) {
+        return new Builder(earthquakes.size()).addAll(earthquakes).build();
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Return the USGS event id of the earthquake, or null if it is not known.
+     */
+    public String getId(int index) {
+        return mIds[index];
+    }
+
+    public double getMagnitude(int index) {
+        return mMagnitudes[index];
+    }
+
+    public long getTimeInMilliSeconds(int index) {
+        return mTimes[index];
+    }
+
+    public String getLocation(int index) {
+        String offset = mOffsetLocations[index];
+        return offset.isEmpty() ? mPrimaryLocations[index] : offset + mPrimaryLocations[index];
+    }
+
+    /**
+     * Return the part of the location that says how far from the place the earthquake was,
+     * i.e. "75 km NE of ", or "Near the " if the location has no offset.
+     */
+    public String getOffsetLocation(int index) {
+        String offset = mOffsetLocations[index];
+        return offset.isEmpty() ? NEAR_THE : offset;
+    }
+
+    /**
+     * Return the place the earthquake was near, i.e. "Montreal, Canada".
+     */
+    public String getPrimaryLocation(int index) {
+        return mPrimaryLocations[index];
+    }
+
+    public String getUrl(int index) {
+        return mUrls[index];
+    }
+
+    /**
+     * Return the latitude of the epicentre in degrees, or NaN if it is not known.
+     */
+    public double getLatitude(int index) {
+        return mLatitudes[index];
+    }
+
+    /**
+     * Return the longitude of the epicentre in degrees, or NaN if it is not known.
+     */
+    public double getLongitude(int index) {
+        return mLongitudes[index];
+    }
+
+    /**
+     * Return what tells the earthquake apart from every other one: its event id, or its URL
+     * when the id is not known.
+     */
+    public String getKey(int index) {
+        return mIds[index] != null ? mIds[index] : mUrls[index];
+    }
+
+    /**
+     * Return a number that stays the same for the earthquake across loads, for adapters with
+     * stable ids. It is a 64 bit FNV-1a hash of {@link #getKey(int)}.
+     */
+    public long getStableId(int index) {
+        String key = getKey(index);
+        if (key == null) {
+            return index;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Return true if the first earthquakes of this store are the earthquakes of the other one,
+     * showing the same magnitude, time, location and URL, i.e. when this store was built from
+     * the other one by appending a page. A store where an earthquake was revised does not
+     * start with the store before the revision.
+     */
+    public boolean startsWith(EarthquakeStore prefix) {
+        if (prefix.mSize > mSize) {
+            return false;
+        }
+        for (int i = 0; i < prefix.mSize; i++) {
+            if (mTimes[i] != prefix.mTimes[i] || mMagnitudes[i] != prefix.mMagnitudes[i]
+                    || !equal(mUrls[i], prefix.mUrls[i])
+                    || !equal(mPrimaryLocations[i], prefix.mPrimaryLocations[i])
+                    || !equal(mOffsetLocations[i], prefix.mOffsetLocations[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return a new store with the given earthquakes merged in by event id. An earthquake
+     * already in the store is replaced by its new version where it is, and new earthquakes
+     * are inserted by time. Like USGS results, the store is expected to be newest first.
+     */
+    public EarthquakeStore merge(List<Earthquake> changes) {
+        return merge(changes, false);
+    }
+
+    /**
+     * Merge like {@link #merge(List)}, for a store that only holds the first pages of a query.
+     * New earthquakes that are not newer than the last one in the store belong to pages that
+     * have not been loaded yet, so they are left for those pages to bring.
+     */
+    public EarthquakeStore mergeLoadedPages(List<Earthquake> changes) {
+        return merge(changes, true);
+    }
+
+    /**
+     * Return a new store with the earthquakes of a page appended, leaving out the ones that are
+     * already in the store (i.e. when new earthquakes pushed them down from an earlier page).
+     */
+    public EarthquakeStore append(List<Earthquake> page) {
+        Set<String> keys = new HashSet<>(mSize * 2);
+        for (int i = 0; i < mSize; i++) {
+            keys.add(getKey(i));
+        }
+        Builder builder = new Builder(this);
+        for (int i = 0; i < page.size(); i++) {
+            Earthquake earthquake = page.get(i);
+            String key = earthquake.getId() != null ? earthquake.getId() : earthquake.getUrl();
+            if (keys.add(key)) {
+                builder.add(earthquake);
+            }
+        }
+        return builder.build();
+    }
+
+    private EarthquakeStore merge(List<Earthquake> changes, boolean loadedPagesOnly) {
+        Map<String, Earthquake> updatesById = new HashMap<>();
+        List<Earthquake> added = new ArrayList<>();
+        Map<String, Integer> indexesById = new HashMap<>(mSize * 2);
+        for (int i = 0; i < mSize; i++) {
+            if (mIds[i] != null) {
+                indexesById.put(mIds[i], i);
+            }
+        }
+        for (Earthquake earthquake : changes) {
+            if (earthquake.getId() != null && indexesById.containsKey(earthquake.getId())) {
+                updatesById.put(earthquake.getId(), earthquake);
+            } else if (!loadedPagesOnly || mSize == 0
+                    || earthquake.getTimeInMilliSeconds() > mTimes[mSize - 1]) {
+                added.add(earthquake);
+            }
+        }
+        Collections.sort(added, new Comparator<Earthquake>() {
+            @Override
+            public int compare(Earthquake first, Earthquake second) {
+                long firstTime = first.getTimeInMilliSeconds();
+                long secondTime = second.getTimeInMilliSeconds();
+                return firstTime > secondTime ? -1 : (firstTime < secondTime ? 1 : 0);
+            }
+        });
+
+        // Walk the store and the new earthquakes together, both newest first
+        Builder builder = new Builder(mSize + added.size());
+        int next = 0;
+        for (int i = 0; i < mSize; i++) {
+            while (next < added.size() && added.get(next).getTimeInMilliSeconds() > mTimes[i]) {
+                builder.add(added.get(next++));
+            }
+            Earthquake updated = mIds[i] == null ? null : updatesById.get(mIds[i]);
+            if (updated != null) {
+                builder.add(updated);
+            } else {
+                builder.add(this, i);
+            }
+        }
+        while (next < added.size()) {
+            builder.add(added.get(next++));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Return a new store with only the earthquakes at the given indexes, in that order
+     * (i.e. the result of an {@link EarthquakeIndex} query).
+     */
+    public EarthquakeStore select(int[] indexes) {
+        Builder builder = new Builder(indexes.length);
+        for (int index : indexes) {
+            builder.add(this, index);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Return an {@link Earthquake} object for the event at the given index. A new object is
+     * made on every call, so only use it where a single event is needed (i.e. on a click).
+     */
+    public Earthquake getEarthquake(int index) {
+        return new Earthquake(mIds[index], mMagnitudes[index], mOffsetLocations[index],
+                mPrimaryLocations[index], mTimes[index], 0, mUrls[index], mLatitudes[index],
+                mLongitudes[index]);
+    }
+
+    private static boolean equal(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * Builds up an {@link EarthquakeStore} one earthquake at a time.
+     */
+    public static final class Builder {
+        private int mSize;
+        private String[] mIds;
+        private double[] mMagnitudes;
+        private long[] mTimes;
+        private String[] mOffsetLocations;
+        private String[] mPrimaryLocations;
+        private String[] mUrls;
+        private double[] mLatitudes;
+        private double[] mLongitudes;
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int initialCapacity) {
+            int capacity = Math.max(initialCapacity, 1);
+            mIds = new String[capacity];
+            mMagnitudes = new double[capacity];
+            mTimes = new long[capacity];
+            mOffsetLocations = new String[capacity];
+            mPrimaryLocations = new String[capacity];
+            mUrls = new String[capacity];
+            mLatitudes = new double[capacity];
+            mLongitudes = new double[capacity];
+        }
+
+        /**
+         * Start from the earthquakes of an existing store.
+         */
+        public Builder(EarthquakeStore store) {
+            this(store.mSize + 16);
+            for (int i = 0; i < store.mSize; i++) {
+                add(store, i);
+            }
+        }
+
+        public Builder add(String id, double magnitude, String location, long timeInMilliSeconds,
+                           String url) {
+            return add(id, magnitude, location, timeInMilliSeconds, url, Double.NaN, Double.NaN);
+        }
+
+        public Builder add(String id, double magnitude, String location, long timeInMilliSeconds,
+                           String url, double latitude, double longitude) {
+            LocationPool.Entry split = LocationPool.split(location);
+            return add(id, magnitude, split.offsetLocation, split.primaryLocation,
+                    timeInMilliSeconds, url, latitude, longitude);
+        }
+
+        // Add an earthquake whose location has already been split. The offset location is
+        // empty if there is none
+        private Builder add(String id, double magnitude, String offsetLocation,
+                            String primaryLocation, long timeInMilliSeconds, String url,
+                            double latitude, double longitude) {
+            if (mSize == mMagnitudes.length) {
+                grow();
+            }
+            mIds[mSize] = id;
+            mMagnitudes[mSize] = magnitude;
+            mTimes[mSize] = timeInMilliSeconds;
+            mOffsetLocations[mSize] = offsetLocation;
+            mPrimaryLocations[mSize] = primaryLocation;
+            mUrls[mSize] = url;
+            mLatitudes[mSize] = latitude;
+            mLongitudes[mSize] = longitude;
+            mSize++;
+            return this;
+        }
+
+        public Builder add(Earthquake earthquake) {
+            return add(earthquake.getId(), earthquake.getMagnitude(),
+                    earthquake.getOffsetLocation(), earthquake.getPrimaryLocation(),
+                    earthquake.getTimeInMilliSeconds(), earthquake.getUrl(),
+                    earthquake.getLatitude(), earthquake.getLongitude());
+        }
+
+        /**
+         * Add the earthquake at the given index of another store.
+         */
+        public Builder add(EarthquakeStore store, int index) {
+            return add(store.mIds[index], store.mMagnitudes[index],
+                    store.mOffsetLocations[index], store.mPrimaryLocations[index],
+                    store.mTimes[index], store.mUrls[index], store.mLatitudes[index],
+                    store.mLongitudes[index]);
+        }
+
+        public Builder addAll(List<Earthquake> earthquakes) {
+            for (int i = 0; i < earthquakes.size(); i++) {
+                add(earthquakes.get(i));
+            }
+            return this;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public EarthquakeStore build() {
+            return new EarthquakeStore(this);
+        }
+
+        // Double the capacity of every column
+        private void grow() {
+            int capacity = mMagnitudes.length * 2;
+            mIds = Arrays.copyOf(mIds, capacity);
+            mMagnitudes = Arrays.copyOf(mMagnitudes, capacity);
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mOffsetLocations = Arrays.copyOf(mOffsetLocations, capacity);
+            mPrimaryLocations = Arrays.copyOf(mPrimaryLocations, capacity);
+            mUrls = Arrays.copyOf(mUrls, capacity);
+            mLatitudes = Arrays.copyOf(mLatitudes, capacity);
+            mLongitudes = Arrays.copyOf(mLongitudes, capacity);
+        }
+    }
+}
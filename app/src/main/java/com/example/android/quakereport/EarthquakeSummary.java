@@ -0,0 +1,325 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts of a query too wide to be listed one earthquake at a time: how many earthquakes
+ * there were every day, in every magnitude band (the bands of the magnitude circle colours,
+ * see {@link EarthquakeRows#getMagnitudeBand(double)}), and how many, how strong at most and
+ * how strong on average in every primary location.
+ *
+ * Earthquakes are added one at a time and forgotten straight away, so a summary can be built
+ * in a single pass over a response as it is parsed, see {@link #read(InputStream)}. Its size
+ * only grows with the number of days and places, not with the number of earthquakes.
+ *
+ * Every count can be drilled into: {@link #getDayUrl(String, int)},
+ * {@link #getBandUrl(String, int)} and {@link Region#getUrl(String)} narrow the query that
+ * was summarized down to the earthquakes behind it.
+ */
+public final class EarthquakeSummary {
+
+    /* Number of magnitude bands */
+    public static final int BAND_COUNT = 11;
+
+    public static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private int mCount;
+    private double mMaxMagnitude = Double.NaN;
+    private final int[] mBandCounts = new int[BAND_COUNT];
+
+    // Earthquakes per UTC day, from mDayOrigin on. Grown both ways as days come in
+    private int[] mDayCounts;
+    private long mDayOrigin;
+
+    // First and last day with an earthquake
+    private long mFirstDay;
+    private long mLastDay;
+
+    // Every primary location, by name
+    private final Map<String, Region> mRegions = new HashMap<>();
+
+    /**
+     * Return the summary of a GeoJSON response, read token by token. The earthquakes are
+     * never held as a list.
+     */
+    public static EarthquakeSummary read(InputStream inputStream) throws IOException {
+        final EarthquakeSummary summary = new EarthquakeSummary();
+        QueryUtils.readFeatures(inputStream, new QueryUtils.FeatureListener() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                summary.add(earthquake);
+            }
+        });
+        return summary;
+    }
+
+    public void add(Earthquake earthquake) {
+        add(earthquake.getMagnitude(), earthquake.getPrimaryLocation(),
+                earthquake.getTimeInMilliSeconds(), earthquake.getLatitude(),
+                earthquake.getLongitude());
+    }
+
+    public void add(EarthquakeStore store, int index) {
+        add(store.getMagnitude(index), store.getPrimaryLocation(index),
+                store.getTimeInMilliSeconds(index), store.getLatitude(index),
+                store.getLongitude(index));
+    }
+
+    /**
+     * Count one earthquake.
+     *
+     * @param primaryLocation i.e. "Montreal, Canada"
+     * @param latitude        of the epicentre, or NaN if it is not known
+     * @param longitude       of the epicentre, or NaN if it is not known
+     */
+    public void add(double magnitude, String primaryLocation, long timeInMilliSeconds,
+                    double latitude, double longitude) {
+        mCount++;
+        if (Double.isNaN(mMaxMagnitude) || magnitude > mMaxMagnitude) {
+            mMaxMagnitude = magnitude;
+        }
+        mBandCounts[EarthquakeRows.getMagnitudeBand(magnitude)]++;
+        // The index first, it may replace the array
+        int dayIndex = dayIndex(dayOf(timeInMilliSeconds));
+        mDayCounts[dayIndex]++;
+
+        Region region = mRegions.get(primaryLocation);
+        if (region == null) {
+            region = new Region(primaryLocation);
+            mRegions.put(primaryLocation, region);
+        }
+        region.add(magnitude, latitude, longitude);
+    }
+
+    /* Number of earthquakes counted */
+    public int getCount() {
+        return mCount;
+    }
+
+    /* Largest magnitude counted, or NaN if there are none */
+    public double getMaxMagnitude() {
+        return mMaxMagnitude;
+    }
+
+    /**
+     * Return the number of earthquakes in a magnitude band, from 0 to {@link #BAND_COUNT} - 1.
+     */
+    public int getBandCount(int band) {
+        return mBandCounts[band];
+    }
+
+    /**
+     * Return the number of days from the first day with an earthquake to the last, or 0 if
+     * there are none. Days are UTC days.
+     */
+    public int getDayCount() {
+        return mDayCounts == null ? 0 : (int) (mLastDay - mFirstDay + 1);
+    }
+
+    /**
+     * Return when a day starts, from 0 (the first day with an earthquake) to
+     * {@link #getDayCount()} - 1.
+     */
+    public long getDayStart(int day) {
+        return (mFirstDay + day) * DAY_MILLIS;
+    }
+
+    /**
+     * Return the number of earthquakes on a day, from 0 to {@link #getDayCount()} - 1.
+     */
+    public int getCountOnDay(int day) {
+        return mDayCounts[(int) (mFirstDay - mDayOrigin) + day];
+    }
+
+    /**
+     * Return every primary location, the one with the most earthquakes first.
+     */
+    public List<Region> getRegions() {
+        List<Region> regions = new ArrayList<>(mRegions.values());
+        Collections.sort(regions, new Comparator<Region>() {
+            @Override
+            public int compare(Region first, Region second) {
+                if (first.mCount != second.mCount) {
+                    return first.mCount > second.mCount ? -1 : 1;
+                }
+                return first.mName.compareTo(second.mName);
+            }
+        });
+        return regions;
+    }
+
+    /**
+     * Return the given query narrowed down to one day of the summary.
+     */
+    public String getDayUrl(String requestUrl, int day) {
+        String dayUrl = QueryUtils.setQueryParameter(requestUrl, "starttime",
+                QueryUtils.formatQueryTime(getDayStart(day)));
+        return QueryUtils.setQueryParameter(dayUrl, "endtime",
+                QueryUtils.formatQueryTime(getDayStart(day) + DAY_MILLIS));
+    }
+
+    /**
+     * Return the given query narrowed down to one magnitude band. The range of the band is
+     * only ever narrowed, never widened past the range of the query.
+     */
+    public static String getBandUrl(String requestUrl, int band) {
+        double minMagnitude = band;
+        double queryMin = parseDouble(QueryUtils.getQueryParameter(requestUrl, "minmagnitude"));
+        if (!Double.isNaN(queryMin)) {
+            minMagnitude = Math.max(minMagnitude, queryMin);
+        }
+        String bandUrl = QueryUtils.setQueryParameter(requestUrl, "minmagnitude",
+                String.valueOf(minMagnitude));
+        if (band == BAND_COUNT - 1) {
+            return bandUrl;
+        }
+        // The range is inclusive, and USGS gives magnitudes to 2 decimals
+        double maxMagnitude = band + 0.99;
+        double queryMax = parseDouble(QueryUtils.getQueryParameter(requestUrl, "maxmagnitude"));
+        if (!Double.isNaN(queryMax)) {
+            maxMagnitude = Math.min(maxMagnitude, queryMax);
+        }
+        return QueryUtils.setQueryParameter(bandUrl, "maxmagnitude",
+                String.valueOf(maxMagnitude));
+    }
+
+    // Return the UTC day of a time, counted from 1970-01-01
+    private static long dayOf(long timeInMilliSeconds) {
+        long day = timeInMilliSeconds / DAY_MILLIS;
+        return timeInMilliSeconds < 0 && day * DAY_MILLIS != timeInMilliSeconds ? day - 1 : day;
+    }
+
+    // Return the index of a day in mDayCounts, growing it to hold the day if needed
+    private int dayIndex(long day) {
+        if (mDayCounts == null) {
+            mDayCounts = new int[16];
+            mDayOrigin = day;
+            mFirstDay = day;
+            mLastDay = day;
+            return 0;
+        }
+        if (day < mDayOrigin) {
+            int extra = (int) Math.max(mDayOrigin - day, mDayCounts.length);
+            int[] dayCounts = new int[mDayCounts.length + extra];
+            System.arraycopy(mDayCounts, 0, dayCounts, extra, mDayCounts.length);
+            mDayCounts = dayCounts;
+            mDayOrigin -= extra;
+        } else if (day - mDayOrigin >= mDayCounts.length) {
+            int length = (int) Math.max(day - mDayOrigin + 1, 2L * mDayCounts.length);
+            mDayCounts = Arrays.copyOf(mDayCounts, length);
+        }
+        mFirstDay = Math.min(mFirstDay, day);
+        mLastDay = Math.max(mLastDay, day);
+        return (int) (day - mDayOrigin);
+    }
+
+    private static double parseDouble(String value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * The earthquakes of one primary location (i.e. "Fiji region").
+     */
+    public static final class Region {
+        private final String mName;
+        private int mCount;
+        private double mMaxMagnitude = Double.NaN;
+        private double mMagnitudeSum;
+
+        // The box around every epicentre with coordinates. Longitudes are kept both from
+        // -180 to 180 and from 0 to 360, so a place on the 180th meridian (i.e. Fiji) gets a
+        // narrow box around it instead of one around the whole Earth
+        private double mMinLatitude = Double.NaN;
+        private double mMaxLatitude = Double.NaN;
+        private double mMinLongitude = Double.NaN;
+        private double mMaxLongitude = Double.NaN;
+        private double mMinEastLongitude = Double.NaN;
+        private double mMaxEastLongitude = Double.NaN;
+
+        Region(String name) {
+            mName = name;
+        }
+
+        void add(double magnitude, double latitude, double longitude) {
+            mCount++;
+            mMagnitudeSum += magnitude;
+            if (Double.isNaN(mMaxMagnitude) || magnitude > mMaxMagnitude) {
+                mMaxMagnitude = magnitude;
+            }
+            if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                return;
+            }
+            double eastLongitude = longitude < 0 ? longitude + 360 : longitude;
+            if (Double.isNaN(mMinLatitude)) {
+                mMinLatitude = mMaxLatitude = latitude;
+                mMinLongitude = mMaxLongitude = longitude;
+                mMinEastLongitude = mMaxEastLongitude = eastLongitude;
+                return;
+            }
+            mMinLatitude = Math.min(mMinLatitude, latitude);
+            mMaxLatitude = Math.max(mMaxLatitude, latitude);
+            mMinLongitude = Math.min(mMinLongitude, longitude);
+            mMaxLongitude = Math.max(mMaxLongitude, longitude);
+            mMinEastLongitude = Math.min(mMinEastLongitude, eastLongitude);
+            mMaxEastLongitude = Math.max(mMaxEastLongitude, eastLongitude);
+        }
+
+        /* The primary location, i.e. "Montreal, Canada" */
+        public String getName() {
+            return mName;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public double getMaxMagnitude() {
+            return mMaxMagnitude;
+        }
+
+        public double getMeanMagnitude() {
+            return mCount == 0 ? Double.NaN : mMagnitudeSum / mCount;
+        }
+
+        /**
+         * Return the given query narrowed down to the box around the epicentres of this place.
+         * The box may hold earthquakes of neighbouring places too, so the result still has to
+         * be filtered by primary location. Returns the query as it is if no epicentre of this
+         * place is known.
+         */
+        public String getUrl(String requestUrl) {
+            if (Double.isNaN(mMinLatitude)) {
+                return requestUrl;
+            }
+            double minLongitude = mMinLongitude;
+            double maxLongitude = mMaxLongitude;
+            if (mMaxEastLongitude - mMinEastLongitude < maxLongitude - minLongitude) {
+                minLongitude = mMinEastLongitude;
+                maxLongitude = mMaxEastLongitude;
+            }
+            String regionUrl = QueryUtils.setQueryParameter(requestUrl, "minlatitude",
+                    String.valueOf(mMinLatitude));
+            regionUrl = QueryUtils.setQueryParameter(regionUrl, "maxlatitude",
+                    String.valueOf(mMaxLatitude));
+            regionUrl = QueryUtils.setQueryParameter(regionUrl, "minlongitude",
+                    String.valueOf(minLongitude));
+            return QueryUtils.setQueryParameter(regionUrl, "maxlongitude",
+                    String.valueOf(maxLongitude));
+        }
+    }
+}
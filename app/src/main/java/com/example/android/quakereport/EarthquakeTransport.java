@@ -0,0 +1,77 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Makes the HTTP requests for {@link QueryUtils}. The default is a
+ * {@link HttpUrlConnectionTransport}, another one can be plugged in with
+ * {@link QueryUtils#setTransport(EarthquakeTransport)} (i.e. to fetch from a local stand-in
+ * of the USGS server).
+ */
+public interface EarthquakeTransport {
+
+    /**
+     * Make a GET request. If an ETag or Last-Modified value is given the request is made
+     * conditional on it, so the server can answer 304 Not Modified.
+     *
+     * @param etag         of the cached copy, or null
+     * @param lastModified of the cached copy, or null
+     * @return the response, which must be closed once its body has been read
+     */
+    Response get(URL url, String etag, String lastModified) throws IOException;
+
+    /**
+     * Return the number of response body bytes received so far, as they came over the
+     * wire (i.e. before they were decompressed).
+     */
+    long getBytesReceived();
+
+    /**
+     * A response to a GET request. The body is already decompressed.
+     */
+    final class Response implements Closeable {
+        private final int mResponseCode;
+        private final String mEtag;
+        private final String mLastModified;
+        private final InputStream mBody;
+
+        /**
+         * Constructs a new Response
+         *
+         * @param body of the response, or null if there is none (i.e. on a 304). Closing it
+         *             releases the connection
+         */
+        public Response(int responseCode, String etag, String lastModified, InputStream body) {
+            mResponseCode = responseCode;
+            mEtag = etag;
+            mLastModified = lastModified;
+            mBody = body;
+        }
+
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        public String getEtag() {
+            return mEtag;
+        }
+
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        public InputStream getBody() {
+            return mBody;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mBody != null) {
+                mBody.close();
+            }
+        }
+    }
+}
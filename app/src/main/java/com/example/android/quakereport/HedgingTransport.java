@@ -0,0 +1,175 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An {@link EarthquakeTransport} that sends a second, hedged request when the first one is
+ * slower to answer than 95% of the recent requests, and uses whichever answers first. The
+ * other one is cancelled, and its response closed if it answers all the same. A slow server
+ * or a stalled connection then costs the p95 latency instead of a timeout, for about 5% more
+ * requests.
+ *
+ * Nothing is hedged until {@link #MIN_SAMPLES} requests have been timed.
+ */
+public class HedgingTransport implements EarthquakeTransport {
+
+    /* Number of recent requests the p95 is taken over */
+    private static final int SAMPLE_COUNT = 64;
+
+    /* Requests timed before the first hedge */
+    public static final int MIN_SAMPLES = 20;
+
+    /* Never hedge sooner than this, so fast answers do not all get hedged */
+    private static final long MIN_HEDGE_DELAY_MILLIS = 100;
+
+    private static final ExecutorService sExecutor =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "HedgingTransport");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final EarthquakeTransport mDelegate;
+
+    private volatile boolean mEnabled = true;
+
+    // Time to the response of the last requests, in a ring
+    private final long[] mSamples = new long[SAMPLE_COUNT];
+    private int mSampleCount;
+    private int mNextSample;
+
+    /**
+     * Constructs a new HedgingTransport
+     *
+     * @param delegate makes the actual requests
+     */
+    public HedgingTransport(EarthquakeTransport delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * Turn hedging on or off. While it is off every request goes straight to the delegate.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    @Override
+    public Response get(final URL url, final String etag, final String lastModified)
+            throws IOException {
+        long hedgeDelay = getHedgeDelayMillis();
+        if (!mEnabled || hedgeDelay < 0) {
+            long start = System.nanoTime();
+            Response response = mDelegate.get(url, etag, lastModified);
+            addSample(System.nanoTime() - start);
+            return response;
+        }
+
+        // Only the first request to answer is handed back. The other one is cancelled, and if
+        // it answers anyway (i.e. its connection does not notice the interrupt) it closes its
+        // own response
+        final AtomicBoolean answered = new AtomicBoolean();
+        Callable<Response> request = new Callable<Response>() {
+            @Override
+            public Response call() throws IOException {
+                long start = System.nanoTime();
+                Response response = mDelegate.get(url, etag, lastModified);
+                addSample(System.nanoTime() - start);
+                if (!answered.compareAndSet(false, true)) {
+                    response.close();
+                    return null;
+                }
+                return response;
+            }
+        };
+
+        CompletionService<Response> requests = new ExecutorCompletionService<>(sExecutor);
+        List<Future<Response>> sent = new ArrayList<>(2);
+        sent.add(requests.submit(request));
+        int pending = 1;
+        IOException failure = null;
+        try {
+            Future<Response> done = requests.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (done == null) {
+                EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_HEDGED_REQUESTS, 1);
+                sent.add(requests.submit(request));
+                pending++;
+            }
+            while (pending > 0) {
+                if (done == null) {
+                    done = requests.take();
+                }
+                pending--;
+                try {
+                    Response response = done.get();
+                    if (response != null) {
+                        // Stop the download of the one that lost
+                        cancel(sent);
+                        return response;
+                    }
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+                done = null;
+            }
+        } catch (InterruptedException e) {
+            // Whatever still answers closes itself
+            answered.set(true);
+            cancel(sent);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + url);
+        }
+        throw failure != null ? failure : new IOException("No response from " + url);
+    }
+
+    // Cancel the requests still in flight, interrupting the threads they are made on
+    private static void cancel(List<Future<Response>> requests) {
+        for (Future<Response> request : requests) {
+            request.cancel(true);
+        }
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return mDelegate.getBytesReceived();
+    }
+
+    /**
+     * Return how long a request may take before it is hedged, or -1 if too few requests
+     * have been timed yet.
+     */
+    public synchronized long getHedgeDelayMillis() {
+        if (mSampleCount < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] samples = Arrays.copyOf(mSamples, mSampleCount);
+        Arrays.sort(samples);
+        long p95 = samples[(int) Math.ceil(mSampleCount * 0.95) - 1];
+        return Math.max(MIN_HEDGE_DELAY_MILLIS, TimeUnit.NANOSECONDS.toMillis(p95));
+    }
+
+    private synchronized void addSample(long nanos) {
+        mSamples[mNextSample] = nanos;
+        mNextSample = (mNextSample + 1) % SAMPLE_COUNT;
+        mSampleCount = Math.min(mSampleCount + 1, SAMPLE_COUNT);
+    }
+}
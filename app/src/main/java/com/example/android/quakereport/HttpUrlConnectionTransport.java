@@ -0,0 +1,252 @@
+package com.example.android.quakereport;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The default {@link EarthquakeTransport}, built on {@link HttpURLConnection}.
+ *
+ * Responses are requested gzip compressed, GeoJSON shrinks to about a tenth of its size.
+ * Connections are never disconnected: once a body has been read to the end the connection
+ * goes back to the pool kept by HttpURLConnection (up to the "http.maxConnections" system
+ * property, 5 by default) and the next request to USGS reuses it without a new TCP and TLS
+ * handshake.
+ *
+ * If the connection breaks while a body is read and the server takes byte ranges, the body is
+ * resumed where it broke off with a Range request (guarded by If-Range, so a body that changed
+ * in between is never spliced together), instead of failing the whole request.
+ */
+public class HttpUrlConnectionTransport implements EarthquakeTransport {
+
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+
+    /* A body left unread when it is closed is drained so the connection can be reused, as
+     * far as it has already come in. If more than this is left, or the rest has yet to come,
+     * the connection is dropped instead */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /* Number of times one body is resumed before giving up */
+    private static final int MAX_RESUMES = 3;
+
+    private final AtomicLong mBytesReceived = new AtomicLong();
+
+    @Override
+    public Response get(URL url, String etag, String lastModified) throws IOException {
+        long connectStart = EarthquakeMetrics.start();
+        HttpURLConnection urlConnection = openConnection(url);
+        try {
+            if (etag != null) {
+                urlConnection.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            urlConnection.connect();
+
+            int responseCode = urlConnection.getResponseCode();
+            EarthquakeMetrics.record(EarthquakeMetrics.STAGE_CONNECT, connectStart);
+            InputStream raw = responseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? urlConnection.getErrorStream() : urlConnection.getInputStream();
+            InputStream body = null;
+            if (raw != null) {
+                body = new WireInputStream(raw, urlConnection, url, getResumeValidator(
+                        urlConnection));
+                if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                    body = new GZIPInputStream(body, 8192);
+                }
+            }
+            return new Response(responseCode, urlConnection.getHeaderField("ETag"),
+                    urlConnection.getHeaderField("Last-Modified"), body);
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    private static HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+
+        // Asking for gzip ourselves turns off the transparent decompression of
+        // HttpURLConnection, so the bytes that came over the wire can be counted. It also
+        // means a resumed body continues the same compressed bytes
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        return urlConnection;
+    }
+
+    // Return the value to send as If-Range when the body of a response is resumed, or null
+    // if it cannot be resumed: the server must take byte ranges and identify the body with a
+    // strong ETag or a Last-Modified date
+    private static String getResumeValidator(HttpURLConnection urlConnection) throws IOException {
+        if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK
+                || !"bytes".equalsIgnoreCase(urlConnection.getHeaderField("Accept-Ranges"))) {
+            return null;
+        }
+        String etag = urlConnection.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return urlConnection.getHeaderField("Last-Modified");
+    }
+
+    // Return a Content-Length, or -1 if it is missing or not understood
+    private static long parseLength(String contentLength) {
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Counts the bytes of a body as they come over the wire, resumes the body if the
+    // connection breaks, and reads the body to the end when it is closed so the connection is
+    // put back in the pool
+    private final class WireInputStream extends FilterInputStream {
+        private HttpURLConnection mConnection;
+        private final URL mUrl;
+
+        // Sent as If-Range to resume the body, null if it cannot be resumed
+        private final String mResumeValidator;
+        private int mResumes;
+
+        // Bytes of this body and the time spent waiting for them, for the metrics. The count
+        // is also where a resumed body picks up
+        private long mBytes;
+        private long mReadNanos;
+
+        // Length of the whole body from the Content-Length header, or -1 if it was not sent
+        private final long mExpectedBytes;
+
+        // True once the end of the body has been read
+        private boolean mEnded;
+
+        private final byte[] mOneByte = new byte[1];
+
+        WireInputStream(InputStream in, HttpURLConnection connection, URL url,
+                        String resumeValidator) {
+            super(in);
+            mConnection = connection;
+            mUrl = url;
+            mResumeValidator = resumeValidator;
+            mExpectedBytes = parseLength(connection.getHeaderField("Content-Length"));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = read(mOneByte, 0, 1);
+            return read < 0 ? -1 : mOneByte[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long readStart = EarthquakeMetrics.start();
+            int read;
+            while (true) {
+                try {
+                    read = super.read(buffer, offset, count);
+                    // A connection closed before the whole body came in only looks like the
+                    // end of the body
+                    if (read < 0 && mExpectedBytes >= 0 && mBytes < mExpectedBytes) {
+                        throw new EOFException("Body ended after " + mBytes + " of "
+                                + mExpectedBytes + " bytes");
+                    }
+                    break;
+                } catch (IOException e) {
+                    resumeOrThrow(e);
+                }
+            }
+            if (readStart != 0) {
+                mReadNanos += System.nanoTime() - readStart;
+            }
+            if (read > 0) {
+                mBytes += read;
+                mBytesReceived.addAndGet(read);
+            } else if (read < 0) {
+                mEnded = true;
+            }
+            return read;
+        }
+
+        // Continue the body on a new connection from the first byte not read yet, or throw the
+        // exception the old connection broke with
+        private void resumeOrThrow(IOException cause) throws IOException {
+            if (mResumeValidator == null || mResumes >= MAX_RESUMES
+                    || Thread.currentThread().isInterrupted()) {
+                throw cause;
+            }
+            mResumes++;
+            mConnection.disconnect();
+
+            HttpURLConnection urlConnection = openConnection(mUrl);
+            try {
+                urlConnection.setRequestProperty("Range", "bytes=" + mBytes + "-");
+                urlConnection.setRequestProperty("If-Range", mResumeValidator);
+                urlConnection.connect();
+
+                // A 200 means the body changed since, it cannot be continued
+                String contentRange = urlConnection.getHeaderField("Content-Range");
+                if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                        || contentRange == null
+                        || !contentRange.startsWith("bytes " + mBytes + "-")) {
+                    urlConnection.disconnect();
+                    throw cause;
+                }
+                in = urlConnection.getInputStream();
+                mConnection = urlConnection;
+                EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_RESUMED_READS, 1);
+            } catch (IOException e) {
+                urlConnection.disconnect();
+                throw cause;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Not worth a new connection to drain a body nobody reads
+            mResumes = MAX_RESUMES;
+            try {
+                // Only drain what has already come in. Waiting for the rest would hold up
+                // whoever closes the body (i.e. the request that lost a hedge) for as long as
+                // the read timeout on a slow server
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                while (!mEnded && drained <= MAX_DRAIN_BYTES) {
+                    // Once the whole Content-Length is in, the end is read without waiting
+                    int available = mExpectedBytes >= 0 && mBytes >= mExpectedBytes
+                            ? buffer.length : in.available();
+                    if (available <= 0) {
+                        break;
+                    }
+                    drained += Math.max(read(buffer, 0, Math.min(available, buffer.length)), 0);
+                }
+                if (!mEnded) {
+                    mConnection.disconnect();
+                }
+            } catch (IOException e) {
+                // The connection is broken, it will not be reused anyway
+                mConnection.disconnect();
+            } finally {
+                super.close();
+                EarthquakeMetrics.recordNanos(EarthquakeMetrics.STAGE_DOWNLOAD, mReadNanos);
+                EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_BYTES_READ, mBytes);
+            }
+        }
+    }
+}
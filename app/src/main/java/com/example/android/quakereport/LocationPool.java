@@ -0,0 +1,98 @@
+package com.example.android.quakereport;
+
+/**
+ * A bounded pool of location Strings shared by the whole process. USGS repeats the same few
+ * hundred regions ("Fiji region", "75 km NE of Honshu, Japan") thousands of times, so every
+ * location is interned here as it is parsed, and split once into its offset (i.e.
+ * "75 km NE of ") and primary location (i.e. "Honshu, Japan"), which are interned as well.
+ * Every earthquake in the same region then shares one String for each part, and nothing has
+ * to be split again when the list is built or bound.
+ *
+ * The pool is a fixed table of {@link #SIZE} slots, a location takes the slot of its hash and
+ * replaces whatever was there. That keeps the pool bounded however many distinct locations a
+ * catalog has, and lets every thread use it without a lock: two threads racing for a slot
+ * only means one of the two Strings is not shared.
+ */
+final class LocationPool {
+
+    /* Separates the offset from the primary location, i.e. "75 km NE of Montreal, Canada" */
+    private static final String LOCATION_SEPARATOR = "of ";
+
+    /* Slots of each table. A power of two */
+    private static final int SIZE = 4096;
+
+    // Split locations, by the hash of the whole location
+    private static final Entry[] sLocations = new Entry[SIZE];
+
+    // Offsets and primary locations, by their own hash
+    private static final String[] sParts = new String[SIZE];
+
+    /**
+     * Create a private constructor because no one should ever create a {@link LocationPool}
+     * object. It only holds static methods.
+     */
+    private LocationPool() {
+    }
+
+    /**
+     * Return a location split into its pooled offset and primary location.
+     */
+    static Entry split(String location) {
+        if (location == null) {
+            location = "";
+        }
+        int slot = slotOf(location.hashCode());
+        Entry entry = sLocations[slot];
+        if (entry != null && entry.location.equals(location)) {
+            return entry;
+        }
+        entry = new Entry(location);
+        sLocations[slot] = entry;
+        return entry;
+    }
+
+    /**
+     * Return the pooled copy of an offset or a primary location.
+     */
+    static String intern(String part) {
+        int slot = slotOf(part.hashCode());
+        String pooled = sParts[slot];
+        if (part.equals(pooled)) {
+            return pooled;
+        }
+        sParts[slot] = part;
+        return part;
+    }
+
+    // Mix the high bits of a hash into the low ones the slot is taken from
+    private static int slotOf(int hash) {
+        return (hash ^ (hash >>> 16)) & (SIZE - 1);
+    }
+
+    /**
+     * A location split into its offset and primary location. The fields are final, so an
+     * entry written to the table by one thread is seen whole by every other.
+     */
+    static final class Entry {
+        final String location;
+
+        /* i.e. "75 km NE of ", or empty if the location has no offset */
+        final String offsetLocation;
+
+        /* i.e. "Montreal, Canada" */
+        final String primaryLocation;
+
+        Entry(String location) {
+            this.location = location;
+            int separator = location.indexOf(LOCATION_SEPARATOR);
+            if (separator < 0) {
+                offsetLocation = "";
+                primaryLocation = intern(location);
+            } else {
+                int primaryStart = separator + LOCATION_SEPARATOR.length();
+                offsetLocation = intern(location.substring(0, primaryStart));
+                primaryLocation = intern(location.substring(primaryStart));
+            }
+        }
+    }
+}
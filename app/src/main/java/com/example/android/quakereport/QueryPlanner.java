@@ -0,0 +1,279 @@
+package com.example.android.quakereport;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Splits a query over a long time range into smaller windows that are fetched at the same
+ * time, then merges them back into one list. USGS caps the number of earthquakes a single
+ * request returns, so a long range fetched in one go can be silently truncated. Fetching
+ * windows in parallel also turns one long download into several shorter ones.
+ *
+ * The windows are loaded through an {@link EarthquakePipeline}, which makes its requests on
+ * the threads of the planner: no more than the maximum concurrency at once, and a window
+ * that fails is tried again.
+ */
+public class QueryPlanner {
+
+    /* Default length of a window, 30 days */
+    public static final long DEFAULT_WINDOW_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    /* Default number of windows fetched at the same time */
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+
+    /* Default number of times a failed window is tried again. QueryUtils only tries a request
+     * again right away when it fails on the way or the server is busy, a window that still
+     * fails after that (i.e. a longer outage, or a 400) would otherwise be left out of the
+     * result without a word */
+    public static final int DEFAULT_MAX_RETRIES = 2;
+
+    /* Delay before the first retry of a window, doubled for every retry after that */
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    /* Formats accepted for the starttime and endtime parameters, all in UTC */
+    private static final String[] TIME_FORMATS = {
+            "yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm",
+            "yyyy-MM-dd"};
+
+    private final ExecutorService mExecutor;
+    private final long mWindowMillis;
+    private final int mMaxConcurrency;
+    private final int mMaxRetries;
+    private final EarthquakeCache mCache;
+
+    /**
+     * Constructs a new QueryPlanner with the default window length, concurrency and retries
+     *
+     * @param cache every window is revalidated against and stored in, or null
+     */
+    public QueryPlanner(EarthquakeCache cache) {
+        this(cache, DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_CONCURRENCY, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Constructs a new QueryPlanner
+     *
+     * @param cache          every window is revalidated against and stored in, or null
+     * @param windowMillis   length of the windows the time range of a query is split into
+     * @param maxConcurrency number of windows fetched at the same time
+     * @param maxRetries     number of times a failed window is tried again
+     */
+    public QueryPlanner(EarthquakeCache cache, long windowMillis, int maxConcurrency,
+                        int maxRetries) {
+        mCache = cache;
+        mWindowMillis = windowMillis;
+        mMaxConcurrency = maxConcurrency;
+        mMaxRetries = maxRetries;
+        mExecutor = Executors.newFixedThreadPool(maxConcurrency, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "QueryPlanner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stop the threads of the planner once it is no longer needed. Windows being fetched are
+     * interrupted.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    public EarthquakeCache getCache() {
+        return mCache;
+    }
+
+    public int getMaxConcurrency() {
+        return mMaxConcurrency;
+    }
+
+    /**
+     * Return the URLs of the windows a query is split into. A query without both a starttime
+     * and an endtime, or with a range shorter than one window, is returned as it is.
+     */
+    public List<String> planWindows(String requestUrl) {
+        List<String> windows = new ArrayList<>();
+        long start = parseTime(QueryUtils.getQueryParameter(requestUrl, "starttime"));
+        long end = parseTime(QueryUtils.getQueryParameter(requestUrl, "endtime"));
+        if (start < 0 || end < 0 || end - start <= mWindowMillis) {
+            windows.add(requestUrl);
+            return windows;
+        }
+
+        for (long windowStart = start; windowStart < end; windowStart += mWindowMillis) {
+            long windowEnd = Math.min(windowStart + mWindowMillis, end);
+            String windowUrl = QueryUtils.setQueryParameter(requestUrl, "starttime",
+                    QueryUtils.formatQueryTime(windowStart));
+            windowUrl = QueryUtils.setQueryParameter(windowUrl, "endtime",
+                    QueryUtils.formatQueryTime(windowEnd));
+            windows.add(windowUrl);
+        }
+        return windows;
+    }
+
+    /**
+     * Fetch every window of a query in parallel and merge them into one list, newest
+     * earthquake first. An earthquake that two windows both return (i.e. right on the border)
+     * is only kept once. Returns null if every window failed.
+     *
+     * This blocks until all the windows are done, so it must not be called on the main thread.
+     */
+    public List<Earthquake> fetch(String requestUrl) {
+        return new EarthquakePipeline(EarthquakePipeline.getDefaultExecutor(), this)
+                .run(planWindows(requestUrl), null);
+    }
+
+    /**
+     * Return the earthquakes of every window of a query from the cache, merged the same way
+     * as {@link #fetch(String)}, or null if any window has not been cached.
+     */
+    public List<Earthquake> readCached(String requestUrl) {
+        List<List<Earthquake>> windowEarthquakes = new ArrayList<>();
+        for (String windowUrl : planWindows(requestUrl)) {
+            List<Earthquake> earthquakes = QueryUtils.readCachedEarthquakeData(windowUrl, mCache);
+            if (earthquakes == null) {
+                return null;
+            }
+            windowEarthquakes.add(earthquakes);
+        }
+        return merge(windowEarthquakes);
+    }
+
+    /**
+     * Return true if every window of a query was fetched moments ago, so the result of
+     * {@link #readCached(String)} does not have to be checked again.
+     */
+    public boolean isFresh(String requestUrl) {
+        for (String windowUrl : planWindows(requestUrl)) {
+            if (!QueryResultCache.getInstance().isFresh(windowUrl)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merge the earthquakes of several windows, newest first, keeping only one copy of
+     * every event id.
+     */
+    public static List<Earthquake> merge(List<List<Earthquake>> windowEarthquakes) {
+        Map<String, Earthquake> byId = new LinkedHashMap<>();
+        for (List<Earthquake> earthquakes : windowEarthquakes) {
+            for (Earthquake earthquake : earthquakes) {
+                byId.put(getKey(earthquake), earthquake);
+            }
+        }
+
+        List<Earthquake> merged = new ArrayList<>(byId.values());
+        Collections.sort(merged, NEWEST_FIRST);
+        return merged;
+    }
+
+    /**
+     * Merge the earthquakes of one more window into the ones merged so far, newest first. An
+     * earthquake both of them have is taken from the window. Only the window is sorted, so
+     * windows can be merged one at a time as they come in at the cost of a copy every time.
+     *
+     * @param merged earthquakes merged so far, newest first without duplicates, i.e. as
+     *               returned by this method. Left as it is
+     * @param window earthquakes of the window, in any order
+     */
+    public static List<Earthquake> merge(List<Earthquake> merged, List<Earthquake> window) {
+        Map<String, Earthquake> byId = new LinkedHashMap<>();
+        for (Earthquake earthquake : window) {
+            byId.put(getKey(earthquake), earthquake);
+        }
+        List<Earthquake> added = new ArrayList<>(byId.values());
+        Collections.sort(added, NEWEST_FIRST);
+        Set<String> addedKeys = byId.keySet();
+
+        // Walk both lists newest first. On the same time the earthquakes merged before come
+        // first, the same as merging all the windows at once
+        List<Earthquake> result = new ArrayList<>(merged.size() + added.size());
+        int next = 0;
+        for (Earthquake earthquake : merged) {
+            while (next < added.size() && NEWEST_FIRST.compare(added.get(next), earthquake) < 0) {
+                result.add(added.get(next++));
+            }
+            if (!addedKeys.contains(getKey(earthquake))) {
+                result.add(earthquake);
+            }
+        }
+        result.addAll(added.subList(next, added.size()));
+        return result;
+    }
+
+    // Without an id the URL is the next best way to tell events apart
+    private static String getKey(Earthquake earthquake) {
+        return earthquake.getId() != null ? earthquake.getId() : earthquake.getUrl();
+    }
+
+    private static final Comparator<Earthquake> NEWEST_FIRST = new Comparator<Earthquake>() {
+        @Override
+        public int compare(Earthquake first, Earthquake second) {
+            long firstTime = first.getTimeInMilliSeconds();
+            long secondTime = second.getTimeInMilliSeconds();
+            return firstTime > secondTime ? -1 : (firstTime < secondTime ? 1 : 0);
+        }
+    };
+
+    // Run a request of a pipeline on the threads of the planner
+    <T> Future<T> submit(Callable<T> request) {
+        return mExecutor.submit(request);
+    }
+
+    // Request a single window without parsing it, trying again with an increasing delay when
+    // it fails. Returns null if every attempt failed
+    QueryUtils.Download download(String windowUrl) {
+        long delay = RETRY_DELAY_MILLIS;
+        for (int attempt = 0; ; attempt++) {
+            QueryUtils.Download download = QueryUtils.downloadEarthquakeData(windowUrl, mCache);
+            if (download != null || attempt >= mMaxRetries) {
+                return download;
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            delay *= 2;
+        }
+    }
+
+    // Parse a starttime or endtime parameter, returning -1 if it is missing or not understood
+    private static long parseTime(String time) {
+        if (time == null) {
+            return -1;
+        }
+        for (String format : TIME_FORMATS) {
+            SimpleDateFormat timeFormat = new SimpleDateFormat(format, Locale.US);
+            timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            timeFormat.setLenient(false);
+            try {
+                return timeFormat.parse(time).getTime();
+            } catch (ParseException e) {
+                // Try the next format
+            }
+        }
+        return -1;
+    }
+}
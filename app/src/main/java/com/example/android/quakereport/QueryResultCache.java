@@ -0,0 +1,284 @@
+package com.example.android.quakereport;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * In-memory cache of query results shared by the whole process, so a loader that is created
+ * again (i.e. when the activity is opened again) or another loader for the same query does not
+ * fetch and parse earthquakes that were fetched moments ago.
+ *
+ * Results are keyed by normalized query URL and are fresh for {@link #TTL_MILLIS}. The cache
+ * holds at most {@link #MAX_EARTHQUAKES} earthquakes, the least recently used results are
+ * evicted first. Loaders asking for the same query at the same time share one fetch.
+ */
+public class QueryResultCache {
+
+    private static final String LOG_TAG = QueryResultCache.class.getSimpleName();
+
+    /* How long a result is used without fetching the query again */
+    public static final long TTL_MILLIS = 60 * 1000;
+
+    /* Maximum number of earthquakes all the results together may hold */
+    public static final int MAX_EARTHQUAKES = 20000;
+
+    private static final QueryResultCache sInstance =
+            new QueryResultCache(TTL_MILLIS, MAX_EARTHQUAKES);
+
+    private final long mTtlMillis;
+    private final int mMaxEarthquakes;
+
+    // Results in least recently used order
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Fetches in flight, so a second request for the same query waits for the first one
+    private final Map<String, FutureTask<Result>> mInFlight = new HashMap<>();
+
+    // Number of earthquakes in all the results
+    private int mSize;
+
+    /**
+     * Return the cache shared by the whole app.
+     */
+    public static QueryResultCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new QueryResultCache
+     *
+     * @param ttlMillis      how long a result is fresh
+     * @param maxEarthquakes all the results together may hold
+     */
+    public QueryResultCache(long ttlMillis, int maxEarthquakes) {
+        mTtlMillis = ttlMillis;
+        mMaxEarthquakes = maxEarthquakes;
+    }
+
+    /**
+     * Return the result of a query if it is fresh, or null.
+     */
+    public synchronized List<Earthquake> get(String requestUrl) {
+        Entry entry = mEntries.get(QueryUtils.normalizeQueryUrl(requestUrl));
+        return entry != null && isFresh(entry) ? entry.earthquakes : null;
+    }
+
+    /**
+     * Return the result of a query even if it is stale, or null if there is none.
+     */
+    public synchronized List<Earthquake> peek(String requestUrl) {
+        Entry entry = mEntries.get(QueryUtils.normalizeQueryUrl(requestUrl));
+        return entry == null ? null : entry.earthquakes;
+    }
+
+    public synchronized boolean isFresh(String requestUrl) {
+        Entry entry = mEntries.get(QueryUtils.normalizeQueryUrl(requestUrl));
+        return entry != null && isFresh(entry);
+    }
+
+    /**
+     * Store the result of a query, evicting the least recently used results if the cache is
+     * over its size.
+     */
+    public synchronized void put(String requestUrl, List<Earthquake> earthquakes) {
+        Entry entry = new Entry(Collections.unmodifiableList(earthquakes),
+                SystemClock.elapsedRealtime());
+        Entry previous = mEntries.put(QueryUtils.normalizeQueryUrl(requestUrl), entry);
+        if (previous != null) {
+            mSize -= previous.earthquakes.size();
+        }
+        mSize += earthquakes.size();
+        trimToSize();
+    }
+
+    /**
+     * What a fetch brought, see {@link #fetch(String, Fetcher)}.
+     */
+    public static final class Result {
+        final List<Earthquake> earthquakes;
+        final boolean complete;
+
+        /**
+         * Constructs a new Result
+         *
+         * @param earthquakes of the query
+         * @param complete    false if they are only part of the query, i.e. the response
+         *                    broke off. They are handed to the callers, but not kept
+         */
+        public Result(List<Earthquake> earthquakes, boolean complete) {
+            this.earthquakes = earthquakes;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Fetches the earthquakes of a query, see {@link #fetch(String, Fetcher)}.
+     */
+    public interface Fetcher {
+        /**
+         * Return what the fetch brought, or null if it failed.
+         */
+        Result fetch() throws Exception;
+    }
+
+    /**
+     * Return the fresh result of a query, or fetch it with the given fetcher and keep the
+     * result. The fetcher only returns complete results, see {@link #fetch(String, Fetcher)}.
+     */
+    public List<Earthquake> fetch(String requestUrl, final Callable<List<Earthquake>> fetcher) {
+        return fetch(requestUrl, new Fetcher() {
+            @Override
+            public Result fetch() throws Exception {
+                List<Earthquake> earthquakes = fetcher.call();
+                return earthquakes == null ? null : new Result(earthquakes, true);
+            }
+        });
+    }
+
+    /**
+     * Return the fresh result of a query, or fetch it with the given fetcher and keep the
+     * result if it is complete. If the query is already being fetched, wait for that fetch
+     * instead of starting another one. If that fetch is abandoned because the thread running
+     * it was interrupted (i.e. its loader was cancelled), the query is fetched again for the
+     * callers still waiting. Returns null if the fetch failed, or if the calling thread was
+     * interrupted.
+     *
+     * This blocks until the fetch is done, so it must not be called on the main thread.
+     */
+    public List<Earthquake> fetch(String requestUrl, final Fetcher fetcher) {
+        String key = QueryUtils.normalizeQueryUrl(requestUrl);
+        while (true) {
+            FutureTask<Result> task;
+            boolean owner = false;
+            synchronized (this) {
+                Entry entry = mEntries.get(key);
+                if (entry != null && isFresh(entry)) {
+                    EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_MEMORY_HITS, 1);
+                    return entry.earthquakes;
+                }
+                task = mInFlight.get(key);
+                if (task == null) {
+                    task = new FutureTask<>(new Callable<Result>() {
+                        @Override
+                        public Result call() throws Exception {
+                            Result result = fetcher.fetch();
+                            if (result == null && Thread.currentThread().isInterrupted()) {
+                                // Not a failure of the query, so the waiters try it themselves
+                                throw new InterruptedException("Fetch abandoned");
+                            }
+                            return result;
+                        }
+                    });
+                    mInFlight.put(key, task);
+                    owner = true;
+                } else {
+                    EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_COALESCED_FETCHES, 1);
+                }
+            }
+
+            if (owner) {
+                try {
+                    task.run();
+                    // Part of a query would be handed out as all of it until it went stale
+                    Result result = task.get();
+                    if (result != null && result.complete) {
+                        put(key, result.earthquakes);
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    // Handed to every caller below
+                } finally {
+                    synchronized (this) {
+                        mInFlight.remove(key);
+                    }
+                }
+            }
+
+            try {
+                Result result = task.get();
+                return result == null ? null : Collections.unmodifiableList(result.earthquakes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                boolean abandoned = isAbandoned(e.getCause());
+                if (!abandoned) {
+                    Log.e(LOG_TAG, "Problem fetching " + requestUrl, e.getCause());
+                }
+                if (owner || !abandoned) {
+                    return null;
+                }
+            } catch (CancellationException e) {
+                if (owner) {
+                    return null;
+                }
+            }
+
+            // The fetch this caller waited for was abandoned. Make sure it is not found again,
+            // then fetch the query, or wait for another caller that got there first
+            synchronized (this) {
+                if (mInFlight.get(key) == task) {
+                    mInFlight.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget every result.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    private boolean isFresh(Entry entry) {
+        return SystemClock.elapsedRealtime() - entry.fetchedAt < mTtlMillis;
+    }
+
+    // Evict results until the cache fits, the least recently used stale ones first, then
+    // the least recently used fresh ones. Stale results are kept while there is room, they
+    // are still shown while their query is fetched again (see peek())
+    private void trimToSize() {
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (mSize > mMaxEarthquakes && entries.hasNext()) {
+            Entry entry = entries.next();
+            if (!isFresh(entry)) {
+                mSize -= entry.earthquakes.size();
+                entries.remove();
+            }
+        }
+        entries = mEntries.values().iterator();
+        while (mSize > mMaxEarthquakes && entries.hasNext()) {
+            mSize -= entries.next().earthquakes.size();
+            entries.remove();
+        }
+    }
+
+    // True if a fetch failed because the thread running it was interrupted, not because of
+    // the query
+    private static boolean isAbandoned(Throwable cause) {
+        return cause instanceof InterruptedException || cause instanceof InterruptedIOException;
+    }
+
+    private static final class Entry {
+        final List<Earthquake> earthquakes;
+        final long fetchedAt;
+
+        Entry(List<Earthquake> earthquakes, long fetchedAt) {
+            this.earthquakes = earthquakes;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
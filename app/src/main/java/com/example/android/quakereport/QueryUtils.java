@@ -1,29 +1,51 @@
 package com.example.android.quakereport;
 
 import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
+import android.util.MalformedJsonException;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * Helper methods related to requesting and receiving earthquake data from USGS.
  */
 public final class QueryUtils {
 
+    private static final String LOG_TAG = QueryUtils.class.getSimpleName();
+
+    /* Makes the HTTP requests, shared by every query so connections are reused. Requests
+     * slower than usual are hedged with a second one */
+    private static volatile EarthquakeTransport sTransport =
+            new HedgingTransport(new HttpUrlConnectionTransport());
+
+    /* Number of times a request that failed on the way (i.e. a broken connection or a
+     * 503 from USGS) is tried again */
+    private static final int MAX_RETRIES = 3;
+
+    /* Delay before the first retry, doubled for every retry after that */
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    /* Requests that got this response code (Too Many Requests) or a 5xx are tried again */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -53,15 +75,35 @@ public final class QueryUtils {
             // build up a list of Earthquake objects with the corresponding data.
             JSONObject root = new JSONObject(earthquakeJSON);
             JSONArray earthquakeArray = root.getJSONArray("features");
+            int malformed = 0;
             for (int i = 0; i < earthquakeArray.length(); i++) {
-                JSONObject firstEarthquake = earthquakeArray.getJSONObject(i);
-                JSONObject firstProperties = firstEarthquake.getJSONObject("properties");
-                double magnitude = firstProperties.getDouble("mag");
-                String location = firstProperties.getString("place");
-                long time = firstProperties.getLong("time");
-                String urlWebsite = firstProperties.getString("url");
-                earthquakes.add(new Earthquake(magnitude, location, time, urlWebsite));
+                // A feature that is not shaped the way USGS documents it is skipped on its own,
+                // so the features after it are still read
+                try {
+                    JSONObject firstEarthquake = earthquakeArray.getJSONObject(i);
+                    JSONObject firstProperties = firstEarthquake.getJSONObject("properties");
+                    double magnitude = firstProperties.getDouble("mag");
+                    String location = firstProperties.getString("place");
+                    long time = firstProperties.getLong("time");
+                    String urlWebsite = firstProperties.getString("url");
+
+                    // The coordinates are [longitude, latitude, depth]
+                    double latitude = Double.NaN;
+                    double longitude = Double.NaN;
+                    JSONObject geometry = firstEarthquake.optJSONObject("geometry");
+                    JSONArray coordinates =
+                            geometry == null ? null : geometry.optJSONArray("coordinates");
+                    if (coordinates != null && coordinates.length() >= 2) {
+                        longitude = coordinates.optDouble(0);
+                        latitude = coordinates.optDouble(1);
+                    }
+                    earthquakes.add(new Earthquake(null, magnitude, location, time, 0, urlWebsite,
+                            latitude, longitude));
+                } catch (JSONException e) {
+                    malformed++;
+                }
             }
+            countMalformedFeatures(malformed);
 
         } catch (JSONException e) {
             // If an error is thrown when executing any of the above statements in the "try" block,
@@ -75,23 +117,658 @@ public final class QueryUtils {
 
     }
 
+    /**
+     * Return a list of {@link Earthquake} objects read token by token from a GeoJSON stream.
+     * Only features[].id, features[].properties.{mag,place,time,updated,url} and the
+     * coordinates of features[].geometry are kept, everything else is skipped
+     * without being built up in memory, so the whole response never has to exist as a String
+     * or a JSONObject tree.
+     */
+    public static List<Earthquake> extractFeatureFromStream(InputStream inputStream)
+            throws IOException {
+        return extractFeatureFromStream(inputStream, new ParseStatus());
+    }
+
+    // Read the earthquakes of a GeoJSON stream, noting in the status if the JSON was broken
+    private static List<Earthquake> extractFeatureFromStream(InputStream inputStream,
+                                                             ParseStatus status)
+            throws IOException {
+        // Create an empty ArrayList that we can start adding earthquakes to
+        final List<Earthquake> earthquakes = new ArrayList<>();
+
+        readFeatures(inputStream, new FeatureListener() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        }, status);
+
+        // Return the list of earthquakes
+        return earthquakes;
+    }
+
+    /**
+     * Receives the earthquakes of a response one at a time, as they are read.
+     */
+    public interface FeatureListener {
+        void onEarthquake(Earthquake earthquake);
+    }
+
+    /**
+     * Read a GeoJSON stream token by token the way {@link #extractFeatureFromStream(InputStream)}
+     * does, but hand every earthquake to the listener as soon as it has been read instead of
+     * collecting them, i.e. to summarize a response too large to be held as a list.
+     *
+     * @return the number of earthquakes read
+     */
+    public static int readFeatures(InputStream inputStream, FeatureListener listener)
+            throws IOException {
+        return readFeatures(inputStream, listener, new ParseStatus());
+    }
+
+    // Whether a response could be read to the end. One that could not is not cached, its
+    // validators would keep the earthquakes that were missing from it out for good
+    private static final class ParseStatus {
+        boolean broken;
+    }
+
+    private static int readFeatures(InputStream inputStream, FeatureListener listener,
+                                    ParseStatus status) throws IOException {
+        long parseStart = EarthquakeMetrics.start();
+        int count = 0;
+        int malformed = 0;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("features")) {
+                    Feature feature = new Feature();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Earthquake earthquake = readFeature(reader, feature);
+                        if (earthquake != null) {
+                            listener.onEarthquake(earthquake);
+                            count++;
+                        } else if (feature.malformed) {
+                            malformed++;
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    // "type", "metadata" and "bbox" are not needed
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            // The response is not shaped the way we expect, or is not even JSON from some
+            // point on. Keep the earthquakes read so far, the same way extractFeatureFromJson()
+            // does when it hits a JSONException. Nothing after a syntax error can be read, so
+            // the feature it was in counts as malformed. Downloading the same body again would
+            // not fix it, so it is not retried
+            Log.e(LOG_TAG, "Problem parsing the earthquake JSON results", e);
+            status.broken = true;
+            if (e instanceof MalformedJsonException) {
+                malformed++;
+            }
+        } finally {
+            countMalformedFeatures(malformed);
+            reader.close();
+            EarthquakeMetrics.record(EarthquakeMetrics.STAGE_PARSE, parseStart);
+            EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_EVENTS_PARSED, count);
+        }
+        return count;
+    }
+
+    // Read a single element of the "features" array, returning null if it has no properties
+    // or is malformed, in which case only that element is skipped.
+    // The fields are collected in the given Feature, which is reused for every element
+    private static Earthquake readFeature(JsonReader reader, Feature feature) throws IOException {
+        feature.reset();
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            feature.malformed = true;
+            reader.skipValue();
+            return null;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonToken token = reader.peek();
+            if (name.equals("properties") && token == JsonToken.BEGIN_OBJECT) {
+                readProperties(reader, feature);
+            } else if (name.equals("id") && token == JsonToken.STRING) {
+                feature.id = reader.nextString();
+            } else if (name.equals("geometry") && token == JsonToken.BEGIN_OBJECT) {
+                readGeometry(reader, feature);
+            } else {
+                // "type" is not needed
+                if (name.equals("properties") && token != JsonToken.NULL) {
+                    feature.malformed = true;
+                }
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (feature.malformed || !feature.hasProperties) {
+            return null;
+        }
+        return new Earthquake(feature.id, feature.magnitude, feature.offsetLocation,
+                feature.primaryLocation, feature.time, feature.updated, feature.url,
+                feature.latitude, feature.longitude);
+    }
+
+    // Read the "geometry" object of a feature. Its "coordinates" are
+    // [longitude, latitude, depth]
+    private static void readGeometry(JsonReader reader, Feature feature) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("coordinates") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); i++) {
+                    if (i == 0 && reader.peek() == JsonToken.NUMBER) {
+                        feature.longitude = reader.nextDouble();
+                    } else if (i == 1 && reader.peek() == JsonToken.NUMBER) {
+                        feature.latitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // Read the "properties" object of a feature
+    private static void readProperties(JsonReader reader, Feature feature) throws IOException {
+        feature.hasProperties = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            try {
+                if (reader.peek() == JsonToken.NULL) {
+                    // USGS sends null for some fields (i.e. "mag" on unreviewed events)
+                    reader.nextNull();
+                } else if (name.equals("mag")) {
+                    feature.magnitude = reader.nextDouble();
+                } else if (name.equals("place")) {
+                    // Split once here, the parts are shared with every other earthquake in
+                    // the same place
+                    LocationPool.Entry location = LocationPool.split(reader.nextString());
+                    feature.offsetLocation = location.offsetLocation;
+                    feature.primaryLocation = location.primaryLocation;
+                } else if (name.equals("time")) {
+                    feature.time = reader.nextLong();
+                } else if (name.equals("updated")) {
+                    feature.updated = reader.nextLong();
+                } else if (name.equals("url")) {
+                    feature.url = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            } catch (IllegalStateException | NumberFormatException e) {
+                // A value of the wrong type, i.e. a "mag" that is an object or a "time" that
+                // is not a number. The reader has not consumed it, so skip it and the feature
+                feature.malformed = true;
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // The fields of a feature while it is being read. USGS writes the "id" of a feature after
+    // its "properties", so the Earthquake can only be made once the whole feature is read
+    private static final class Feature {
+        boolean hasProperties;
+        boolean malformed;
+        String id;
+        double magnitude;
+        String offsetLocation;
+        String primaryLocation;
+        long time;
+        long updated;
+        String url;
+        double latitude;
+        double longitude;
+
+        void reset() {
+            hasProperties = false;
+            malformed = false;
+            id = null;
+            magnitude = 0;
+            offsetLocation = "";
+            primaryLocation = "";
+            time = 0;
+            updated = 0;
+            url = "";
+            latitude = Double.NaN;
+            longitude = Double.NaN;
+        }
+    }
+
+    private static void countMalformedFeatures(int malformed) {
+        if (malformed > 0) {
+            Log.e(LOG_TAG, "Skipped " + malformed + " malformed features");
+            EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_MALFORMED_FEATURES, malformed);
+        }
+    }
+
+    /**
+     * Return the {@link EarthquakeDetail} of an event read token by token from its "detail"
+     * GeoJSON, a single feature. Its "products" (every ShakeMap, moment tensor and "Did You
+     * Feel It?" file USGS has for the event) are by far the largest part of the response and
+     * are skipped without being built up in memory. Returns null if the response is not a
+     * feature.
+     */
+    public static EarthquakeDetail extractDetailFromStream(InputStream inputStream)
+            throws IOException {
+        EarthquakeDetail.Builder detail = new EarthquakeDetail.Builder();
+        boolean hasProperties = false;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                JsonToken token = reader.peek();
+                if (name.equals("properties") && token == JsonToken.BEGIN_OBJECT) {
+                    readDetailProperties(reader, detail);
+                    hasProperties = true;
+                } else if (name.equals("geometry") && token == JsonToken.BEGIN_OBJECT) {
+                    readDetailGeometry(reader, detail);
+                } else if (name.equals("id") && token == JsonToken.STRING) {
+                    detail.id(reader.nextString());
+                } else {
+                    // "type" is not needed
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            // The response is not shaped the way we expect, or is not JSON. Downloading the
+            // same body again would not fix it, so it is not retried
+            Log.e(LOG_TAG, "Problem parsing the earthquake detail JSON results", e);
+            return null;
+        } finally {
+            reader.close();
+        }
+        return hasProperties ? detail.build() : null;
+    }
+
+    // Read the "properties" object of a detail feature. A value of the wrong type is skipped
+    // on its own, the other fields are still kept
+    private static void readDetailProperties(JsonReader reader, EarthquakeDetail.Builder detail)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            try {
+                if (reader.peek() == JsonToken.NULL) {
+                    // USGS sends null for what it does not know (i.e. "felt" when nobody
+                    // reported feeling the earthquake)
+                    reader.nextNull();
+                } else if (name.equals("felt")) {
+                    detail.feltReports(reader.nextInt());
+                } else if (name.equals("cdi")) {
+                    detail.communityIntensity(reader.nextDouble());
+                } else if (name.equals("mmi")) {
+                    detail.instrumentalIntensity(reader.nextDouble());
+                } else if (name.equals("alert")) {
+                    detail.alertLevel(reader.nextString());
+                } else if (name.equals("tsunami")) {
+                    detail.tsunami(reader.nextInt() != 0);
+                } else if (name.equals("sig")) {
+                    detail.significance(reader.nextInt());
+                } else if (name.equals("magType")) {
+                    detail.magnitudeType(reader.nextString());
+                } else if (name.equals("status")) {
+                    detail.reviewStatus(reader.nextString());
+                } else {
+                    // "products" and everything the list already shows
+                    reader.skipValue();
+                }
+            } catch (IllegalStateException | NumberFormatException e) {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // Read the depth from the "geometry" object of a detail feature. Its "coordinates" are
+    // [longitude, latitude, depth]
+    private static void readDetailGeometry(JsonReader reader, EarthquakeDetail.Builder detail)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("coordinates") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); i++) {
+                    if (i == 2 && reader.peek() == JsonToken.NUMBER) {
+                        detail.depthKm(reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Return the given query URL restricted to a single page of results, using the FDSN
+     * "offset" (which starts at 1) and "limit" query parameters.
+     */
+    public static String buildPageUrl(String requestUrl, int offset, int limit) {
+        String pageUrl = setQueryParameter(requestUrl, "offset", String.valueOf(offset));
+        return setQueryParameter(pageUrl, "limit", String.valueOf(limit));
+    }
+
+    /**
+     * Return the given query URL restricted to the earthquakes added or updated after the
+     * given time, using the FDSN "updatedafter" query parameter.
+     */
+    public static String buildDeltaUrl(String requestUrl, long updatedAfterInMilliSeconds) {
+        return setQueryParameter(requestUrl, "updatedafter",
+                formatQueryTime(updatedAfterInMilliSeconds));
+    }
+
+    /**
+     * Return the URL of the "detail" GeoJSON of one event, on the same server as the given
+     * query. It is the URL USGS gives in the "detail" property of every feature, which the
+     * list does not read.
+     */
+    public static String buildDetailUrl(String requestUrl, String eventId) {
+        int queryStart = requestUrl.indexOf('?');
+        String base = queryStart < 0 ? requestUrl : requestUrl.substring(0, queryStart);
+        return base + "?eventid=" + eventId + "&format=geojson";
+    }
+
+    // Format a time the way FDSN query parameters expect it, i.e. "2014-01-31T00:00:00.000"
+    static String formatQueryTime(long timeInMilliSeconds) {
+        SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return timeFormat.format(timeInMilliSeconds);
+    }
+
+    // Set a query parameter on a URL string, replacing the value if it is already there
+    static String setQueryParameter(String requestUrl, String name, String value) {
+        int queryStart = requestUrl.indexOf('?');
+        if (queryStart < 0) {
+            return requestUrl + "?" + name + "=" + value;
+        }
+
+        StringBuilder result = new StringBuilder(requestUrl.length() + name.length() + 16);
+        result.append(requestUrl, 0, queryStart + 1);
+        for (String parameter : requestUrl.substring(queryStart + 1).split("&")) {
+            // Drop empty parameters and the old value of the one we are setting
+            if (parameter.isEmpty() || parameter.equals(name) || parameter.startsWith(name + "=")) {
+                continue;
+            }
+            result.append(parameter).append('&');
+        }
+        result.append(name).append('=').append(value);
+        return result.toString();
+    }
+
+    /**
+     * Return the query URL in a form that is the same for every way of writing the same query:
+     * the scheme and host in lower case and the query parameters sorted, without empty ones.
+     */
+    public static String normalizeQueryUrl(String requestUrl) {
+        int queryStart = requestUrl.indexOf('?');
+        String base = queryStart < 0 ? requestUrl : requestUrl.substring(0, queryStart);
+        int pathStart = base.indexOf('/', base.indexOf("://") + 3);
+        if (pathStart < 0) {
+            base = base.toLowerCase(Locale.US);
+        } else {
+            base = base.substring(0, pathStart).toLowerCase(Locale.US) + base.substring(pathStart);
+        }
+        if (queryStart < 0) {
+            return base;
+        }
+
+        List<String> parameters = new ArrayList<>();
+        for (String parameter : requestUrl.substring(queryStart + 1).split("&")) {
+            if (!parameter.isEmpty()) {
+                parameters.add(parameter);
+            }
+        }
+        Collections.sort(parameters);
+        StringBuilder normalized = new StringBuilder(requestUrl.length());
+        normalized.append(base).append('?');
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                normalized.append('&');
+            }
+            normalized.append(parameters.get(i));
+        }
+        return normalized.toString();
+    }
+
+    // Return the value of a query parameter of a URL string, or null if it is not set
+    static String getQueryParameter(String requestUrl, String name) {
+        int queryStart = requestUrl.indexOf('?');
+        if (queryStart < 0) {
+            return null;
+        }
+        for (String parameter : requestUrl.substring(queryStart + 1).split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replace the transport the HTTP requests are made with, i.e. to fetch from a local
+     * stand-in of the USGS server.
+     */
+    public static void setTransport(EarthquakeTransport transport) {
+        sTransport = transport;
+    }
+
+    public static EarthquakeTransport getTransport() {
+        return sTransport;
+    }
+
     public static List<Earthquake> fetchEarthquakeData(String requestUrl) {
-        // Create URL object
-        URL url = createUrlObject(requestUrl);
+        return fetchEarthquakeData(requestUrl, null);
+    }
+
+    /**
+     * Fetch the earthquakes of a query, revalidating the copy in the given cache if there is one.
+     * A 304 Not Modified response returns the cached earthquakes, any other successful
+     * response is parsed and stored in the cache.
+     *
+     * A result fetched moments ago, i.e. by a loader that has since been replaced, is returned
+     * from the {@link QueryResultCache} without a request, and callers asking for the same
+     * query at the same time share one request.
+     *
+     * @param cache to revalidate against and store results in, or null to skip caching
+     */
+    public static List<Earthquake> fetchEarthquakeData(final String requestUrl,
+                                                       final EarthquakeCache cache) {
+        return QueryResultCache.getInstance().fetch(requestUrl, new QueryResultCache.Fetcher() {
+            @Override
+            public QueryResultCache.Result fetch() {
+                Download download = requestEarthquakeData(requestUrl, cache, true);
+                return download == null ? null
+                        : new QueryResultCache.Result(download.earthquakes, download.complete);
+            }
+        });
+    }
+
+    /**
+     * Fetch the earthquakes of a query from the network, even if a fresh result is in memory.
+     * Used for the changes since a time, which are only ever asked for once.
+     */
+    public static List<Earthquake> fetchEarthquakeDataFromNetwork(String requestUrl) {
+        return requestEarthquakeData(requestUrl, null);
+    }
+
+    private static List<Earthquake> requestEarthquakeData(String requestUrl,
+                                                          EarthquakeCache cache) {
+        Download download = requestEarthquakeData(requestUrl, cache, true);
+        return download == null ? null : download.earthquakes;
+    }
 
-        // Perform HTTP request to the URL and receive a JSON response
-        String jsonResponse = null;
+    /**
+     * Make the request for a query without reading its body, so the body can be parsed as it
+     * arrives on another thread with {@link #parseEarthquakeData(Download, EarthquakeCache)},
+     * while the next query is requested. A fresh result in memory, or a 304 Not Modified
+     * response to the copy in the given cache, comes back already parsed. Returns null if the
+     * request failed. A download that is not parsed must be closed.
+     *
+     * @param cache to revalidate against and store results in, or null to skip caching
+     */
+    public static Download downloadEarthquakeData(String requestUrl, EarthquakeCache cache) {
+        List<Earthquake> inMemory = QueryResultCache.getInstance().get(requestUrl);
+        if (inMemory != null) {
+            EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_MEMORY_HITS, 1);
+            return new Download(requestUrl, null, inMemory);
+        }
+        return requestEarthquakeData(requestUrl, cache, false);
+    }
+
+    /**
+     * Return the earthquakes of a downloaded query, parsing its body as it arrives if it has
+     * one, and storing the result in memory and in the given cache. The download is closed.
+     *
+     * If the body breaks off on the way and cannot be resumed, the query is requested again
+     * and parsed as it arrives, with the retries of any other request.
+     *
+     * @param cache the download was revalidated against, or null to skip caching
+     */
+    public static List<Earthquake> parseEarthquakeData(Download download, EarthquakeCache cache)
+            throws IOException {
+        EarthquakeTransport.Response response = download.response;
+        if (response == null) {
+            return download.earthquakes;
+        }
         try {
-            jsonResponse = makeHttpRequest(url);
+            ParseStatus status = new ParseStatus();
+            List<Earthquake> earthquakes = extractFeatureFromStream(response.getBody(), status);
+            if (!status.broken) {
+                storeEarthquakeData(download.requestUrl, cache, response.getEtag(),
+                        response.getLastModified(), earthquakes);
+                QueryResultCache.getInstance().put(download.requestUrl, earthquakes);
+            }
+            return earthquakes;
         } catch (IOException e) {
-            Log.e("Query Utils", "Problem making the HTTP request", e);
+            if (Thread.currentThread().isInterrupted()) {
+                throw e;
+            }
+            Log.e(LOG_TAG, "Body of " + download.requestUrl + " broke off, requesting it again",
+                    e);
+            EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_RETRIES, 1);
+            Download again = requestEarthquakeData(download.requestUrl, cache, true);
+            if (again == null) {
+                throw e;
+            }
+            if (again.complete) {
+                QueryResultCache.getInstance().put(download.requestUrl, again.earthquakes);
+            }
+            return again.earthquakes;
+        } finally {
+            response.close();
         }
+    }
 
-        // Extract the relevant fields from the JSON response and creat a list of
-        // Earthquake objects
-        List<Earthquake> earthquakes = extractFeatureFromJson(jsonResponse);
+    // Make the request, parsing the response as it arrives or else leaving the body unread
+    private static Download requestEarthquakeData(String requestUrl, final EarthquakeCache cache,
+                                                  final boolean parse) {
+        return requestWithRetries(requestUrl, new Request<Download>() {
+            @Override
+            public Download make(URL url) throws IOException {
+                return makeHttpRequest(url, cache, parse);
+            }
+        });
+    }
 
-        return earthquakes;
+    /**
+     * Fetch a query and summarize it as it arrives, see {@link EarthquakeSummary}. The
+     * earthquakes are never held as a list, and nothing is cached. Returns null if the
+     * request failed.
+     */
+    public static EarthquakeSummary summarizeEarthquakeData(String requestUrl) {
+        return requestWithRetries(requestUrl, new Request<EarthquakeSummary>() {
+            @Override
+            public EarthquakeSummary make(URL url) throws IOException {
+                return makeSummaryRequest(url);
+            }
+        });
+    }
+
+    /**
+     * Fetch the {@link EarthquakeDetail} of one event from its detail URL, see
+     * {@link #buildDetailUrl(String, String)}. Nothing is cached here, see
+     * {@link EarthquakeDetails}. Returns null if the request failed.
+     */
+    public static EarthquakeDetail fetchEarthquakeDetail(String detailUrl) {
+        return requestWithRetries(detailUrl, new Request<EarthquakeDetail>() {
+            @Override
+            public EarthquakeDetail make(URL url) throws IOException {
+                return makeDetailRequest(url);
+            }
+        });
+    }
+
+    // A request to the URL of a query, that may be made more than once
+    private interface Request<T> {
+        T make(URL url) throws IOException;
+    }
+
+    private static <T> T requestWithRetries(String requestUrl, Request<T> request) {
+        // Create URL object
+        URL url = createUrlObject(requestUrl);
+
+        // Perform HTTP request to the URL and parse the response as it arrives into a list
+        // of Earthquake objects. A request that fails on the way is tried again after an
+        // increasing, randomized delay, so phones that lost the same server do not all come
+        // back at the same moment
+        long delay = RETRY_DELAY_MILLIS;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return request.make(url);
+            } catch (IOException e) {
+                if (attempt >= MAX_RETRIES || Thread.currentThread().isInterrupted()) {
+                    Log.e("Query Utils", "Problem making the HTTP request", e);
+                    return null;
+                }
+            }
+
+            EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_RETRIES, 1);
+            try {
+                Thread.sleep(delay / 2 + (long) (Math.random() * delay / 2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            delay *= 2;
+        }
+    }
+
+    /**
+     * Return the earthquakes of a query without going to the network, from memory (even if
+     * they are stale) or else from the given cache, or null if the query has not been cached.
+     */
+    public static List<Earthquake> readCachedEarthquakeData(String requestUrl,
+                                                            EarthquakeCache cache) {
+        List<Earthquake> inMemory = QueryResultCache.getInstance().peek(requestUrl);
+        if (inMemory != null || cache == null) {
+            return inMemory;
+        }
+        EarthquakeCache.Entry entry = cache.get(requestUrl);
+        return entry == null ? null : entry.getEarthquakes();
     }
 
     // Create a URL object from URL string
@@ -108,64 +785,167 @@ public final class QueryUtils {
         return url;
     }
 
-    // Make an HTTP request to the given URL and return a String as the response.
-    // The string is the entire JSON response from the server which we then need to parse
-    // The method readFromStream actually gets the info form the server into a String, and the
-    // String is parsed using the extractFeatureFromJson() method
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
-
+    // Make an HTTP request to the given URL and return the list of earthquakes in the response.
+    // The response is never held as a whole, extractFeatureFromStream() reads it straight
+    // from the transport and only keeps the fields we display. Unless it is asked to parse,
+    // the response is handed back with its body unread, to be parsed later instead.
+    // If the cache holds the query, the request is made conditional on the cached copy.
+    // Throws if the request failed in a way that may go away when it is tried again
+    private static Download makeHttpRequest(URL url, EarthquakeCache cache, boolean parse)
+            throws IOException {
         // If the URL is null, return early
         if (url == null) {
-            return jsonResponse;
+            return null;
         }
 
-        // Create a HttpURLConnection and InputStream object ready for assignment
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        // Send the validators of the cached copy so the server can answer 304 if the
+        // earthquakes have not changed since
+        String requestUrl = url.toString();
+        EarthquakeCache.Entry cached = cache == null ? null : cache.get(requestUrl);
+        EarthquakeTransport.Response response = null;
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.setReadTimeout(10000);
-            urlConnection.setConnectTimeout(15000);
-            urlConnection.connect();
-
-            // If the request was successful (response code 200) read the input stream
-            // and parse the response
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            response = sTransport.get(url, cached == null ? null : cached.getEtag(),
+                    cached == null ? null : cached.getLastModified());
+
+            // If the request was successful (response code 200) parse the body as it arrives
+            int responseCode = response.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                cache.recordHit();
+                if (!parse) {
+                    // Nothing left to parse, so the result is fresh from here on
+                    QueryResultCache.getInstance().put(requestUrl, cached.getEarthquakes());
+                }
+                return new Download(requestUrl, null, cached.getEarthquakes());
+            } else if (responseCode == 200 && response.getBody() != null) {
+                if (!parse) {
+                    // The download closes the response once it has been parsed
+                    Download download = new Download(requestUrl, response, null);
+                    response = null;
+                    return download;
+                }
+                ParseStatus status = new ParseStatus();
+                List<Earthquake> earthquakes =
+                        extractFeatureFromStream(response.getBody(), status);
+                if (!status.broken) {
+                    storeEarthquakeData(requestUrl, cache, response.getEtag(),
+                            response.getLastModified(), earthquakes);
+                }
+                return new Download(requestUrl, null, earthquakes, !status.broken);
             } else {
-                Log.e("Query Utils", "Error reaponse code " + urlConnection.getResponseCode());
+                checkResponseCode(responseCode);
             }
-        } catch (IOException e) {
-            Log.e("Query Utils", "Problem resolving the earthquake JSON results", e);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            // Closing the response hands the connection back to be reused
+            if (response != null) {
+                response.close();
             }
-            if (inputStream != null) {
-                inputStream.close();
+        }
+        return null;
+    }
+
+    // Make an HTTP request to the given URL and summarize the response as it arrives.
+    // Throws if the request failed in a way that may go away when it is tried again
+    private static EarthquakeSummary makeSummaryRequest(URL url) throws IOException {
+        // If the URL is null, return early
+        if (url == null) {
+            return null;
+        }
+
+        EarthquakeTransport.Response response = null;
+        try {
+            response = sTransport.get(url, null, null);
+            int responseCode = response.getResponseCode();
+            if (responseCode == 200 && response.getBody() != null) {
+                return EarthquakeSummary.read(response.getBody());
+            }
+            checkResponseCode(responseCode);
+        } finally {
+            if (response != null) {
+                response.close();
             }
         }
-        return jsonResponse;
+        return null;
     }
 
-    // Convert the {@link InputStream} into a String which contains the whole JSON response
-    // from the server
+    // Make an HTTP request to the detail URL of an event and parse the response as it arrives.
+    // Throws if the request failed in a way that may go away when it is tried again
+    private static EarthquakeDetail makeDetailRequest(URL url) throws IOException {
+        // If the URL is null, return early
+        if (url == null) {
+            return null;
+        }
 
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, "UTF-8");
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
+        EarthquakeTransport.Response response = null;
+        try {
+            response = sTransport.get(url, null, null);
+            int responseCode = response.getResponseCode();
+            if (responseCode == 200 && response.getBody() != null) {
+                return extractDetailFromStream(response.getBody());
+            }
+            checkResponseCode(responseCode);
+        } finally {
+            if (response != null) {
+                response.close();
             }
         }
-        return output.toString();
+        return null;
+    }
+
+    // Throw if the response code means the request may succeed when it is tried again,
+    // otherwise log it
+    private static void checkResponseCode(int responseCode) throws IOException {
+        if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                || responseCode == HTTP_TOO_MANY_REQUESTS) {
+            throw new IOException("Error response code " + responseCode);
+        }
+        Log.e("Query Utils", "Error reaponse code " + responseCode);
+    }
+
+    // Keep a freshly fetched result in the cache, together with its validators
+    private static void storeEarthquakeData(String requestUrl, EarthquakeCache cache, String etag,
+                                            String lastModified, List<Earthquake> earthquakes) {
+        if (cache != null) {
+            cache.recordMiss();
+            cache.put(requestUrl, etag, lastModified, earthquakes);
+        }
     }
 
-}
\ No newline at end of file
+    /**
+     * The response to a query, requested but not parsed yet. Holds either the response with
+     * its body still to be read, or the earthquakes when there was nothing to parse (i.e. on
+     * a 304). Closing it releases the connection of a body that will not be parsed.
+     */
+    public static final class Download implements Closeable {
+        final String requestUrl;
+
+        /* The response, its body not read yet, or null if the earthquakes are already known */
+        final EarthquakeTransport.Response response;
+
+        /* The earthquakes of the query, or null until the body has been parsed */
+        final List<Earthquake> earthquakes;
+
+        /* False if the body was parsed and broke off on the way, so the earthquakes are only
+         * part of the query and must not be cached */
+        final boolean complete;
+
+        Download(String requestUrl, EarthquakeTransport.Response response,
+                 List<Earthquake> earthquakes) {
+            this(requestUrl, response, earthquakes, true);
+        }
+
+        Download(String requestUrl, EarthquakeTransport.Response response,
+                 List<Earthquake> earthquakes, boolean complete) {
+            this.requestUrl = requestUrl;
+            this.response = response;
+            this.earthquakes = earthquakes;
+            this.complete = complete;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+}
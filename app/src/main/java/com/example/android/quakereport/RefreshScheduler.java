@@ -0,0 +1,214 @@
+package com.example.android.quakereport;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Random;
+
+/**
+ * Decides when the earthquakes shown are refreshed while the activity is visible.
+ *
+ * The interval adapts to what the last refresh brought: it doubles every time nothing
+ * changed, up to {@link #MAX_INTERVAL_MILLIS}, goes back to {@link #BASE_INTERVAL_MILLIS} when
+ * something did, and drops to {@link #MIN_INTERVAL_MILLIS} after an earthquake of
+ * {@link #SIGNIFICANT_MAGNITUDE} or more, when aftershocks and revisions are likely. Every
+ * interval is moved by a random jitter so phones that were started together do not all ask
+ * USGS at the same moment. Only one refresh is in flight at a time, and asking for one while
+ * another is running or right after one finished does not start another.
+ *
+ * Time and timers come from a {@link Clock}, so the scheduler can be driven by a fake one.
+ * All methods are called on one thread, the main thread in the app.
+ */
+public class RefreshScheduler {
+
+    /* Shortest interval, used after a significant earthquake */
+    public static final long MIN_INTERVAL_MILLIS = 30 * 1000;
+
+    /* Interval after a refresh that brought something new */
+    public static final long BASE_INTERVAL_MILLIS = 60 * 1000;
+
+    /* Longest interval the scheduler backs off to when nothing changes */
+    public static final long MAX_INTERVAL_MILLIS = 15 * 60 * 1000;
+
+    /* Magnitude of an inserted or revised earthquake that makes the refreshes come quicker */
+    public static final double SIGNIFICANT_MAGNITUDE = 6.0;
+
+    /* Every interval is moved up to this fraction either way */
+    private static final double JITTER = 0.2;
+
+    /**
+     * Source of the time and of delayed tasks.
+     */
+    public interface Clock {
+        /* Milliseconds since some fixed point, i.e. SystemClock.elapsedRealtime() */
+        long now();
+
+        void postDelayed(Runnable task, long delayMillis);
+
+        void cancel(Runnable task);
+    }
+
+    /**
+     * The clock of the app: SystemClock.elapsedRealtime() and tasks run on the main thread.
+     */
+    public static class MainThreadClock implements Clock {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+            mHandler.postDelayed(task, delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            mHandler.removeCallbacks(task);
+        }
+    }
+
+    /**
+     * Called when a refresh is due. Report the outcome back with
+     * {@link #onRefreshed(int, double)}, or {@link #onRefreshSkipped()} if it did not run.
+     */
+    public interface Callback {
+        void onRefresh();
+    }
+
+    private final Clock mClock;
+    private final Random mRandom;
+    private final Callback mCallback;
+
+    // Interval until the next refresh, before the jitter
+    private long mIntervalMillis = BASE_INTERVAL_MILLIS;
+
+    // When the last refresh was started, on the clock
+    private long mLastRefreshTime;
+    private boolean mRefreshedBefore;
+
+    private boolean mStarted;
+    private boolean mInFlight;
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            refreshNow();
+        }
+    };
+
+    /**
+     * Constructs a new RefreshScheduler
+     *
+     * @param clock    time and timers
+     * @param random   source of the jitter
+     * @param callback told when a refresh is due
+     */
+    public RefreshScheduler(Clock clock, Random random, Callback callback) {
+        mClock = clock;
+        mRandom = random;
+        mCallback = callback;
+    }
+
+    /**
+     * Start refreshing, the first time one interval after the last refresh.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        long sinceLast = mRefreshedBefore ? mClock.now() - mLastRefreshTime : 0;
+        schedule(Math.max(0, mIntervalMillis - sinceLast));
+    }
+
+    /**
+     * Stop refreshing, i.e. when the activity is no longer visible. A refresh in flight
+     * still finishes.
+     */
+    public void stop() {
+        mStarted = false;
+        mClock.cancel(mTick);
+    }
+
+    /**
+     * Refresh now, unless a refresh is in flight or the last one was less than
+     * {@link #MIN_INTERVAL_MILLIS} ago, in which case the request is folded into that one.
+     */
+    public void refreshNow() {
+        if (!mStarted) {
+            return;
+        }
+        long now = mClock.now();
+        // A refresh that never reported back is given up after the longest interval
+        if (mInFlight && now - mLastRefreshTime < MAX_INTERVAL_MILLIS) {
+            return;
+        }
+        if (mRefreshedBefore && !mInFlight && now - mLastRefreshTime < MIN_INTERVAL_MILLIS) {
+            schedule(mLastRefreshTime + MIN_INTERVAL_MILLIS - now);
+            return;
+        }
+        mInFlight = true;
+        mRefreshedBefore = true;
+        mLastRefreshTime = now;
+        mClock.cancel(mTick);
+        mClock.postDelayed(mTick, MAX_INTERVAL_MILLIS);
+        mCallback.onRefresh();
+    }
+
+    /**
+     * Report the outcome of the refresh in flight and schedule the next one.
+     *
+     * @param changes          number of earthquakes inserted or updated, 0 if the refresh
+     *                         failed
+     * @param largestMagnitude largest magnitude among them, or NaN
+     */
+    public void onRefreshed(int changes, double largestMagnitude) {
+        if (!mInFlight) {
+            return;
+        }
+        mInFlight = false;
+        if (largestMagnitude >= SIGNIFICANT_MAGNITUDE) {
+            mIntervalMillis = MIN_INTERVAL_MILLIS;
+        } else if (changes > 0) {
+            mIntervalMillis = BASE_INTERVAL_MILLIS;
+        } else {
+            mIntervalMillis = Math.min(MAX_INTERVAL_MILLIS, mIntervalMillis * 2);
+        }
+        if (mStarted) {
+            schedule(mIntervalMillis);
+        }
+    }
+
+    /**
+     * Report that the refresh in flight did not run, i.e. another load was in flight, and
+     * schedule the next one without changing the interval.
+     */
+    public void onRefreshSkipped() {
+        if (!mInFlight) {
+            return;
+        }
+        mInFlight = false;
+        if (mStarted) {
+            schedule(mIntervalMillis);
+        }
+    }
+
+    public boolean isRefreshing() {
+        return mInFlight;
+    }
+
+    public long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    // Run the next refresh after the given delay, give or take the jitter
+    private void schedule(long delayMillis) {
+        double jitter = 1 + JITTER * (2 * mRandom.nextDouble() - 1);
+        mClock.cancel(mTick);
+        mClock.postDelayed(mTick, (long) (delayMillis * jitter));
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The rows the list showed when the last session ended, so the next one can show them
+ * before it has looked at the network, or even at the network connection.
+ *
+ * Only the earthquakes up to the last row on screen are kept (at least a page, at most
+ * {@link #MAX_ROWS}), together with the query they were loaded with and the scroll position,
+ * so the file stays a few KB and is read in a few milliseconds. The earthquakes are stored as
+ * an {@link EarthquakeSnapshot}. A snapshot of another query, or one that cannot be read, is
+ * ignored.
+ *
+ * Snapshots are read and written on a background thread of their own, see
+ * {@link #readAsync(File, String)} and {@link #writeAsync(File, StartupSnapshot)}.
+ */
+public final class StartupSnapshot {
+
+    private static final String LOG_TAG = StartupSnapshot.class.getSimpleName();
+
+    /* Name of the file, in the app cache directory */
+    private static final String FILE_NAME = "startup.snapshot";
+
+    /* "QKST" */
+    private static final int MAGIC = 0x514B5354;
+
+    /* Bump this when the layout changes, older snapshots are then ignored */
+    private static final int VERSION = 1;
+
+    /* Most rows a snapshot holds, so the user scrolling far down does not make startup slow */
+    public static final int MAX_ROWS = 200;
+
+    /* Reads and writes the snapshots one at a time, so a read never sees half a write */
+    private static final ExecutorService sExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "StartupSnapshot");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final String mRequestUrl;
+    private final List<Earthquake> mEarthquakes;
+    private final int mFirstPosition;
+    private final int mFirstTop;
+    private final boolean mHasMorePages;
+
+    /**
+     * Constructs a new StartupSnapshot
+     *
+     * @param requestUrl    the query the earthquakes were loaded with
+     * @param earthquakes   the first rows of the list, in the order they were shown
+     * @param firstPosition of the row at the top of the list
+     * @param firstTop      offset of that row from the top of the list, in pixels
+     * @param hasMorePages  whether there were more pages of the query to load
+     */
+    public StartupSnapshot(String requestUrl, List<Earthquake> earthquakes, int firstPosition,
+                           int firstTop, boolean hasMorePages) {
+        mRequestUrl = requestUrl;
+        mEarthquakes = earthquakes;
+        mFirstPosition = firstPosition;
+        mFirstTop = firstTop;
+        mHasMorePages = hasMorePages;
+    }
+
+    /**
+     * Return a snapshot of the rows of a store that are on screen, and the ones above them.
+     *
+     * @param minRows       kept even if fewer rows are on screen, i.e. a page
+     * @param lastPosition  of the last row on screen
+     */
+    public static StartupSnapshot of(String requestUrl, EarthquakeStore store, int minRows,
+                                     int firstPosition, int lastPosition, int firstTop,
+                                     boolean hasMorePages) {
+        int rowCount = Math.min(store.size(), Math.min(MAX_ROWS,
+                Math.max(minRows, lastPosition + 1)));
+        List<Earthquake> earthquakes = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            earthquakes.add(store.getEarthquake(i));
+        }
+        // Start from the top if the rows on screen were not kept
+        if (firstPosition >= rowCount) {
+            firstPosition = 0;
+            firstTop = 0;
+        }
+        return new StartupSnapshot(requestUrl, earthquakes, firstPosition, firstTop,
+                hasMorePages || rowCount < store.size());
+    }
+
+    /**
+     * Return the file the snapshot of the app is kept in.
+     */
+    public static File getFile(Context context) {
+        return new File(context.getApplicationContext().getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * Start reading the snapshot of a query on the background thread. The result is null if
+     * there is no snapshot, it cannot be read, or it is of another query.
+     */
+    public static Future<StartupSnapshot> readAsync(final File file, final String requestUrl) {
+        return sExecutor.submit(new Callable<StartupSnapshot>() {
+            @Override
+            public StartupSnapshot call() {
+                long readStart = EarthquakeMetrics.start();
+                StartupSnapshot snapshot = read(file, requestUrl);
+                EarthquakeMetrics.record(EarthquakeMetrics.STAGE_SNAPSHOT_READ, readStart);
+                return snapshot;
+            }
+        });
+    }
+
+    /**
+     * Write a snapshot on the background thread, replacing the one there was.
+     */
+    public static void writeAsync(final File file, final StartupSnapshot snapshot) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(file, snapshot);
+            }
+        });
+    }
+
+    /**
+     * Read the snapshot of a query, or return null if there is none, it cannot be read, or it
+     * is of another query.
+     */
+    public static StartupSnapshot read(File file, String requestUrl) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            String snapshotUrl = in.readUTF();
+            if (!QueryUtils.normalizeQueryUrl(snapshotUrl)
+                    .equals(QueryUtils.normalizeQueryUrl(requestUrl))) {
+                return null;
+            }
+            int firstPosition = in.readInt();
+            int firstTop = in.readInt();
+            boolean hasMorePages = in.readBoolean();
+            List<Earthquake> earthquakes = EarthquakeSnapshot.read(in, file.length());
+            if (earthquakes.isEmpty()) {
+                return null;
+            }
+            return new StartupSnapshot(snapshotUrl, earthquakes,
+                    Math.min(firstPosition, earthquakes.size() - 1), firstTop, hasMorePages);
+        } catch (FileNotFoundException e) {
+            // First start, or the cache directory was cleared
+            return null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the startup snapshot", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write a snapshot, replacing the one there was. It is written to a temporary file first,
+     * so a snapshot is never left half written.
+     */
+    public static void write(File file, StartupSnapshot snapshot) {
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(snapshot.mRequestUrl);
+            out.writeInt(snapshot.mFirstPosition);
+            out.writeInt(snapshot.mFirstTop);
+            out.writeBoolean(snapshot.mHasMorePages);
+            EarthquakeSnapshot.write(snapshot.mEarthquakes, out);
+            out.close();
+            out = null;
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Could not rename " + temporary + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the startup snapshot", e);
+            temporary.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    public String getRequestUrl() {
+        return mRequestUrl;
+    }
+
+    public List<Earthquake> getEarthquakes() {
+        return mEarthquakes;
+    }
+
+    /* Position of the row that was at the top of the list */
+    public int getFirstPosition() {
+        return mFirstPosition;
+    }
+
+    /* Offset of that row from the top of the list, in pixels */
+    public int getFirstTop() {
+        return mFirstTop;
+    }
+
+    /* Whether there were more pages of the query to load after the rows kept */
+    public boolean hasMorePages() {
+        return mHasMorePages;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.quakereport;
+
+import android.app.LoaderManager.LoaderCallbacks;
+import android.content.Intent;
+import android.content.Loader;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.List;
+
+/*
+* Shows how many earthquakes a query has per magnitude band, place and day, for queries too
+* wide to list one earthquake at a time. Clicking a count lists the earthquakes behind it,
+* which are only fetched then
+*/
+public class SummaryActivity extends AppCompatActivity
+        implements LoaderCallbacks<List<SummaryAdapter.Row>> {
+
+    /* Constant value for the summary loader ID */
+    private static final int SUMMARY_LOADER_ID = 1;
+
+    private SummaryAdapter mAdapter;
+
+    /* TextView that is displayed when the list is empty */
+    private TextView mEmptyTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.summary_activity);
+
+        ListView summaryListView = (ListView) findViewById(R.id.list);
+        mEmptyTextView = (TextView) findViewById(R.id.empty_view);
+        summaryListView.setEmptyView(mEmptyTextView);
+
+        mAdapter = new SummaryAdapter(this);
+        summaryListView.setAdapter(mAdapter);
+
+        // List the earthquakes behind a count, only the ones of its place for a place
+        summaryListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long l) {
+                SummaryAdapter.Row row = mAdapter.getItem(position);
+                Intent listIntent = new Intent(SummaryActivity.this, EarthquakeActivity.class);
+                listIntent.putExtra(EarthquakeActivity.EXTRA_QUERY_URL, row.getUrl());
+                listIntent.putExtra(EarthquakeActivity.EXTRA_TITLE, row.getTitle());
+                if (row.getPrimaryLocation() != null) {
+                    listIntent.putExtra(EarthquakeActivity.EXTRA_PRIMARY_LOCATION,
+                            row.getPrimaryLocation());
+                }
+                startActivity(listIntent);
+            }
+        });
+
+        getLoaderManager().initLoader(SUMMARY_LOADER_ID, null, this);
+    }
+
+    @Override
+    public Loader<List<SummaryAdapter.Row>> onCreateLoader(int i, Bundle bundle) {
+        return new SummaryLoader(this,
+                getIntent().getStringExtra(EarthquakeActivity.EXTRA_QUERY_URL));
+    }
+
+    @Override
+    public void onLoadFinished(Loader<List<SummaryAdapter.Row>> loader,
+                               List<SummaryAdapter.Row> rows) {
+        // Set the ProgressBar to invisible when the summary has been loaded
+        findViewById(R.id.progress_bar).setVisibility(View.GONE);
+        mEmptyTextView.setText(R.string.no_earthquakes);
+        mAdapter.setRows(rows);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<List<SummaryAdapter.Row>> loader) {
+        mAdapter.setRows(null);
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.support.v4.content.ContextCompat;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/*
+* Shows an {@link EarthquakeSummary} as a compact list: the count of every magnitude band,
+* every place and every day, under a header for each. Every count can be drilled into, see
+* {@link Row#getUrl()}
+*/
+public class SummaryAdapter extends BaseAdapter {
+
+    private static final int VIEW_TYPE_HEADER = 0;
+    private static final int VIEW_TYPE_COUNT = 1;
+
+    private Context mContext;
+
+    // The rows to display, formatted off the main thread
+    private List<Row> mRows = Collections.emptyList();
+
+    public SummaryAdapter(Context context) {
+        mContext = context;
+    }
+
+    public void setRows(List<Row> rows) {
+        mRows = rows == null ? Collections.<Row>emptyList() : rows;
+        notifyDataSetChanged();
+    }
+
+    /*
+    * Format the rows of a summary. Slow for summaries of many places or days, so this is
+    * done on a background thread
+    *
+    * @param requestUrl the query that was summarized, narrowed down for every row
+    */
+    public static List<Row> buildRows(Context context, EarthquakeSummary summary,
+                                      String requestUrl) {
+        List<Row> rows = new ArrayList<>();
+        rows.add(new Row(context.getString(R.string.summary_total, summary.getCount())));
+        if (summary.getCount() == 0) {
+            return rows;
+        }
+
+        // Strongest band first
+        rows.add(new Row(context.getString(R.string.summary_by_magnitude)));
+        for (int band = EarthquakeSummary.BAND_COUNT - 1; band >= 0; band--) {
+            int count = summary.getBandCount(band);
+            if (count > 0) {
+                String title = band == EarthquakeSummary.BAND_COUNT - 1
+                        ? context.getString(R.string.summary_band_top, band)
+                        : context.getString(R.string.summary_band, band);
+                rows.add(new Row(title, null, count,
+                        EarthquakeSummary.getBandUrl(requestUrl, band), null));
+            }
+        }
+
+        // The place with the most earthquakes first
+        rows.add(new Row(context.getString(R.string.summary_by_place)));
+        for (EarthquakeSummary.Region region : summary.getRegions()) {
+            String detail = context.getString(R.string.summary_region_detail,
+                    region.getMaxMagnitude(), region.getMeanMagnitude());
+            rows.add(new Row(region.getName(), detail, region.getCount(),
+                    region.getUrl(requestUrl), region.getName()));
+        }
+
+        // Newest day first. Days are UTC days, the same as the query
+        rows.add(new Row(context.getString(R.string.summary_by_day)));
+        SimpleDateFormat dayFormat = new SimpleDateFormat("MMM d, yyyy", Locale.getDefault());
+        dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Date date = new Date();
+        for (int day = summary.getDayCount() - 1; day >= 0; day--) {
+            int count = summary.getCountOnDay(day);
+            if (count > 0) {
+                date.setTime(summary.getDayStart(day));
+                rows.add(new Row(dayFormat.format(date), null, count,
+                        summary.getDayUrl(requestUrl, day), null));
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public int getCount() {
+        return mRows.size();
+    }
+
+    @Override
+    public Row getItem(int position) {
+        return mRows.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return 2;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return mRows.get(position).isHeader() ? VIEW_TYPE_HEADER : VIEW_TYPE_COUNT;
+    }
+
+    @Override
+    public boolean areAllItemsEnabled() {
+        return false;
+    }
+
+    /*
+    * Headers can not be clicked
+    */
+    @Override
+    public boolean isEnabled(int position) {
+        return !mRows.get(position).isHeader();
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        Row row = mRows.get(position);
+
+        // Check if there is a spare view to reuse, and if not then inflate a new one and look
+        // up its views once. A header only shows its title
+        View itemView = convertView;
+        ViewHolder holder;
+        if (itemView == null) {
+            itemView = LayoutInflater.from(mContext).inflate(
+                    R.layout.summary_item, parent, false);
+            holder = new ViewHolder(itemView);
+            if (row.isHeader()) {
+                holder.titleTextView.setTextColor(
+                        ContextCompat.getColor(mContext, R.color.colorAccent));
+                holder.detailTextView.setVisibility(View.GONE);
+                holder.countTextView.setVisibility(View.GONE);
+            }
+            itemView.setTag(holder);
+        } else {
+            holder = (ViewHolder) itemView.getTag();
+        }
+
+        holder.titleTextView.setText(row.getTitle());
+        if (!row.isHeader()) {
+            holder.detailTextView.setVisibility(row.getDetail() == null ? View.GONE : View.VISIBLE);
+            holder.detailTextView.setText(row.getDetail());
+            holder.countTextView.setText(String.valueOf(row.getCount()));
+        }
+        return itemView;
+    }
+
+    /*
+    * A row of the summary: a header, or a count that can be drilled into
+    */
+    public static final class Row {
+        private final String mTitle;
+        private final String mDetail;
+        private final int mCount;
+        private final String mUrl;
+        private final String mPrimaryLocation;
+
+        // A header
+        Row(String title) {
+            this(title, null, -1, null, null);
+        }
+
+        Row(String title, String detail, int count, String url, String primaryLocation) {
+            mTitle = title;
+            mDetail = detail;
+            mCount = count;
+            mUrl = url;
+            mPrimaryLocation = primaryLocation;
+        }
+
+        public boolean isHeader() {
+            return mUrl == null;
+        }
+
+        public String getTitle() {
+            return mTitle;
+        }
+
+        /* i.e. the largest and mean magnitude of a place, or null */
+        public String getDetail() {
+            return mDetail;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        /* The query narrowed down to the earthquakes counted, or null for a header */
+        public String getUrl() {
+            return mUrl;
+        }
+
+        /* The only primary location the earthquakes counted are in, or null */
+        public String getPrimaryLocation() {
+            return mPrimaryLocation;
+        }
+    }
+
+    // The views of a summary item, looked up once when the item is inflated
+    private static class ViewHolder {
+        final TextView titleTextView;
+        final TextView detailTextView;
+        final TextView countTextView;
+
+        ViewHolder(View itemView) {
+            titleTextView = (TextView) itemView.findViewById(R.id.summary_title_text_view);
+            detailTextView = (TextView) itemView.findViewById(R.id.summary_detail_text_view);
+            countTextView = (TextView) itemView.findViewById(R.id.summary_count_text_view);
+        }
+    }
+}
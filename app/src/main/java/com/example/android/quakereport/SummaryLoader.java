@@ -0,0 +1,59 @@
+package com.example.android.quakereport;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+import java.util.List;
+
+/*
+* Summarizes a query as it is downloaded, without ever holding its earthquakes, and formats
+* the rows of the summary
+*/
+public class SummaryLoader extends AsyncTaskLoader<List<SummaryAdapter.Row>> {
+    // Query URL
+    private String mUrl;
+
+    // The rows loaded, kept so they survive configuration changes of the activity
+    private List<SummaryAdapter.Row> mRows;
+
+    /*
+    Constructs a new SummaryLoader
+    *
+    * @param context of the activity
+    * @param url to summarize
+    */
+    public SummaryLoader(Context context, String url) {
+        super(context);
+        mUrl = url;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mRows != null) {
+            deliverResult(mRows);
+        } else {
+            forceLoad();
+        }
+    }
+
+    /*
+    * This is on a background thread
+    */
+    @Override
+    public List<SummaryAdapter.Row> loadInBackground() {
+        if (mUrl == null) {
+            return null;
+        }
+        EarthquakeSummary summary = QueryUtils.summarizeEarthquakeData(mUrl);
+        if (summary == null) {
+            return null;
+        }
+        return SummaryAdapter.buildRows(getContext(), summary, mUrl);
+    }
+
+    @Override
+    public void deliverResult(List<SummaryAdapter.Row> rows) {
+        mRows = rows;
+        super.deliverResult(rows);
+    }
+}
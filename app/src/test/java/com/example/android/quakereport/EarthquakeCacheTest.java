@@ -0,0 +1,139 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The on-disk {@link EarthquakeCache}: conditional requests against a stand-in of the USGS
+ * server, the hit and miss counts they leave behind, and eviction of the least recently used
+ * entries.
+ */
+public class EarthquakeCacheTest {
+
+    private static final String QUERY =
+            "https://example.com/query?format=geojson&starttime=2014-01-01&minmagnitude=7";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final EarthquakeTransport mOriginalTransport = QueryUtils.getTransport();
+
+    private EarthquakeCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mCache = new EarthquakeCache(mFolder.newFolder("earthquakes"), 2 * 1024 * 1024);
+        QueryResultCache.getInstance().clear();
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setTransport(mOriginalTransport);
+        QueryResultCache.getInstance().clear();
+    }
+
+    @Test
+    public void firstFetchIsAMissAndIsStoredWithItsValidators() {
+        TestFeeds.StandIn standIn = new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) {
+                assertNull(etag);
+                return ok(TestFeeds.collection(0, 3), "\"v1\"");
+            }
+        };
+        QueryUtils.setTransport(standIn);
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(QUERY, mCache);
+
+        assertEquals(3, earthquakes.size());
+        assertEquals(0, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+        EarthquakeCache.Entry entry = mCache.get(QUERY);
+        assertNotNull(entry);
+        assertEquals("\"v1\"", entry.getEtag());
+        assertEquals(TestFeeds.id(2), entry.getEarthquakes().get(2).getId());
+    }
+
+    @Test
+    public void notModifiedAnswerReturnsTheCachedEarthquakes() {
+        TestFeeds.StandIn standIn = new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) {
+                if ("\"v1\"".equals(etag)) {
+                    return new Response(HttpURLConnection.HTTP_NOT_MODIFIED, etag, null, null);
+                }
+                return ok(TestFeeds.collection(0, 3), "\"v1\"");
+            }
+        };
+        QueryUtils.setTransport(standIn);
+
+        QueryUtils.fetchEarthquakeData(QUERY, mCache);
+        // Let the result in memory go, as it does once it is a minute old
+        QueryResultCache.getInstance().clear();
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(QUERY, mCache);
+
+        assertEquals(2, standIn.requests.get());
+        assertEquals(3, earthquakes.size());
+        assertEquals(TestFeeds.id(0), earthquakes.get(0).getId());
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void changedQueryIsDownloadedAgain() {
+        TestFeeds.StandIn standIn = new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) {
+                // A new earthquake arrived between the two requests
+                return request == 1 ? ok(TestFeeds.collection(1, 3), "\"v1\"")
+                        : ok(TestFeeds.collection(0, 4), "\"v2\"");
+            }
+        };
+        QueryUtils.setTransport(standIn);
+
+        QueryUtils.fetchEarthquakeData(QUERY, mCache);
+        QueryResultCache.getInstance().clear();
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(QUERY, mCache);
+
+        assertEquals(4, earthquakes.size());
+        assertEquals(0, mCache.getHitCount());
+        assertEquals(2, mCache.getMissCount());
+        assertEquals("\"v2\"", mCache.get(QUERY).getEtag());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvictedFirst() throws Exception {
+        List<Earthquake> earthquakes =
+                QueryUtils.extractFeatureFromStream(TestFeeds.stream(200));
+        File directory = mFolder.newFolder("small");
+        EarthquakeCache first = new EarthquakeCache(directory, Long.MAX_VALUE);
+        first.put("a", null, null, earthquakes);
+        long entrySize = directory.listFiles()[0].length();
+
+        // Room for two entries, not three
+        EarthquakeCache cache = new EarthquakeCache(directory, entrySize * 5 / 2);
+        Thread.sleep(20);
+        cache.put("b", null, null, earthquakes);
+        Thread.sleep(20);
+        // Reading "a" makes "b" the least recently used entry
+        assertNotNull(cache.get("a"));
+        Thread.sleep(20);
+        cache.put("c", null, null, earthquakes);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+}
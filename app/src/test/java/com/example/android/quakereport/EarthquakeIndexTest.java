@@ -0,0 +1,163 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The {@link EarthquakeIndex} against a plain filter over the same earthquakes, for random
+ * magnitude, time, region and place queries. The earthquakes include negative magnitudes,
+ * missing coordinates and points near the poles and across the 180th meridian.
+ */
+public class EarthquakeIndexTest {
+
+    private static final int EARTHQUAKE_COUNT = 5000;
+    private static final int QUERY_COUNT = 1000;
+
+    /* Time of the newest earthquake, and how far back the others go */
+    private static final long NEWEST_TIME = TestFeeds.NEWEST_TIME;
+    private static final long SPAN_MILLIS = 60L * 24 * 60 * 60 * 1000;
+
+    private static final String[] PLACES = {
+            "Fiji region", "Tonga", "Alaska", "Antarctica", "Japan", "Chile"};
+
+    // Seeded, so a failure can be run again
+    private final Random mRandom = new Random(20141201);
+
+    private List<Earthquake> mEarthquakes;
+    private EarthquakeIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mEarthquakes = new ArrayList<>(EARTHQUAKE_COUNT);
+        for (int i = 0; i < EARTHQUAKE_COUNT; i++) {
+            // One decimal, like USGS magnitudes, from -1.0 up to 10.9
+            double magnitude = (mRandom.nextInt(120) - 10) / 10.0;
+            long time = NEWEST_TIME - (long) (mRandom.nextDouble() * SPAN_MILLIS);
+            double latitude = i % 50 == 0 ? Double.NaN : mRandom.nextDouble() * 180 - 90;
+            double longitude = i % 50 == 0 ? Double.NaN : mRandom.nextDouble() * 360 - 180;
+            String place = PLACES[mRandom.nextInt(PLACES.length)];
+            mEarthquakes.add(new Earthquake(TestFeeds.id(i), magnitude,
+                    (1 + mRandom.nextInt(200)) + " km N of " + place, time, time,
+                    "https://earthquake.usgs.gov/earthquakes/eventpage/" + TestFeeds.id(i),
+                    latitude, longitude));
+        }
+        mIndex = EarthquakeIndex.build(EarthquakeStore.of(mEarthquakes));
+    }
+
+    @Test
+    public void randomQueriesMatchAPlainFilter() {
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            EarthquakeQuery.Builder builder = new EarthquakeQuery.Builder();
+            Filter filter = new Filter();
+            if (mRandom.nextBoolean()) {
+                filter.minMagnitude = (mRandom.nextInt(120) - 10) / 10.0;
+                builder.minMagnitude(filter.minMagnitude);
+            }
+            if (mRandom.nextBoolean()) {
+                filter.maxMagnitude = filter.minMagnitude + mRandom.nextInt(40) / 10.0;
+                if (Double.isInfinite(filter.maxMagnitude)) {
+                    filter.maxMagnitude = mRandom.nextInt(110) / 10.0;
+                }
+                builder.maxMagnitude(filter.maxMagnitude);
+            }
+            if (mRandom.nextBoolean()) {
+                filter.startTime = NEWEST_TIME - (long) (mRandom.nextDouble() * SPAN_MILLIS);
+                builder.after(filter.startTime);
+            }
+            if (mRandom.nextBoolean()) {
+                filter.endTime = NEWEST_TIME - (long) (mRandom.nextDouble() * SPAN_MILLIS / 2);
+                builder.before(filter.endTime);
+            }
+            if (mRandom.nextInt(3) > 0) {
+                filter.radiusKm = 50 + mRandom.nextDouble() * 3000;
+                filter.latitude = mRandom.nextDouble() * 180 - 90;
+                filter.longitude = mRandom.nextDouble() * 360 - 180;
+                builder.within(filter.radiusKm, filter.latitude, filter.longitude);
+            }
+            if (mRandom.nextInt(4) == 0) {
+                filter.primaryLocation = PLACES[mRandom.nextInt(PLACES.length)];
+                builder.primaryLocation(filter.primaryLocation);
+            }
+            EarthquakeQuery query = builder.build();
+
+            int[] indexed = mIndex.query(query);
+
+            assertNewestFirst(indexed);
+            int[] found = indexed.clone();
+            Arrays.sort(found);
+            assertArrayEquals("Query " + i + ": " + filter, filter.apply(mEarthquakes), found);
+        }
+    }
+
+    @Test
+    public void openQueryFindsEveryEarthquake() {
+        int[] found = mIndex.query(new EarthquakeQuery.Builder().build());
+
+        assertNewestFirst(found);
+        Arrays.sort(found);
+        for (int i = 0; i < EARTHQUAKE_COUNT; i++) {
+            assertEquals(i, found[i]);
+        }
+    }
+
+    private void assertNewestFirst(int[] indexes) {
+        EarthquakeStore store = mIndex.getStore();
+        for (int i = 1; i < indexes.length; i++) {
+            assertTrue(store.getTimeInMilliSeconds(indexes[i - 1])
+                    >= store.getTimeInMilliSeconds(indexes[i]));
+        }
+    }
+
+    /* A query written out the obvious way, checked against every earthquake one by one */
+    private static final class Filter {
+        double minMagnitude = Double.NEGATIVE_INFINITY;
+        double maxMagnitude = Double.POSITIVE_INFINITY;
+        long startTime = Long.MIN_VALUE;
+        long endTime = Long.MAX_VALUE;
+        double radiusKm = Double.NaN;
+        double latitude;
+        double longitude;
+        String primaryLocation;
+
+        // Return the positions of the earthquakes that pass, in order
+        int[] apply(List<Earthquake> earthquakes) {
+            int[] found = new int[earthquakes.size()];
+            int count = 0;
+            for (int i = 0; i < earthquakes.size(); i++) {
+                Earthquake earthquake = earthquakes.get(i);
+                double magnitude = earthquake.getMagnitude();
+                long time = earthquake.getTimeInMilliSeconds();
+                if (magnitude < minMagnitude || magnitude > maxMagnitude
+                        || time < startTime || time >= endTime) {
+                    continue;
+                }
+                if (primaryLocation != null
+                        && !primaryLocation.equals(earthquake.getPrimaryLocation())) {
+                    continue;
+                }
+                if (!Double.isNaN(radiusKm) && !(EarthquakeQuery.distanceKm(latitude, longitude,
+                        earthquake.getLatitude(), earthquake.getLongitude()) <= radiusKm)) {
+                    continue;
+                }
+                found[count++] = i;
+            }
+            return Arrays.copyOf(found, count);
+        }
+
+        @Override
+        public String toString() {
+            return "M" + minMagnitude + " to " + maxMagnitude + ", " + startTime + " to "
+                    + endTime + ", " + radiusKm + " km of " + latitude + "," + longitude
+                    + ", in " + primaryLocation;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The histograms and counters of {@link EarthquakeMetrics}, fed durations by hand instead of
+ * timing anything. Bucket i holds the durations below 2^i microseconds.
+ */
+public class EarthquakeMetricsTest {
+
+    private static final int STAGE = EarthquakeMetrics.STAGE_PARSE;
+
+    private static final long MICROS = 1000;
+    private static final long MILLIS = 1000 * MICROS;
+    private static final long SECONDS = 1000 * MILLIS;
+
+    @Before
+    public void setUp() {
+        EarthquakeMetrics.reset();
+        EarthquakeMetrics.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        EarthquakeMetrics.setEnabled(false);
+        EarthquakeMetrics.reset();
+    }
+
+    @Test
+    public void nothingIsRecordedWhileOff() {
+        EarthquakeMetrics.setEnabled(false);
+
+        assertEquals(0, EarthquakeMetrics.start());
+        EarthquakeMetrics.record(STAGE, 0);
+        EarthquakeMetrics.recordNanos(STAGE, 5 * MILLIS);
+        EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_RETRIES, 3);
+
+        assertEquals(0, EarthquakeMetrics.getCount(STAGE));
+        assertEquals(0, EarthquakeMetrics.getCounter(EarthquakeMetrics.COUNTER_RETRIES));
+    }
+
+    @Test
+    public void stageStartedWhileOffIsNotRecorded() {
+        EarthquakeMetrics.setEnabled(false);
+        long start = EarthquakeMetrics.start();
+        EarthquakeMetrics.setEnabled(true);
+
+        EarthquakeMetrics.record(STAGE, start);
+
+        assertEquals(0, EarthquakeMetrics.getCount(STAGE));
+    }
+
+    @Test
+    public void keepsTheCountTotalAndMaximum() {
+        EarthquakeMetrics.recordNanos(STAGE, 3 * MILLIS);
+        EarthquakeMetrics.recordNanos(STAGE, 1 * MILLIS);
+        EarthquakeMetrics.recordNanos(STAGE, 8 * MILLIS);
+
+        assertEquals(3, EarthquakeMetrics.getCount(STAGE));
+        assertEquals(12 * MILLIS, EarthquakeMetrics.getTotalNanos(STAGE));
+        assertEquals(8 * MILLIS, EarthquakeMetrics.getMaxNanos(STAGE));
+        // Other stages are kept apart
+        assertEquals(0, EarthquakeMetrics.getCount(EarthquakeMetrics.STAGE_BIND));
+    }
+
+    @Test
+    public void percentileIsTheLimitOfItsBucket() {
+        // 3 us is in the bucket below 4 us, 1000 us in the one below 1024 us
+        for (int i = 0; i < 99; i++) {
+            EarthquakeMetrics.recordNanos(STAGE, 3 * MICROS);
+        }
+        EarthquakeMetrics.recordNanos(STAGE, 1000 * MICROS);
+        EarthquakeMetrics.recordNanos(STAGE, 1000 * MICROS);
+
+        assertEquals(4 * MICROS, EarthquakeMetrics.getPercentileNanos(STAGE, 0.5));
+        // 98% of 101 is 98.98, so the 99th duration, the last of the 3 us ones
+        assertEquals(4 * MICROS, EarthquakeMetrics.getPercentileNanos(STAGE, 0.98));
+        // 99% of 101 is 99.99, so the 100th duration. Its bucket goes up to 1024 us, but
+        // nothing longer than 1000 us was recorded
+        assertEquals(1000 * MICROS, EarthquakeMetrics.getPercentileNanos(STAGE, 0.99));
+    }
+
+    @Test
+    public void percentileIsNeverAboveTheMaximum() {
+        // In the bucket below 1024 us, but the largest duration recorded is 600 us
+        EarthquakeMetrics.recordNanos(STAGE, 600 * MICROS);
+
+        assertEquals(600 * MICROS, EarthquakeMetrics.getPercentileNanos(STAGE, 0.5));
+        assertEquals(600 * MICROS, EarthquakeMetrics.getPercentileNanos(STAGE, 1));
+    }
+
+    @Test
+    public void edgesOfTheBuckets() {
+        // Under a microsecond is the first bucket, exactly 2 us the one below 4 us
+        EarthquakeMetrics.recordNanos(STAGE, 999);
+        assertEquals(999, EarthquakeMetrics.getPercentileNanos(STAGE, 1));
+
+        EarthquakeMetrics.reset();
+        EarthquakeMetrics.recordNanos(STAGE, 2 * MICROS);
+        EarthquakeMetrics.recordNanos(STAGE, 10 * MILLIS);
+        assertEquals(4 * MICROS, EarthquakeMetrics.getPercentileNanos(STAGE, 0.5));
+    }
+
+    @Test
+    public void durationsPastTheLastBucketAreKept() {
+        // The last bucket also holds everything over half an hour, so its percentile is the
+        // longest duration, not the limit of the bucket below it
+        EarthquakeMetrics.recordNanos(STAGE, 2 * MILLIS);
+        EarthquakeMetrics.recordNanos(STAGE, 3 * 3600 * SECONDS);
+
+        assertEquals(2, EarthquakeMetrics.getCount(STAGE));
+        assertEquals(2048 * MICROS, EarthquakeMetrics.getPercentileNanos(STAGE, 0.5));
+        assertEquals(3 * 3600 * SECONDS, EarthquakeMetrics.getPercentileNanos(STAGE, 1));
+    }
+
+    @Test
+    public void percentileOfNothingIsZero() {
+        assertEquals(0, EarthquakeMetrics.getPercentileNanos(STAGE, 0.99));
+    }
+
+    @Test
+    public void countersAddUpAndReset() {
+        EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_BYTES_READ, 4096);
+        EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_BYTES_READ, 1024);
+        EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_CACHE_HITS, 1);
+
+        assertEquals(5120, EarthquakeMetrics.getCounter(EarthquakeMetrics.COUNTER_BYTES_READ));
+        assertEquals(1, EarthquakeMetrics.getCounter(EarthquakeMetrics.COUNTER_CACHE_HITS));
+        assertEquals(0, EarthquakeMetrics.getCounter(EarthquakeMetrics.COUNTER_CACHE_MISSES));
+
+        EarthquakeMetrics.reset();
+
+        assertEquals(0, EarthquakeMetrics.getCounter(EarthquakeMetrics.COUNTER_BYTES_READ));
+    }
+
+    @Test
+    public void eventsPerSecondOfParseTime() {
+        assertEquals(0, EarthquakeMetrics.getEventsPerSecond(), 0);
+
+        EarthquakeMetrics.recordNanos(EarthquakeMetrics.STAGE_PARSE, 1500 * MILLIS);
+        EarthquakeMetrics.recordNanos(EarthquakeMetrics.STAGE_PARSE, 500 * MILLIS);
+        EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_EVENTS_PARSED, 1000);
+
+        assertEquals(500, EarthquakeMetrics.getEventsPerSecond(), 1e-9);
+    }
+
+    @Test
+    public void nothingIsLostFromSeveralThreads() throws InterruptedException {
+        final int perThread = 20000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final long nanos = (t + 1) * MILLIS;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        EarthquakeMetrics.recordNanos(STAGE, nanos);
+                        EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_EVENTS_PARSED, 1);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(4 * perThread, EarthquakeMetrics.getCount(STAGE));
+        assertEquals(10 * perThread * MILLIS, EarthquakeMetrics.getTotalNanos(STAGE));
+        assertEquals(4 * MILLIS, EarthquakeMetrics.getMaxNanos(STAGE));
+        assertEquals(4 * perThread,
+                EarthquakeMetrics.getCounter(EarthquakeMetrics.COUNTER_EVENTS_PARSED));
+    }
+
+    @Test
+    public void dumpHasALinePerStageAndCounter() {
+        EarthquakeMetrics.recordNanos(EarthquakeMetrics.STAGE_PARSE, 40 * MILLIS);
+        EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_RETRIES, 2);
+
+        String dump = EarthquakeMetrics.dump();
+
+        assertTrue(dump, dump.contains("parse count=1 mean=40.00ms p50=40.00ms p99=40.00ms"
+                + " max=40.00ms\n"));
+        assertTrue(dump, dump.contains("bind count=0\n"));
+        assertTrue(dump, dump.contains("retries=2\n"));
+    }
+}
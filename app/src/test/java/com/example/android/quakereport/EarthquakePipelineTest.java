@@ -0,0 +1,284 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The {@link EarthquakePipeline} and the downloads it parses, against stand-ins of the USGS
+ * server whose bodies tell how far they have been read.
+ */
+public class EarthquakePipelineTest {
+
+    private static final String QUERY = "https://example.com/fdsnws/event/1/query?format=geojson";
+
+    private final EarthquakeTransport mOriginalTransport = QueryUtils.getTransport();
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        QueryResultCache.getInstance().clear();
+        mExecutor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        QueryUtils.setTransport(mOriginalTransport);
+        QueryResultCache.getInstance().clear();
+    }
+
+    @Test
+    public void bodyIsLeftOnTheWireUntilItIsParsed() throws IOException {
+        final List<Body> bodies = new ArrayList<>();
+        QueryUtils.setTransport(new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) {
+                Body body = new Body(TestFeeds.collection(0, 20));
+                bodies.add(body);
+                return new Response(200, null, null, body);
+            }
+        });
+
+        QueryUtils.Download download = QueryUtils.downloadEarthquakeData(QUERY, null);
+        assertEquals(0, bodies.get(0).bytesRead);
+
+        List<Earthquake> earthquakes = QueryUtils.parseEarthquakeData(download, null);
+
+        assertEquals(20, earthquakes.size());
+        assertTrue(bodies.get(0).closed);
+    }
+
+    @Test
+    public void bodyThatBreaksOffIsRequestedAgain() throws IOException {
+        final String json = TestFeeds.collection(0, 20);
+        final Body broken = new Body(json);
+        broken.breakAfter = json.length() / 2;
+        TestFeeds.StandIn standIn = new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) {
+                return new Response(200, null, null, request == 1 ? broken : new Body(json));
+            }
+        };
+        QueryUtils.setTransport(standIn);
+
+        List<Earthquake> earthquakes = QueryUtils.parseEarthquakeData(
+                QueryUtils.downloadEarthquakeData(QUERY, null), null);
+
+        assertEquals(20, earthquakes.size());
+        assertEquals(2, standIn.requests.get());
+        assertTrue(broken.closed);
+    }
+
+    @Test
+    public void chunksAreMergedNewestFirstWithoutDuplicates() {
+        // Chunk i holds earthquakes 5 * i to 5 * i + 5, so neighbours share one
+        QueryUtils.setTransport(new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) {
+                int chunk = Integer.parseInt(QueryUtils.getQueryParameter(url, "chunk"));
+                return ok(TestFeeds.collection(5 * chunk, 6), null);
+            }
+        });
+        final AtomicInteger progress = new AtomicInteger();
+
+        List<Earthquake> earthquakes = new EarthquakePipeline(mExecutor, null, 2).run(
+                chunks(4), new EarthquakePipeline.Listener() {
+                    @Override
+                    public void onChunk(List<Earthquake> earthquakes, int chunksDone,
+                                        int chunkCount) {
+                        assertEquals(5 * chunksDone + 1, earthquakes.size());
+                        progress.incrementAndGet();
+                    }
+                });
+
+        assertEquals(4, progress.get());
+        assertEquals(21, earthquakes.size());
+        for (int i = 0; i < 21; i++) {
+            assertEquals(TestFeeds.id(i), earthquakes.get(i).getId());
+        }
+    }
+
+    @Test
+    public void chunkWhoseParserThrowsIsGivenUpOn() throws Exception {
+        QueryUtils.setTransport(new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) {
+                int chunk = Integer.parseInt(QueryUtils.getQueryParameter(url, "chunk"));
+                Body body = new Body(TestFeeds.collection(10 * chunk, 10));
+                body.throwAfter = chunk == 1 ? 0 : -1;
+                return new Response(200, null, null, body);
+            }
+        });
+        final EarthquakePipeline pipeline = new EarthquakePipeline(mExecutor, null, 2);
+
+        Future<List<Earthquake>> result = mExecutor.submit(new Callable<List<Earthquake>>() {
+            @Override
+            public List<Earthquake> call() {
+                return pipeline.run(chunks(3), null);
+            }
+        });
+
+        List<Earthquake> earthquakes = result.get(5, TimeUnit.SECONDS);
+        assertEquals(20, earthquakes.size());
+        assertEquals(TestFeeds.id(0), earthquakes.get(0).getId());
+        assertEquals(TestFeeds.id(29), earthquakes.get(19).getId());
+    }
+
+    /*
+     * The first chunk is parsed, and the next ones wait with their bodies unread while the
+     * listener holds the pipeline up. Once it is cancelled every body is closed, whether it was
+     * parsed or not
+     */
+    @Test
+    public void cancelledPipelineClosesTheBodiesItNeverParsed() throws Exception {
+        final List<Body> bodies = new ArrayList<>();
+        QueryUtils.setTransport(new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) {
+                Body body = new Body(TestFeeds.collection(10 * request, 10));
+                synchronized (bodies) {
+                    bodies.add(body);
+                }
+                return new Response(200, null, null, body);
+            }
+        });
+        final CountDownLatch firstChunk = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final EarthquakePipeline pipeline = new EarthquakePipeline(mExecutor, null, 2);
+        Future<List<Earthquake>> result = mExecutor.submit(new Callable<List<Earthquake>>() {
+            @Override
+            public List<Earthquake> call() {
+                return pipeline.run(chunks(6), new EarthquakePipeline.Listener() {
+                    @Override
+                    public void onChunk(List<Earthquake> earthquakes, int chunksDone,
+                                        int chunkCount) {
+                        firstChunk.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+        });
+        assertTrue(firstChunk.await(5, TimeUnit.SECONDS));
+        // Let the fetch stage run ahead as far as it can
+        Thread.sleep(200);
+
+        pipeline.cancel();
+        release.countDown();
+
+        assertNull(result.get(5, TimeUnit.SECONDS));
+        synchronized (bodies) {
+            assertTrue("Only " + bodies.size() + " chunks were requested", bodies.size() > 1);
+            for (int i = 0; i < bodies.size(); i++) {
+                assertTrue("Body " + i + " was left open", bodies.get(i).closed);
+            }
+        }
+    }
+
+    @Test
+    public void mergingOneWindowAtATimeMatchesMergingThemAllAtOnce() {
+        List<Earthquake> first = parse(TestFeeds.collection(0, 10));
+        // Out of order, and sharing earthquakes 8 and 9 with the first window
+        List<Earthquake> second = parse(TestFeeds.collection(8, 10));
+        Collections.reverse(second);
+        List<Earthquake> third = parse(TestFeeds.collection(30, 5));
+
+        List<Earthquake> oneAtATime = QueryPlanner.merge(QueryPlanner.merge(QueryPlanner.merge(
+                new ArrayList<Earthquake>(), third), first), second);
+        List<Earthquake> allAtOnce = QueryPlanner.merge(Arrays.asList(third, first, second));
+
+        assertEquals(23, oneAtATime.size());
+        assertEquals(allAtOnce.size(), oneAtATime.size());
+        for (int i = 0; i < allAtOnce.size(); i++) {
+            assertSame(allAtOnce.get(i), oneAtATime.get(i));
+        }
+    }
+
+    private static List<String> chunks(int count) {
+        List<String> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            chunks.add(QUERY + "&chunk=" + i);
+        }
+        return chunks;
+    }
+
+    private static List<Earthquake> parse(String json) {
+        try {
+            return QueryUtils.extractFeatureFromStream(
+                    new ByteArrayInputStream(json.getBytes(TestFeeds.UTF_8)));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /*
+     * A response body that counts what has been read of it, and can break off on the way or
+     * make whoever reads it fail
+     */
+    private static final class Body extends InputStream {
+        private final ByteArrayInputStream mIn;
+
+        volatile int bytesRead;
+        volatile boolean closed;
+        int breakAfter = -1;
+        int throwAfter = -1;
+
+        Body(String json) {
+            mIn = new ByteArrayInputStream(json.getBytes(TestFeeds.UTF_8));
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (breakAfter >= 0 && bytesRead >= breakAfter) {
+                throw new IOException("Connection reset");
+            }
+            if (throwAfter >= 0 && bytesRead >= throwAfter) {
+                throw new IllegalArgumentException("Not a failure the parser expects");
+            }
+            if (breakAfter >= 0) {
+                length = Math.min(length, breakAfter - bytesRead);
+            }
+            int read = mIn.read(buffer, offset, length);
+            if (read > 0) {
+                bytesRead += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
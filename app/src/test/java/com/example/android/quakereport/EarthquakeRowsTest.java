@@ -0,0 +1,140 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The rows the list binds from, formatted ahead of time by {@link EarthquakeRows}.
+ */
+public class EarthquakeRowsTest {
+
+    private static final int[] MAGNITUDE_COLOURS = {
+            0, 0, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+    @After
+    public void tearDown() {
+        EarthquakeMetrics.setEnabled(false);
+    }
+
+    @Test
+    public void formatsEveryRow() throws IOException {
+        EarthquakeStore store = store(3);
+
+        EarthquakeRows rows = EarthquakeRows.build(store, MAGNITUDE_COLOURS, null);
+
+        assertEquals(3, rows.size());
+        assertEquals("4.1", rows.getMagnitudeText(1));
+        assertEquals(4, rows.getMagnitudeColour(1));
+    }
+
+    @Test
+    public void revisedMagnitudeIsFormattedAgain() throws IOException {
+        List<Earthquake> earthquakes = QueryUtils.extractFeatureFromStream(TestFeeds.stream(3));
+        EarthquakeRows rows = EarthquakeRows.build(
+                EarthquakeStore.of(earthquakes), MAGNITUDE_COLOURS, null);
+        Earthquake second = earthquakes.get(1);
+        // Same id, time and URL, only the magnitude was revised
+        Earthquake revised = new Earthquake(second.getId(), 7.4, second.getOffsetLocation(),
+                second.getPrimaryLocation(), second.getTimeInMilliSeconds(),
+                second.getUpdatedInMilliSeconds() + 60000, second.getUrl(),
+                second.getLatitude(), second.getLongitude());
+
+        EarthquakeRows synced = EarthquakeRows.build(
+                rows.getStore().merge(Collections.singletonList(revised)), MAGNITUDE_COLOURS,
+                rows);
+
+        assertEquals(1, synced.getChanges().getChangedCount());
+        assertEquals("7.4", synced.getMagnitudeText(1));
+        assertEquals(7, synced.getMagnitudeColour(1));
+        // The rows that did not change are reused as they were
+        assertSame(rows.getMagnitudeText(0), synced.getMagnitudeText(0));
+    }
+
+    /*
+     * Every row is bound into one Binding, the way EarthquakeAdapter.getView() binds the row of
+     * a recycled list item, with metrics on. Scrolling through 10,000 rows must not allocate
+     * anything: every String a row shows was made when the rows were built
+     */
+    @Test
+    public void bindingTenThousandRowsDoesNotAllocate() throws IOException {
+        final int count = 10000;
+        EarthquakeRows rows = EarthquakeRows.build(store(count), MAGNITUDE_COLOURS, null);
+        EarthquakeMetrics.setEnabled(true);
+        EarthquakeRows.Binding binding = new EarthquakeRows.Binding();
+
+        // Let the JIT compile the loop before it is measured
+        for (int i = 0; i < 5; i++) {
+            bindAll(rows, binding);
+        }
+        // The least of a few passes, so a compilation finishing in the middle of one does not
+        // count
+        long allocated = Long.MAX_VALUE;
+        int rowsBound = 0;
+        for (int i = 0; i < 3; i++) {
+            long allocatedBefore = getAllocatedBytes();
+            rowsBound = bindAll(rows, binding);
+            allocated = Math.min(allocated, getAllocatedBytes() - allocatedBefore);
+        }
+
+        assertEquals(count, rowsBound);
+        // Allocating anything per row would be at least 16 bytes a row, 160 KB in all. Reading
+        // the counter itself can allocate a few bytes
+        assertTrue("Binding " + count + " rows allocated " + allocated + " bytes",
+                allocated < 1024);
+    }
+
+    @Test
+    public void rowIsOnlyBoundAgainWhenItChanged() throws IOException {
+        EarthquakeStore store = store(3);
+        EarthquakeRows rows = EarthquakeRows.build(store, MAGNITUDE_COLOURS, null);
+        Earthquake first = store.getEarthquake(0);
+        EarthquakeRows revised = EarthquakeRows.build(store.merge(Collections.singletonList(
+                new Earthquake(first.getId(), first.getMagnitude() + 1, first.getLocation(),
+                        first.getTimeInMilliSeconds(), first.getUpdatedInMilliSeconds() + 1,
+                        first.getUrl()))), MAGNITUDE_COLOURS, rows);
+        EarthquakeRows.Binding binding = new EarthquakeRows.Binding();
+
+        assertTrue(binding.bind(rows, 0));
+        assertSame(rows.getMagnitudeText(0), binding.magnitudeText);
+        assertSame(rows.getTimeText(0), binding.timeText);
+        assertFalse(binding.bind(rows, 0));
+        // Rows of earthquakes that did not change are the same in both
+        assertTrue(binding.bind(rows, 1));
+        assertFalse(binding.bind(revised, 1));
+        assertTrue(binding.bind(revised, 0));
+        assertSame(revised.getMagnitudeText(0), binding.magnitudeText);
+    }
+
+    // Bind every row from the top down, as a fast scroll would, timing every one the way
+    // getView() does. Returns the number of rows whose views had to be set
+    private static int bindAll(EarthquakeRows rows, EarthquakeRows.Binding binding) {
+        int rowsBound = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            long bindStart = EarthquakeMetrics.start();
+            if (binding.bind(rows, i)) {
+                rowsBound++;
+            }
+            EarthquakeMetrics.record(EarthquakeMetrics.STAGE_BIND, bindStart);
+        }
+        return rowsBound;
+    }
+
+    private static EarthquakeStore store(int count) throws IOException {
+        return EarthquakeStore.of(QueryUtils.extractFeatureFromStream(TestFeeds.stream(count)));
+    }
+
+    private static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
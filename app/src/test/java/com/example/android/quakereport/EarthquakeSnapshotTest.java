@@ -0,0 +1,155 @@
+package com.example.android.quakereport;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * The binary {@link EarthquakeSnapshot} format, and what the caches that store it do with one
+ * that was damaged on disk.
+ */
+public class EarthquakeSnapshotTest {
+
+    /* Offset of the number of earthquakes, after the magic number and the version */
+    private static final int COUNT_OFFSET = 8;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        List<Earthquake> earthquakes = parse(50);
+        byte[] snapshot = write(earthquakes);
+
+        List<Earthquake> read = EarthquakeSnapshot.read(
+                new ByteArrayInputStream(snapshot), snapshot.length);
+
+        assertEquals(earthquakes.size(), read.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake expected = earthquakes.get(i);
+            Earthquake actual = read.get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getMagnitude(), actual.getMagnitude(), 0);
+            assertEquals(expected.getTimeInMilliSeconds(), actual.getTimeInMilliSeconds());
+            assertEquals(expected.getLocation(), actual.getLocation());
+            assertEquals(expected.getUrl(), actual.getUrl());
+            assertEquals(expected.getLatitude(), actual.getLatitude(), 0);
+            assertEquals(expected.getLongitude(), actual.getLongitude(), 0);
+        }
+    }
+
+    @Test
+    public void countLargerThanTheFileIsRejectedBeforeAllocating() throws IOException {
+        byte[] snapshot = write(parse(3));
+        setInt(snapshot, COUNT_OFFSET, Integer.MAX_VALUE - 8);
+
+        assertUnreadable(snapshot);
+    }
+
+    @Test
+    public void damagedCountIsCaughtByTheChecksum() throws IOException {
+        byte[] snapshot = write(parse(3));
+        // Still small enough to fit in the file
+        setInt(snapshot, COUNT_OFFSET, 2);
+
+        assertUnreadable(snapshot);
+    }
+
+    @Test
+    public void truncatedSnapshotIsRejected() throws IOException {
+        byte[] snapshot = write(parse(3));
+        byte[] truncated = new byte[snapshot.length - 9];
+        System.arraycopy(snapshot, 0, truncated, 0, truncated.length);
+
+        assertUnreadable(truncated);
+    }
+
+    @Test
+    public void corruptCacheEntryIsDiscarded() throws IOException {
+        String query = "https://example.com/query?format=geojson";
+        File directory = mFolder.newFolder("earthquakes");
+        EarthquakeCache cache = new EarthquakeCache(directory, Long.MAX_VALUE);
+        cache.put(query, "\"v1\"", null, parse(3));
+        File entry = directory.listFiles()[0];
+
+        // The snapshot starts right after the version, the query and both validators
+        long countOffset = entry.length() - write(parse(3)).length + COUNT_OFFSET;
+        RandomAccessFile file = new RandomAccessFile(entry, "rw");
+        try {
+            file.seek(countOffset);
+            file.writeInt(Integer.MAX_VALUE);
+        } finally {
+            file.close();
+        }
+
+        assertNull(cache.get(query));
+        assertFalse(entry.exists());
+    }
+
+    @Test
+    public void corruptStartupSnapshotIsIgnored() throws IOException {
+        String query = "https://example.com/query?format=geojson";
+        File file = mFolder.newFile("startup");
+        StartupSnapshot.write(file, new StartupSnapshot(query, parse(3), 0, 0, false));
+        byte[] bytes = readFile(file);
+        bytes[bytes.length - 20] ^= 0x55;
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+
+        assertNull(StartupSnapshot.read(file, query));
+    }
+
+    private static void assertUnreadable(byte[] snapshot) {
+        try {
+            EarthquakeSnapshot.read(new ByteArrayInputStream(snapshot), snapshot.length);
+            fail("A damaged snapshot was read");
+        } catch (IOException expected) {
+            // What the caches fall back to the network on
+        }
+    }
+
+    private static List<Earthquake> parse(int count) throws IOException {
+        return QueryUtils.extractFeatureFromStream(TestFeeds.stream(count));
+    }
+
+    private static byte[] write(List<Earthquake> earthquakes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EarthquakeSnapshot.write(earthquakes, out);
+        return out.toByteArray();
+    }
+
+    private static void setInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+}
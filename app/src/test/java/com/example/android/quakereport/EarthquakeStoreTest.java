@@ -0,0 +1,161 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The columnar {@link EarthquakeStore}: what it hands out by index, and how much heap it takes
+ * compared to the list of {@link Earthquake} objects it replaced.
+ */
+public class EarthquakeStoreTest {
+
+    @Test
+    public void handsOutTheFieldsOfEveryEarthquake() throws IOException {
+        List<Earthquake> earthquakes = QueryUtils.extractFeatureFromStream(TestFeeds.stream(5));
+
+        EarthquakeStore store = EarthquakeStore.of(earthquakes);
+
+        assertEquals(5, store.size());
+        for (int i = 0; i < 5; i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            assertEquals(earthquake.getId(), store.getId(i));
+            assertEquals(earthquake.getMagnitude(), store.getMagnitude(i), 0);
+            assertEquals(earthquake.getTimeInMilliSeconds(), store.getTimeInMilliSeconds(i));
+            assertEquals(earthquake.getLocation(), store.getLocation(i));
+            assertEquals(earthquake.getUrl(), store.getUrl(i));
+            assertEquals(earthquake.getLatitude(), store.getLatitude(i), 0);
+        }
+    }
+
+    @Test
+    public void sharesTheStringsOfAPlace() throws IOException {
+        // Earthquakes 0 and 300 are both "1 km N of Fiji region"
+        EarthquakeStore store = EarthquakeStore.of(
+                QueryUtils.extractFeatureFromStream(TestFeeds.stream(301)));
+
+        assertSame(store.getOffsetLocation(0), store.getOffsetLocation(300));
+        assertSame(store.getPrimaryLocation(0), store.getPrimaryLocation(1));
+    }
+
+    @Test
+    public void revisedEarthquakeIsNotAPrefix() throws IOException {
+        List<Earthquake> earthquakes = QueryUtils.extractFeatureFromStream(TestFeeds.stream(3));
+        EarthquakeStore store = EarthquakeStore.of(earthquakes);
+
+        EarthquakeStore revised = store.merge(Collections.singletonList(
+                revise(earthquakes.get(1), 7.4)));
+
+        assertTrue(store.merge(earthquakes).startsWith(store));
+        assertFalse(revised.startsWith(store));
+        assertEquals(7.4, revised.getMagnitude(1), 0);
+    }
+
+    @Test
+    public void mergeIntoLoadedPagesLeavesOutOlderEarthquakes() throws IOException {
+        // Pages of 10 of a query of 30, the first two are loaded
+        List<Earthquake> loaded = QueryUtils.extractFeatureFromStream(TestFeeds.stream(20));
+        EarthquakeStore store = EarthquakeStore.of(loaded);
+        Earthquake arrived = feature(-1);
+        Earthquake revisedLoaded = revise(loaded.get(5), 7.4);
+        Earthquake revisedNotLoaded = revise(feature(25), 7.4);
+
+        EarthquakeStore merged = store.mergeLoadedPages(
+                Arrays.asList(revisedNotLoaded, revisedLoaded, arrived));
+
+        assertEquals(21, merged.size());
+        assertEquals(TestFeeds.id(-1), merged.getId(0));
+        assertEquals(TestFeeds.id(5), merged.getId(6));
+        assertEquals(7.4, merged.getMagnitude(6), 0);
+        assertEquals(TestFeeds.id(19), merged.getId(20));
+    }
+
+    @Test
+    public void appendedPageKeepsEveryEarthquakeOnce() throws IOException {
+        EarthquakeStore store = EarthquakeStore.of(feed(0, 10));
+
+        // A new earthquake pushed earthquake 9 down into the next page
+        EarthquakeStore appended = store.append(feed(9, 10));
+
+        assertEquals(19, appended.size());
+        for (int i = 0; i < 19; i++) {
+            assertEquals(TestFeeds.id(i), appended.getId(i));
+        }
+    }
+
+    /*
+     * The ids, URLs and locations are the same Strings either way, so what is compared is what
+     * every earthquake costs on top of them: an Earthquake object and a reference to it in the
+     * list, against one slot in each of the columns of the store
+     */
+    @Test
+    public void takesLessHeapThanAListOfEarthquakes() throws IOException {
+        final int count = 200000;
+        List<Earthquake> parsed = QueryUtils.extractFeatureFromStream(TestFeeds.stream(count));
+
+        long before = usedHeapAfterGc();
+        List<Earthquake> list = new ArrayList<>(count);
+        for (Earthquake earthquake : parsed) {
+            list.add(new Earthquake(earthquake.getId(), earthquake.getMagnitude(),
+                    earthquake.getOffsetLocation(), earthquake.getPrimaryLocation(),
+                    earthquake.getTimeInMilliSeconds(), earthquake.getUpdatedInMilliSeconds(),
+                    earthquake.getUrl(), earthquake.getLatitude(), earthquake.getLongitude()));
+        }
+        long listBytes = usedHeapAfterGc() - before;
+        assertEquals(count, list.size());
+        list = null;
+
+        before = usedHeapAfterGc();
+        EarthquakeStore store = EarthquakeStore.of(parsed);
+        long storeBytes = usedHeapAfterGc() - before;
+        assertEquals(count, store.size());
+
+        String footprint = "Bytes per earthquake: list " + listBytes / count
+                + ", store " + storeBytes / count;
+        // About 48 against 64 to 80, depending on the size of object headers and references
+        assertTrue(footprint, storeBytes < listBytes * 4 / 5);
+        assertEquals(count, parsed.size());
+    }
+
+    private static List<Earthquake> feed(int from, int count) throws IOException {
+        return QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(
+                TestFeeds.collection(from, count).getBytes(TestFeeds.UTF_8)));
+    }
+
+    private static Earthquake feature(int index) throws IOException {
+        return feed(index, 1).get(0);
+    }
+
+    // Return the earthquake with its magnitude revised, at the same time and URL
+    private static Earthquake revise(Earthquake earthquake, double magnitude) {
+        return new Earthquake(earthquake.getId(), magnitude, earthquake.getOffsetLocation(),
+                earthquake.getPrimaryLocation(), earthquake.getTimeInMilliSeconds(),
+                earthquake.getUpdatedInMilliSeconds() + 60000, earthquake.getUrl(),
+                earthquake.getLatitude(), earthquake.getLongitude());
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Collect until the number settles, a single System.gc() is only a hint
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                return now;
+            }
+            used = now;
+        }
+        return used;
+    }
+}
@@ -0,0 +1,358 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fetching through failures injected by stand-ins of the USGS server: requests that fail and
+ * are tried again, slow requests that are hedged, bodies cut off on the way that are resumed,
+ * and malformed features that are skipped.
+ */
+public class FetchFailureTest {
+
+    private static final String QUERY = "https://example.com/fdsnws/event/1/query?format=geojson";
+
+    private final EarthquakeTransport mOriginalTransport = QueryUtils.getTransport();
+
+    private Wire mWire;
+
+    @Before
+    public void setUp() {
+        EarthquakeMetrics.reset();
+        EarthquakeMetrics.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (mWire != null) {
+            mWire.close();
+        }
+        QueryUtils.setTransport(mOriginalTransport);
+        EarthquakeMetrics.setEnabled(false);
+        EarthquakeMetrics.reset();
+    }
+
+    @Test
+    public void brokenConnectionAnd503AreTriedAgain() {
+        TestFeeds.StandIn standIn = new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) throws IOException {
+                if (request == 1) {
+                    throw new IOException("Connection reset");
+                }
+                if (request == 2) {
+                    return new Response(503, null, null, null);
+                }
+                return ok(TestFeeds.collection(0, 3), null);
+            }
+        };
+        QueryUtils.setTransport(standIn);
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeDataFromNetwork(QUERY);
+
+        assertNotNull(earthquakes);
+        assertEquals(3, earthquakes.size());
+        assertEquals(3, standIn.requests.get());
+        assertEquals(2, EarthquakeMetrics.getCounter(EarthquakeMetrics.COUNTER_RETRIES));
+    }
+
+    @Test
+    public void badRequestIsNotTriedAgain() {
+        TestFeeds.StandIn standIn = new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) {
+                return new Response(400, null, null, null);
+            }
+        };
+        QueryUtils.setTransport(standIn);
+
+        assertNull(QueryUtils.fetchEarthquakeDataFromNetwork(QUERY));
+        assertEquals(1, standIn.requests.get());
+    }
+
+    @Test
+    public void malformedFeaturesAreSkippedOnTheirOwn() {
+        // A feature that is not an object, and one whose magnitude is an object
+        final String json = TestFeeds.collection(0, 3)
+                .replace(TestFeeds.feature(1), "42,"
+                        + TestFeeds.feature(1).replace("\"mag\":4.1", "\"mag\":{\"value\":4.1}"));
+        QueryUtils.setTransport(new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) {
+                return ok(json, null);
+            }
+        });
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeDataFromNetwork(QUERY);
+
+        assertEquals(2, earthquakes.size());
+        assertEquals(TestFeeds.id(0), earthquakes.get(0).getId());
+        assertEquals(TestFeeds.id(2), earthquakes.get(1).getId());
+        assertEquals(2, EarthquakeMetrics.getCounter(
+                EarthquakeMetrics.COUNTER_MALFORMED_FEATURES));
+    }
+
+    @Test
+    public void slowRequestIsHedgedAndTheLoserCancelled() throws Exception {
+        final CountDownLatch loserInterrupted = new CountDownLatch(1);
+        HedgingTransport hedging = new HedgingTransport(new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) throws IOException {
+                if (request == HedgingTransport.MIN_SAMPLES + 1) {
+                    // Stalls until it is cancelled
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException e) {
+                        loserInterrupted.countDown();
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                return ok(TestFeeds.collection(request, 1), null);
+            }
+        });
+        time(hedging, HedgingTransport.MIN_SAMPLES);
+
+        EarthquakeTransport.Response response = hedging.get(new URL(QUERY), null, null);
+
+        // The hedge answered
+        assertEquals(TestFeeds.id(HedgingTransport.MIN_SAMPLES + 2),
+                QueryUtils.extractFeatureFromStream(response.getBody()).get(0).getId());
+        response.close();
+        assertTrue("The losing request is still running",
+                loserInterrupted.await(2, TimeUnit.SECONDS));
+        assertEquals(1, EarthquakeMetrics.getCounter(
+                EarthquakeMetrics.COUNTER_HEDGED_REQUESTS));
+    }
+
+    @Test
+    public void loserThatAnswersAnywayIsClosed() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch loserClosed = new CountDownLatch(1);
+        HedgingTransport hedging = new HedgingTransport(new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) {
+                if (request != HedgingTransport.MIN_SAMPLES + 1) {
+                    return ok(TestFeeds.collection(request, 1), null);
+                }
+                // A connection that does not notice the interrupt, and answers late
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        release.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = TestFeeds.collection(0, 1).getBytes(TestFeeds.UTF_8);
+                return new Response(200, null, null, new ByteArrayInputStream(body) {
+                    @Override
+                    public void close() {
+                        loserClosed.countDown();
+                    }
+                });
+            }
+        });
+        time(hedging, HedgingTransport.MIN_SAMPLES);
+
+        EarthquakeTransport.Response response = hedging.get(new URL(QUERY), null, null);
+        release.countDown();
+
+        assertEquals(TestFeeds.id(HedgingTransport.MIN_SAMPLES + 2),
+                QueryUtils.extractFeatureFromStream(response.getBody()).get(0).getId());
+        response.close();
+        assertTrue("The late answer was never closed", loserClosed.await(2, TimeUnit.SECONDS));
+    }
+
+    /*
+     * The first connection breaks off half way through the body. The rest is asked for with a
+     * Range request guarded by If-Range, and the body parses as if nothing had happened
+     */
+    @Test
+    public void cutOffBodyIsResumedWhereItBroke() throws IOException {
+        final byte[] body = TestFeeds.collection(0, 50).getBytes(TestFeeds.UTF_8);
+        final int cut = body.length / 2;
+        mWire = new Wire() {
+            @Override
+            void serve(int request, String head, OutputStream out) throws IOException {
+                if (request == 1) {
+                    out.write(head(200, body.length, "Accept-Ranges: bytes\r\n"));
+                    out.write(body, 0, cut);
+                    // Closing the socket cuts the body off
+                    return;
+                }
+                int from = Integer.parseInt(header(head, "Range").replaceAll("\\D", ""));
+                out.write(head(206, body.length - from, "Content-Range: bytes " + from + "-"
+                        + (body.length - 1) + "/" + body.length + "\r\n"));
+                out.write(body, from, body.length - from);
+            }
+        };
+        QueryUtils.setTransport(new HttpUrlConnectionTransport());
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeDataFromNetwork(mWire.url());
+
+        assertEquals(50, earthquakes.size());
+        assertEquals(TestFeeds.id(49), earthquakes.get(49).getId());
+        assertEquals(2, mWire.heads.size());
+        assertEquals("bytes=" + cut + "-", header(mWire.heads.get(1), "Range"));
+        assertEquals("\"v1\"", header(mWire.heads.get(1), "If-Range"));
+        assertEquals(1, EarthquakeMetrics.getCounter(EarthquakeMetrics.COUNTER_RESUMED_READS));
+        assertEquals(0, EarthquakeMetrics.getCounter(EarthquakeMetrics.COUNTER_RETRIES));
+    }
+
+    /*
+     * Closing a body that was not read to the end, i.e. the response of a request that lost
+     * a hedge, must not wait for a slow server to send the rest
+     */
+    @Test
+    public void closingABodyDoesNotWaitForTheRest() throws IOException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mWire = new Wire() {
+            @Override
+            void serve(int request, String head, OutputStream out) throws IOException {
+                out.write(head(200, 100000, ""));
+                out.write(new byte[1000]);
+                out.flush();
+                try {
+                    done.await(20, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        EarthquakeTransport.Response response =
+                new HttpUrlConnectionTransport().get(new URL(mWire.url()), null, null);
+        assertTrue(response.getBody().read(new byte[10]) > 0);
+
+        long start = System.nanoTime();
+        response.close();
+        long closeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        done.countDown();
+
+        assertTrue("Closing took " + closeMillis + " ms", closeMillis < 2000);
+    }
+
+    // Make the given number of quick requests, so the transport knows how long one takes
+    private static void time(HedgingTransport hedging, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            hedging.get(new URL(QUERY), null, null).close();
+        }
+        assertTrue(hedging.getHedgeDelayMillis() >= 0);
+    }
+
+    // Return the value of a header of a request head, or null
+    private static String header(String head, String name) {
+        for (String line : head.split("\r\n")) {
+            if (line.regionMatches(true, 0, name + ":", 0, name.length() + 1)) {
+                return line.substring(name.length() + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    /*
+     * A stand-in of the USGS server on a local socket, for failures only a real connection
+     * has. Every connection gets one response, and is closed after it
+     */
+    private abstract static class Wire implements Closeable {
+        private final ServerSocket mServer;
+        private final Thread mThread;
+
+        // The head of every request, in order
+        final List<String> heads = new CopyOnWriteArrayList<>();
+
+        Wire() throws IOException {
+            mServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    accept();
+                }
+            }, "Wire");
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + mServer.getLocalPort()
+                    + "/fdsnws/event/1/query?format=geojson";
+        }
+
+        /**
+         * Write the response to a request, or as much of it as the failure lets through.
+         *
+         * @param request number of this request, from 1
+         */
+        abstract void serve(int request, String head, OutputStream out) throws IOException;
+
+        // Return the head of a response with a strong ETag, the body is not compressed
+        static byte[] head(int responseCode, long contentLength, String headers) {
+            return ("HTTP/1.1 " + responseCode + " Stand-in\r\n"
+                    + "Content-Type: application/json\r\n"
+                    + "Content-Length: " + contentLength + "\r\n"
+                    + "ETag: \"v1\"\r\n"
+                    + "Connection: close\r\n"
+                    + headers + "\r\n").getBytes(TestFeeds.UTF_8);
+        }
+
+        private void accept() {
+            while (!mServer.isClosed()) {
+                try (Socket socket = mServer.accept()) {
+                    String head = readHead(socket.getInputStream());
+                    heads.add(head);
+                    OutputStream out = socket.getOutputStream();
+                    serve(heads.size(), head, out);
+                    out.flush();
+                } catch (IOException e) {
+                    // The server was closed, or the client went away
+                }
+            }
+        }
+
+        private static String readHead(InputStream in) throws IOException {
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            int matched = 0;
+            while (matched < 4) {
+                int read = in.read();
+                if (read < 0) {
+                    break;
+                }
+                head.write(read);
+                matched = read == "\r\n\r\n".charAt(matched) ? matched + 1
+                        : read == '\r' ? 1 : 0;
+            }
+            return new String(head.toByteArray(), TestFeeds.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mServer.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The {@link QueryPlanner} against a stand-in of the USGS server that serves canned windows.
+ */
+public class QueryPlannerTest {
+
+    /* 90 days, so three windows of 30 days */
+    private static final String QUERY = "https://example.com/fdsnws/event/1/query?format=geojson"
+            + "&starttime=2014-09-01&endtime=2014-11-30&minmagnitude=4";
+
+    private static final long WINDOW_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    private final EarthquakeTransport mOriginalTransport = QueryUtils.getTransport();
+
+    private QueryPlanner mPlanner;
+
+    @Before
+    public void setUp() {
+        QueryResultCache.getInstance().clear();
+    }
+
+    @After
+    public void tearDown() {
+        if (mPlanner != null) {
+            mPlanner.shutdown();
+        }
+        QueryUtils.setTransport(mOriginalTransport);
+        QueryResultCache.getInstance().clear();
+    }
+
+    @Test
+    public void splitsTheRangeIntoWindows() {
+        mPlanner = new QueryPlanner(null, WINDOW_MILLIS, 2, 0);
+
+        List<String> windows = mPlanner.planWindows(QUERY);
+
+        assertEquals(3, windows.size());
+        assertEquals("2014-09-01T00:00:00.000",
+                QueryUtils.getQueryParameter(windows.get(0), "starttime"));
+        assertEquals("2014-10-01T00:00:00.000",
+                QueryUtils.getQueryParameter(windows.get(0), "endtime"));
+        assertEquals("2014-10-31T00:00:00.000",
+                QueryUtils.getQueryParameter(windows.get(2), "starttime"));
+        assertEquals("2014-11-30T00:00:00.000",
+                QueryUtils.getQueryParameter(windows.get(2), "endtime"));
+        assertEquals("4", QueryUtils.getQueryParameter(windows.get(1), "minmagnitude"));
+    }
+
+    @Test
+    public void shortRangeIsNotSplit() {
+        mPlanner = new QueryPlanner(null, WINDOW_MILLIS, 2, 0);
+        String query = "https://example.com/query?starttime=2014-11-01&endtime=2014-11-30";
+
+        assertEquals(1, mPlanner.planWindows(query).size());
+    }
+
+    @Test
+    public void windowsAreMergedNewestFirstWithoutDuplicates() {
+        mPlanner = new QueryPlanner(null, WINDOW_MILLIS, 2, 0);
+        QueryUtils.setTransport(new Windows(mPlanner.planWindows(QUERY)));
+
+        List<Earthquake> earthquakes = mPlanner.fetch(QUERY);
+
+        // Earthquake 20 is on the border of the two oldest windows, and both return it
+        assertEquals(30, earthquakes.size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(TestFeeds.id(i), earthquakes.get(i).getId());
+        }
+    }
+
+    @Test
+    public void noMoreWindowsThanTheCapAreFetchedAtOnce() {
+        mPlanner = new QueryPlanner(null, WINDOW_MILLIS / 3, 2, 0);
+        List<String> windows = mPlanner.planWindows(QUERY);
+        Windows standIn = new Windows(windows);
+        standIn.latencyMillis = 50;
+        QueryUtils.setTransport(standIn);
+
+        List<Earthquake> earthquakes = mPlanner.fetch(QUERY);
+
+        assertEquals(9, windows.size());
+        assertEquals(windows.size(), standIn.requests.get());
+        assertEquals(windows.size() * 10, earthquakes.size());
+        assertTrue("Fetched " + standIn.mostInFlight + " windows at once",
+                standIn.mostInFlight.get() <= 2);
+    }
+
+    @Test
+    public void failedWindowIsTriedAgain() {
+        mPlanner = new QueryPlanner(null, WINDOW_MILLIS, 2, 1);
+        Windows standIn = new Windows(mPlanner.planWindows(QUERY));
+        // A 400 is not tried again by QueryUtils, only by the planner
+        standIn.failFirstRequestOf = 1;
+        QueryUtils.setTransport(standIn);
+
+        List<Earthquake> earthquakes = mPlanner.fetch(QUERY);
+
+        assertEquals(30, earthquakes.size());
+        assertEquals(4, standIn.requests.get());
+    }
+
+    @Test
+    public void failedWindowIsLeftOutWhenNotRetried() {
+        mPlanner = new QueryPlanner(null, WINDOW_MILLIS, 2, 0);
+        Windows standIn = new Windows(mPlanner.planWindows(QUERY));
+        standIn.failFirstRequestOf = 2;
+        QueryUtils.setTransport(standIn);
+
+        List<Earthquake> earthquakes = mPlanner.fetch(QUERY);
+
+        assertEquals(20, earthquakes.size());
+        assertEquals(TestFeeds.id(10), earthquakes.get(0).getId());
+    }
+
+    @Test
+    public void windowThatKeepsFailingIsGivenUpOn() {
+        mPlanner = new QueryPlanner(null);
+        Windows standIn = new Windows(mPlanner.planWindows(QUERY));
+        standIn.failFirstRequestOf = 1;
+        standIn.failures = Integer.MAX_VALUE;
+        QueryUtils.setTransport(standIn);
+
+        List<Earthquake> earthquakes = mPlanner.fetch(QUERY);
+
+        // Tried once and then again as many times as the planner retries by default. The
+        // newest and the oldest window are still returned
+        assertEquals(1 + QueryPlanner.DEFAULT_MAX_RETRIES, standIn.failed.get());
+        assertEquals(2 + 1 + QueryPlanner.DEFAULT_MAX_RETRIES, standIn.requests.get());
+        assertEquals(21, earthquakes.size());
+        assertEquals(TestFeeds.id(0), earthquakes.get(0).getId());
+        assertEquals(TestFeeds.id(10), earthquakes.get(10).getId());
+        assertEquals(TestFeeds.id(20), earthquakes.get(11).getId());
+    }
+
+    /*
+     * Serves window i of n the earthquakes 10 * (n - 1 - i) to 10 * (n - i), both included, so
+     * the newest window has the newest earthquakes and neighbouring windows share one
+     */
+    private static final class Windows extends TestFeeds.StandIn {
+        private final List<String> mWindows;
+        private final AtomicInteger mInFlight = new AtomicInteger();
+
+        final AtomicInteger mostInFlight = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        volatile long latencyMillis;
+
+        // Window whose first requests are answered with a 400, and how many of them
+        volatile int failFirstRequestOf = -1;
+        volatile int failures = 1;
+
+        Windows(List<String> windows) {
+            mWindows = windows;
+        }
+
+        @Override
+        Response answer(String url, String etag, int request) throws IOException {
+            int window = mWindows.indexOf(url);
+            int inFlight = mInFlight.incrementAndGet();
+            try {
+                int most;
+                do {
+                    most = mostInFlight.get();
+                } while (inFlight > most && !mostInFlight.compareAndSet(most, inFlight));
+                if (latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                mInFlight.decrementAndGet();
+            }
+
+            if (window == failFirstRequestOf && failed.getAndIncrement() < failures) {
+                return new Response(400, null, null, null);
+            }
+            int first = 10 * (mWindows.size() - 1 - window);
+            return ok(TestFeeds.collection(first, window == 0 ? 10 : 11), null);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The in-memory {@link QueryResultCache}: what it evicts, and what callers waiting for the same
+ * query get.
+ */
+public class QueryResultCacheTest {
+
+    private static final String QUERY_A = "https://example.com/query?format=geojson&q=a";
+    private static final String QUERY_B = "https://example.com/query?format=geojson&q=b";
+    private static final String QUERY_C = "https://example.com/query?format=geojson&q=c";
+
+    @Test
+    public void staleResultIsKeptWhileThereIsRoom() throws Exception {
+        QueryResultCache cache = new QueryResultCache(20, 100);
+        cache.put(QUERY_A, earthquakes(4));
+        Thread.sleep(40);
+
+        cache.put(QUERY_B, earthquakes(4));
+
+        // Still shown while query A is fetched again
+        assertNull(cache.get(QUERY_A));
+        assertNotNull(cache.peek(QUERY_A));
+    }
+
+    @Test
+    public void staleResultIsEvictedBeforeFreshOnes() throws Exception {
+        QueryResultCache cache = new QueryResultCache(50, 10);
+        cache.put(QUERY_A, earthquakes(4));
+        Thread.sleep(80);
+        cache.put(QUERY_B, earthquakes(4));
+        // A is now the most recently used result, but it is stale
+        assertNotNull(cache.peek(QUERY_A));
+
+        cache.put(QUERY_C, earthquakes(4));
+
+        assertNull(cache.peek(QUERY_A));
+        assertNotNull(cache.peek(QUERY_B));
+        assertNotNull(cache.peek(QUERY_C));
+    }
+
+    @Test
+    public void leastRecentlyUsedFreshResultIsEvictedWhenNothingIsStale() throws IOException {
+        QueryResultCache cache = new QueryResultCache(60000, 10);
+        cache.put(QUERY_A, earthquakes(4));
+        cache.put(QUERY_B, earthquakes(4));
+        cache.get(QUERY_A);
+
+        cache.put(QUERY_C, earthquakes(4));
+
+        assertNotNull(cache.peek(QUERY_A));
+        assertNull(cache.peek(QUERY_B));
+    }
+
+    @Test
+    public void callersOfTheSameQueryShareOneFetch() throws Exception {
+        final QueryResultCache cache = new QueryResultCache(60000, 100);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger fetches = new AtomicInteger();
+        final List<Earthquake> fetched = earthquakes(3);
+        Callable<List<Earthquake>> fetcher = new Callable<List<Earthquake>>() {
+            @Override
+            public List<Earthquake> call() throws Exception {
+                fetches.incrementAndGet();
+                release.await();
+                return fetched;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<List<Earthquake>> first = executor.submit(fetchWith(cache, fetcher));
+            Future<List<Earthquake>> second = executor.submit(fetchWith(cache, fetcher));
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals(3, first.get(5, TimeUnit.SECONDS).size());
+            assertEquals(3, second.get(5, TimeUnit.SECONDS).size());
+            assertEquals(1, fetches.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * The loader that started the fetch was cancelled, which interrupts its thread. The fetch
+     * gives up and returns null, the way QueryUtils does, and the caller still waiting fetches
+     * the query itself instead of getting nothing
+     */
+    @Test
+    public void waiterFetchesItselfWhenTheFetchItWaitsForIsAbandoned() throws Exception {
+        final QueryResultCache cache = new QueryResultCache(60000, 100);
+        final CountDownLatch ownerStarted = new CountDownLatch(1);
+        Callable<List<Earthquake>> interruptible = new Callable<List<Earthquake>>() {
+            @Override
+            public List<Earthquake> call() {
+                ownerStarted.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        };
+        final List<Earthquake> fetched = earthquakes(3);
+        Callable<List<Earthquake>> quick = new Callable<List<Earthquake>>() {
+            @Override
+            public List<Earthquake> call() {
+                return fetched;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<Earthquake>> owner = executor.submit(fetchWith(cache, interruptible));
+            ownerStarted.await();
+            Future<List<Earthquake>> waiter = executor.submit(fetchWith(cache, quick));
+            Thread.sleep(100);
+            owner.cancel(true);
+
+            List<Earthquake> earthquakes = waiter.get(5, TimeUnit.SECONDS);
+            assertNotNull(earthquakes);
+            assertEquals(3, earthquakes.size());
+            assertSame(fetched.get(0), cache.get(QUERY_A).get(0));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedFetchIsNotFetchedAgainByTheWaiters() throws Exception {
+        final QueryResultCache cache = new QueryResultCache(60000, 100);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger fetches = new AtomicInteger();
+        Callable<List<Earthquake>> failing = new Callable<List<Earthquake>>() {
+            @Override
+            public List<Earthquake> call() throws Exception {
+                fetches.incrementAndGet();
+                release.await();
+                return null;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<Earthquake>> first = executor.submit(fetchWith(cache, failing));
+            Future<List<Earthquake>> second = executor.submit(fetchWith(cache, failing));
+            Thread.sleep(100);
+            release.countDown();
+
+            assertNull(first.get(5, TimeUnit.SECONDS));
+            assertNull(second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, fetches.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Callable<List<Earthquake>> fetchWith(final QueryResultCache cache,
+                                                        final Callable<List<Earthquake>> fetcher) {
+        return new Callable<List<Earthquake>>() {
+            @Override
+            public List<Earthquake> call() {
+                return cache.fetch(QUERY_A, fetcher);
+            }
+        };
+    }
+
+    private static List<Earthquake> earthquakes(int count) throws IOException {
+        return QueryUtils.extractFeatureFromStream(TestFeeds.stream(count));
+    }
+}
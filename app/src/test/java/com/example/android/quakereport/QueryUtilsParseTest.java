@@ -0,0 +1,150 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The streaming GeoJSON parser of {@link QueryUtils}: what it keeps, how much heap it needs for
+ * a large response, and what it does with a response that is not valid JSON.
+ */
+public class QueryUtilsParseTest {
+
+    private final EarthquakeTransport mOriginalTransport = QueryUtils.getTransport();
+
+    @After
+    public void tearDown() {
+        QueryUtils.setTransport(mOriginalTransport);
+        QueryResultCache.getInstance().clear();
+    }
+
+    @Test
+    public void readsTheFieldsOfEveryFeature() throws IOException {
+        List<Earthquake> earthquakes = QueryUtils.extractFeatureFromStream(
+                new ByteArrayInputStream(TestFeeds.collection(0, 3).getBytes(TestFeeds.UTF_8)));
+
+        assertEquals(3, earthquakes.size());
+        Earthquake second = earthquakes.get(1);
+        assertEquals(TestFeeds.id(1), second.getId());
+        assertEquals(TestFeeds.magnitude(1), second.getMagnitude(), 0);
+        assertEquals(TestFeeds.time(1), second.getTimeInMilliSeconds());
+        assertEquals("2 km N of ", second.getOffsetLocation());
+        assertEquals("Fiji region", second.getPrimaryLocation());
+        assertEquals(-17.9, second.getLatitude(), 0);
+        assertEquals(178.1, second.getLongitude(), 0);
+    }
+
+    /*
+     * A response of about 80 MB is read without its body, a String of it or a tree of it ever
+     * being in memory: the old generation, where anything that large or long lived ends up,
+     * grows by less than 10 MB
+     */
+    @Test
+    public void largeFeedIsParsedInLittleHeap() throws IOException {
+        final int featureCount = 150000;
+        System.gc();
+        resetPeakUsage();
+        long before = getOldGenerationPeak();
+
+        final long[] sum = new long[1];
+        int count = QueryUtils.readFeatures(TestFeeds.stream(featureCount),
+                new QueryUtils.FeatureListener() {
+                    @Override
+                    public void onEarthquake(Earthquake earthquake) {
+                        sum[0] += earthquake.getTimeInMilliSeconds();
+                    }
+                });
+
+        long growth = getOldGenerationPeak() - before;
+        assertEquals(featureCount, count);
+        assertTrue("Old generation grew " + growth / 1024 + " KB",
+                growth < 10 * 1024 * 1024);
+    }
+
+    @Test
+    public void syntaxErrorKeepsTheFeaturesReadSoFar() throws IOException {
+        String json = TestFeeds.collection(0, 2);
+        // The third feature breaks off into something that is not JSON
+        String broken = json.substring(0, json.lastIndexOf(']')) + ",{\"type\":\"Feature\",,}]}";
+
+        List<Earthquake> earthquakes = QueryUtils.extractFeatureFromStream(
+                new ByteArrayInputStream(broken.getBytes(TestFeeds.UTF_8)));
+
+        assertEquals(2, earthquakes.size());
+        assertEquals(TestFeeds.id(1), earthquakes.get(1).getId());
+    }
+
+    @Test
+    public void syntaxErrorIsNotDownloadedAgain() {
+        String json = TestFeeds.collection(0, 2);
+        final String broken = json.substring(0, json.lastIndexOf(']')) + ",{\"mag\":4.5 oops";
+        TestFeeds.StandIn standIn = new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) {
+                return ok(broken, null);
+            }
+        };
+        QueryUtils.setTransport(standIn);
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeDataFromNetwork(
+                "https://example.com/query?format=geojson&syntax=error");
+
+        assertEquals(2, earthquakes.size());
+        assertEquals(1, standIn.requests.get());
+    }
+
+    /*
+     * The earthquakes read before the syntax error are handed back, but they are not the whole
+     * query, so the next caller asks for it again instead of being given them from memory
+     */
+    @Test
+    public void brokenResponseIsNotKeptInMemory() {
+        final String url = "https://example.com/query?format=geojson&syntax=cached";
+        String json = TestFeeds.collection(0, 2);
+        final String broken = json.substring(0, json.lastIndexOf(']')) + ",{\"mag\":4.5 oops";
+        final String whole = TestFeeds.collection(0, 3);
+        TestFeeds.StandIn standIn = new TestFeeds.StandIn() {
+            @Override
+            Response answer(String url, String etag, int request) {
+                return ok(request == 1 ? broken : whole, null);
+            }
+        };
+        QueryUtils.setTransport(standIn);
+
+        assertEquals(2, QueryUtils.fetchEarthquakeData(url).size());
+        assertNull(QueryResultCache.getInstance().peek(url));
+
+        assertEquals(3, QueryUtils.fetchEarthquakeData(url).size());
+        assertEquals(2, standIn.requests.get());
+        assertEquals(3, QueryResultCache.getInstance().get(url).size());
+    }
+
+    private static void resetPeakUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    // Peak usage of the pools that hold long lived and very large objects
+    private static long getOldGenerationPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            String name = pool.getName();
+            if (pool.getType() == MemoryType.HEAP
+                    && (name.contains("Old") || name.contains("Tenured"))) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
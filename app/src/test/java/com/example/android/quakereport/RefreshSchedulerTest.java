@@ -0,0 +1,284 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The {@link RefreshScheduler} on a fake clock, with a stand-in for the loader that reports
+ * every sync back the way EarthquakeLoader does.
+ */
+public class RefreshSchedulerTest {
+
+    private static final long MIN = RefreshScheduler.MIN_INTERVAL_MILLIS;
+    private static final long BASE = RefreshScheduler.BASE_INTERVAL_MILLIS;
+    private static final long MAX = RefreshScheduler.MAX_INTERVAL_MILLIS;
+
+    private FakeClock mClock;
+    private Syncs mSyncs;
+    private RefreshScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+        mSyncs = new Syncs();
+        mScheduler = new RefreshScheduler(mClock, new NoJitter(), mSyncs);
+    }
+
+    @Test
+    public void firstRefreshIsOneIntervalAfterStart() {
+        mScheduler.start();
+
+        mClock.advance(BASE - 1);
+        assertEquals(0, mSyncs.started);
+        mClock.advance(1);
+        assertEquals(1, mSyncs.started);
+        assertTrue(mScheduler.isRefreshing());
+    }
+
+    @Test
+    public void intervalDoublesWhileNothingChangesUpToTheLongest() {
+        mScheduler.start();
+        long expected = BASE;
+        for (int i = 0; i < 6; i++) {
+            mClock.advance(mScheduler.getIntervalMillis());
+            mScheduler.onRefreshed(0, Double.NaN);
+            expected = Math.min(MAX, expected * 2);
+            assertEquals(expected, mScheduler.getIntervalMillis());
+        }
+        assertEquals(MAX, mScheduler.getIntervalMillis());
+
+        // The next refresh comes the longest interval later, not sooner
+        int started = mSyncs.started;
+        mClock.advance(MAX - 1);
+        assertEquals(started, mSyncs.started);
+        mClock.advance(1);
+        assertEquals(started + 1, mSyncs.started);
+    }
+
+    @Test
+    public void somethingNewGoesBackToTheBaseInterval() {
+        mScheduler.start();
+        mClock.advance(BASE);
+        mScheduler.onRefreshed(0, Double.NaN);
+        mClock.advance(2 * BASE);
+        mScheduler.onRefreshed(0, Double.NaN);
+        assertEquals(4 * BASE, mScheduler.getIntervalMillis());
+
+        mClock.advance(4 * BASE);
+        mScheduler.onRefreshed(3, 4.5);
+
+        assertEquals(BASE, mScheduler.getIntervalMillis());
+    }
+
+    @Test
+    public void significantEarthquakeGoesToTheShortestInterval() {
+        mScheduler.start();
+        mClock.advance(BASE);
+
+        mScheduler.onRefreshed(1, RefreshScheduler.SIGNIFICANT_MAGNITUDE);
+
+        assertEquals(MIN, mScheduler.getIntervalMillis());
+        mClock.advance(MIN);
+        assertEquals(2, mSyncs.started);
+    }
+
+    /*
+     * A sync that finds nothing hands back the same rows, and the activity is not told about
+     * them again. The loader still reports it, so the scheduler backs off instead of waiting
+     * for a refresh that never reports back
+     */
+    @Test
+    public void syncThatFindsNothingStillBacksOff() {
+        mSyncs.reportBack = true;
+        mScheduler.start();
+
+        mClock.advance(BASE);
+        mClock.advance(2 * BASE);
+        mClock.advance(4 * BASE);
+
+        assertEquals(3, mSyncs.started);
+        assertFalse(mScheduler.isRefreshing());
+        assertEquals(8 * BASE, mScheduler.getIntervalMillis());
+    }
+
+    @Test
+    public void skippedSyncKeepsTheInterval() {
+        mScheduler.start();
+        mClock.advance(BASE);
+        mScheduler.onRefreshed(0, Double.NaN);
+        mClock.advance(2 * BASE);
+
+        // A page was loading, so the sync did not run
+        mScheduler.onRefreshSkipped();
+
+        assertFalse(mScheduler.isRefreshing());
+        assertEquals(2 * BASE, mScheduler.getIntervalMillis());
+        mClock.advance(2 * BASE);
+        assertEquals(3, mSyncs.started);
+    }
+
+    @Test
+    public void outcomeOfNoRefreshIsIgnored() {
+        mScheduler.start();
+
+        // i.e. the sync of the loader coming back to the activity
+        mScheduler.onRefreshed(5, 7.0);
+
+        assertEquals(BASE, mScheduler.getIntervalMillis());
+        mClock.advance(BASE);
+        assertEquals(1, mSyncs.started);
+    }
+
+    @Test
+    public void refreshAskedForWhileOneIsInFlightIsFoldedIntoIt() {
+        mScheduler.start();
+        mClock.advance(BASE);
+
+        mScheduler.refreshNow();
+        mScheduler.refreshNow();
+
+        assertEquals(1, mSyncs.started);
+    }
+
+    @Test
+    public void refreshAskedForRightAfterOneWaitsForTheShortestInterval() {
+        mScheduler.start();
+        mClock.advance(BASE);
+        mClock.advance(1000);
+        mScheduler.onRefreshed(1, 4.0);
+
+        mScheduler.refreshNow();
+        assertEquals(1, mSyncs.started);
+
+        mClock.advance(MIN - 1000 - 1);
+        assertEquals(1, mSyncs.started);
+        mClock.advance(1);
+        assertEquals(2, mSyncs.started);
+    }
+
+    @Test
+    public void refreshThatNeverReportsBackIsGivenUp() {
+        mScheduler.start();
+        mClock.advance(BASE);
+
+        mClock.advance(MAX - 1);
+        assertEquals(1, mSyncs.started);
+        mClock.advance(1);
+
+        assertEquals(2, mSyncs.started);
+    }
+
+    @Test
+    public void stoppedSchedulerDoesNotRefresh() {
+        mScheduler.start();
+        mClock.advance(BASE / 2);
+
+        mScheduler.stop();
+        mClock.advance(10 * MAX);
+        assertEquals(0, mSyncs.started);
+
+        // Started again, it waits a whole interval as nothing was refreshed yet
+        mScheduler.start();
+        mClock.advance(BASE - 1);
+        assertEquals(0, mSyncs.started);
+        mClock.advance(1);
+        assertEquals(1, mSyncs.started);
+    }
+
+    @Test
+    public void refreshInFlightWhenStoppedStillReportsBack() {
+        mScheduler.start();
+        mClock.advance(BASE);
+        mScheduler.stop();
+
+        mScheduler.onRefreshed(0, Double.NaN);
+
+        assertFalse(mScheduler.isRefreshing());
+        assertEquals(2 * BASE, mScheduler.getIntervalMillis());
+        mClock.advance(10 * MAX);
+        assertEquals(1, mSyncs.started);
+    }
+
+    /*
+     * Stands in for the loader. Counts the syncs asked for, and if told to, reports every one
+     * back on the spot as having found nothing
+     */
+    private final class Syncs implements RefreshScheduler.Callback {
+        int started;
+        boolean reportBack;
+
+        @Override
+        public void onRefresh() {
+            started++;
+            if (reportBack) {
+                mScheduler.onRefreshed(0, Double.NaN);
+            }
+        }
+    }
+
+    /* Runs the tasks posted to it when the time is moved past them */
+    private static final class FakeClock implements RefreshScheduler.Clock {
+        private final List<Runnable> mTasks = new ArrayList<>();
+        private final List<Long> mDueTimes = new ArrayList<>();
+        private long mNow = 1000000;
+
+        @Override
+        public long now() {
+            return mNow;
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+            mTasks.add(task);
+            mDueTimes.add(mNow + delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            for (int i = mTasks.size() - 1; i >= 0; i--) {
+                if (mTasks.get(i) == task) {
+                    mTasks.remove(i);
+                    mDueTimes.remove(i);
+                }
+            }
+        }
+
+        // Move the time on, running every task that falls due on the way in order
+        void advance(long millis) {
+            long until = mNow + millis;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < mTasks.size(); i++) {
+                    if (mDueTimes.get(i) <= until
+                            && (next < 0 || mDueTimes.get(i) < mDueTimes.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                mNow = Math.max(mNow, mDueTimes.get(next));
+                Runnable task = mTasks.remove(next);
+                mDueTimes.remove(next);
+                task.run();
+            }
+            mNow = until;
+        }
+    }
+
+    /* Keeps every interval as it is, see RefreshScheduler.schedule() */
+    private static final class NoJitter extends Random {
+        @Override
+        public double nextDouble() {
+            return 0.5;
+        }
+    }
+}
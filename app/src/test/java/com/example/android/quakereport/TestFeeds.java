@@ -0,0 +1,136 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Made up USGS GeoJSON for the tests, and a stand-in of the USGS server to serve it.
+ * Earthquake i is at time {@link #NEWEST_TIME} minus i minutes, so feeds are newest first.
+ */
+final class TestFeeds {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Time of earthquake 0, 1 December 2014 */
+    static final long NEWEST_TIME = 1417392000000L;
+
+    private TestFeeds() {
+    }
+
+    static String id(int index) {
+        return "us" + (10000000 + index);
+    }
+
+    static long time(int index) {
+        return NEWEST_TIME - index * 60000L;
+    }
+
+    static double magnitude(int index) {
+        return 4 + index % 50 / 10.0;
+    }
+
+    /**
+     * Return one feature with the fields and the field order of a USGS response.
+     */
+    static String feature(int index) {
+        return "{\"type\":\"Feature\",\"properties\":{\"mag\":"
+                + String.format(Locale.US, "%.1f", magnitude(index))
+                + ",\"place\":\"" + (index % 300 + 1) + " km N of Fiji region\",\"time\":"
+                + time(index) + ",\"updated\":" + (time(index) + 3600000L)
+                + ",\"tz\":null,\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/"
+                + id(index) + "\",\"felt\":null,\"status\":\"reviewed\",\"tsunami\":0,"
+                + "\"sig\":312,\"net\":\"us\",\"types\":\",origin,phase-data,\","
+                + "\"magType\":\"mww\",\"type\":\"earthquake\",\"title\":\"M earthquake\"},"
+                + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[178.1,-17.9,562.0]},"
+                + "\"id\":\"" + id(index) + "\"}";
+    }
+
+    /**
+     * Return a FeatureCollection of earthquakes from, from + 1, ... of the given count.
+     */
+    static String collection(int from, int count) {
+        StringBuilder json = new StringBuilder(HEADER);
+        for (int i = from; i < from + count; i++) {
+            if (i > from) {
+                json.append(',');
+            }
+            json.append(feature(i));
+        }
+        return json.append(FOOTER).toString();
+    }
+
+    private static final String HEADER = "{\"type\":\"FeatureCollection\",\"metadata\":"
+            + "{\"generated\":1417392000000,\"title\":\"USGS Earthquakes\",\"status\":200},"
+            + "\"features\":[";
+
+    private static final String FOOTER = "],\"bbox\":[-179.9,-60.1,0.0,179.9,70.2,650.0]}";
+
+    /**
+     * Return a FeatureCollection of the given number of earthquakes that is made up as it is
+     * read, so the test itself never holds more than one feature of it.
+     */
+    static InputStream stream(final int count) {
+        return new InputStream() {
+            private int mNext = -1;
+            private byte[] mChunk = new byte[0];
+            private int mPosition;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                while (mPosition == mChunk.length) {
+                    if (mNext > count) {
+                        return -1;
+                    }
+                    String chunk = mNext < 0 ? HEADER : mNext == count ? FOOTER
+                            : (mNext > 0 ? "," : "") + feature(mNext);
+                    mNext++;
+                    mChunk = chunk.getBytes(UTF_8);
+                    mPosition = 0;
+                }
+                int read = Math.min(length, mChunk.length - mPosition);
+                System.arraycopy(mChunk, mPosition, buffer, offset, read);
+                mPosition += read;
+                return read;
+            }
+        };
+    }
+
+    /**
+     * A stand-in of the USGS server: answers every request with what {@link #answer} returns
+     * for it, and counts the requests.
+     */
+    abstract static class StandIn implements EarthquakeTransport {
+        final AtomicInteger requests = new AtomicInteger();
+
+        @Override
+        public Response get(URL url, String etag, String lastModified) throws IOException {
+            return answer(url.toString(), etag, requests.incrementAndGet());
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return 0;
+        }
+
+        /**
+         * @param request number of this request, from 1
+         */
+        abstract Response answer(String url, String etag, int request) throws IOException;
+
+        static Response ok(String body, String etag) {
+            return new Response(200, etag, null,
+                    new ByteArrayInputStream(body.getBytes(UTF_8)));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.Earthquake;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Made up earthquakes and USGS GeoJSON responses for the benchmarks. The same seed always
+ * gives the same data, so runs can be compared.
+ */
+final class Fixtures {
+
+    /* Places earthquakes are near. Real responses repeat a few hundred regions */
+    private static final String[] PLACES = {
+            "Montreal, Canada", "Fiji region", "Tonga", "Honshu, Japan", "Anchorage, Alaska",
+            "Papua New Guinea", "northern Chile", "Kermadec Islands, New Zealand",
+            "Santiago de Chile, Chile", "Ridgecrest, CA"};
+
+    private static final String[] DIRECTIONS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+
+    /* Time of the newest earthquake, 1 December 2014 */
+    private static final long NEWEST_TIME = 1417392000000L;
+
+    private Fixtures() {
+    }
+
+    /**
+     * Return a GeoJSON response shaped like a USGS one, with as many features as fit in
+     * about the given number of bytes (at least one).
+     */
+    static String geoJson(int approximateBytes) {
+        return geoJson(approximateBytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return a GeoJSON response shaped like a USGS one with the given number of features (at
+     * least one).
+     */
+    static String geoJsonOfCount(int count) {
+        return geoJson(Integer.MAX_VALUE, count);
+    }
+
+    // Append features until the response reaches either the given size or the given count
+    private static String geoJson(int approximateBytes, int count) {
+        Random random = new Random(42);
+        // A feature is a little under 1 KB
+        StringBuilder json = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8,
+                Math.min(approximateBytes, count * 1024L) + 1024));
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":")
+                .append(NEWEST_TIME)
+                .append(",\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query\",")
+                .append("\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.5.8\"},")
+                .append("\"features\":[");
+        int index = 0;
+        do {
+            if (index > 0) {
+                json.append(',');
+            }
+            appendFeature(json, random, index++);
+        } while (json.length() < approximateBytes && index < count);
+        json.append("],\"bbox\":[-179.9,-60.1,0.0,179.9,70.2,650.0]}");
+        return json.toString();
+    }
+
+    /**
+     * Return the given number of earthquakes, newest first.
+     */
+    static List<Earthquake> earthquakes(int count) {
+        Random random = new Random(42);
+        // Coordinates come from their own generator, so the other fields stay what they were
+        // before earthquakes had coordinates
+        Random coordinates = new Random(43);
+        List<Earthquake> earthquakes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long time = NEWEST_TIME - i * 60000L;
+            earthquakes.add(new Earthquake(id(i), magnitude(random), place(random), time,
+                    time + 3600000L, url(i), latitude(coordinates), longitude(coordinates)));
+        }
+        return earthquakes;
+    }
+
+    // Append one feature with the fields and the field order of a USGS response
+    private static void appendFeature(StringBuilder json, Random random, int index) {
+        long time = NEWEST_TIME - index * 60000L;
+        json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":")
+                .append(String.format(Locale.US, "%.1f", magnitude(random)))
+                .append(",\"place\":\"").append(place(random))
+                .append("\",\"time\":").append(time)
+                .append(",\"updated\":").append(time + 3600000L)
+                .append(",\"tz\":null,\"url\":\"").append(url(index))
+                .append("\",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=")
+                .append(id(index)).append("&format=geojson\",\"felt\":null,\"cdi\":null,")
+                .append("\"mmi\":4.2,\"alert\":\"green\",\"status\":\"reviewed\",\"tsunami\":0,")
+                .append("\"sig\":").append(random.nextInt(1000))
+                .append(",\"net\":\"us\",\"code\":\"").append(index)
+                .append("\",\"ids\":\",").append(id(index)).append(",\",")
+                .append("\"sources\":\",us,\",\"types\":\",geoserve,origin,phase-data,\",")
+                .append("\"nst\":null,\"dmin\":3.1,\"rms\":0.9,\"gap\":22,")
+                .append("\"magType\":\"mww\",\"type\":\"earthquake\",")
+                .append("\"title\":\"M earthquake\"},\"geometry\":{\"type\":\"Point\",")
+                .append("\"coordinates\":[")
+                .append(String.format(Locale.US, "%.4f,%.4f,%.2f", random.nextDouble() * 360 - 180,
+                        random.nextDouble() * 180 - 90, random.nextDouble() * 600))
+                .append("]},\"id\":\"").append(id(index)).append("\"}");
+    }
+
+    // Between the latitudes of the bbox of a USGS response
+    private static double latitude(Random random) {
+        return random.nextDouble() * 130 - 60;
+    }
+
+    private static double longitude(Random random) {
+        return random.nextDouble() * 360 - 180;
+    }
+
+    private static double magnitude(Random random) {
+        return Math.round((4 + random.nextDouble() * 5) * 10) / 10.0;
+    }
+
+    private static String place(Random random) {
+        // Some places come without an offset, i.e. "Fiji region"
+        String place = PLACES[random.nextInt(PLACES.length)];
+        if (random.nextInt(5) == 0) {
+            return place;
+        }
+        return (1 + random.nextInt(300)) + " km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)]
+                + " of " + place;
+    }
+
+    private static String id(int index) {
+        return "us" + (10000000 + index);
+    }
+
+    private static String url(int index) {
+        return "https://earthquake.usgs.gov/earthquakes/eventpage/" + id(index);
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.Earthquake;
+import com.example.android.quakereport.EarthquakeDiff;
+import com.example.android.quakereport.EarthquakeRows;
+import com.example.android.quakereport.EarthquakeStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning parsed earthquakes into what the list shows: building the store (which splits every
+ * location into its offset and primary location), formatting the rows (magnitude, colour, date
+ * and time), reading a row the way EarthquakeAdapter.getView() binds it, and diffing two
+ * versions of the list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListBenchmark {
+
+    /* Number of earthquakes in the list */
+    @Param({"100", "10000", "50000"})
+    public int count;
+
+    /* Earthquakes added by a sync, and earthquakes whose magnitude was revised */
+    private static final int DELTA_INSERTED = 20;
+    private static final int DELTA_UPDATED = 5;
+
+    private static final int[] MAGNITUDE_COLOURS = {
+            0xFF4A7BA7, 0xFF4A7BA7, 0xFF04B4B3, 0xFF10CAC9, 0xFFF5A623, 0xFFFF7D50, 0xFFFC6644,
+            0xFFE75F40, 0xFFE13A20, 0xFFD93218, 0xFFC03823};
+
+    private List<Earthquake> mEarthquakes;
+    private EarthquakeStore mStore;
+    private EarthquakeRows mRows;
+    private EarthquakeStore mFirstPages;
+    private EarthquakeRows mFirstPagesRows;
+    private EarthquakeStore mSynced;
+
+    // The formatters getView() used before the rows were formatted by the loader, see
+    // bindAllRowsFormattingThem()
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("MMM, DD, yyyy");
+    private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("h:mm a");
+    private final DecimalFormat mMagnitudeFormat = new DecimalFormat("0.0");
+    private final Date mDate = new Date();
+
+    @Setup
+    public void setUp() {
+        mEarthquakes = Fixtures.earthquakes(count);
+        mStore = EarthquakeStore.of(mEarthquakes);
+        mRows = EarthquakeRows.build(mStore, MAGNITUDE_COLOURS, null);
+
+        // Everything but the last page of 20
+        mFirstPages = EarthquakeStore.of(mEarthquakes.subList(0, Math.max(0, count - 20)));
+        mFirstPagesRows = EarthquakeRows.build(mFirstPages, MAGNITUDE_COLOURS, null);
+
+        // A sync that brings a few new earthquakes and a few revised ones
+        List<Earthquake> changes = new ArrayList<>();
+        long newest = mStore.getTimeInMilliSeconds(0);
+        for (int i = 0; i < DELTA_INSERTED; i++) {
+            changes.add(new Earthquake("new" + i, 5.5, "12 km S of Tonga", newest + (i + 1) * 1000L,
+                    newest, "https://earthquake.usgs.gov/earthquakes/eventpage/new" + i));
+        }
+        for (int i = 0; i < DELTA_UPDATED && i < count; i++) {
+            int index = i * (count / DELTA_UPDATED);
+            changes.add(new Earthquake(mStore.getId(index), mStore.getMagnitude(index) + 0.1,
+                    mStore.getLocation(index), mStore.getTimeInMilliSeconds(index), newest,
+                    mStore.getUrl(index)));
+        }
+        mSynced = mStore.merge(changes);
+    }
+
+    @Benchmark
+    public EarthquakeStore buildStore() {
+        return EarthquakeStore.of(mEarthquakes);
+    }
+
+    @Benchmark
+    public EarthquakeRows formatRows() {
+        return EarthquakeRows.build(mStore, MAGNITUDE_COLOURS, null);
+    }
+
+    /* Only the rows of the appended page are formatted */
+    @Benchmark
+    public EarthquakeRows formatRowsAfterPage() {
+        return EarthquakeRows.build(mStore, MAGNITUDE_COLOURS, mFirstPagesRows);
+    }
+
+    /* Only the rows of new and revised earthquakes are formatted */
+    @Benchmark
+    public EarthquakeRows formatRowsAfterSync() {
+        return EarthquakeRows.build(mSynced, MAGNITUDE_COLOURS, mRows);
+    }
+
+    @Benchmark
+    public EarthquakeDiff diffAfterSync() {
+        return EarthquakeDiff.between(mStore, mSynced);
+    }
+
+    /* Everything getView() copies into the views of a row, for every row */
+    @Benchmark
+    public void bindAllRows(Blackhole blackhole) {
+        EarthquakeStore store = mRows.getStore();
+        for (int i = 0; i < mRows.size(); i++) {
+            blackhole.consume(store.getStableId(i));
+            blackhole.consume(mRows.getMagnitudeText(i));
+            blackhole.consume(mRows.getMagnitudeColour(i));
+            blackhole.consume(store.getPrimaryLocation(i));
+            blackhole.consume(store.getOffsetLocation(i));
+            blackhole.consume(mRows.getDateText(i));
+            blackhole.consume(mRows.getTimeText(i));
+        }
+    }
+
+    /*
+     * What getView() did the first time it bound a row before the loader formatted the rows:
+     * format the magnitude, the date and the time on the main thread and work out the colour.
+     * Against bindAllRows() this is the bind time taken off the main thread
+     */
+    @Benchmark
+    public void bindAllRowsFormattingThem(Blackhole blackhole) {
+        for (int i = 0; i < mStore.size(); i++) {
+            double magnitude = mStore.getMagnitude(i);
+            mDate.setTime(mStore.getTimeInMilliSeconds(i));
+            blackhole.consume(mStore.getStableId(i));
+            blackhole.consume(mMagnitudeFormat.format(magnitude));
+            blackhole.consume(MAGNITUDE_COLOURS[EarthquakeRows.getMagnitudeBand(magnitude)]);
+            blackhole.consume(mStore.getPrimaryLocation(i));
+            blackhole.consume(mStore.getOffsetLocation(i));
+            blackhole.consume(mDateFormat.format(mDate));
+            blackhole.consume(mTimeFormat.format(mDate));
+        }
+    }
+
+    @Benchmark
+    public void magnitudeBands(Blackhole blackhole) {
+        for (int i = 0; i < mStore.size(); i++) {
+            blackhole.consume(EarthquakeRows.getMagnitudeBand(mStore.getMagnitude(i)));
+        }
+    }
+}
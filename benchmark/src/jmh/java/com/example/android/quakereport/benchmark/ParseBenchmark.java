@@ -0,0 +1,59 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.Earthquake;
+import com.example.android.quakereport.QueryUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a USGS response into earthquakes, from 1 KB to 50 MB. extractFeatureFromJson()
+ * builds a JSONObject tree out of the whole response held as a String, extractFeatureFromStream()
+ * reads the bytes token by token the way the app does now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseBenchmark {
+
+    /* Size of the response in bytes, 1 KB, 64 KB, 1 MB and 50 MB */
+    @Param({"1024", "65536", "1048576", "52428800"})
+    public int responseBytes;
+
+    private String mJson;
+    private byte[] mBytes;
+
+    @Setup
+    public void setUp() {
+        mJson = Fixtures.geoJson(responseBytes);
+        mBytes = mJson.getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Benchmark
+    public List<Earthquake> extractFeatureFromJson() {
+        return QueryUtils.extractFeatureFromJson(mJson);
+    }
+
+    @Benchmark
+    public List<Earthquake> extractFeatureFromStream() throws IOException {
+        return QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(mBytes));
+    }
+
+    /* What the app did before it parsed the stream: read the response into a String first */
+    @Benchmark
+    public List<Earthquake> readStringThenExtractFeatureFromJson() {
+        return QueryUtils.extractFeatureFromJson(new String(mBytes, Charset.forName("UTF-8")));
+    }
+}
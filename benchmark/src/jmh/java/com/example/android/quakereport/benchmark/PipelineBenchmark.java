@@ -0,0 +1,160 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.Earthquake;
+import com.example.android.quakereport.EarthquakePipeline;
+import com.example.android.quakereport.EarthquakeTransport;
+import com.example.android.quakereport.QueryPlanner;
+import com.example.android.quakereport.QueryResultCache;
+import com.example.android.quakereport.QueryUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a query split into 8 time windows from a stand-in of the USGS server that takes
+ * {@link #latencyMillis} to answer and sends every response at 8 Mbit/s. Compares loading the
+ * windows one after the other, the {@link QueryPlanner} (an {@link EarthquakePipeline} that
+ * makes up to 4 requests at a time on the threads of the planner), and a pipeline of its own
+ * that requests 2 windows ahead of the one it parses. Either way every body is parsed as it
+ * arrives.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PipelineBenchmark {
+
+    /* Time to the first byte of every response */
+    @Param({"50", "300"})
+    public int latencyMillis;
+
+    private static final String URL =
+            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson"
+                    + "&starttime=2014-01-01&endtime=2014-09-01";
+
+    private static final long WINDOW_MILLIS = 31L * 24 * 60 * 60 * 1000;
+
+    /* Size of every response */
+    private static final int RESPONSE_BYTES = 1024 * 1024;
+
+    /* Bytes sent per millisecond, 8 Mbit/s */
+    private static final int BYTES_PER_MILLI = 1000;
+
+    private EarthquakeTransport mOriginalTransport;
+    private ExecutorService mExecutor;
+    private QueryPlanner mPlanner;
+    private List<String> mWindows;
+
+    @Setup
+    public void setUp() {
+        final byte[] body = Fixtures.geoJson(RESPONSE_BYTES).getBytes(Charset.forName("UTF-8"));
+        mOriginalTransport = QueryUtils.getTransport();
+        QueryUtils.setTransport(new EarthquakeTransport() {
+            @Override
+            public Response get(URL url, String etag, String lastModified) throws IOException {
+                sleep(latencyMillis);
+                return new Response(200, null, null, new ThrottledInputStream(body));
+            }
+
+            @Override
+            public long getBytesReceived() {
+                return 0;
+            }
+        });
+        mExecutor = Executors.newCachedThreadPool();
+        mPlanner = new QueryPlanner(null, WINDOW_MILLIS, QueryPlanner.DEFAULT_MAX_CONCURRENCY,
+                0);
+        mWindows = mPlanner.planWindows(URL);
+    }
+
+    @TearDown
+    public void tearDown() {
+        QueryUtils.setTransport(mOriginalTransport);
+        mPlanner.shutdown();
+        mExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public List<Earthquake> oneWindowAtATime() {
+        QueryResultCache.getInstance().clear();
+        List<List<Earthquake>> windowEarthquakes = new ArrayList<>();
+        for (String window : mWindows) {
+            windowEarthquakes.add(QueryUtils.fetchEarthquakeDataFromNetwork(window));
+        }
+        return QueryPlanner.merge(windowEarthquakes);
+    }
+
+    @Benchmark
+    public List<Earthquake> planner() {
+        QueryResultCache.getInstance().clear();
+        return mPlanner.fetch(URL);
+    }
+
+    @Benchmark
+    public List<Earthquake> pipeline() {
+        QueryResultCache.getInstance().clear();
+        return new EarthquakePipeline(mExecutor, null, EarthquakePipeline.DEFAULT_FETCH_AHEAD)
+                .run(mWindows, null);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    // Hands out the body no faster than BYTES_PER_MILLI
+    private static final class ThrottledInputStream extends ByteArrayInputStream {
+        private final long mStart = System.nanoTime();
+        private int mSent;
+
+        ThrottledInputStream(byte[] body) {
+            super(body);
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int length) {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mSent += read;
+                long due = mSent / BYTES_PER_MILLI
+                        - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStart);
+                if (due > 0) {
+                    try {
+                        Thread.sleep(due);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public synchronized int read() {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.EarthquakeIndex;
+import com.example.android.quakereport.EarthquakeQuery;
+import com.example.android.quakereport.EarthquakeStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering loaded earthquakes by magnitude, time and region, with the {@link EarthquakeIndex}
+ * and with a scan of every earthquake, to see what the index buys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryBenchmark {
+
+    /* Number of earthquakes loaded */
+    @Param({"100000", "1000000"})
+    public int count;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private EarthquakeStore mStore;
+    private EarthquakeIndex mIndex;
+
+    /* M6+ in the last 30 days within 500 km of Tokyo */
+    private EarthquakeQuery mNearby;
+
+    /* Everything in the last day */
+    private EarthquakeQuery mRecent;
+
+    /* M8+ at any time */
+    private EarthquakeQuery mStrong;
+
+    @Setup
+    public void setUp() {
+        mStore = EarthquakeStore.of(Fixtures.earthquakes(count));
+        mIndex = EarthquakeIndex.build(mStore);
+
+        long newest = mStore.getTimeInMilliSeconds(0);
+        mNearby = new EarthquakeQuery.Builder()
+                .minMagnitude(6)
+                .after(newest - 30 * DAY_MILLIS)
+                .within(500, 35.68, 139.69)
+                .build();
+        mRecent = new EarthquakeQuery.Builder()
+                .after(newest - DAY_MILLIS)
+                .build();
+        mStrong = new EarthquakeQuery.Builder()
+                .minMagnitude(8)
+                .build();
+    }
+
+    @Benchmark
+    public EarthquakeIndex buildIndex() {
+        return EarthquakeIndex.build(mStore);
+    }
+
+    @Benchmark
+    public int[] nearbyIndexed() {
+        return mIndex.query(mNearby);
+    }
+
+    @Benchmark
+    public int[] nearbyScan() {
+        return EarthquakeIndex.scan(mStore, mNearby);
+    }
+
+    @Benchmark
+    public int[] recentIndexed() {
+        return mIndex.query(mRecent);
+    }
+
+    @Benchmark
+    public int[] recentScan() {
+        return EarthquakeIndex.scan(mStore, mRecent);
+    }
+
+    @Benchmark
+    public int[] strongIndexed() {
+        return mIndex.query(mStrong);
+    }
+
+    @Benchmark
+    public int[] strongScan() {
+        return EarthquakeIndex.scan(mStore, mStrong);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.Earthquake;
+import com.example.android.quakereport.EarthquakeSnapshot;
+import com.example.android.quakereport.QueryUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a cached list at startup: reading it back from an {@link EarthquakeSnapshot}, against
+ * parsing the GeoJSON response it came from again, with extractFeatureFromJson() (what the app
+ * did before it had a snapshot) and with extractFeatureFromStream().
+ *
+ * The million earthquake response is about 900 MB, and extractFeatureFromJson() holds it as a
+ * String and a JSONObject tree at the same time, hence the large heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class SnapshotBenchmark {
+
+    /* Number of earthquakes in the list */
+    @Param({"10000", "100000", "1000000"})
+    public int count;
+
+    private String mJson;
+    private byte[] mJsonBytes;
+    private byte[] mSnapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        mJson = Fixtures.geoJsonOfCount(count);
+        mJsonBytes = mJson.getBytes(Charset.forName("UTF-8"));
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        EarthquakeSnapshot.write(QueryUtils.extractFeatureFromStream(
+                new ByteArrayInputStream(mJsonBytes)), snapshot);
+        mSnapshot = snapshot.toByteArray();
+    }
+
+    @Benchmark
+    public List<Earthquake> readSnapshot() throws IOException {
+        return EarthquakeSnapshot.read(new ByteArrayInputStream(mSnapshot), mSnapshot.length);
+    }
+
+    @Benchmark
+    public List<Earthquake> extractFeatureFromJson() {
+        return QueryUtils.extractFeatureFromJson(mJson);
+    }
+
+    @Benchmark
+    public List<Earthquake> extractFeatureFromStream() throws IOException {
+        return QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(mJsonBytes));
+    }
+}
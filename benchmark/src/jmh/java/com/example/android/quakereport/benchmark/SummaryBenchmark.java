@@ -0,0 +1,58 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.Earthquake;
+import com.example.android.quakereport.EarthquakeSummary;
+import com.example.android.quakereport.QueryUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summarizing a USGS response per day, place and magnitude band. summarizeStream() counts
+ * every earthquake as it is parsed, parseThenSummarize() parses the response into a list first
+ * the way a load for the list does. The gc profiler shows what the list costs in allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SummaryBenchmark {
+
+    /* Size of the response in bytes, 1 MB and 50 MB */
+    @Param({"1048576", "52428800"})
+    public int responseBytes;
+
+    private byte[] mBytes;
+
+    @Setup
+    public void setUp() {
+        mBytes = Fixtures.geoJson(responseBytes).getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Benchmark
+    public EarthquakeSummary summarizeStream() throws IOException {
+        return EarthquakeSummary.read(new ByteArrayInputStream(mBytes));
+    }
+
+    @Benchmark
+    public EarthquakeSummary parseThenSummarize() throws IOException {
+        List<Earthquake> earthquakes =
+                QueryUtils.extractFeatureFromStream(new ByteArrayInputStream(mBytes));
+        EarthquakeSummary summary = new EarthquakeSummary();
+        for (Earthquake earthquake : earthquakes) {
+            summary.add(earthquake);
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.EarthquakeTransport;
+import com.example.android.quakereport.HttpUrlConnectionTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Fetching a USGS response of 2000 features through the {@link HttpUrlConnectionTransport}
+ * from a local HTTP stand-in, with the body sent gzip compressed or as it is, and the
+ * connection kept for the next fetch or closed after every one (what the app did when it
+ * called disconnect()), over loopback or at 8 Mbit/s. The time is the wall time of a fetch,
+ * the body read to the end but not parsed. The "wireBytes" and "connections" counters over
+ * "fetches" are the body bytes that came over the wire and the connections opened per fetch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TransportBenchmark {
+
+    /* How the stand-in sends the body, "gzip" or "identity" */
+    @Param({"gzip", "identity"})
+    public String encoding;
+
+    /* Whether the connection is kept after a fetch, "pooled", or closed, "fresh" */
+    @Param({"pooled", "fresh"})
+    public String connections;
+
+    /* Bytes the stand-in sends per millisecond, 0 for as fast as loopback goes */
+    @Param({"0", "1000"})
+    public int bytesPerMilli;
+
+    private static final String PATH = "/fdsnws/event/1/query";
+
+    private static final int FEATURE_COUNT = 2000;
+
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+    private URL mUrl;
+    private EarthquakeTransport mTransport;
+    private final byte[] mBuffer = new byte[8192];
+
+    // Client ends of the connections the stand-in was asked on, a new one is a new connection
+    private final Set<InetSocketAddress> mClients =
+            Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+
+    @Setup
+    public void setUp() throws IOException {
+        final boolean gzip = "gzip".equals(encoding);
+        final boolean close = "fresh".equals(connections);
+        final byte[] body = encode(Fixtures.geoJsonOfCount(FEATURE_COUNT), gzip);
+
+        // The headers and the body are written separately, without TCP_NODELAY the body waits
+        // on the delayed ACK of the headers
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+        mServer.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    mClients.add(exchange.getRemoteAddress());
+                    if (gzip) {
+                        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    }
+                    if (close) {
+                        exchange.getResponseHeaders().set("Connection", "close");
+                    }
+                    exchange.getResponseHeaders().set("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, body.length);
+                    write(exchange.getResponseBody(), body);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.start();
+        mUrl = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + PATH
+                + "?format=geojson");
+        mTransport = new HttpUrlConnectionTransport();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public long fetch(Wire wire) throws IOException {
+        long bytesBefore = mTransport.getBytesReceived();
+        int clientsBefore = mClients.size();
+        long read = 0;
+        EarthquakeTransport.Response response = mTransport.get(mUrl, null, null);
+        try {
+            InputStream body = response.getBody();
+            int count;
+            while ((count = body.read(mBuffer)) != -1) {
+                read += count;
+            }
+        } finally {
+            response.close();
+        }
+        wire.wireBytes += mTransport.getBytesReceived() - bytesBefore;
+        wire.connections += mClients.size() - clientsBefore;
+        wire.fetches++;
+        return read;
+    }
+
+    // Write a body at bytesPerMilli, every 10 ms worth of bytes and then wait the 10 ms
+    private void write(OutputStream out, byte[] body) throws IOException {
+        if (bytesPerMilli <= 0) {
+            out.write(body);
+            return;
+        }
+        int chunk = bytesPerMilli * 10;
+        for (int offset = 0; offset < body.length; offset += chunk) {
+            out.write(body, offset, Math.min(chunk, body.length - offset));
+            out.flush();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sending");
+            }
+        }
+    }
+
+    /**
+     * Body bytes that came over the wire, connections opened and the number of fetches they
+     * were for, summed over every iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Wire {
+        public long wireBytes;
+        public long connections;
+        public long fetches;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            wireBytes = 0;
+            connections = 0;
+            fetches = 0;
+        }
+    }
+
+    private static byte[] encode(String json, boolean gzip) throws IOException {
+        byte[] bytes = json.getBytes(Charset.forName("UTF-8"));
+        if (!gzip) {
+            return bytes;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 8);
+        GZIPOutputStream out = new GZIPOutputStream(compressed);
+        out.write(bytes);
+        out.close();
+        return compressed.toByteArray();
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.android.quakereport.loadtest;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command line arguments of the form "--name=value" (or "--name" for true), read by name with
+ * a default for the ones that are not given.
+ */
+final class Arguments {
+
+    private final Map<String, String> mValues = new LinkedHashMap<>();
+
+    // Names that have been read, so a misspelt argument is reported instead of ignored
+    private final Set<String> mRead = new HashSet<>();
+
+    Arguments(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Arguments look like --name=value: " + arg);
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                mValues.put(arg.substring(2), "true");
+            } else {
+                mValues.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+    }
+
+    String getString(String name, String defaultValue) {
+        mRead.add(name);
+        String value = mValues.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " is not a whole number: " + value);
+        }
+    }
+
+    long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        try {
+            return value == null ? defaultValue : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " is not a whole number: " + value);
+        }
+    }
+
+    double getDouble(String name, double defaultValue) {
+        String value = getString(name, null);
+        try {
+            return value == null ? defaultValue : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " is not a number: " + value);
+        }
+    }
+
+    boolean getBoolean(String name) {
+        return Boolean.parseBoolean(getString(name, "false"));
+    }
+
+    /**
+     * Throw if an argument was given that nothing has read.
+     */
+    void checkAllRead() {
+        for (String name : mValues.keySet()) {
+            if (!mRead.contains(name)) {
+                throw new IllegalArgumentException("Unknown argument --" + name);
+            }
+        }
+    }
+}
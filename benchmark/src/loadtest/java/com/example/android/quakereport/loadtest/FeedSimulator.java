@@ -0,0 +1,502 @@
+package com.example.android.quakereport.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in of the USGS FDSN event web service, serving a {@link SyntheticCatalog} as
+ * GeoJSON, so {@link LoadDriver} (or the app, see QUERY_URL in app/build.gradle) can be run
+ * against it as hard as needed without touching the real server.
+ *
+ * It understands the query parameters the app sends: "format" (geojson only), "starttime",
+ * "endtime", "updatedafter", "minmagnitude", "maxmagnitude", the latitude and longitude
+ * bounds, "orderby", "offset" (which starts at 1), "limit" and "eventid" for the detail of
+ * one event. Like USGS, a query matching more than {@link #SEARCH_LIMIT} earthquakes without
+ * a "limit" is refused with a 400.
+ *
+ * Responses are gzip compressed when the request accepts it and carry a weak ETag, so
+ * conditional requests get a 304. Every response can be held back by a fixed latency plus a
+ * random jitter and sent at a limited bandwidth, and a share of the requests can be answered
+ * with a 503 or have their body cut off half way, to exercise the retries of the app.
+ *
+ * Run it on its own with "gradlew :benchmark:feedSimulator -PloadTestArgs='--port=8080'".
+ */
+public final class FeedSimulator {
+
+    /* Path of the query endpoint, the same as on USGS */
+    public static final String QUERY_PATH = "/fdsnws/event/1/query";
+
+    /* Most earthquakes a query without a "limit" may match */
+    public static final int SEARCH_LIMIT = 20000;
+
+    /* Bodies kept built, enough for every page and detail a load test asks for */
+    private static final int MAX_CACHED_BODIES = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Formats of the FDSN time parameters, the longest first */
+    private static final String[] TIME_FORMATS = {"yyyy-MM-dd'T'HH:mm:ss.SSS",
+            "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd"};
+
+    private final Options mOptions;
+    private final SyntheticCatalog mCatalog;
+    private final Random mRandom;
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    // What was served, for the report of the load test
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+    private final AtomicLong mTruncated = new AtomicLong();
+    private final AtomicLong mNotModified = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    // Bodies built last, by query and encoding, the least recently used are dropped first
+    private final Map<String, Body> mBodies = new LinkedHashMap<String, Body>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Body> eldest) {
+            return size() > MAX_CACHED_BODIES;
+        }
+    };
+
+    /**
+     * Constructs a new FeedSimulator. Making the catalog takes a moment for large ones, the
+     * server is started with {@link #start()}.
+     */
+    public FeedSimulator(Options options) {
+        mOptions = options;
+        mCatalog = new SyntheticCatalog(options.events, options.days, options.seed);
+        mRandom = new Random(options.seed);
+    }
+
+    /**
+     * Start serving. The port is the one of the options, or a free one if it is 0.
+     */
+    public void start() throws IOException {
+        // The headers and the body of a response are written separately, without TCP_NODELAY
+        // the body waits on the delayed ACK of the headers (40 ms on Linux)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", mOptions.port), 0);
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FeedSimulator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.createContext(QUERY_PATH, new QueryHandler());
+        mServer.start();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Return the URL of the query endpoint, without any query parameter but the format.
+     */
+    public String getQueryUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + QUERY_PATH
+                + "?format=geojson";
+    }
+
+    public int getCatalogSize() {
+        return mCatalog.size();
+    }
+
+    public long getRequests() {
+        return mRequests.get();
+    }
+
+    /* Requests answered with an injected 503 */
+    public long getErrors() {
+        return mErrors.get();
+    }
+
+    /* Responses whose body was cut off on purpose */
+    public long getTruncated() {
+        return mTruncated.get();
+    }
+
+    public long getNotModified() {
+        return mNotModified.get();
+    }
+
+    /* Body bytes sent, compressed if they were */
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Arguments arguments = new Arguments(args);
+        Options options = Options.from(arguments);
+        arguments.checkAllRead();
+
+        FeedSimulator simulator = new FeedSimulator(options);
+        simulator.start();
+        System.out.println("Serving " + simulator.getCatalogSize() + " earthquakes at "
+                + simulator.getQueryUrl());
+        // The server threads are daemons, keep running until killed
+        Thread.currentThread().join();
+    }
+
+    /**
+     * How the simulator behaves. Every option can be given on the command line as
+     * "--name=value", see {@link #from(Arguments)}.
+     */
+    public static final class Options {
+        /* Port to listen on, 0 for any free one */
+        public int port = 8080;
+
+        /* Earthquakes in the catalog, and the number of days they are spread over */
+        public int events = 20000;
+        public int days = 334;
+
+        /* Seed of the catalog and of the injected failures */
+        public long seed = 42;
+
+        /* Time before every response, plus a random jitter of up to jitterMillis */
+        public int latencyMillis;
+        public int jitterMillis;
+
+        /* Bytes sent per millisecond, 0 for as fast as possible */
+        public int bytesPerMilli;
+
+        /* Share of the requests answered with a 503, and of the bodies cut off half way */
+        public double errorRate;
+        public double truncateRate;
+
+        static Options from(Arguments arguments) {
+            Options options = new Options();
+            options.port = arguments.getInt("port", options.port);
+            options.events = arguments.getInt("events", options.events);
+            options.days = arguments.getInt("days", options.days);
+            options.seed = arguments.getLong("seed", options.seed);
+            options.latencyMillis = arguments.getInt("latency", options.latencyMillis);
+            options.jitterMillis = arguments.getInt("jitter", options.jitterMillis);
+            options.bytesPerMilli = arguments.getInt("bytes-per-milli", options.bytesPerMilli);
+            options.errorRate = arguments.getDouble("error-rate", options.errorRate);
+            options.truncateRate = arguments.getDouble("truncate-rate", options.truncateRate);
+            return options;
+        }
+    }
+
+    // Answers the requests to the query endpoint
+    private final class QueryHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            mRequests.incrementAndGet();
+            try {
+                if (!QUERY_PATH.equals(exchange.getRequestURI().getPath())) {
+                    sendText(exchange, 404, "Not Found");
+                    return;
+                }
+                waitLatency();
+                if (mRandom.nextDouble() < mOptions.errorRate) {
+                    mErrors.incrementAndGet();
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    sendText(exchange, 503, "Service Unavailable");
+                    return;
+                }
+
+                // Bodies are built once per query and encoding, so the simulator costs little
+                // next to the client it is loaded by
+                boolean gzip = acceptsGzip(exchange);
+                String key = exchange.getRequestURI().getRawQuery() + (gzip ? " gzip" : "");
+                Body body = getCachedBody(key);
+                if (body == null) {
+                    Map<String, String> parameters = parseParameters(exchange.getRequestURI());
+                    if (!"geojson".equals(parameters.get("format"))) {
+                        sendText(exchange, 400, "Bad Request: only format=geojson is simulated");
+                        return;
+                    }
+                    String json;
+                    try {
+                        json = parameters.containsKey("eventid")
+                                ? buildDetail(parameters.get("eventid"))
+                                : buildFeatureCollection(exchange.getRequestURI(), parameters);
+                    } catch (IllegalArgumentException e) {
+                        sendText(exchange, 400, "Bad Request: " + e.getMessage());
+                        return;
+                    }
+                    if (json == null) {
+                        sendText(exchange, 404, "Not Found");
+                        return;
+                    }
+                    body = new Body(json, gzip);
+                    putCachedBody(key, body);
+                }
+                sendJson(exchange, body);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void waitLatency() {
+            int latency = mOptions.latencyMillis + (mOptions.jitterMillis > 0
+                    ? mRandom.nextInt(mOptions.jitterMillis + 1) : 0);
+            if (latency > 0) {
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        // Return the detail feature of an event, or null if there is no such event
+        private String buildDetail(String eventId) {
+            SyntheticCatalog.Event event = mCatalog.get(eventId);
+            if (event == null) {
+                return null;
+            }
+            StringBuilder json = new StringBuilder(4096);
+            event.appendFeature(json, getBaseUrl(), true);
+            return json.toString();
+        }
+
+        private String buildFeatureCollection(URI requestUri, Map<String, String> parameters) {
+            SyntheticCatalog.Query query = new SyntheticCatalog.Query();
+            query.startTime = parseTime(parameters, "starttime", query.startTime);
+            query.endTime = parseTime(parameters, "endtime", query.endTime);
+            query.updatedAfter = parseTime(parameters, "updatedafter", query.updatedAfter);
+            query.minMagnitude = parseDouble(parameters, "minmagnitude", query.minMagnitude);
+            query.maxMagnitude = parseDouble(parameters, "maxmagnitude", query.maxMagnitude);
+            query.minLatitude = parseDouble(parameters, "minlatitude", query.minLatitude);
+            query.maxLatitude = parseDouble(parameters, "maxlatitude", query.maxLatitude);
+            query.minLongitude = parseDouble(parameters, "minlongitude", query.minLongitude);
+            query.maxLongitude = parseDouble(parameters, "maxlongitude", query.maxLongitude);
+            if (parameters.containsKey("orderby")) {
+                query.orderBy = parameters.get("orderby");
+            }
+            int offset = (int) parseDouble(parameters, "offset", 1);
+            int limit = (int) parseDouble(parameters, "limit", -1);
+            if (offset < 1 || (parameters.containsKey("limit")
+                    && (limit < 1 || limit > SEARCH_LIMIT))) {
+                throw new IllegalArgumentException("offset starts at 1 and limit is 1 to "
+                        + SEARCH_LIMIT);
+            }
+
+            List<SyntheticCatalog.Event> selected = mCatalog.select(query);
+            if (limit < 0 && selected.size() > SEARCH_LIMIT) {
+                throw new IllegalArgumentException(selected.size() + " matching events exceeds"
+                        + " search limit of " + SEARCH_LIMIT + ". Modify the search to match"
+                        + " fewer events.");
+            }
+            int from = Math.min(offset - 1, selected.size());
+            int to = limit < 0 ? selected.size() : Math.min(from + limit, selected.size());
+
+            String baseUrl = getBaseUrl();
+            StringBuilder json = new StringBuilder(1024 + (to - from) * 1100);
+            json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":")
+                    .append(SyntheticCatalog.END_TIME)
+                    .append(",\"url\":\"").append(requestUri.toString().replace("\"", "%22"))
+                    .append("\",\"title\":\"Simulated USGS Earthquakes\",\"status\":200,")
+                    .append("\"api\":\"1.5.8\",\"count\":").append(to - from)
+                    .append("},\"features\":[");
+            for (int i = from; i < to; i++) {
+                if (i > from) {
+                    json.append(',');
+                }
+                selected.get(i).appendFeature(json, baseUrl, false);
+            }
+            json.append("]}");
+            return json.toString();
+        }
+
+        private String getBaseUrl() {
+            return "http://127.0.0.1:" + mServer.getAddress().getPort() + QUERY_PATH;
+        }
+
+        // Send a JSON body, or a 304 if the client has it already. A share of the bodies is
+        // cut off half way when asked to
+        private void sendJson(HttpExchange exchange, Body response) throws IOException {
+            byte[] body = response.bytes;
+            exchange.getResponseHeaders().set("ETag", response.etag);
+            if (response.etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                mNotModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            if (response.gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+
+            int length = body.length;
+            if (mRandom.nextDouble() < mOptions.truncateRate) {
+                mTruncated.incrementAndGet();
+                length = body.length / 2;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            try {
+                write(out, body, length);
+            } catch (IOException e) {
+                // The client went away
+                return;
+            }
+            if (length < body.length) {
+                // Closing a body shorter than its Content-Length leaves the connection open
+                // and the client waiting for the rest. A handler that throws has its
+                // connection dropped, the client sees the body end early
+                out.flush();
+                throw new IOException("Body cut off on purpose");
+            }
+        }
+
+        // Write the first bytes of a body, at the bandwidth of the options
+        private void write(OutputStream out, byte[] body, int length) throws IOException {
+            if (mOptions.bytesPerMilli <= 0) {
+                out.write(body, 0, length);
+                mBytesSent.addAndGet(length);
+                return;
+            }
+            // Every 10 ms worth of bytes, then wait the 10 ms
+            int chunk = mOptions.bytesPerMilli * 10;
+            for (int offset = 0; offset < length; offset += chunk) {
+                int count = Math.min(chunk, length - offset);
+                out.write(body, offset, count);
+                out.flush();
+                mBytesSent.addAndGet(count);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while sending");
+                }
+            }
+        }
+
+        private void sendText(HttpExchange exchange, int code, String text) throws IOException {
+            byte[] body = text.getBytes(UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(code, body.length);
+            exchange.getResponseBody().write(body);
+            mBytesSent.addAndGet(body.length);
+        }
+    }
+
+    private Body getCachedBody(String key) {
+        synchronized (mBodies) {
+            return mBodies.get(key);
+        }
+    }
+
+    private void putCachedBody(String key, Body body) {
+        synchronized (mBodies) {
+            mBodies.put(key, body);
+        }
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange) {
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    // A response body as it is sent, compressed or not, with its ETag
+    private static final class Body {
+        final byte[] bytes;
+        final String etag;
+        final boolean gzip;
+
+        Body(String json, boolean gzip) throws IOException {
+            byte[] bytes = json.getBytes(UTF_8);
+            // Weak, as the compressed and the plain body are the same JSON
+            etag = "W/\"" + Integer.toHexString(json.hashCode()) + "-"
+                    + Integer.toHexString(bytes.length) + "\"";
+            if (gzip) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 8);
+                GZIPOutputStream out = new GZIPOutputStream(compressed);
+                out.write(bytes);
+                out.close();
+                bytes = compressed.toByteArray();
+            }
+            this.bytes = bytes;
+            this.gzip = gzip;
+        }
+    }
+
+    private static Map<String, String> parseParameters(URI uri)
+            throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        String query = uri.getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            String value = equals < 0 ? "" : parameter.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, "UTF-8").toLowerCase(Locale.US),
+                    URLDecoder.decode(value, "UTF-8"));
+        }
+        return parameters;
+    }
+
+    private static long parseTime(Map<String, String> parameters, String name, long defaultTime) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultTime;
+        }
+        for (String format : TIME_FORMATS) {
+            if (value.length() != format.replace("'", "").length()) {
+                continue;
+            }
+            SimpleDateFormat timeFormat = new SimpleDateFormat(format, Locale.US);
+            timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            timeFormat.setLenient(false);
+            try {
+                return timeFormat.parse(value).getTime();
+            } catch (ParseException e) {
+                break;
+            }
+        }
+        throw new IllegalArgumentException("Bad " + name + " value \"" + value + "\"");
+    }
+
+    private static double parseDouble(Map<String, String> parameters, String name,
+                                      double defaultValue) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad " + name + " value \"" + value + "\"");
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.example.android.quakereport.loadtest;
+
+import com.example.android.quakereport.Earthquake;
+import com.example.android.quakereport.EarthquakeDetail;
+import com.example.android.quakereport.EarthquakeMetrics;
+import com.example.android.quakereport.HttpUrlConnectionTransport;
+import com.example.android.quakereport.QueryUtils;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the fetch and parse path of the app ({@link QueryUtils}, through the same transport
+ * the app uses) from several threads at once against a {@link FeedSimulator}, and reports
+ * the throughput, the latency percentiles and the allocation of the requests.
+ *
+ * Every request loads a random page of the query among the first few, the way the list pages
+ * through it; a share of them opens one of the earthquakes of the last page instead, the way
+ * a tap on a row does. The same seed gives the same sequence of requests on every thread, so
+ * runs can be compared.
+ *
+ * By default a simulator is started in the same JVM with the options given (see
+ * {@link FeedSimulator.Options}), i.e.
+ * "gradlew :benchmark:loadTest -PloadTestArgs='--threads=8 --latency=50 --error-rate=0.02'".
+ * Give "--url=" to load another server instead.
+ */
+public final class LoadDriver {
+
+    /* The query of the app, without its magnitude filter so the pages are full */
+    private static final String DEFAULT_QUERY =
+            "&starttime=2014-01-01&endtime=2014-12-01&orderby=time";
+
+    private final Options mOptions;
+    private final String mQueryUrl;
+
+    // Requests left to make, shared by the threads
+    private final AtomicInteger mRemaining = new AtomicInteger();
+
+    /**
+     * Constructs a new LoadDriver
+     *
+     * @param queryUrl of the query to page through
+     */
+    public LoadDriver(Options options, String queryUrl) {
+        mOptions = options;
+        mQueryUrl = queryUrl;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Arguments arguments = new Arguments(args);
+        Options options = Options.from(arguments);
+        String url = arguments.getString("url", null);
+        FeedSimulator simulator = null;
+        if (url == null) {
+            FeedSimulator.Options simulatorOptions = FeedSimulator.Options.from(arguments);
+            // A free port, so it never clashes with a simulator that is already running
+            simulatorOptions.port = arguments.getInt("port", 0);
+            simulator = new FeedSimulator(simulatorOptions);
+            simulator.start();
+            url = simulator.getQueryUrl() + DEFAULT_QUERY;
+        }
+        arguments.checkAllRead();
+
+        if (options.plainTransport) {
+            QueryUtils.setTransport(new HttpUrlConnectionTransport());
+        }
+        LoadDriver driver = new LoadDriver(options, url);
+        System.out.println(String.format(Locale.US, "%d threads, %d requests after %d to warm"
+                        + " up, pages of %d, %.0f%% details, %s transport, against %s",
+                options.threads, options.requests, options.warmup, options.pageSize,
+                options.detailShare * 100, options.plainTransport ? "plain" : "hedging", url));
+
+        // Warm up the JIT and the connection pool, then measure
+        driver.run(options.warmup);
+        long simulatorRequests = simulator == null ? 0 : simulator.getRequests();
+        long simulatorErrors = simulator == null ? 0 : simulator.getErrors();
+        long simulatorTruncated = simulator == null ? 0 : simulator.getTruncated();
+        long simulatorBytes = simulator == null ? 0 : simulator.getBytesSent();
+        Result result = driver.run(options.requests);
+        System.out.println(result);
+
+        if (simulator != null) {
+            System.out.println(String.format(Locale.US, "Server: %d requests, %d answered with"
+                            + " 503, %d bodies cut off, %.1f MB sent",
+                    simulator.getRequests() - simulatorRequests,
+                    simulator.getErrors() - simulatorErrors,
+                    simulator.getTruncated() - simulatorTruncated,
+                    (simulator.getBytesSent() - simulatorBytes) / 1e6));
+            simulator.stop();
+        }
+        System.out.println();
+        System.out.print(EarthquakeMetrics.dump());
+    }
+
+    /**
+     * Make the given number of requests from the threads of the options, and return how it
+     * went. The metrics of {@link EarthquakeMetrics} are reset first.
+     */
+    public Result run(int requests) throws Exception {
+        EarthquakeMetrics.setEnabled(true);
+        EarthquakeMetrics.reset();
+        mRemaining.set(requests);
+
+        ExecutorService executor = Executors.newFixedThreadPool(mOptions.threads);
+        try {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long allocatedBefore = getClientAllocatedBytes(threads);
+            long gcCountBefore = getGcCount();
+            long gcMillisBefore = getGcMillis();
+            long start = System.nanoTime();
+
+            Future<?>[] futures = new Future<?>[mOptions.threads];
+            final Worker[] workers = new Worker[mOptions.threads];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Worker(mOptions.seed + i, requests);
+                futures[i] = executor.submit(workers[i]);
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            Result result = new Result();
+            result.elapsedNanos = System.nanoTime() - start;
+            result.allocatedBytes = getClientAllocatedBytes(threads) - allocatedBefore;
+            result.gcCount = getGcCount() - gcCountBefore;
+            result.gcMillis = getGcMillis() - gcMillisBefore;
+            result.latencies = new long[requests];
+            for (Worker worker : workers) {
+                System.arraycopy(worker.mLatencies, 0, result.latencies, result.requests,
+                        worker.mCount);
+                result.requests += worker.mCount;
+                result.failures += worker.mFailures;
+                result.earthquakes += worker.mEarthquakes;
+            }
+            result.latencies = Arrays.copyOf(result.latencies, result.requests);
+            Arrays.sort(result.latencies);
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Return the bytes allocated so far by the threads of the client: every live thread but
+    // the ones of an in-process simulator. Threads that have ended are not counted, the ones
+    // of the app are pooled and outlive a run
+    private static long getClientAllocatedBytes(ThreadMXBean threads) {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long total = 0;
+        for (ThreadInfo thread : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (thread == null || thread.getThreadName().startsWith("FeedSimulator")
+                    || thread.getThreadName().startsWith("HTTP-Dispatcher")) {
+                continue;
+            }
+            total += Math.max(0, allocations.getThreadAllocatedBytes(thread.getThreadId()));
+        }
+        return total;
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    // Makes requests until there are none left, timing every one
+    private final class Worker implements Callable<Void> {
+        private final Random mRandom;
+        final long[] mLatencies;
+        int mCount;
+        int mFailures;
+        long mEarthquakes;
+
+        // Earthquakes of the last page loaded, one of them is opened now and then
+        private List<Earthquake> mLastPage;
+
+        Worker(long seed, int maxRequests) {
+            mRandom = new Random(seed);
+            mLatencies = new long[maxRequests];
+        }
+
+        @Override
+        public Void call() {
+            while (mRemaining.getAndDecrement() > 0 && !Thread.currentThread().isInterrupted()) {
+                boolean detail = mLastPage != null && !mLastPage.isEmpty()
+                        && mRandom.nextDouble() < mOptions.detailShare;
+                long start = System.nanoTime();
+                boolean succeeded;
+                if (detail) {
+                    String eventId = mLastPage.get(mRandom.nextInt(mLastPage.size())).getId();
+                    EarthquakeDetail earthquakeDetail = QueryUtils.fetchEarthquakeDetail(
+                            QueryUtils.buildDetailUrl(mQueryUrl, eventId));
+                    succeeded = earthquakeDetail != null;
+                } else {
+                    int page = mRandom.nextInt(mOptions.pages);
+                    List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeDataFromNetwork(
+                            QueryUtils.buildPageUrl(mQueryUrl, page * mOptions.pageSize + 1,
+                                    mOptions.pageSize));
+                    succeeded = earthquakes != null;
+                    if (succeeded) {
+                        mLastPage = earthquakes;
+                        mEarthquakes += earthquakes.size();
+                    }
+                }
+                mLatencies[mCount++] = System.nanoTime() - start;
+                if (!succeeded) {
+                    mFailures++;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * How the load test is run. Every option can be given on the command line as
+     * "--name=value", see {@link #from(Arguments)}.
+     */
+    public static final class Options {
+        /* Threads making requests at the same time */
+        public int threads = 4;
+
+        /* Requests measured, and the requests made before them to warm up */
+        public int requests = 2000;
+        public int warmup = 500;
+
+        /* Earthquakes per page, and the number of pages from the top the requests pick from */
+        public int pageSize = 20;
+        public int pages = 10;
+
+        /* Share of the requests that open an earthquake instead of loading a page */
+        public double detailShare = 0.1;
+
+        /* Seed of the requests of the first thread, the next ones count up from it */
+        public long seed = 1;
+
+        /* Skip the hedging of the app and make every request once */
+        public boolean plainTransport;
+
+        static Options from(Arguments arguments) {
+            Options options = new Options();
+            options.threads = arguments.getInt("threads", options.threads);
+            options.requests = arguments.getInt("requests", options.requests);
+            options.warmup = arguments.getInt("warmup", options.warmup);
+            options.pageSize = arguments.getInt("page-size", options.pageSize);
+            options.pages = arguments.getInt("pages", options.pages);
+            options.detailShare = arguments.getDouble("detail-share", options.detailShare);
+            options.seed = arguments.getLong("driver-seed", options.seed);
+            options.plainTransport = arguments.getBoolean("plain-transport");
+            return options;
+        }
+    }
+
+    /**
+     * What a run measured.
+     */
+    public static final class Result {
+        long elapsedNanos;
+        int requests;
+        int failures;
+        long earthquakes;
+
+        // Of every request, sorted
+        long[] latencies;
+
+        // Bytes allocated by the client threads, -1 if the JVM cannot tell
+        long allocatedBytes;
+        long gcCount;
+        long gcMillis;
+
+        /**
+         * Return the latency the given fraction (i.e. 0.99) of the requests were at or under.
+         */
+        public long getPercentileNanos(double fraction) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(latencies.length * fraction) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+        }
+
+        public double getRequestsPerSecond() {
+            return requests * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format(Locale.US, "Throughput: %.1f requests/s, %.0f"
+                            + " earthquakes/s, %d of %d requests failed%n",
+                    getRequestsPerSecond(), earthquakes * 1e9 / elapsedNanos, failures,
+                    requests));
+            text.append(String.format(Locale.US, "Latency: p50=%.2fms p90=%.2fms p99=%.2fms"
+                            + " p99.9=%.2fms max=%.2fms%n",
+                    getPercentileNanos(0.5) / 1e6, getPercentileNanos(0.9) / 1e6,
+                    getPercentileNanos(0.99) / 1e6, getPercentileNanos(0.999) / 1e6,
+                    getPercentileNanos(1) / 1e6));
+            if (allocatedBytes >= 0) {
+                text.append(String.format(Locale.US, "Allocation: %.1f KB per request, %.1f MB"
+                                + " in all, %d GCs taking %dms",
+                        allocatedBytes / 1024.0 / Math.max(1, requests),
+                        allocatedBytes / 1e6, gcCount, gcMillis));
+            } else {
+                text.append(String.format(Locale.US, "Allocation: not measured by this JVM,"
+                        + " %d GCs taking %dms", gcCount, gcMillis));
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.android.quakereport.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A made up earthquake catalog for the {@link FeedSimulator}, with the fields and field order
+ * of the USGS GeoJSON feed. The same seed and size always give the same catalog, so load tests
+ * can be compared from one run to the next.
+ *
+ * The earthquakes are spread over a time span ending on 1 December 2014 (the end of the query
+ * the app loads by default), and their magnitudes follow the Gutenberg-Richter law: every
+ * magnitude step up has about ten times fewer earthquakes than the one below it.
+ */
+final class SyntheticCatalog {
+
+    /* End of the catalog, 1 December 2014 */
+    static final long END_TIME = 1417392000000L;
+
+    /* Smallest magnitude in the catalog */
+    private static final double MIN_MAGNITUDE = 4.0;
+
+    /* Largest magnitude in the catalog */
+    private static final double MAX_MAGNITUDE = 9.5;
+
+    /* Places earthquakes are near. Real responses repeat a few hundred regions */
+    private static final String[] PLACES = {
+            "Montreal, Canada", "Fiji region", "Tonga", "Honshu, Japan", "Anchorage, Alaska",
+            "Papua New Guinea", "northern Chile", "Kermadec Islands, New Zealand",
+            "Santiago de Chile, Chile", "Ridgecrest, CA", "Mid-Atlantic Ridge", "Crete, Greece",
+            "Sumatra, Indonesia", "Mindanao, Philippines", "Hindu Kush, Afghanistan"};
+
+    private static final String[] DIRECTIONS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+
+    private static final String[] ALERTS = {"green", "yellow", "orange", "red"};
+
+    /* Orders of the FDSN "orderby" parameter */
+    private static final Comparator<Event> NEWEST_FIRST = new Comparator<Event>() {
+        @Override
+        public int compare(Event first, Event second) {
+            return Long.compare(second.time, first.time);
+        }
+    };
+
+    private static final Comparator<Event> LARGEST_FIRST = new Comparator<Event>() {
+        @Override
+        public int compare(Event first, Event second) {
+            return Double.compare(second.magnitude, first.magnitude);
+        }
+    };
+
+    private static final Comparator<Event> SMALLEST_FIRST = Collections.reverseOrder(LARGEST_FIRST);
+
+    private static final Comparator<Event> OLDEST_FIRST = Collections.reverseOrder(NEWEST_FIRST);
+
+    // Every earthquake, newest first
+    private final Event[] mEvents;
+
+    private final Map<String, Event> mEventsById;
+
+    /**
+     * Make a catalog of the given number of earthquakes, spread over the given number of days
+     * before {@link #END_TIME}.
+     */
+    SyntheticCatalog(int size, int days, long seed) {
+        Random random = new Random(seed);
+        long spanMillis = days * 24L * 60 * 60 * 1000;
+        mEvents = new Event[size];
+        mEventsById = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            Event event = new Event();
+            event.id = "sim" + (10000000 + i);
+            event.time = END_TIME - (long) (random.nextDouble() * spanMillis);
+            // Most earthquakes are revised within a day or two, some much later
+            event.updated = event.time + (long) (random.nextDouble() * random.nextDouble()
+                    * 30 * 24 * 60 * 60 * 1000);
+            event.magnitude = magnitude(random);
+            event.place = place(random);
+            event.longitude = random.nextDouble() * 360 - 180;
+            event.latitude = random.nextDouble() * 130 - 60;
+            event.depth = random.nextDouble() * random.nextDouble() * 650;
+            event.felt = event.magnitude < 5 && random.nextBoolean() ? -1
+                    : (int) Math.pow(10, event.magnitude - 4 + random.nextDouble());
+            event.cdi = event.felt < 0 ? Double.NaN : Math.min(10, event.magnitude - 1
+                    + random.nextDouble());
+            event.mmi = Math.min(10, event.magnitude - 1.5 + random.nextDouble());
+            event.alert = event.magnitude < 5.5 ? null
+                    : ALERTS[Math.min(ALERTS.length - 1, (int) ((event.magnitude - 5.5) * 1.2))];
+            event.tsunami = event.magnitude >= 6.5 && random.nextInt(3) == 0;
+            event.significance = (int) Math.min(3000, Math.pow(event.magnitude, 3.2));
+            event.reviewed = random.nextInt(10) != 0;
+            mEvents[i] = event;
+            mEventsById.put(event.id, event);
+        }
+        Arrays.sort(mEvents, NEWEST_FIRST);
+    }
+
+    int size() {
+        return mEvents.length;
+    }
+
+    /**
+     * Return the earthquake with the given id, or null.
+     */
+    Event get(String id) {
+        return mEventsById.get(id);
+    }
+
+    /**
+     * Return the earthquakes of a query, in its order, before "offset" and "limit" are applied.
+     */
+    List<Event> select(Query query) {
+        List<Event> selected = new ArrayList<>();
+        for (Event event : mEvents) {
+            if (query.matches(event)) {
+                selected.add(event);
+            }
+        }
+        if ("time-asc".equals(query.orderBy)) {
+            Collections.sort(selected, OLDEST_FIRST);
+        } else if ("magnitude".equals(query.orderBy)) {
+            Collections.sort(selected, LARGEST_FIRST);
+        } else if ("magnitude-asc".equals(query.orderBy)) {
+            Collections.sort(selected, SMALLEST_FIRST);
+        }
+        return selected;
+    }
+
+    // Pick a magnitude from the Gutenberg-Richter distribution with a b-value of 1
+    private static double magnitude(Random random) {
+        double magnitude = MIN_MAGNITUDE - Math.log10(1 - random.nextDouble());
+        return Math.round(Math.min(magnitude, MAX_MAGNITUDE) * 10) / 10.0;
+    }
+
+    private static String place(Random random) {
+        // Some places come without an offset, i.e. "Fiji region"
+        String place = PLACES[random.nextInt(PLACES.length)];
+        if (random.nextInt(5) == 0) {
+            return place;
+        }
+        return (1 + random.nextInt(300)) + " km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)]
+                + " of " + place;
+    }
+
+    /**
+     * One earthquake of the catalog.
+     */
+    static final class Event {
+        String id;
+        long time;
+        long updated;
+        double magnitude;
+        String place;
+        double longitude;
+        double latitude;
+        double depth;
+
+        // -1 and NaN when not known, USGS sends null for them
+        int felt;
+        double cdi;
+        double mmi;
+
+        // Null below the PAGER threshold
+        String alert;
+        boolean tsunami;
+        int significance;
+        boolean reviewed;
+
+        /**
+         * Append the feature of this earthquake the way the USGS feed has it. The detail
+         * feature of an event also has its "products", which the list query does not.
+         *
+         * @param baseUrl of the simulator query endpoint, the "detail" URL points at it
+         */
+        void appendFeature(StringBuilder json, String baseUrl, boolean detail) {
+            json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":")
+                    .append(String.format(Locale.US, "%.1f", magnitude))
+                    .append(",\"place\":\"").append(place)
+                    .append("\",\"time\":").append(time)
+                    .append(",\"updated\":").append(updated)
+                    .append(",\"tz\":null,\"url\":\"")
+                    .append("https://earthquake.usgs.gov/earthquakes/eventpage/").append(id)
+                    .append("\",\"detail\":\"").append(baseUrl).append("?eventid=").append(id)
+                    .append("&format=geojson\",\"felt\":").append(felt < 0 ? "null"
+                    : String.valueOf(felt))
+                    .append(",\"cdi\":").append(formatIntensity(cdi))
+                    .append(",\"mmi\":").append(formatIntensity(mmi))
+                    .append(",\"alert\":").append(alert == null ? "null" : "\"" + alert + "\"")
+                    .append(",\"status\":\"").append(reviewed ? "reviewed" : "automatic")
+                    .append("\",\"tsunami\":").append(tsunami ? 1 : 0)
+                    .append(",\"sig\":").append(significance)
+                    .append(",\"net\":\"sim\",\"code\":\"").append(id.substring(3))
+                    .append("\",\"ids\":\",").append(id).append(",\",")
+                    .append("\"sources\":\",sim,\",\"types\":\",geoserve,origin,phase-data,\",")
+                    .append("\"nst\":null,\"dmin\":3.1,\"rms\":0.9,\"gap\":22,")
+                    .append("\"magType\":\"").append(magnitude >= 5.5 ? "mww" : "mb")
+                    .append("\",\"type\":\"earthquake\",\"title\":\"M ")
+                    .append(String.format(Locale.US, "%.1f", magnitude)).append(" - ")
+                    .append(place).append('"');
+            if (detail) {
+                appendProducts(json);
+            }
+            json.append("},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .append(String.format(Locale.US, "%.4f,%.4f,%.2f", longitude, latitude,
+                            depth))
+                    .append("]},\"id\":\"").append(id).append("\"}");
+        }
+
+        // The products of a detail feature are by far the largest part of it, a few of them
+        // stand in for the dozens USGS lists
+        private void appendProducts(StringBuilder json) {
+            json.append(",\"products\":{");
+            String[] types = {"origin", "phase-data", "shakemap", "dyfi", "moment-tensor"};
+            for (int i = 0; i < types.length; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append('"').append(types[i]).append("\":[{\"id\":\"urn:usgs-product:sim:")
+                        .append(types[i]).append(':').append(id).append("\",\"type\":\"")
+                        .append(types[i]).append("\",\"code\":\"").append(id)
+                        .append("\",\"source\":\"sim\",\"updateTime\":").append(updated)
+                        .append(",\"status\":\"UPDATE\",\"properties\":{\"eventtime\":")
+                        .append(time).append("},\"contents\":{\"contents.xml\":{\"length\":")
+                        .append(2048 + i).append(",\"url\":\"https://example.invalid/")
+                        .append(id).append('/').append(types[i]).append(".xml\"}}}]");
+            }
+            json.append('}');
+        }
+
+        private static String formatIntensity(double intensity) {
+            return Double.isNaN(intensity) ? "null" : String.format(Locale.US, "%.1f", intensity);
+        }
+    }
+
+    /**
+     * The FDSN event query parameters the simulator understands. Parameters that are not
+     * given do not restrict the query.
+     */
+    static final class Query {
+        long startTime = Long.MIN_VALUE;
+        long endTime = Long.MAX_VALUE;
+        long updatedAfter = Long.MIN_VALUE;
+        double minMagnitude = Double.NEGATIVE_INFINITY;
+        double maxMagnitude = Double.POSITIVE_INFINITY;
+        double minLatitude = -90;
+        double maxLatitude = 90;
+        double minLongitude = -180;
+        double maxLongitude = 180;
+        String orderBy = "time";
+
+        boolean matches(Event event) {
+            return event.time >= startTime && event.time <= endTime
+                    && event.updated > updatedAfter
+                    && event.magnitude >= minMagnitude && event.magnitude <= maxMagnitude
+                    && event.latitude >= minLatitude && event.latitude <= maxLatitude
+                    && event.longitude >= minLongitude && event.longitude <= maxLongitude;
+        }
+    }
+}
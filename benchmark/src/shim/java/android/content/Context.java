@@ -0,0 +1,17 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * JVM shim of the parts of the Android Context class the app uses. The cache directory is a
+ * temporary directory.
+ */
+public class Context {
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getCacheDir() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+}
@@ -0,0 +1,13 @@
+package android.os;
+
+/**
+ * JVM shim of the parts of the Android SystemClock class the app uses.
+ */
+public final class SystemClock {
+    private SystemClock() {
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,13 @@
+package android.text;
+
+/**
+ * JVM shim of the parts of the Android TextUtils class the app uses.
+ */
+public final class TextUtils {
+    private TextUtils() {
+    }
+
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+}
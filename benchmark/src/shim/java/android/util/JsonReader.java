@@ -0,0 +1,149 @@
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * JVM shim of the Android JsonReader. The Android class was forked from the Gson one and has
+ * the same API and behaviour, so every call is handed to Gson. The syntax errors Gson reports
+ * are thrown as the Android {@link MalformedJsonException}, as on a phone.
+ */
+public final class JsonReader implements Closeable {
+    private final com.google.gson.stream.JsonReader mReader;
+
+    public JsonReader(Reader in) {
+        mReader = new com.google.gson.stream.JsonReader(in);
+    }
+
+    public void setLenient(boolean lenient) {
+        mReader.setLenient(lenient);
+    }
+
+    public void beginArray() throws IOException {
+        try {
+            mReader.beginArray();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public void endArray() throws IOException {
+        try {
+            mReader.endArray();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public void beginObject() throws IOException {
+        try {
+            mReader.beginObject();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public void endObject() throws IOException {
+        try {
+            mReader.endObject();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public boolean hasNext() throws IOException {
+        try {
+            return mReader.hasNext();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public JsonToken peek() throws IOException {
+        try {
+            return JsonToken.valueOf(mReader.peek().name());
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public String nextName() throws IOException {
+        try {
+            return mReader.nextName();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public String nextString() throws IOException {
+        try {
+            return mReader.nextString();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public boolean nextBoolean() throws IOException {
+        try {
+            return mReader.nextBoolean();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public void nextNull() throws IOException {
+        try {
+            mReader.nextNull();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public double nextDouble() throws IOException {
+        try {
+            return mReader.nextDouble();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public long nextLong() throws IOException {
+        try {
+            return mReader.nextLong();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public int nextInt() throws IOException {
+        try {
+            return mReader.nextInt();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public void skipValue() throws IOException {
+        try {
+            mReader.skipValue();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            mReader.close();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    private static MalformedJsonException malformed(IOException cause) {
+        MalformedJsonException exception = new MalformedJsonException(cause.getMessage());
+        exception.initCause(cause);
+        return exception;
+    }
+}
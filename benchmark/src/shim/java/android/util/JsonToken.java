@@ -0,0 +1,17 @@
+package android.util;
+
+/**
+ * JVM shim of the Android JsonToken, with the same constants as the Gson one.
+ */
+public enum JsonToken {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+}
@@ -0,0 +1,13 @@
+package android.util;
+
+import java.io.IOException;
+
+/**
+ * JVM shim of the Android MalformedJsonException, thrown by the {@link JsonReader} shim where
+ * the Gson reader throws its own.
+ */
+public final class MalformedJsonException extends IOException {
+    public MalformedJsonException(String message) {
+        super(message);
+    }
+}